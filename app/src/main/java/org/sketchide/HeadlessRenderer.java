@@ -0,0 +1,304 @@
+package org.sketchide;
+
+import org.sketchide.audio.Audio;
+import org.sketchide.audio.AudioTimeline;
+import org.sketchide.engine.Sketch;
+import org.sketchide.engine.SketchCompilationException;
+import org.sketchide.engine.SketchRunner;
+import org.sketchide.engine.TimedSketch;
+import org.sketchide.engine.TransformationEngine;
+import org.sketchide.export.ExportEngine;
+import org.sketchide.export.ExportFormat;
+import org.sketchide.export.Ffmpeg;
+import org.sketchide.export.FrameEncoder;
+import org.sketchide.export.ParallelFrameRenderer;
+import org.sketchide.export.PngEncoder;
+import org.sketchide.export.SketchFrameSource;
+import org.sketchide.export.TelemetryLog;
+import org.sketchide.export.VideoFrameRenderer;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.IntConsumer;
+
+// Batch rendering without a display: compiles a sketch file with the same wrapping as the IDE
+// and renders its frames off-screen as fast as the machine allows.
+//
+//   java -jar sketchide.jar --render --sketch wave.java --size 1920x1080 --frames 600 --out frames/
+//   java -jar sketchide.jar --render --sketch wave.java --frames 300 --format mp4 --out wave.mp4
+//   java -jar sketchide.jar --render --sketch wave.java --frames 120 --format gif --out wave.gif
+//   java -jar sketchide.jar --render --sketch bars.java --audio song.wav --format mp4 --out bars.mp4
+public class HeadlessRenderer {
+
+    static final String USAGE = """
+            Usage: sketchide --render --sketch <file> [options]
+              --sketch <file>        sketch body, as typed into the editor
+              --size <WxH>           output resolution (default 800x600)
+              --frames <n>           number of frames to render (default 1, or the length of --audio)
+              --fps <n>              frame rate for mp4 output (default: from init())
+              --background <#rrggbb> colour behind transparent pixels (default #000000)
+              --format <f>           png (sequence), mp4 (via ffmpeg), gif or avi (built in) (default png)
+              --png-level <0-9>      PNG compression level (default 4)
+              --png-filter <f>       none, sub, up, paeth or adaptive (default adaptive)
+              --out <path>           output directory for png, file otherwise (default ./frames)
+              --telemetry <file>     gif/avi: write export telemetry as JSON lines, one per second
+              --rotate <degrees>     gif/avi: rotate frames clockwise about their centre
+              --scale <factor>       gif/avi: scale frames about their centre
+              --mirror <true|false>  gif/avi: swap left and right
+              --audio <file.wav>     audio the sketch reads with Audio.read, frame by frame; mp4 gets it as sound
+            """;
+
+    private Path sketchFile;
+    private int width = 800;
+    private int height = 600;
+    private int frames = 1;
+    private boolean framesGiven;
+    private Path audioFile;
+    private double fps;
+    private Color background = Color.BLACK;
+    private String format = "png";
+    private Path out = Path.of("frames");
+    private Path telemetryFile;
+    private int pngLevel = PngEncoder.DEFAULT_LEVEL;
+    private PngEncoder.Filter pngFilter = PngEncoder.Filter.ADAPTIVE;
+    private final TransformationEngine transform = new TransformationEngine();
+    // Frames are already encoded on several threads at once, so each encoder works alone
+    private final ThreadLocal<PngEncoder> pngEncoders =
+            ThreadLocal.withInitial(() -> new PngEncoder(pngLevel, pngFilter, 1));
+
+    public static int run(String[] args) {
+        HeadlessRenderer renderer = new HeadlessRenderer();
+        try {
+            renderer.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.print(USAGE);
+            return 2;
+        }
+        try {
+            renderer.render();
+            return 0;
+        } catch (SketchCompilationException e) {
+            System.err.print("Compilation failed:\n" + e.getMessage());
+            return 1;
+        } catch (Exception e) {
+            e.printStackTrace();
+            return 1;
+        }
+    }
+
+    private void parse(String[] args) {
+        for(int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if(arg.equals("--render")) continue;
+            if(i + 1 >= args.length) throw new IllegalArgumentException("Missing value for " + arg);
+            String value = args[++i];
+            try {
+                switch (arg) {
+                    case "--sketch" -> sketchFile = Path.of(value);
+                    case "--size" -> {
+                        String[] size = value.toLowerCase().split("x");
+                        if(size.length != 2) throw new IllegalArgumentException("Size must look like 1920x1080");
+                        width = Integer.parseInt(size[0].trim());
+                        height = Integer.parseInt(size[1].trim());
+                    }
+                    case "--frames" -> {
+                        frames = Integer.parseInt(value);
+                        framesGiven = true;
+                    }
+                    case "--fps" -> fps = Double.parseDouble(value);
+                    case "--background" -> background = Color.decode(value);
+                    case "--format" -> format = value.toLowerCase();
+                    case "--out" -> out = Path.of(value);
+                    case "--telemetry" -> telemetryFile = Path.of(value);
+                    case "--audio" -> audioFile = Path.of(value);
+                    case "--rotate" -> transform.setRotation(Double.parseDouble(value));
+                    case "--scale" -> transform.setScale(Double.parseDouble(value));
+                    case "--mirror" -> transform.setMirrored(Boolean.parseBoolean(value));
+                    case "--png-level" -> pngLevel = Integer.parseInt(value);
+                    case "--png-filter" -> {
+                        try {
+                            pngFilter = PngEncoder.Filter.valueOf(value.toUpperCase());
+                        } catch (IllegalArgumentException e) {
+                            throw new IllegalArgumentException("Unknown PNG filter " + value);
+                        }
+                    }
+                    default -> throw new IllegalArgumentException("Unknown option " + arg);
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid value for " + arg + ": " + value);
+            }
+        }
+        if(sketchFile == null) throw new IllegalArgumentException("--sketch is required");
+        if(width <= 0 || height <= 0 || frames <= 0) throw new IllegalArgumentException("Size and frames must be positive");
+        if(!List.of("png", "mp4", "gif", "avi").contains(format)) throw new IllegalArgumentException("Unknown format " + format);
+        if(pngLevel < 0 || pngLevel > 9) throw new IllegalArgumentException("--png-level must be 0-9");
+        if(!transform.isIdentity() && !format.equals("gif") && !format.equals("avi")) {
+            throw new IllegalArgumentException("--rotate, --scale and --mirror need --format gif or avi");
+        }
+    }
+
+    private void render() throws Exception {
+        String code = Files.readString(sketchFile);
+        Class<?> cls = SketchRunner.compileSketchClass(code, message -> { });
+        Sketch sketch = (Sketch) cls.getDeclaredConstructor().newInstance();
+        int delay = sketch.init();
+        if(fps <= 0) fps = delay > 0 ? 1000.0 / delay : 30;
+
+        if(audioFile != null) {
+            // Analysed up front, so each frame sees the audio at its own time however fast it renders
+            AudioTimeline timeline = AudioTimeline.analyze(audioFile, fps);
+            if(!framesGiven) frames = timeline.getFrameCount();
+            System.err.printf("Audio: %.1f s of %s%n", timeline.getDuration(), audioFile.getFileName());
+            Audio.setTimeline(timeline);
+        }
+        try {
+            render(cls, sketch);
+        } finally {
+            Audio.setTimeline(null);
+        }
+    }
+
+    private void render(Class<?> cls, Sketch sketch) throws Exception {
+        // H.264 wants even dimensions
+        if(format.equals("mp4")) {
+            width += width % 2;
+            height += height % 2;
+        }
+
+        if(format.equals("gif") || format.equals("avi")) {
+            renderToEncoder(cls, sketch, format.equals("gif") ? ExportFormat.GIF : ExportFormat.MJPEG_AVI);
+            return;
+        }
+
+        Path frameDir = format.equals("png") ? Files.createDirectories(out) : Files.createTempDirectory("Animation_Frames");
+        try {
+            long start = System.nanoTime();
+            if(TimedSketch.isStateless(cls)) {
+                renderFramesParallel(cls, frameDir);
+            } else {
+                renderFrames(sketch, frameDir);
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.err.printf("Rendered %d frames at %dx%d in %.2f s (%.1f frames/s)%n",
+                    frames, width, height, seconds, frames / seconds);
+
+            if(format.equals("mp4")) {
+                encodeMp4(frameDir);
+            }
+        } finally {
+            if(format.equals("mp4")) {
+                try (var paths = Files.walk(frameDir)) {
+                    paths.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+                }
+            }
+        }
+    }
+
+    // Drawing stays on this thread (sketches are stateful); PNG encoding of finished frames is
+    // spread over the remaining cores with a bounded number of frames in flight.
+    private void renderFrames(Sketch sketch, Path frameDir) throws Exception {
+        int encoders = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+        ExecutorService pool = Executors.newFixedThreadPool(encoders);
+        Semaphore inFlight = new Semaphore(encoders * 2);
+        List<Future<?>> pending = new ArrayList<>();
+        VideoFrameRenderer frameRenderer = new VideoFrameRenderer(width, height, background);
+        try {
+            int reportEvery = Math.max(1, frames / 20);
+            for(int i = 0; i < frames; i++) {
+                frameRenderer.clear();
+                frameRenderer.draw(sketch, i, i / fps);
+                BufferedImage img = frameRenderer.composite();
+
+                File outFile = frameDir.resolve(String.format("frame_%06d.png", i)).toFile();
+                inFlight.acquire();
+                pending.add(pool.submit(() -> {
+                    try {
+                        writePng(img, outFile);
+                    } finally {
+                        inFlight.release();
+                    }
+                    return null;
+                }));
+
+                if((i + 1) % reportEvery == 0) {
+                    System.err.printf("frame %d / %d%n", i + 1, frames);
+                }
+            }
+            for(Future<?> f : pending) {
+                f.get();
+            }
+        } finally {
+            frameRenderer.dispose();
+            pool.shutdownNow();
+        }
+    }
+
+    // @Stateless sketches: every core draws and encodes its own frames
+    private void renderFramesParallel(Class<?> cls, Path frameDir) throws Exception {
+        int reportEvery = Math.max(1, frames / 20);
+        new ParallelFrameRenderer(cls, width, height, background, fps, Runtime.getRuntime().availableProcessors())
+                .render(frames, (i, img) -> {
+                    writePng(img, frameDir.resolve(String.format("frame_%06d.png", i)).toFile());
+                    return i;
+                }, (i, done) -> {
+                    if((i + 1) % reportEvery == 0) {
+                        System.err.printf("frame %d / %d%n", i + 1, frames);
+                    }
+                }, () -> false);
+    }
+
+    // Built-in encoders: no ffmpeg and no frame files, frames go straight through the export engine
+    private void renderToEncoder(Class<?> cls, Sketch sketch, ExportFormat exportFormat) throws Exception {
+        Path parent = out.toAbsolutePath().getParent();
+        if(parent != null) Files.createDirectories(parent);
+        int reportEvery = Math.max(1, frames / 20);
+        IntConsumer progress = done -> {
+            if(done % reportEvery == 0) {
+                System.err.printf("frame %d / %d%n", done, frames);
+            }
+        };
+
+        long start = System.nanoTime();
+        ExportEngine engine = new ExportEngine(width, height, background, fps);
+        engine.setTransform(transform);
+        FrameEncoder encoder = exportFormat.createEncoder(out.toFile(), audioFile);
+        TelemetryLog log = telemetryFile == null ? null : new TelemetryLog(engine.getTelemetry(), telemetryFile, 1000, null);
+        try {
+            if(TimedSketch.isStateless(cls)) {
+                engine.exportParallel(cls, frames, encoder, progress, () -> false);
+            } else {
+                engine.export(new SketchFrameSource(sketch, fps), frames, encoder, progress, () -> false);
+            }
+        } finally {
+            if(log != null) log.close();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.err.printf("Rendered %d frames at %dx%d in %.2f s (%.1f frames/s)%n",
+                frames, width, height, seconds, frames / seconds);
+        System.err.println(engine.getTelemetry().snapshot().describe());
+        System.err.println("Video saved: " + out.toAbsolutePath());
+    }
+
+    private void writePng(BufferedImage img, File outFile) throws IOException {
+        pngEncoders.get().write(img, outFile);
+    }
+
+    private void encodeMp4(Path frameDir) throws IOException, InterruptedException {
+        Path parent = out.toAbsolutePath().getParent();
+        if(parent != null) Files.createDirectories(parent);
+        ProcessBuilder pb = Ffmpeg.pngSequenceToMp4(fps, frameDir, out.toFile(), audioFile);
+        pb.redirectErrorStream(true);
+        pb.redirectOutput(ProcessBuilder.Redirect.INHERIT);
+        int exitCode = pb.start().waitFor();
+        if(exitCode != 0) {
+            throw new IOException("ffmpeg exited with code " + exitCode);
+        }
+        System.err.println("Video saved: " + out.toAbsolutePath());
+    }
+}
@@ -8,6 +8,11 @@ import org.sketchide.ui.SketchIDEFrame;
 
 public class Main {
     public static void main(String[] args) {
+        if(args.length > 0 && args[0].equals("--render")) {
+            // Batch rendering for servers and CI: no display, no dialogs
+            System.setProperty("java.awt.headless", "true");
+            System.exit(HeadlessRenderer.run(args));
+        }
         SwingUtilities.invokeLater(SketchIDEFrame::new);
     }
 }
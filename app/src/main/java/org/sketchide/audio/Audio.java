@@ -0,0 +1,54 @@
+package org.sketchide.audio;
+
+// Where sketches get their audio from: Audio.read(frame) at the top of draw(). Sketch code imports
+// org.sketchide.audio.* already.
+//
+// On the canvas that is the live analysis published by the AudioPipeline. An export with audio sets its
+// timeline on each thread that renders its frames; those threads call seek() with each frame's time before
+// drawing it and read that frame of the timeline instead, so the video stays in step with the audio
+// whatever its speed. Timelines are per thread, so exports running side by side and the canvas never
+// see each other's audio.
+public final class Audio {
+
+    private static final AudioFeatures LIVE = new AudioFeatures();
+    // The export timeline of this thread and the time of the frame it is rendering
+    private static final ThreadLocal<Position> POSITION = ThreadLocal.withInitial(Position::new);
+
+    private static final class Position {
+        AudioTimeline timeline;
+        double time = Double.NaN;
+    }
+
+    private Audio() {
+    }
+
+    public static void read(AudioFrame frame) {
+        Position position = POSITION.get();
+        if(position.timeline != null && !Double.isNaN(position.time)) {
+            position.timeline.read(position.time, frame);
+            return;
+        }
+        LIVE.read(frame);
+    }
+
+    public static AudioFeatures live() {
+        return LIVE;
+    }
+
+    // Set on this thread for the length of an export, null afterwards
+    public static void setTimeline(AudioTimeline exportTimeline) {
+        Position position = POSITION.get();
+        position.timeline = exportTimeline;
+        if(exportTimeline == null) position.time = Double.NaN;
+    }
+
+    // The timeline set on this thread, for handing on to the export's other render threads
+    public static AudioTimeline getTimeline() {
+        return POSITION.get().timeline;
+    }
+
+    // Called by export renderers with the time of the frame they are about to draw on this thread
+    public static void seek(double t) {
+        POSITION.get().time = t;
+    }
+}
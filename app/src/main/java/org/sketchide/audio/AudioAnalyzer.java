@@ -0,0 +1,174 @@
+package org.sketchide.audio;
+
+// Band energies and onsets of a mono stream, analysed every HOP samples over the last FFT_SIZE of them
+// through a Hann window. All buffers are allocated up front; process() allocates nothing.
+//
+// Bands are spaced logarithmically from 40 Hz to 16 kHz (or Nyquist), each the summed power of its
+// bins on a 60 dB scale. Onsets are peaks of the spectral flux, the summed rise of the log-compressed
+// magnitudes since the previous hop, above an adaptive threshold over the last half second.
+public final class AudioAnalyzer {
+
+    public static final int FFT_SIZE = 2048;
+    public static final int HOP = 512;
+    public static final int BANDS = 8;
+
+    private static final double LOWEST = 40;
+    private static final double HIGHEST = 16000;
+    private static final double RANGE_DB = 60;
+    // Magnitude compression before the flux: log(1 + COMPRESSION * magnitude)
+    private static final float COMPRESSION = 100;
+    private static final double HISTORY_SECONDS = 0.5;
+    private static final double REFRACTORY_SECONDS = 0.1;
+    private static final float THRESHOLD_RATIO = 1.5f;
+    private static final float MIN_FLUX = 2f;
+
+    // Receives every analysed hop, on the thread that called process()
+    public interface Listener {
+        void hop(AudioAnalyzer analyzer);
+    }
+
+    private final float sampleRate;
+    private final Listener listener;
+    private final RealFft fft = new RealFft(FFT_SIZE);
+    private final float[] window = new float[FFT_SIZE];
+    private final float[] ring = new float[FFT_SIZE];
+    private final float[] frame = new float[FFT_SIZE];
+    private final float[] power = new float[FFT_SIZE / 2 + 1];
+    private final float[] previous = new float[FFT_SIZE / 2 + 1];
+    private final int[] bandEdges = new int[BANDS + 1];
+    private final float[] fluxHistory;
+    private final int refractoryHops;
+    private final float powerScale;
+
+    private int ringPos;
+    private int sinceHop;
+    private long sampleCount;
+    private long hops;
+    private int historyPos;
+    private int historyCount;
+    private long lastOnsetHop = Long.MIN_VALUE / 2;
+
+    private final float[] bands = new float[BANDS];
+    private float level;
+    private float flux;
+    private boolean onset;
+
+    public AudioAnalyzer(float sampleRate, Listener listener) {
+        if(sampleRate <= 0) throw new IllegalArgumentException("Sample rate must be positive: " + sampleRate);
+        this.sampleRate = sampleRate;
+        this.listener = listener;
+        for(int i = 0; i < FFT_SIZE; i++) {
+            window[i] = (float) (0.5 - 0.5 * Math.cos(2 * Math.PI * i / FFT_SIZE));
+        }
+        // A full-scale sine peaks at FFT_SIZE / 4 through the Hann window
+        powerScale = 1f / ((FFT_SIZE / 4f) * (FFT_SIZE / 4f));
+
+        int bins = FFT_SIZE / 2;
+        double binWidth = sampleRate / FFT_SIZE;
+        double highest = Math.min(HIGHEST, sampleRate / 2);
+        for(int b = 0; b <= BANDS; b++) {
+            double hz = LOWEST * Math.pow(highest / LOWEST, (double) b / BANDS);
+            bandEdges[b] = (int) Math.min(bins + 1, Math.round(hz / binWidth));
+        }
+        // Every band gets at least one bin, however low the sample rate
+        for(int b = 1; b <= BANDS; b++) {
+            bandEdges[b] = Math.max(bandEdges[b], bandEdges[b - 1] + 1);
+        }
+
+        double hopSeconds = HOP / sampleRate;
+        fluxHistory = new float[Math.max(4, (int) Math.round(HISTORY_SECONDS / hopSeconds))];
+        refractoryHops = Math.max(1, (int) Math.round(REFRACTORY_SECONDS / hopSeconds));
+    }
+
+    public float getSampleRate() {
+        return sampleRate;
+    }
+
+    // Feeds samples[offset, offset + length) in; the listener hears of every hop they complete
+    public void process(float[] samples, int offset, int length) {
+        for(int i = 0; i < length; i++) {
+            ring[ringPos] = samples[offset + i];
+            ringPos = (ringPos + 1) & (FFT_SIZE - 1);
+            sampleCount++;
+            if(++sinceHop == HOP) {
+                sinceHop = 0;
+                analyze();
+                if(listener != null) listener.hop(this);
+            }
+        }
+    }
+
+    private void analyze() {
+        // Oldest sample first; before the ring first fills up, the rest is still zeros
+        double sumSquares = 0;
+        for(int i = 0; i < FFT_SIZE; i++) {
+            float x = ring[(ringPos + i) & (FFT_SIZE - 1)];
+            frame[i] = x * window[i];
+        }
+        for(int i = FFT_SIZE - HOP; i < FFT_SIZE; i++) {
+            float x = ring[(ringPos + i) & (FFT_SIZE - 1)];
+            sumSquares += x * x;
+        }
+        level = (float) Math.min(1, Math.sqrt(sumSquares / HOP));
+        fft.power(frame, power);
+
+        for(int b = 0; b < BANDS; b++) {
+            double energy = 0;
+            int end = Math.min(bandEdges[b + 1], power.length);
+            for(int k = bandEdges[b]; k < end; k++) {
+                energy += power[k];
+            }
+            energy *= powerScale;
+            double db = energy > 0 ? 10 * Math.log10(energy) : -RANGE_DB;
+            bands[b] = (float) Math.max(0, Math.min(1, 1 + db / RANGE_DB));
+        }
+
+        float rise = 0;
+        for(int k = 0; k < power.length; k++) {
+            float magnitude = (float) Math.log1p(COMPRESSION * Math.sqrt(power[k] * powerScale));
+            float d = magnitude - previous[k];
+            if(d > 0) rise += d;
+            previous[k] = magnitude;
+        }
+        // Only once the window has filled up is the flux more than the stream starting
+        float mean = 0;
+        for(int i = 0; i < historyCount; i++) mean += fluxHistory[i];
+        if(historyCount > 0) mean /= historyCount;
+        onset = hops >= FFT_SIZE / HOP && rise > MIN_FLUX && rise > mean * THRESHOLD_RATIO
+                && rise > flux && hops - lastOnsetHop >= refractoryHops;
+        if(onset) lastOnsetHop = hops;
+        if(hops >= FFT_SIZE / HOP - 1) {
+            fluxHistory[historyPos] = rise;
+            historyPos = (historyPos + 1) % fluxHistory.length;
+            historyCount = Math.min(historyCount + 1, fluxHistory.length);
+        }
+        flux = rise;
+        hops++;
+    }
+
+    // Time of the end of the last analysed hop, in seconds from the first sample
+    public double getTime() {
+        return sampleCount / (double) sampleRate;
+    }
+
+    public long getHops() {
+        return hops;
+    }
+
+    // Band energies of the last hop; the array is reused by the next one
+    public float[] getBands() {
+        return bands;
+    }
+
+    public float getLevel() {
+        return level;
+    }
+
+    public float getFlux() {
+        return flux;
+    }
+
+    public boolean isOnset() {
+        return onset;
+    }
+}
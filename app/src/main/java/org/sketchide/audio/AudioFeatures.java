@@ -0,0 +1,68 @@
+package org.sketchide.audio;
+
+import java.lang.invoke.VarHandle;
+
+// The latest analysis of the live audio, written by one analysis thread and read by any number of
+// sketches, without locks and without allocating.
+//
+// A sequence lock: the writer makes the sequence odd, writes the fields, then makes it even again.
+// A reader copies the fields between two reads of the sequence and tries again if it was odd or moved
+// on, so it never sees a mix of two analyses. The writer never waits for readers.
+public final class AudioFeatures {
+
+    private static final float[] SILENCE = new float[AudioAnalyzer.BANDS];
+
+    private volatile long sequence;
+    private final float[] bands = new float[AudioAnalyzer.BANDS];
+    private double time;
+    private float level;
+    private long onsetCount;
+    private boolean active;
+
+    // Only ever called from the one writer thread
+    public void publish(double time, float level, float[] bands, boolean onset) {
+        write(time, level, bands, onset ? onsetCount + 1 : onsetCount, true);
+    }
+
+    // Back to silence, e.g. once playback stopped
+    public void clear() {
+        write(0, 0, SILENCE, onsetCount, false);
+    }
+
+    private void write(double time, float level, float[] bands, long onsetCount, boolean active) {
+        long s = sequence;
+        sequence = s + 1;
+        // Field writes must not move above the odd sequence
+        VarHandle.storeStoreFence();
+        this.time = time;
+        this.level = level;
+        System.arraycopy(bands, 0, this.bands, 0, this.bands.length);
+        this.onsetCount = onsetCount;
+        this.active = active;
+        sequence = s + 2;
+    }
+
+    // Copies the latest analysis into frame; frame.onset() tells whether an onset came since the last
+    // time this frame was read
+    public void read(AudioFrame frame) {
+        while(true) {
+            long s = sequence;
+            if((s & 1) != 0) {
+                Thread.onSpinWait();
+                continue;
+            }
+            frame.time = time;
+            frame.level = level;
+            System.arraycopy(bands, 0, frame.bands, 0, frame.bands.length);
+            long onsets = onsetCount;
+            frame.active = active;
+            // Field reads must not move below the second read of the sequence
+            VarHandle.loadLoadFence();
+            if(sequence == s) {
+                frame.onset = onsets > frame.onsetCount;
+                frame.onsetCount = onsets;
+                return;
+            }
+        }
+    }
+}
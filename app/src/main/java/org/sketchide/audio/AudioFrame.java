@@ -0,0 +1,53 @@
+package org.sketchide.audio;
+
+import java.io.Serializable;
+
+// What a sketch knows about the audio at the frame it is drawing. A sketch keeps one in a field and
+// fills it with Audio.read(frame) at the top of draw(); reading allocates nothing. Serializable, so the
+// field does not keep the sketch's state from being saved for tiled and resumable exports.
+//
+//     AudioFrame audio = new AudioFrame();
+//     public void draw(Graphics2D g) {
+//         Audio.read(audio);
+//         int r = (int) (40 + 200 * audio.band(0));
+//         if(audio.onset()) flash = 1;
+//     }
+public final class AudioFrame implements Serializable {
+
+    final float[] bands = new float[AudioAnalyzer.BANDS];
+    double time;
+    float level;
+    boolean onset;
+    boolean active;
+    // Onsets published so far, to tell whether one came since the previous read of the live feed
+    long onsetCount;
+
+    // Energy of band i (0 = lowest), 0 for silence to 1 for a full-scale tone
+    public float band(int i) {
+        return bands[i];
+    }
+
+    public int bandCount() {
+        return bands.length;
+    }
+
+    // RMS level of the last analysis window, 0 to 1
+    public float level() {
+        return level;
+    }
+
+    // True if a beat or other onset came since the previous frame
+    public boolean onset() {
+        return onset;
+    }
+
+    // Seconds into the audio
+    public double time() {
+        return time;
+    }
+
+    // False while no audio is playing or being exported with
+    public boolean isActive() {
+        return active;
+    }
+}
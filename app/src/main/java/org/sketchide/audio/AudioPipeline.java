@@ -0,0 +1,186 @@
+package org.sketchide.audio;
+
+import javax.sound.sampled.*;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+
+// Live audio for the canvas: one thread reads the stream a hop at a time, analyses it and publishes the
+// result to Audio.live(). A file is also played, and the line's blocking writes pace the thread in real
+// time; a capture line paces it by itself. Nothing is allocated per hop.
+//
+// What is played reaches the speakers a line buffer after it is analysed, so analyses of a file wait in
+// a small ring until the line's position has caught up with them. Sketches then see each beat as it is
+// heard, not a buffer ahead of it.
+public final class AudioPipeline implements Closeable {
+
+    // Line buffer of the player, in hops
+    private static final int PLAYBACK_BUFFER_HOPS = 4;
+    // Analyses waiting to be heard; more than the line buffer holds
+    private static final int PENDING = 16;
+
+    private final AudioStream stream;
+    private final SourceDataLine player;
+    private final AudioFeatures features;
+    private final AudioAnalyzer analyzer;
+    private final Thread thread;
+    private volatile boolean running = true;
+    private volatile Exception error;
+
+    // Analyses waiting for the player, as a ring of preallocated slots
+    private final long[] pendingEnd = new long[PENDING];
+    private final double[] pendingTime = new double[PENDING];
+    private final float[] pendingLevel = new float[PENDING];
+    private final float[][] pendingBands = new float[PENDING][AudioAnalyzer.BANDS];
+    private final boolean[] pendingOnset = new boolean[PENDING];
+    private int pendingHead;
+    private int pendingCount;
+    private long framesRead;
+    // Onsets of analyses dropped because the ring was full, handed on with the next one published
+    private boolean droppedOnset;
+
+    private AudioPipeline(AudioStream stream, SourceDataLine player, AudioFeatures features) {
+        this.stream = stream;
+        this.player = player;
+        this.features = features;
+        this.analyzer = new AudioAnalyzer(stream.getSampleRate(), player == null ? this::publish : this::enqueue);
+        this.thread = new Thread(this::run, "audio-analysis");
+        thread.setDaemon(true);
+    }
+
+    // Plays the file and analyses it in step with what is heard
+    public static AudioPipeline play(Path file) throws IOException, LineUnavailableException {
+        AudioStream stream = AudioStream.open(file);
+        try {
+            SourceDataLine player = AudioSystem.getSourceDataLine(stream.getFormat());
+            player.open(stream.getFormat(), AudioAnalyzer.HOP * PLAYBACK_BUFFER_HOPS * stream.getFormat().getFrameSize());
+            player.start();
+            return start(stream, player);
+        } catch (LineUnavailableException | RuntimeException e) {
+            stream.close();
+            throw e;
+        }
+    }
+
+    // Analyses the default capture line
+    public static AudioPipeline listen() throws LineUnavailableException {
+        return start(AudioStream.openLineIn(44100), null);
+    }
+
+    private static AudioPipeline start(AudioStream stream, SourceDataLine player) {
+        AudioPipeline pipeline = new AudioPipeline(stream, player, Audio.live());
+        pipeline.thread.start();
+        return pipeline;
+    }
+
+    private void run() {
+        float[] mono = new float[AudioAnalyzer.HOP];
+        try {
+            while(running) {
+                int frames = stream.read(mono, 0, mono.length);
+                if(frames < 0) break;
+                framesRead += frames;
+                analyzer.process(mono, 0, frames);
+                if(player != null) {
+                    player.write(stream.lastBytes(), 0, stream.lastByteCount());
+                    publishHeard();
+                }
+            }
+            if(player != null && running) {
+                // The end of the file still has to be heard
+                player.drain();
+                publishHeard();
+            }
+        } catch (Exception e) {
+            if(running) {
+                e.printStackTrace();
+                error = e;
+            }
+        } finally {
+            running = false;
+            features.clear();
+            if(player != null) player.close();
+            try {
+                stream.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private void publish(AudioAnalyzer a) {
+        features.publish(a.getTime(), a.getLevel(), a.getBands(), a.isOnset());
+    }
+
+    private void enqueue(AudioAnalyzer a) {
+        if(pendingCount == PENDING) {
+            // Publish the oldest one right away rather than lose it
+            publishPending();
+        }
+        int slot = (pendingHead + pendingCount) % PENDING;
+        pendingEnd[slot] = framesRead;
+        pendingTime[slot] = a.getTime();
+        pendingLevel[slot] = a.getLevel();
+        System.arraycopy(a.getBands(), 0, pendingBands[slot], 0, AudioAnalyzer.BANDS);
+        pendingOnset[slot] = a.isOnset();
+        pendingCount++;
+    }
+
+    // Publishes the analyses of everything the player has played by now; only the newest one needs to
+    // be seen, but an onset among the ones skipped still counts
+    private void publishHeard() {
+        long heard = player.getLongFramePosition();
+        while(pendingCount > 0 && pendingEnd[pendingHead] <= heard) {
+            publishPending();
+        }
+    }
+
+    private void publishPending() {
+        int slot = pendingHead;
+        pendingHead = (pendingHead + 1) % PENDING;
+        pendingCount--;
+        boolean onset = pendingOnset[slot] || droppedOnset;
+        if(pendingCount > 0 && pendingEnd[pendingHead] <= player.getLongFramePosition()) {
+            // A newer one is due as well and replaces this one at once
+            droppedOnset = onset;
+            return;
+        }
+        droppedOnset = false;
+        features.publish(pendingTime[slot], pendingLevel[slot], pendingBands[slot], onset);
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    // The file being played, or null when listening to a capture line
+    public Path getFile() {
+        return stream.getFile();
+    }
+
+    // Why the pipeline stopped early, or null
+    public Exception getError() {
+        return error;
+    }
+
+    // Stops playback and analysis and waits for the thread to finish
+    @Override
+    public void close() {
+        running = false;
+        // Either blocks the thread until closed: the player in write(), a capture line in read()
+        try {
+            if(player != null) {
+                player.close();
+            } else {
+                stream.close();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        try {
+            thread.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
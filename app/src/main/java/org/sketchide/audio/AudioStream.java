@@ -0,0 +1,124 @@
+package org.sketchide.audio;
+
+import javax.sound.sampled.*;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+
+// Audio from a WAV file or a capture line as 16-bit little-endian PCM, handed out as mono floats
+// (channels averaged, -1 to 1). read() reuses one byte buffer and keeps the bytes it read, so a
+// player can write the same audio to a SourceDataLine.
+public final class AudioStream implements Closeable {
+
+    private final AudioInputStream stream;
+    private final AudioFormat format;
+    private final TargetDataLine line;
+    private final Path file;
+    private byte[] bytes = new byte[0];
+    private int byteCount;
+
+    private AudioStream(AudioInputStream stream, TargetDataLine line, Path file) {
+        this.stream = stream;
+        this.format = stream.getFormat();
+        this.line = line;
+        this.file = file;
+    }
+
+    // WAV (and whatever else javax.sound reads), converted to 16-bit PCM where needed
+    public static AudioStream open(Path file) throws IOException {
+        AudioInputStream in;
+        try {
+            in = AudioSystem.getAudioInputStream(file.toFile());
+        } catch (UnsupportedAudioFileException e) {
+            throw new IOException(file.getFileName() + " is not an audio file Java can read", e);
+        }
+        AudioFormat source = in.getFormat();
+        AudioFormat pcm = new AudioFormat(AudioFormat.Encoding.PCM_SIGNED, source.getSampleRate(), 16,
+                source.getChannels(), source.getChannels() * 2, source.getSampleRate(), false);
+        if(!source.matches(pcm)) {
+            if(!AudioSystem.isConversionSupported(pcm, source)) {
+                in.close();
+                throw new IOException("Cannot convert " + source + " to 16-bit PCM");
+            }
+            in = AudioSystem.getAudioInputStream(pcm, in);
+        }
+        return new AudioStream(in, null, file);
+    }
+
+    // The default capture line (microphone or line in), mono at the given rate
+    public static AudioStream openLineIn(float sampleRate) throws LineUnavailableException {
+        AudioFormat pcm = new AudioFormat(sampleRate, 16, 1, true, false);
+        TargetDataLine line = AudioSystem.getTargetDataLine(pcm);
+        // Small buffer: captured audio should reach the analysis quickly
+        line.open(pcm, AudioAnalyzer.HOP * 2 * 4);
+        line.start();
+        return new AudioStream(new AudioInputStream(line), line, null);
+    }
+
+    // Reads up to frames sample frames into mono[offset...]; returns how many, or -1 at the end
+    public int read(float[] mono, int offset, int frames) throws IOException {
+        int frameSize = format.getFrameSize();
+        int channels = format.getChannels();
+        if(bytes.length < frames * frameSize) bytes = new byte[frames * frameSize];
+        int n = 0;
+        int want = frames * frameSize;
+        while(n < want) {
+            int read = stream.read(bytes, n, want - n);
+            if(read < 0) break;
+            n += read;
+        }
+        // Whole frames only; a trailing partial frame can only come at the end of a file
+        n -= n % frameSize;
+        byteCount = n;
+        if(n == 0) return frames == 0 ? 0 : -1;
+        int count = n / frameSize;
+        float scale = 1f / (32768f * channels);
+        for(int f = 0; f < count; f++) {
+            int sum = 0;
+            int base = f * frameSize;
+            for(int c = 0; c < channels; c++) {
+                int i = base + c * 2;
+                sum += (short) ((bytes[i] & 0xFF) | (bytes[i + 1] << 8));
+            }
+            mono[offset + f] = sum * scale;
+        }
+        return count;
+    }
+
+    // The 16-bit PCM bytes the last read() decoded
+    public byte[] lastBytes() {
+        return bytes;
+    }
+
+    public int lastByteCount() {
+        return byteCount;
+    }
+
+    public AudioFormat getFormat() {
+        return format;
+    }
+
+    public float getSampleRate() {
+        return format.getSampleRate();
+    }
+
+    // Length in seconds, or -1 for a capture line or a stream of unknown length
+    public double getDuration() {
+        long frames = stream.getFrameLength();
+        return frames == AudioSystem.NOT_SPECIFIED ? -1 : frames / (double) format.getFrameRate();
+    }
+
+    // The file being read, or null for a capture line
+    public Path getFile() {
+        return file;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if(line != null) {
+            line.stop();
+            line.close();
+        }
+        stream.close();
+    }
+}
@@ -0,0 +1,122 @@
+package org.sketchide.audio;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+// The analysis of a whole audio file, frame by frame, for exports. The file goes through the same
+// AudioAnalyzer as live playback, hop by hop, ahead of rendering. Frame i (at i / fps seconds) then sees
+// the last hop that ended by its time, and an onset if any hop since the previous frame had one. A frame
+// thus gets the same values whichever thread renders it, and in whatever order.
+public final class AudioTimeline {
+
+    private final Path file;
+    private final double fps;
+    private final double duration;
+    private final float[] levels;
+    private final float[] bands;
+    private final boolean[] onsets;
+
+    private AudioTimeline(Path file, double fps, double duration, float[] levels, float[] bands, boolean[] onsets) {
+        this.file = file;
+        this.fps = fps;
+        this.duration = duration;
+        this.levels = levels;
+        this.bands = bands;
+        this.onsets = onsets;
+    }
+
+    public static AudioTimeline analyze(Path file, double fps) throws IOException {
+        if(fps <= 0) throw new IllegalArgumentException("fps must be positive: " + fps);
+        try (AudioStream stream = AudioStream.open(file)) {
+            Hops hops = new Hops();
+            AudioAnalyzer analyzer = new AudioAnalyzer(stream.getSampleRate(), hops::add);
+            float[] mono = new float[8192];
+            long total = 0;
+            int n;
+            while((n = stream.read(mono, 0, mono.length)) > 0) {
+                analyzer.process(mono, 0, n);
+                total += n;
+            }
+            double duration = total / (double) stream.getSampleRate();
+
+            int frames = (int) Math.floor(duration * fps) + 1;
+            float[] levels = new float[frames];
+            float[] bands = new float[frames * AudioAnalyzer.BANDS];
+            boolean[] onsets = new boolean[frames];
+            int hop = -1;
+            for(int i = 0; i < frames; i++) {
+                double t = i / fps;
+                boolean onset = false;
+                while(hop + 1 < hops.count && hops.times[hop + 1] <= t + 1e-9) {
+                    hop++;
+                    onset |= hops.onsets[hop];
+                }
+                onsets[i] = onset;
+                if(hop >= 0) {
+                    levels[i] = hops.levels[hop];
+                    System.arraycopy(hops.bands, hop * AudioAnalyzer.BANDS, bands, i * AudioAnalyzer.BANDS,
+                            AudioAnalyzer.BANDS);
+                }
+            }
+            return new AudioTimeline(file, fps, duration, levels, bands, onsets);
+        }
+    }
+
+    // Fills frame with the analysis at t seconds; silence before the start and after the end of the audio
+    public void read(double t, AudioFrame frame) {
+        int i = (int) Math.round(t * fps);
+        frame.time = t;
+        if(i < 0 || i >= levels.length) {
+            frame.active = false;
+            frame.level = 0;
+            frame.onset = false;
+            Arrays.fill(frame.bands, 0);
+            return;
+        }
+        frame.active = true;
+        frame.level = levels[i];
+        frame.onset = onsets[i];
+        System.arraycopy(bands, i * AudioAnalyzer.BANDS, frame.bands, 0, AudioAnalyzer.BANDS);
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    public double getFps() {
+        return fps;
+    }
+
+    // Seconds of audio
+    public double getDuration() {
+        return duration;
+    }
+
+    public int getFrameCount() {
+        return levels.length;
+    }
+
+    // Growing per-hop record of the analysis
+    private static final class Hops {
+        int count;
+        double[] times = new double[1024];
+        float[] levels = new float[1024];
+        float[] bands = new float[1024 * AudioAnalyzer.BANDS];
+        boolean[] onsets = new boolean[1024];
+
+        void add(AudioAnalyzer a) {
+            if(count == times.length) {
+                times = Arrays.copyOf(times, count * 2);
+                levels = Arrays.copyOf(levels, count * 2);
+                bands = Arrays.copyOf(bands, count * 2 * AudioAnalyzer.BANDS);
+                onsets = Arrays.copyOf(onsets, count * 2);
+            }
+            times[count] = a.getTime();
+            levels[count] = a.getLevel();
+            System.arraycopy(a.getBands(), 0, bands, count * AudioAnalyzer.BANDS, AudioAnalyzer.BANDS);
+            onsets[count] = a.isOnset();
+            count++;
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package org.sketchide.audio;
+
+// FFT of n real samples (n a power of two, at least 4), computed as a complex FFT of n/2 points over
+// the even and odd samples packed as real and imaginary parts, then split into the n/2 + 1 bins of
+// the real spectrum. Twiddles and the bit-reversal order are computed once; the work buffers belong
+// to the instance, so transforms allocate nothing and one instance serves one thread.
+public final class RealFft {
+
+    private final int n;
+    private final int half;
+    // e^(-2 pi i k / n) for k < n/2: the half-size FFT uses every other one, the split all of them
+    private final float[] cos;
+    private final float[] sin;
+    private final int[] reverse;
+    private final float[] re;
+    private final float[] im;
+    // Result of split()
+    private float splitRe;
+    private float splitIm;
+
+    public RealFft(int n) {
+        if(n < 4 || Integer.bitCount(n) != 1) {
+            throw new IllegalArgumentException("FFT size must be a power of two of at least 4: " + n);
+        }
+        this.n = n;
+        this.half = n / 2;
+        cos = new float[half];
+        sin = new float[half];
+        for(int k = 0; k < half; k++) {
+            double angle = 2 * Math.PI * k / n;
+            cos[k] = (float) Math.cos(angle);
+            sin[k] = (float) Math.sin(angle);
+        }
+        reverse = new int[half];
+        int bits = Integer.numberOfTrailingZeros(half);
+        for(int i = 0; i < half; i++) {
+            reverse[i] = bits == 0 ? 0 : Integer.reverse(i) >>> (32 - bits);
+        }
+        re = new float[half];
+        im = new float[half];
+    }
+
+    public int size() {
+        return n;
+    }
+
+    // Number of bins of the spectrum: 0 (DC) to n/2 (Nyquist)
+    public int bins() {
+        return half + 1;
+    }
+
+    // Spectrum of samples[0, n) into real and imag[0, n/2]
+    public void transform(float[] samples, float[] real, float[] imag) {
+        fft(samples);
+        real[0] = re[0] + im[0];
+        imag[0] = 0;
+        real[half] = re[0] - im[0];
+        imag[half] = 0;
+        for(int k = 1; k < half; k++) {
+            split(k);
+            real[k] = splitRe;
+            imag[k] = splitIm;
+        }
+    }
+
+    // Squared magnitudes of the spectrum of samples[0, n) into power[0, n/2]
+    public void power(float[] samples, float[] power) {
+        fft(samples);
+        float dc = re[0] + im[0];
+        float nyquist = re[0] - im[0];
+        power[0] = dc * dc;
+        power[half] = nyquist * nyquist;
+        for(int k = 1; k < half; k++) {
+            split(k);
+            power[k] = splitRe * splitRe + splitIm * splitIm;
+        }
+    }
+
+    // Bin k of the real spectrum from bins k and n/2 - k of the packed one:
+    // X[k] = (Z[k] + conj Z[h-k]) / 2 - i e^(-2 pi i k / n) (Z[k] - conj Z[h-k]) / 2
+    private void split(int k) {
+        float ar = re[k];
+        float ai = im[k];
+        float br = re[half - k];
+        float bi = -im[half - k];
+        float er = (ar + br) * 0.5f;
+        float ei = (ai + bi) * 0.5f;
+        float or = (ai - bi) * 0.5f;
+        float oi = (br - ar) * 0.5f;
+        float c = cos[k];
+        float s = sin[k];
+        splitRe = er + c * or + s * oi;
+        splitIm = ei + c * oi - s * or;
+    }
+
+    // In-place radix-2 FFT of the n/2 complex points x[2k] + i x[2k+1], into re and im
+    private void fft(float[] samples) {
+        for(int i = 0; i < half; i++) {
+            int j = reverse[i];
+            re[j] = samples[2 * i];
+            im[j] = samples[2 * i + 1];
+        }
+        for(int length = 2; length <= half; length <<= 1) {
+            int span = length >> 1;
+            int stride = n / length;
+            for(int start = 0; start < half; start += length) {
+                for(int j = 0; j < span; j++) {
+                    float c = cos[j * stride];
+                    float s = sin[j * stride];
+                    int a = start + j;
+                    int b = a + span;
+                    // t = x[b] e^(-2 pi i j / length)
+                    float tr = re[b] * c + im[b] * s;
+                    float ti = im[b] * c - re[b] * s;
+                    re[b] = re[a] - tr;
+                    im[b] = im[a] - ti;
+                    re[a] += tr;
+                    im[a] += ti;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package org.sketchide.engine;
+
+import java.util.Map;
+
+// Defines classes straight from compiled bytecode held in memory
+public class ByteArrayClassLoader extends ClassLoader {
+
+    private final Map<String, byte[]> classBytes;
+
+    public ByteArrayClassLoader(Map<String, byte[]> classBytes, ClassLoader parent) {
+        super(parent);
+        this.classBytes = Map.copyOf(classBytes);
+    }
+
+    @Override
+    protected Class<?> findClass(String name) throws ClassNotFoundException {
+        byte[] bytes = classBytes.get(name);
+        if(bytes == null) {
+            throw new ClassNotFoundException(name);
+        }
+        return defineClass(name, bytes, 0, bytes.length);
+    }
+}
@@ -0,0 +1,309 @@
+package org.sketchide.engine;
+
+import com.sun.source.util.JavacTask;
+import com.sun.source.util.TaskEvent;
+import com.sun.source.util.TaskListener;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import javax.tools.*;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+// Long-lived javac front end shared by every Run.
+// The compiler, the file manager (with its opened platform and classpath archives) are created once,
+// and compiled bytecode is kept in an LRU cache keyed by a hash of the wrapped source.
+public class CompilerService {
+
+    private static final int DEFAULT_CACHE_SIZE = 16;
+    private static final CompilerService INSTANCE = new CompilerService(DEFAULT_CACHE_SIZE);
+
+    private final JavaCompiler compiler;
+    private final MemoryFileManager fileManager;
+    private final Map<String, Map<String, byte[]>> cache;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong compilations = new AtomicLong();
+    private final AtomicLong totalCompileNanos = new AtomicLong();
+    private final AtomicLong lastCompileNanos = new AtomicLong();
+
+    public static CompilerService getInstance() {
+        return INSTANCE;
+    }
+
+    // cacheSize 0 disables the cache so that every call goes through javac
+    CompilerService(int cacheSize) {
+        compiler = ToolProvider.getSystemJavaCompiler();
+        StandardJavaFileManager standard = compiler.getStandardFileManager(null, null, StandardCharsets.UTF_8);
+        try {
+            // Resolve the classpath once instead of passing -classpath on every task
+            List<File> classPath = new ArrayList<>();
+            for(String entry : System.getProperty("java.class.path").split(File.pathSeparator)) {
+                if(!entry.isEmpty()) classPath.add(new File(entry));
+            }
+            standard.setLocation(StandardLocation.CLASS_PATH, classPath);
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not set up the sketch classpath", e);
+        }
+        fileManager = new MemoryFileManager(standard);
+        cache = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Map<String, byte[]>> eldest) {
+                return size() > cacheSize;
+            }
+        };
+    }
+
+    // Compiles a throwaway sketch on a background thread so the first real Run finds javac loaded and JIT-warmed
+    public void warmUp() {
+        Thread warmer = new Thread(() -> {
+            try {
+                compileUncached("dynamic.WarmUp", SketchRunner.wrapSource("WarmUp", """
+                        public void draw(Graphics2D g) { g.fillRect(0, 0, 1, 1); }
+                        public int init() { return 33; }
+                        """), null);
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }, "compiler-warmup");
+        warmer.setDaemon(true);
+        warmer.start();
+    }
+
+    // Returns the bytecode of every class generated from the source, keyed by binary name
+    public Map<String, byte[]> compile(String className, String source)
+            throws SketchCompilationException, IOException {
+        return compile(className, source, null);
+    }
+
+    // Same as compile, reporting javac phases to progress. Interrupting the calling thread aborts
+    // the compile at the next phase boundary with a CancellationException.
+    public synchronized Map<String, byte[]> compile(String className, String source, Consumer<String> progress)
+            throws SketchCompilationException, IOException {
+        String key = hash(source);
+        Map<String, byte[]> cached = cache.get(key);
+        if(cached != null) {
+            hits.incrementAndGet();
+            return cached;
+        }
+        misses.incrementAndGet();
+        Map<String, byte[]> classBytes = compileUncached(className, source, progress);
+        cache.put(key, classBytes);
+        return classBytes;
+    }
+
+    private synchronized Map<String, byte[]> compileUncached(String className, String source,
+                                                            Consumer<String> progress)
+            throws SketchCompilationException, IOException {
+        long start = System.nanoTime();
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        fileManager.clear();
+        try {
+            JavaCompiler.CompilationTask task = compiler.getTask(
+                    null, fileManager, diagnostics,
+                    List.of("-proc:none"),
+                    null, List.of(MemoryFileManager.sourceFile(className, source)));
+            if(task instanceof JavacTask javacTask) {
+                javacTask.addTaskListener(new PhaseListener(progress));
+            }
+
+            boolean success;
+            try {
+                success = task.call();
+            } catch (RuntimeException e) {
+                // javac wraps exceptions thrown from task listeners
+                if(e.getCause() instanceof CancellationException) {
+                    throw (CancellationException) e.getCause();
+                }
+                throw e;
+            }
+
+            if(!success) {
+                StringBuilder errorMsg = new StringBuilder();
+                diagnostics.getDiagnostics().forEach(d ->
+                        errorMsg.append(d.getKind()).append(": ").append(d.getMessage(null))
+                        .append("\n"));
+                throw new SketchCompilationException(errorMsg.toString());
+            }
+            return Map.copyOf(fileManager.getClassBytes());
+        } finally {
+            // Drop the per-task state; the opened archives stay cached in the file manager
+            fileManager.clear();
+            long elapsed = System.nanoTime() - start;
+            compilations.incrementAndGet();
+            totalCompileNanos.addAndGet(elapsed);
+            lastCompileNanos.set(elapsed);
+        }
+    }
+
+    private static class PhaseListener implements TaskListener {
+        private final Consumer<String> progress;
+        private TaskEvent.Kind lastKind;
+
+        PhaseListener(Consumer<String> progress) {
+            this.progress = progress;
+        }
+
+        @Override
+        public void started(TaskEvent e) {
+            checkInterrupted();
+            if(progress == null || e.getKind() == lastKind) return;
+            lastKind = e.getKind();
+            switch (lastKind) {
+                case PARSE -> progress.accept("Parsing");
+                case ANALYZE -> progress.accept("Analyzing");
+                case GENERATE -> progress.accept("Generating bytecode");
+                default -> { }
+            }
+        }
+
+        @Override
+        public void finished(TaskEvent e) {
+            checkInterrupted();
+        }
+
+        private void checkInterrupted() {
+            if(Thread.currentThread().isInterrupted()) {
+                throw new CancellationException("Compilation cancelled");
+            }
+        }
+    }
+
+    public Stats getStats() {
+        long count = compilations.get();
+        return new Stats(hits.get(), misses.get(), count,
+                lastCompileNanos.get() / 1e6,
+                count == 0 ? 0 : totalCompileNanos.get() / 1e6 / count);
+    }
+
+    public synchronized void clearCache() {
+        cache.clear();
+    }
+
+    // Names bytecode compiled from source by this JDK; bytecode saved under any other key is compiled again
+    public static String cacheKey(String source) {
+        return Runtime.version() + "/" + hash(source);
+    }
+
+    // cacheKey followed by an HMAC of it and the bytecode under this installation's secret.
+    // Anyone can work out a cacheKey, so seed only takes bytecode this installation signed itself.
+    public static String signedKey(String source, Map<String, byte[]> classBytes) {
+        String key = cacheKey(source);
+        return key + "/" + HexFormat.of().formatHex(mac(key, classBytes));
+    }
+
+    // The cached bytecode of source, or null; not counted as a hit or miss
+    public synchronized Map<String, byte[]> getCached(String source) {
+        return cache.get(hash(source));
+    }
+
+    // Puts bytecode compiled earlier, e.g. saved with a project, back in the cache so the next compile of
+    // source skips javac. Only taken if key is the signedKey of this source and bytecode on this JDK,
+    // so bytecode from another installation, or edited after saving, is compiled again.
+    public synchronized boolean seed(String source, String key, Map<String, byte[]> classBytes) {
+        if(classBytes == null || classBytes.isEmpty() || key == null) return false;
+        String expected = cacheKey(source) + "/";
+        if(!key.startsWith(expected)) return false;
+        byte[] signature;
+        try {
+            signature = HexFormat.of().parseHex(key.substring(expected.length()));
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+        if(!MessageDigest.isEqual(signature, mac(cacheKey(source), classBytes))) return false;
+        cache.put(hash(source), Map.copyOf(classBytes));
+        return true;
+    }
+
+    private static byte[] mac(String key, Map<String, byte[]> classBytes) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(Secret.KEY, "HmacSHA256"));
+            mac.update(key.getBytes(StandardCharsets.UTF_8));
+            // Names and lengths are included so the class boundaries cannot be shifted
+            for(String name : new TreeSet<>(classBytes.keySet())) {
+                byte[] bytes = classBytes.get(name);
+                byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+                mac.update(intBytes(nameBytes.length));
+                mac.update(nameBytes);
+                mac.update(intBytes(bytes.length));
+                mac.update(bytes);
+            }
+            return mac.doFinal();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static byte[] intBytes(int value) {
+        return new byte[]{ (byte) (value >>> 24), (byte) (value >>> 16), (byte) (value >>> 8), (byte) value };
+    }
+
+    // Random secret of this installation, created in ~/.sketchide on first use and readable by the owner only.
+    // If it cannot be stored, a secret for this session is used and saved bytecode is only trusted until exit.
+    private static class Secret {
+        static final int LENGTH = 32;
+        static final byte[] KEY = load(Path.of(System.getProperty("user.home"), ".sketchide", "bytecode.key"));
+
+        private static byte[] load(Path file) {
+            try {
+                if(!Files.exists(file)) {
+                    byte[] secret = new byte[LENGTH];
+                    new SecureRandom().nextBytes(secret);
+                    Files.createDirectories(file.getParent());
+                    try {
+                        if(file.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+                            Files.createFile(file, PosixFilePermissions.asFileAttribute(
+                                    PosixFilePermissions.fromString("rw-------")));
+                        } else {
+                            Files.createFile(file);
+                        }
+                        Files.write(file, secret);
+                        return secret;
+                    } catch (FileAlreadyExistsException e) {
+                        // Another instance created it first
+                    }
+                }
+                byte[] secret = Files.readAllBytes(file);
+                if(secret.length == LENGTH) return secret;
+            } catch (IOException e) {
+                System.err.println("Could not store the bytecode key: " + e.getMessage());
+            }
+            byte[] secret = new byte[LENGTH];
+            new SecureRandom().nextBytes(secret);
+            return secret;
+        }
+    }
+
+    static String hash(String source) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(source.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public record Stats(long hits, long misses, long compilations,
+                        double lastCompileMillis, double averageCompileMillis) {
+        @Override
+        public String toString() {
+            return String.format("cache %d hit / %d miss, %d compiles, last %.1f ms, avg %.1f ms",
+                    hits, misses, compilations, lastCompileMillis, averageCompileMillis);
+        }
+    }
+}
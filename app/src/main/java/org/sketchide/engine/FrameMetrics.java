@@ -0,0 +1,244 @@
+package org.sketchide.engine;
+
+import javax.management.*;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+
+// Per-frame timings for the canvas: how long draw() takes, how far apart frames really are
+// compared with the init() delay, how much the sketch allocates and how much time goes to GC.
+// Frames are recorded by whichever single thread renders (EDT or render loop); readers
+// (HUD, JMX, CSV) may run on any thread.
+public class FrameMetrics implements FrameMetricsMXBean {
+
+    public static final String OBJECT_NAME = "org.sketchide:type=FrameMetrics";
+
+    // Most recent per-frame samples kept for the CSV dump
+    private static final int RECENT_FRAMES = 4096;
+
+    private final LatencyHistogram drawTime = new LatencyHistogram();
+    private final LatencyHistogram frameInterval = new LatencyHistogram();
+    private final LatencyHistogram allocatedBytes = new LatencyHistogram();
+
+    private final long[] recentDraw = new long[RECENT_FRAMES];
+    private final long[] recentInterval = new long[RECENT_FRAMES];
+    private final long[] recentAllocated = new long[RECENT_FRAMES];
+
+    private final com.sun.management.ThreadMXBean threadBean;
+    private final List<GarbageCollectorMXBean> gcBeans = ManagementFactory.getGarbageCollectorMXBeans();
+
+    private volatile long frames;
+    private volatile long missedDeadlines;
+    private volatile long targetIntervalNanos;
+    private volatile long gcMillisAtReset;
+    private volatile long resetNanos = System.nanoTime();
+
+    // Written by the rendering thread only
+    private long frameStart;
+    private long lastFrameStart;
+    private long allocatedAtStart;
+
+    public FrameMetrics() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if(bean instanceof com.sun.management.ThreadMXBean sunBean && sunBean.isThreadAllocatedMemorySupported()) {
+            sunBean.setThreadAllocatedMemoryEnabled(true);
+            threadBean = sunBean;
+        } else {
+            threadBean = null;
+        }
+        gcMillisAtReset = totalGcMillis();
+    }
+
+    // Registers with the platform MBean server; failures only mean there is no JMX view
+    public void registerMBean() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if(server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(this, name);
+        } catch (JMException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // The init() delay of the running animation, 0 for static sketches
+    public void setTargetIntervalMillis(int millis) {
+        targetIntervalNanos = Math.max(0, millis) * 1_000_000L;
+        lastFrameStart = 0;
+    }
+
+    public void frameStarted() {
+        frameStart = System.nanoTime();
+        if(threadBean != null) {
+            allocatedAtStart = threadBean.getCurrentThreadAllocatedBytes();
+        }
+    }
+
+    public void frameFinished() {
+        long now = System.nanoTime();
+        long draw = now - frameStart;
+        long allocated = threadBean == null ? 0 : threadBean.getCurrentThreadAllocatedBytes() - allocatedAtStart;
+        long interval = lastFrameStart == 0 ? 0 : frameStart - lastFrameStart;
+        lastFrameStart = frameStart;
+
+        int slot = (int) (frames % RECENT_FRAMES);
+        recentDraw[slot] = draw;
+        recentInterval[slot] = interval;
+        recentAllocated[slot] = allocated;
+
+        drawTime.record(draw);
+        allocatedBytes.record(allocated);
+        if(interval > 0) {
+            frameInterval.record(interval);
+            // A frame counts as late once it slips by more than half a frame
+            long target = targetIntervalNanos;
+            if(target > 0 && interval > target + target / 2) {
+                missedDeadlines++;
+            }
+        }
+        frames++;
+    }
+
+    @Override
+    public long getFrames() {
+        return frames;
+    }
+
+    @Override
+    public long getMissedDeadlines() {
+        return missedDeadlines;
+    }
+
+    @Override
+    public int getTargetIntervalMillis() {
+        return (int) (targetIntervalNanos / 1_000_000L);
+    }
+
+    @Override
+    public double getDrawTimeP50Millis() {
+        return drawTime.getPercentile(50) / 1e6;
+    }
+
+    @Override
+    public double getDrawTimeP95Millis() {
+        return drawTime.getPercentile(95) / 1e6;
+    }
+
+    @Override
+    public double getDrawTimeP99Millis() {
+        return drawTime.getPercentile(99) / 1e6;
+    }
+
+    @Override
+    public double getFrameIntervalP50Millis() {
+        return frameInterval.getPercentile(50) / 1e6;
+    }
+
+    @Override
+    public double getFrameIntervalP95Millis() {
+        return frameInterval.getPercentile(95) / 1e6;
+    }
+
+    @Override
+    public double getFrameIntervalP99Millis() {
+        return frameInterval.getPercentile(99) / 1e6;
+    }
+
+    @Override
+    public long getAllocatedBytesPerFrameP50() {
+        return allocatedBytes.getPercentile(50);
+    }
+
+    @Override
+    public long getAllocatedBytesPerFrameP99() {
+        return allocatedBytes.getPercentile(99);
+    }
+
+    // Share of wall time spent in GC since the last reset
+    @Override
+    public double getGcTimePercent() {
+        double elapsedMillis = (System.nanoTime() - resetNanos) / 1e6;
+        if(elapsedMillis <= 0) return 0;
+        return 100.0 * (totalGcMillis() - gcMillisAtReset) / elapsedMillis;
+    }
+
+    // Rough verdict on what limits the frame rate
+    @Override
+    public String getDiagnosis() {
+        long target = targetIntervalNanos;
+        if(frames < 10) return "warming up";
+        if(getGcTimePercent() > 10) return "GC-bound";
+        if(target > 0 && drawTime.getPercentile(95) > target * 8 / 10) return "CPU-bound";
+        if(target > 0 && frameInterval.getPercentile(50) > target + target / 5) return "timer-throttled";
+        return "OK";
+    }
+
+    @Override
+    public void reset() {
+        drawTime.reset();
+        frameInterval.reset();
+        allocatedBytes.reset();
+        frames = 0;
+        missedDeadlines = 0;
+        gcMillisAtReset = totalGcMillis();
+        resetNanos = System.nanoTime();
+    }
+
+    public String summary() {
+        return String.format("draw p50 %.2f  p95 %.2f  p99 %.2f ms%n"
+                        + "interval p50 %.2f  p99 %.2f ms (target %d)%n"
+                        + "missed %d / %d frames%n"
+                        + "alloc p50 %s  p99 %s per frame%n"
+                        + "gc %.1f%%  -> %s",
+                getDrawTimeP50Millis(), getDrawTimeP95Millis(), getDrawTimeP99Millis(),
+                getFrameIntervalP50Millis(), getFrameIntervalP99Millis(), getTargetIntervalMillis(),
+                missedDeadlines, frames,
+                formatBytes(getAllocatedBytesPerFrameP50()), formatBytes(getAllocatedBytesPerFrameP99()),
+                getGcTimePercent(), getDiagnosis());
+    }
+
+    // Percentile summary followed by the most recent per-frame samples
+    public void writeCsv(Writer out) throws IOException {
+        PrintWriter pw = new PrintWriter(out);
+        pw.println("metric,count,mean,p50,p95,p99,max");
+        writeRow(pw, "draw_ns", drawTime);
+        writeRow(pw, "interval_ns", frameInterval);
+        writeRow(pw, "allocated_bytes", allocatedBytes);
+        pw.println();
+        pw.println("frame,draw_ns,interval_ns,allocated_bytes");
+        long last = frames;
+        for(long f = Math.max(0, last - RECENT_FRAMES); f < last; f++) {
+            int slot = (int) (f % RECENT_FRAMES);
+            pw.println(f + "," + recentDraw[slot] + "," + recentInterval[slot] + "," + recentAllocated[slot]);
+        }
+        pw.flush();
+        if(pw.checkError()) {
+            throw new IOException("Failed writing frame metrics");
+        }
+    }
+
+    private static void writeRow(PrintWriter pw, String name, LatencyHistogram histogram) {
+        pw.printf("%s,%d,%.1f,%d,%d,%d,%d%n", name, histogram.getCount(), histogram.getMean(),
+                histogram.getPercentile(50), histogram.getPercentile(95), histogram.getPercentile(99),
+                histogram.getMax());
+    }
+
+    private long totalGcMillis() {
+        long total = 0;
+        for(GarbageCollectorMXBean gc : gcBeans) {
+            total += Math.max(0, gc.getCollectionTime());
+        }
+        return total;
+    }
+
+    private static String formatBytes(long bytes) {
+        if(bytes < 1024) return bytes + " B";
+        if(bytes < 1024 * 1024) return String.format("%.1f KB", bytes / 1024.0);
+        return String.format("%.1f MB", bytes / (1024.0 * 1024.0));
+    }
+}
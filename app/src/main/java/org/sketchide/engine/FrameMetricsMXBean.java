@@ -0,0 +1,19 @@
+package org.sketchide.engine;
+
+// JMX view of the canvas frame metrics, registered as org.sketchide:type=FrameMetrics
+public interface FrameMetricsMXBean {
+    long getFrames();
+    long getMissedDeadlines();
+    int getTargetIntervalMillis();
+    double getDrawTimeP50Millis();
+    double getDrawTimeP95Millis();
+    double getDrawTimeP99Millis();
+    double getFrameIntervalP50Millis();
+    double getFrameIntervalP95Millis();
+    double getFrameIntervalP99Millis();
+    long getAllocatedBytesPerFrameP50();
+    long getAllocatedBytesPerFrameP99();
+    double getGcTimePercent();
+    String getDiagnosis();
+    void reset();
+}
@@ -0,0 +1,82 @@
+package org.sketchide.engine;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Lock-free log-linear histogram for non-negative long samples (nanoseconds, bytes).
+// Every power of two is split into 16 linear sub-buckets, which bounds the relative error of
+// reported percentiles to about 6% while using a fixed array of under a thousand counters.
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(long value) {
+        if(value < 0) value = 0;
+        counts.incrementAndGet(indexOf(value));
+        total.incrementAndGet();
+        sum.addAndGet(value);
+        long currentMax;
+        while(value > (currentMax = max.get()) && !max.compareAndSet(currentMax, value)) {
+            // retry until the larger value sticks
+        }
+    }
+
+    public long getCount() {
+        return total.get();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    public double getMean() {
+        long count = total.get();
+        return count == 0 ? 0 : (double) sum.get() / count;
+    }
+
+    // Upper bound of the bucket holding the given percentile (0-100), 0 if nothing was recorded
+    public long getPercentile(double percentile) {
+        long count = total.get();
+        if(count == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * count));
+        long seen = 0;
+        for(int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if(seen >= rank) {
+                return Math.min(upperBoundOf(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    public void reset() {
+        for(int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+        total.set(0);
+        sum.set(0);
+        max.set(0);
+    }
+
+    static int indexOf(long value) {
+        if(value < SUB_BUCKETS) return (int) value;
+        int msb = 63 - Long.numberOfLeadingZeros(value);
+        int shift = msb - SUB_BUCKET_BITS;
+        int sub = (int) (value >>> shift) & (SUB_BUCKETS - 1);
+        return (shift + 1) * SUB_BUCKETS + sub;
+    }
+
+    static long upperBoundOf(int index) {
+        if(index < SUB_BUCKETS) return index;
+        int shift = index / SUB_BUCKETS - 1;
+        long sub = index % SUB_BUCKETS;
+        return ((SUB_BUCKETS + sub + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,76 @@
+package org.sketchide.engine;
+
+import javax.tools.*;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.*;
+
+// File manager that keeps compiler output in memory instead of writing .class files to disk
+public class MemoryFileManager extends ForwardingJavaFileManager<StandardJavaFileManager> {
+
+    private final Map<String, ClassFile> classFiles = new LinkedHashMap<>();
+
+    public MemoryFileManager(StandardJavaFileManager fileManager) {
+        super(fileManager);
+    }
+
+    @Override
+    public JavaFileObject getJavaFileForOutput(Location location, String className,
+                                               JavaFileObject.Kind kind, FileObject sibling) {
+        ClassFile file = new ClassFile(className, kind);
+        classFiles.put(className, file);
+        return file;
+    }
+
+    // Returns the bytecode of every class produced by the last compilation, keyed by binary name
+    public Map<String, byte[]> getClassBytes() {
+        Map<String, byte[]> bytes = new LinkedHashMap<>();
+        classFiles.forEach((name, file) -> bytes.put(name, file.getBytes()));
+        return bytes;
+    }
+
+    public void clear() {
+        classFiles.clear();
+    }
+
+    public static JavaFileObject sourceFile(String className, String source) {
+        return new SourceFile(className, source);
+    }
+
+    private static URI uriFor(String className, JavaFileObject.Kind kind) {
+        return URI.create("mem:///" + className.replace('.', '/') + kind.extension);
+    }
+
+    private static class SourceFile extends SimpleJavaFileObject {
+        private final String source;
+
+        SourceFile(String className, String source) {
+            super(uriFor(className, Kind.SOURCE), Kind.SOURCE);
+            this.source = source;
+        }
+
+        @Override
+        public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+            return source;
+        }
+    }
+
+    private static class ClassFile extends SimpleJavaFileObject {
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        ClassFile(String className, Kind kind) {
+            super(uriFor(className, kind), kind);
+        }
+
+        @Override
+        public OutputStream openOutputStream() {
+            out.reset();
+            return out;
+        }
+
+        byte[] getBytes() {
+            return out.toByteArray();
+        }
+    }
+}
@@ -0,0 +1,225 @@
+package org.sketchide.engine;
+
+import org.sketchide.export.FrameDiff;
+import org.sketchide.ui.SketchCanvasPanel;
+
+import java.awt.*;
+import java.awt.image.VolatileImage;
+import java.util.concurrent.locks.LockSupport;
+
+// Drives an animated sketch from its own thread instead of a javax.swing.Timer.
+// Steps run on a fixed timestep of init() milliseconds: each step draws the sketch into the
+// canvas' retained frame, and the finished frame is then blitted straight onto the canvas
+// (active rendering) rather than waiting for a coalesced repaint on the EDT.
+//
+// The screen is painted from an accelerated back buffer. The retained frame's pixels are written
+// directly, so Java2D cannot cache it in video memory itself; the back buffer holds a copy there and
+// only the area that changed is uploaded after each step.
+public class RenderLoop implements Runnable {
+
+    // How many missed steps are caught up before the loop gives up and resynchronises
+    private static final int MAX_CATCH_UP_STEPS = 5;
+    // Below this the loop spins instead of parking, parkNanos is not precise enough
+    private static final long SPIN_THRESHOLD_NANOS = 1_000_000;
+
+    private final SketchCanvasPanel canvas;
+    private volatile long stepNanos;
+    private volatile boolean running;
+    private volatile boolean paused;
+    private Thread thread;
+    private volatile long frameCount;
+
+    private final Object bufferLock = new Object();
+    private VolatileImage backBuffer;
+    // Area of the back buffer behind the canvas' frame; everything when null and stale is set
+    private Rectangle staleArea;
+    private boolean stale = true;
+
+    // The sketch is whatever the canvas currently holds, so a hot reload is picked up at the next step
+    public RenderLoop(SketchCanvasPanel canvas, int delayMillis) {
+        this.canvas = canvas;
+        setDelay(delayMillis);
+    }
+
+    public void start() {
+        if(thread != null) return;
+        running = true;
+        thread = new Thread(this, "sketch-render-loop");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // Ends the loop thread for good
+    public void stop() {
+        running = false;
+        if(thread != null) {
+            LockSupport.unpark(thread);
+            try {
+                thread.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            thread = null;
+        }
+        // Gives the video memory back
+        synchronized (bufferLock) {
+            if(backBuffer != null) backBuffer.flush();
+            backBuffer = null;
+            frameChanged(null);
+        }
+    }
+
+    public void pause() {
+        paused = true;
+    }
+
+    public void resume() {
+        paused = false;
+        if(thread != null) LockSupport.unpark(thread);
+    }
+
+    public boolean isRunning() {
+        return running && !paused;
+    }
+
+    public void setDelay(int delayMillis) {
+        stepNanos = Math.max(1, delayMillis) * 1_000_000L;
+    }
+
+    public int getDelay() {
+        return (int) (stepNanos / 1_000_000L);
+    }
+
+    public long getFrameCount() {
+        return frameCount;
+    }
+
+    @Override
+    public void run() {
+        long nextStep = System.nanoTime();
+        while(running) {
+            if(paused) {
+                LockSupport.park(this);
+                nextStep = System.nanoTime();
+                continue;
+            }
+
+            long now = System.nanoTime();
+            int steps = 0;
+            Rectangle changed = null;
+            while(now - nextStep >= 0 && steps < MAX_CATCH_UP_STEPS) {
+                changed = FrameDiff.union(changed, step());
+                nextStep += stepNanos;
+                steps++;
+            }
+            if(now - nextStep >= stepNanos) {
+                // Hopelessly behind (heavy sketch or a long GC pause): drop the backlog
+                nextStep = now + stepNanos;
+            }
+            if(steps > 0) {
+                present(changed);
+            }
+            waitUntil(nextStep);
+        }
+    }
+
+    private void waitUntil(long deadline) {
+        long remaining;
+        while(running && !paused && (remaining = deadline - System.nanoTime()) > 0) {
+            if(remaining > SPIN_THRESHOLD_NANOS) {
+                LockSupport.parkNanos(this, remaining - SPIN_THRESHOLD_NANOS);
+            } else {
+                Thread.onSpinWait();
+            }
+        }
+    }
+
+    // Advances the sketch by one frame, drawing it into the canvas' retained frame. Returns what changed.
+    private Rectangle step() {
+        Rectangle changed = null;
+        try {
+            changed = canvas.renderFrame();
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        }
+        frameCount++;
+        return changed;
+    }
+
+    // Blits only the area that changed; a frame identical to the one on screen is not blitted at all
+    private void present(Rectangle changed) {
+        if(changed != null) frameChanged(changed);
+        Rectangle area = canvas.repaintArea(changed);
+        if(area == null) return;
+        Graphics g = canvas.getGraphics();
+        if(g == null) return;
+        try {
+            g.clipRect(area.x, area.y, area.width, area.height);
+            paintFrame(g);
+            canvas.paintOverlay(g);
+        } finally {
+            g.dispose();
+        }
+        Toolkit.getDefaultToolkit().sync();
+    }
+
+    // The canvas' frame changed inside area (all of it if null); the back buffer copies it at the next paint
+    public void frameChanged(Rectangle area) {
+        synchronized (bufferLock) {
+            if(area == null || (stale && staleArea == null)) {
+                staleArea = null;
+            } else {
+                staleArea = stale ? FrameDiff.union(staleArea, area) : new Rectangle(area);
+            }
+            stale = true;
+        }
+    }
+
+    // Blits the last finished frame from the back buffer; also used by the canvas when Swing asks it to
+    // repaint while the loop is attached
+    public void paintFrame(Graphics g) {
+        synchronized (bufferLock) {
+            int w = canvas.getWidth();
+            int h = canvas.getHeight();
+            GraphicsConfiguration gc = canvas.getGraphicsConfiguration();
+            if(gc == null || w <= 0 || h <= 0) {
+                canvas.paintFrame(g);
+                return;
+            }
+            if(backBuffer == null || backBuffer.getWidth() != w || backBuffer.getHeight() != h) {
+                if(backBuffer != null) backBuffer.flush();
+                backBuffer = gc.createCompatibleVolatileImage(w, h);
+                frameChanged(null);
+            }
+            // Video memory can be lost at any time (display change, another full-screen app); then the
+            // whole frame is copied up again
+            for(int attempt = 0; attempt < 3; attempt++) {
+                int status = backBuffer.validate(gc);
+                if(status == VolatileImage.IMAGE_INCOMPATIBLE) {
+                    backBuffer.flush();
+                    backBuffer = gc.createCompatibleVolatileImage(w, h);
+                    frameChanged(null);
+                } else if(status == VolatileImage.IMAGE_RESTORED) {
+                    frameChanged(null);
+                }
+                if(stale) {
+                    Graphics2D bg = backBuffer.createGraphics();
+                    try {
+                        if(staleArea != null) bg.clip(staleArea);
+                        bg.setColor(canvas.getBackground());
+                        bg.fillRect(0, 0, w, h);
+                        canvas.paintFrame(bg);
+                    } finally {
+                        bg.dispose();
+                    }
+                    stale = false;
+                    staleArea = null;
+                }
+                g.drawImage(backBuffer, 0, 0, null);
+                if(!backBuffer.contentsLost()) return;
+                frameChanged(null);
+            }
+        }
+    }
+
+}
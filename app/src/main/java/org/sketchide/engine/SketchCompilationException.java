@@ -0,0 +1,9 @@
+package org.sketchide.engine;
+
+// Thrown when javac rejects the wrapped sketch source; the message holds the formatted diagnostics
+public class SketchCompilationException extends Exception {
+
+    public SketchCompilationException(String message) {
+        super(message);
+    }
+}
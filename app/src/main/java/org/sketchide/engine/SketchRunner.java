@@ -2,108 +2,299 @@ package org.sketchide.engine;
 
 import org.sketchide.ui.SketchCanvasPanel;
 
-import javax.tools.*;
-import java.net.*;
-import java.nio.file.*;
+import java.awt.Graphics2D;
+import java.io.IOException;
+import java.lang.reflect.Method;
 import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import javax.swing.SwingUtilities;
 import javax.swing.Timer;
 
 public class SketchRunner {
 
+    private static final String SKETCH_CLASS = "UserSketch";
+
     private final String code;
     private final SketchCanvasPanel canvasPanel;
     public Timer animationTimer;
+    public RenderLoop renderLoop;
     public SketchRunner(String code, SketchCanvasPanel canvasPanel) {
         this.code = code;
         this.canvasPanel = canvasPanel;
     }
-    public Path tempDir;
     public Class<?> cls;
 
-    public void run(String mode) {
-        try {
-//           Prepare temp directory for the sketch file for compilation
-            tempDir = Files.createTempDirectory("sketch");
-//            Write source file
-            String className = "UserSketch";
-            Path packageDir = tempDir.resolve("dynamic");
-            Files.createDirectories(packageDir);
-            Path sourceFile = packageDir.resolve(className + ".java");
-            Files.writeString(sourceFile, wrapSource(className, code));
-
-            // 3) Compile
-            JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
-            DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
-            StandardJavaFileManager fileManager =
-                    compiler.getStandardFileManager(diagnostics, null, null);
-
-            Iterable<? extends JavaFileObject> compUnits =
-                    fileManager.getJavaFileObjectsFromFiles(List.of(sourceFile.toFile()));
-
-            JavaCompiler.CompilationTask task = compiler.getTask(
-                    null, fileManager, diagnostics,
-                    List.of("-classpath", System.getProperty("java.class.path")),
-                    null, compUnits);
-
-            boolean success = task.call();
-            fileManager.close();
-
-            if (!success) {
-                StringBuilder errorMsg = new StringBuilder();
-                diagnostics.getDiagnostics().forEach(d ->
-                        errorMsg.append(d.getKind()).append(": ").append(d.getMessage(null))
-                        .append("\n"));
-                canvasPanel.showError(errorMsg.toString());
-                return;
-            }
+    private volatile boolean cancelled;
+    private Future<?> pending;
+    private int delaySketch;
+    private Sketch sketch;
+    private boolean useRenderLoop;
+
+    // Live runner whose sketch and timer this one takes over instead of starting from scratch
+    private SketchRunner swapSource;
+
+    // Animate on a dedicated render thread instead of a Swing timer
+    public void setUseRenderLoop(boolean useRenderLoop) {
+        this.useRenderLoop = useRenderLoop;
+    }
+
+    // Turns the next runAsync into a hot reload of whatever previous is showing:
+    // instance fields are carried over and the running animation timer is kept.
+    public void hotSwapFrom(SketchRunner previous) {
+        // A hot reload that is itself still compiling has not taken anything over yet
+        while(previous != null && previous.sketch == null && previous.swapSource != null) {
+            previous = previous.swapSource;
+        }
+        swapSource = previous;
+    }
 
-            // 4) Load class
-            URLClassLoader loader = new URLClassLoader(
-                    new URL[]{ tempDir.toUri().toURL() },
-                    this.getClass().getClassLoader()
-            );
-            cls = loader.loadClass("dynamic.UserSketch");
-            Sketch sketch = (Sketch) cls.getDeclaredConstructor().newInstance();
-
-            // 5) Set and repaint
-            canvasPanel.setSketch(sketch);
-            if(mode.equals("Static Sketch")) canvasPanel.repaint();
-            else {
-                int delaySketch = sketch.init();
-                animationTimer = null;
-                animationTimer = new Timer(delaySketch, e -> {
-                    canvasPanel.repaint();
+    // Compiles, loads and instantiates the sketch on the executor; only the final
+    // hand-over to the canvas runs on the EDT. progress may be called from any thread.
+    public Future<?> runAsync(String mode, ExecutorService executor, Consumer<String> progress) {
+        pending = executor.submit(() -> {
+            try {
+                Sketch loaded = load(mode, progress);
+                SwingUtilities.invokeLater(() -> {
+                    if(cancelled) return;
+                    if(swapSource != null && swapSource.sketch != null) {
+                        int copied = hotSwap(loaded, mode);
+                        progress.accept("Running (hot reload, " + copied + " fields kept)");
+                    } else {
+                        start(loaded, mode);
+                        progress.accept("Running");
+                    }
+                });
+            } catch (SketchCompilationException e) {
+                if(cancelled) return;
+                progress.accept("Compilation failed");
+                SwingUtilities.invokeLater(() -> {
+                    // A failed hot reload leaves the old sketch running, now owned by this runner
+                    if(!cancelled && swapSource != null) adopt(swapSource);
+                    canvasPanel.showError(e.getMessage());
                 });
-                animationTimer.setInitialDelay(0);
-                animationTimer.start();
+            } catch (CancellationException | InterruptedException e) {
+                progress.accept("Cancelled");
+            } catch (Exception e) {
+                if(cancelled) return;
+                progress.accept("Failed: " + e);
+                e.printStackTrace();
+                SwingUtilities.invokeLater(() -> {
+                    if(!cancelled && swapSource != null) adopt(swapSource);
+                });
+            }
+        });
+        return pending;
+    }
+
+    // Drops this run: an in-flight compile is interrupted and its result is never shown
+    public void cancel() {
+        cancelled = true;
+        if(pending != null) {
+            pending.cancel(true);
+        }
+    }
+
+    private Sketch load(String mode, Consumer<String> progress) throws Exception {
+        cls = compileSketchClass(code, progress);
+        checkCancelled();
+
+        progress.accept("Loading sketch");
+        Sketch instance = (Sketch) cls.getDeclaredConstructor().newInstance();
+        checkCancelled();
+
+        if(!mode.equals("Static Sketch")) {
+            delaySketch = instance.init();
+        }
+        checkCancelled();
+        return instance;
+    }
+
+    // Wraps, compiles and loads sketch code without touching any UI; each call gets its own class loader
+    public static Class<?> compileSketchClass(String code, Consumer<String> progress)
+            throws SketchCompilationException, IOException, ClassNotFoundException {
+        return compileSketchClass(CompilerService.getInstance(), code, progress);
+    }
+
+    // Same, with a compiler other than the shared one
+    static Class<?> compileSketchClass(CompilerService compiler, String code, Consumer<String> progress)
+            throws SketchCompilationException, IOException, ClassNotFoundException {
+        // Compile the wrapped source in memory; unchanged sources come straight from the cache
+        progress.accept("Compiling");
+        Map<String, byte[]> classBytes = compiler.compile("dynamic." + SKETCH_CLASS, wrapSource(SKETCH_CLASS, code), progress);
+
+        // Load class straight from the compiled bytes
+        ByteArrayClassLoader loader = new ByteArrayClassLoader(
+                classBytes,
+                SketchRunner.class.getClassLoader()
+        );
+        Class<?> cls = loader.loadClass("dynamic." + SKETCH_CLASS);
+        // TimedSketch gives both draws a default, so javac accepts a body that defines neither
+        if(!declaresDraw(cls)) {
+            throw new SketchCompilationException(
+                    "Sketch must implement draw(Graphics2D) or draw(Graphics2D, long, double)");
+        }
+        return cls;
+    }
+
+    private static boolean declaresDraw(Class<?> cls) {
+        for(Method method : cls.getDeclaredMethods()) {
+            if(!method.getName().equals("draw") || method.isBridge()) continue;
+            Class<?>[] params = method.getParameterTypes();
+            if(Arrays.equals(params, new Class<?>[]{ Graphics2D.class })
+                    || Arrays.equals(params, new Class<?>[]{ Graphics2D.class, long.class, double.class })) {
+                return true;
             }
+        }
+        return false;
+    }
+
+    // Key to save the bytecode compiled from sketch code under, see CompilerService.signedKey
+    public static String compiledKey(String code, Map<String, byte[]> classBytes) {
+        return CompilerService.signedKey(wrapSource(SKETCH_CLASS, code), classBytes);
+    }
+
+    // The bytecode of sketch code if it was compiled recently, or null
+    public static Map<String, byte[]> compiledClasses(String code) {
+        return CompilerService.getInstance().getCached(wrapSource(SKETCH_CLASS, code));
+    }
+
+    // Hands bytecode saved along with sketch code back to the compiler, so running it skips javac.
+    // False if it was compiled from other code, by another JDK or with another wrapper, or saved by another installation.
+    public static boolean restoreCompiled(String code, String key, Map<String, byte[]> classBytes) {
+        return CompilerService.getInstance().seed(wrapSource(SKETCH_CLASS, code), key, classBytes);
+    }
 
-        } catch(Exception e) {
-            e.printStackTrace();
+    private void checkCancelled() throws InterruptedException {
+        if(cancelled || Thread.currentThread().isInterrupted()) {
+            throw new InterruptedException("Run superseded");
         }
+    }
 
+    // Must be called on the EDT
+    private void start(Sketch sketch, String mode) {
+        this.sketch = sketch;
+        canvasPanel.setSketch(sketch);
+        canvasPanel.getMetrics().reset();
+        canvasPanel.setFrameDelay(mode.equals("Static Sketch") ? 0 : delaySketch);
+        if(mode.equals("Static Sketch")) canvasPanel.repaint();
+        else if(useRenderLoop) {
+            renderLoop = new RenderLoop(canvasPanel, delaySketch);
+            canvasPanel.setRenderLoop(renderLoop);
+            renderLoop.start();
+        }
+        else {
+            animationTimer = new Timer(delaySketch, e -> {
+                canvasPanel.nextFrame();
+            });
+            animationTimer.setInitialDelay(0);
+            animationTimer.start();
+        }
+    }
+
+    // Must be called on the EDT. Runs between two timer ticks, so the animation never stops.
+    private int hotSwap(Sketch loaded, String mode) {
+        Sketch old = swapSource.sketch;
+        int copied = SketchStateTransfer.transfer(old, loaded);
+        Timer timer = swapSource.animationTimer;
+        RenderLoop loop = swapSource.renderLoop;
+        adopt(swapSource);
+        sketch = loaded;
+        canvasPanel.swapSketch(loaded);
+
+        if(mode.equals("Static Sketch")) {
+            canvasPanel.repaint();
+        } else if(loop != null) {
+            if(loop.getDelay() != delaySketch) loop.setDelay(delaySketch);
+            canvasPanel.setFrameDelay(delaySketch);
+        } else if(timer == null) {
+            start(loaded, mode);
+        } else if(timer.getDelay() != delaySketch) {
+            timer.setDelay(delaySketch);
+            canvasPanel.setFrameDelay(delaySketch);
+        }
+        return copied;
+    }
+
+    // Takes over the sketch and timer of previous and drops its references,
+    // so nothing keeps the previous class loader reachable.
+    private void adopt(SketchRunner previous) {
+        sketch = previous.sketch;
+        if(cls == null) cls = previous.cls;
+        animationTimer = previous.animationTimer;
+        renderLoop = previous.renderLoop;
+        previous.sketch = null;
+        previous.cls = null;
+        previous.animationTimer = null;
+        previous.renderLoop = null;
+        swapSource = null;
+    }
+
+    public String getCode() {
+        return code;
+    }
+
+    public boolean isAnimated() {
+        return animationTimer != null || renderLoop != null;
+    }
+
+    // Milliseconds between animation frames, as returned by init()
+    public int getFrameDelay() {
+        if(renderLoop != null) return renderLoop.getDelay();
+        if(animationTimer != null) return animationTimer.getDelay();
+        return delaySketch;
     }
 
     public void stopAnimation() {
-        if(animationTimer != null && animationTimer.isRunning()) {
+        if(renderLoop != null) {
+            renderLoop.pause();
+        } else if(animationTimer != null && animationTimer.isRunning()) {
             animationTimer.stop();
+        } else if(animationTimer == null && swapSource != null) {
+            swapSource.stopAnimation();
         }
     }
 
     public void restartAnimation() {
-        if(animationTimer != null && !animationTimer.isRunning()) {
+        if(renderLoop != null) {
+            renderLoop.resume();
+        } else if(animationTimer != null && !animationTimer.isRunning()) {
             animationTimer.restart();
+        } else if(animationTimer == null && swapSource != null) {
+            swapSource.restartAnimation();
+        }
+    }
+
+    // Stops this run for good before another one replaces it; the render thread is ended
+    public void shutdown() {
+        cancel();
+        if(swapSource != null) {
+            swapSource.shutdown();
+            swapSource = null;
+        }
+        stopAnimation();
+        if(renderLoop != null) {
+            renderLoop.stop();
+            canvasPanel.setRenderLoop(null);
+            renderLoop = null;
         }
     }
 
-    private String wrapSource(String className, String body) {
+    static String wrapSource(String className, String body) {
         return """
             package dynamic;
             import java.awt.*;
+            import java.awt.geom.*;
+            import org.sketchide.audio.*;
             import org.sketchide.engine.Sketch;
-            public class %s implements Sketch {
+            import org.sketchide.engine.Stateless;
+            import org.sketchide.engine.TimedSketch;
+            import org.sketchide.engine.scene.*;
+            public class %s implements TimedSketch {
             %s
             }
             """.formatted(className, body);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,132 @@
+package org.sketchide.engine;
+
+import java.io.*;
+import java.lang.reflect.*;
+import java.util.*;
+
+// Carries instance state from an old sketch object over to a freshly compiled version of it.
+// A field is copied when the new class declares a field with the same name and the exact same type.
+// Anything that refers to classes of the old sketch (nested classes, collections of them) is skipped,
+// since those classes die with the old class loader.
+public final class SketchStateTransfer {
+
+    private SketchStateTransfer() {
+    }
+
+    // Returns the number of fields that were copied
+    public static int transfer(Object from, Object to) {
+        ClassLoader oldLoader = from.getClass().getClassLoader();
+        Map<String, Field> targetFields = new HashMap<>();
+        for(Field field : instanceFields(to.getClass())) {
+            targetFields.put(field.getName(), field);
+        }
+
+        int copied = 0;
+        for(Field source : instanceFields(from.getClass())) {
+            Field target = targetFields.get(source.getName());
+            if(target == null || source.getType() != target.getType()
+                    || !source.getGenericType().equals(target.getGenericType())
+                    || refersTo(source.getGenericType(), oldLoader)) {
+                continue;
+            }
+            try {
+                source.setAccessible(true);
+                target.setAccessible(true);
+                Object value = source.get(from);
+                if(value != null && value.getClass().getClassLoader() == oldLoader) {
+                    continue;
+                }
+                target.set(to, value);
+                copied++;
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                // Keep the value the new instance initialised itself
+            }
+        }
+        return copied;
+    }
+
+    // Writes the sketch's fields into bytes that restore() can apply to an instance of a later compile of
+    // the same code, in another JVM if need be. Returns null unless every field can be carried over that
+    // way: values must be Serializable and must not involve the sketch's own classes.
+    public static byte[] serialize(Object from) {
+        ClassLoader sketchLoader = from.getClass().getClassLoader();
+        List<Field> fields = instanceFields(from.getClass());
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeInt(fields.size());
+            for(Field field : fields) {
+                if(refersTo(field.getGenericType(), sketchLoader)) return null;
+                field.setAccessible(true);
+                Object value = field.get(from);
+                if(value != null && value.getClass().getClassLoader() == sketchLoader) return null;
+                out.writeUTF(field.getName());
+                out.writeUTF(field.getGenericType().getTypeName());
+                out.writeObject(value);
+            }
+        } catch (IOException | ReflectiveOperationException | RuntimeException e) {
+            // NotSerializableException and friends: this state cannot be saved
+            return null;
+        }
+        return bytes.toByteArray();
+    }
+
+    // Applies bytes from serialize(); fields are matched by name and declared type as in transfer().
+    // Returns false if the bytes could not be read, in which case the sketch may be partly updated.
+    public static boolean restore(byte[] state, Object to) {
+        Map<String, Field> targetFields = new HashMap<>();
+        for(Field field : instanceFields(to.getClass())) {
+            targetFields.put(field.getName(), field);
+        }
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(state))) {
+            int count = in.readInt();
+            for(int i = 0; i < count; i++) {
+                String name = in.readUTF();
+                String type = in.readUTF();
+                Object value = in.readObject();
+                Field target = targetFields.get(name);
+                if(target == null || !target.getGenericType().getTypeName().equals(type)) continue;
+                target.setAccessible(true);
+                target.set(to, value);
+            }
+            return true;
+        } catch (IOException | ReflectiveOperationException | RuntimeException e) {
+            return false;
+        }
+    }
+
+    private static List<Field> instanceFields(Class<?> cls) {
+        List<Field> fields = new ArrayList<>();
+        for(Field field : cls.getDeclaredFields()) {
+            if(!Modifier.isStatic(field.getModifiers()) && !field.isSynthetic()) {
+                fields.add(field);
+            }
+        }
+        return fields;
+    }
+
+    private static boolean refersTo(Type type, ClassLoader loader) {
+        if(type instanceof Class<?> cls) {
+            while(cls.isArray()) cls = cls.getComponentType();
+            return !cls.isPrimitive() && cls.getClassLoader() == loader;
+        }
+        if(type instanceof ParameterizedType parameterized) {
+            if(refersTo(parameterized.getRawType(), loader)) return true;
+            for(Type argument : parameterized.getActualTypeArguments()) {
+                if(refersTo(argument, loader)) return true;
+            }
+            return false;
+        }
+        if(type instanceof GenericArrayType array) {
+            return refersTo(array.getGenericComponentType(), loader);
+        }
+        if(type instanceof WildcardType wildcard) {
+            for(Type bound : wildcard.getUpperBounds()) {
+                if(refersTo(bound, loader)) return true;
+            }
+            for(Type bound : wildcard.getLowerBounds()) {
+                if(refersTo(bound, loader)) return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,227 @@
+package org.sketchide.engine;
+
+import org.sketchide.export.PngEncoder;
+import org.sketchide.export.VideoFrameRenderer;
+
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+// Turns sketch sources into thumbnails for the gallery. Sketches are wrapped and compiled like a Run,
+// then drawn off-screen by a small fixed pool of workers, each within a time budget. Results, failures
+// and timeouts included, are cached on disk under a hash of the source and the thumbnail settings, so
+// a sketch is only compiled and drawn again once its source changes.
+public class SketchThumbnails implements AutoCloseable {
+
+    // Sketches draw on a canvas of this size, which is then scaled down
+    public static final int CANVAS_WIDTH = 800;
+    public static final int CANVAS_HEIGHT = 600;
+    public static final int DEFAULT_WIDTH = 240;
+    public static final int DEFAULT_HEIGHT = 180;
+    public static final long DEFAULT_BUDGET_MILLIS = 2000;
+    // Animations are shown at this frame, far enough in for most of them to have something on screen
+    private static final int ANIMATION_FRAME = 30;
+    // Bump when the way thumbnails are drawn changes, so old cache entries are not used
+    private static final String CACHE_VERSION = "1";
+
+    // image is null when the sketch could not be shown; error then says why
+    public record Thumbnail(Path source, BufferedImage image, String error, boolean fromCache) {
+    }
+
+    private final Path cacheDir;
+    private final int width;
+    private final int height;
+    private final Color background;
+    private final long budgetMillis;
+    private final ExecutorService workers;
+    // A compiler of its own for each worker, with no cache (thumbnails are cached on disk): workers compile
+    // side by side, a Run never waits behind the gallery, and the Run cache keeps the editor's code
+    private final ThreadLocal<CompilerService> compilers = ThreadLocal.withInitial(() -> new CompilerService(0));
+
+    public SketchThumbnails(Path cacheDir, int width, int height, Color background, long budgetMillis, int threads) {
+        this.cacheDir = cacheDir;
+        this.width = width;
+        this.height = height;
+        this.background = background;
+        this.budgetMillis = budgetMillis;
+        AtomicInteger count = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(Math.max(1, threads), r -> {
+            Thread t = new Thread(r, "thumbnail-" + count.incrementAndGet());
+            t.setDaemon(true);
+            t.setPriority(Thread.NORM_PRIORITY - 1);
+            return t;
+        });
+    }
+
+    public static Path defaultCacheDir() {
+        return Path.of(System.getProperty("user.home"), ".sketchide", "thumbnails");
+    }
+
+    // Sketch sources in dir (*.java and *.sketch files holding what would be typed into the editor), by name
+    public static List<Path> listSketches(Path dir) throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(Files::isRegularFile)
+                    .filter(p -> p.toString().endsWith(".java") || p.toString().endsWith(".sketch"))
+                    .sorted()
+                    .toList();
+        }
+    }
+
+    // Queues every source; listener receives each thumbnail on a worker thread as soon as it is ready
+    public List<Future<Thumbnail>> render(List<Path> sources, Consumer<Thumbnail> listener) {
+        List<Future<Thumbnail>> futures = new ArrayList<>();
+        for(Path source : sources) {
+            futures.add(workers.submit(() -> {
+                Thumbnail thumbnail = thumbnail(source);
+                listener.accept(thumbnail);
+                return thumbnail;
+            }));
+        }
+        return futures;
+    }
+
+    // Stops the workers; sketches still being drawn are interrupted
+    @Override
+    public void close() {
+        workers.shutdownNow();
+    }
+
+    Thumbnail thumbnail(Path source) {
+        String code;
+        try {
+            code = Files.readString(source, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            return new Thumbnail(source, null, "Could not read: " + e.getMessage(), false);
+        }
+        String key = CompilerService.hash(CACHE_VERSION + "|" + width + "x" + height + "|"
+                + background.getRGB() + "|" + code);
+        Path png = cacheDir.resolve(key + ".png");
+        Path error = cacheDir.resolve(key + ".txt");
+
+        try {
+            if(Files.isRegularFile(png)) {
+                BufferedImage image = ImageIO.read(png.toFile());
+                if(image != null) return new Thumbnail(source, image, null, true);
+            }
+            if(Files.isRegularFile(error)) {
+                return new Thumbnail(source, null, Files.readString(error, StandardCharsets.UTF_8), true);
+            }
+        } catch (IOException e) {
+            // unreadable cache entry: render again below
+            e.printStackTrace();
+        }
+
+        Thumbnail thumbnail;
+        try {
+            thumbnail = new Thumbnail(source, render(code), null, false);
+        } catch (SketchCompilationException e) {
+            thumbnail = new Thumbnail(source, null, "Does not compile:\n" + e.getMessage(), false);
+        } catch (TimeoutException e) {
+            // Cached as well: trying again would leave one more thread stuck in the sketch every time
+            thumbnail = new Thumbnail(source, null, e.getMessage(), false);
+        } catch (ExecutionException e) {
+            thumbnail = new Thumbnail(source, null, "Failed: " + e.getCause(), false);
+        } catch (InterruptedException | CancellationException e) {
+            // Shutting down: nothing is cached
+            Thread.currentThread().interrupt();
+            return new Thumbnail(source, null, "Cancelled", false);
+        } catch (Exception e) {
+            thumbnail = new Thumbnail(source, null, "Failed: " + e, false);
+        }
+
+        try {
+            Files.createDirectories(cacheDir);
+            Path target = thumbnail.image() != null ? png : error;
+            Path temp = Files.createTempFile(cacheDir, key, ".tmp");
+            if(thumbnail.image() != null) {
+                new PngEncoder().write(thumbnail.image(), temp.toFile());
+            } else {
+                Files.writeString(temp, thumbnail.error(), StandardCharsets.UTF_8);
+            }
+            // Never leave a half-written entry behind for the next run to read
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return thumbnail;
+    }
+
+    // Compiles on this worker, then runs the sketch's own code on a thread of its own: a sketch stuck in
+    // draw() cannot be stopped, but the worker gives up on it when the budget is spent and moves on
+    private BufferedImage render(String code) throws Exception {
+        Class<?> cls = SketchRunner.compileSketchClass(compilers.get(), code, message -> { });
+        long deadline = System.nanoTime() + budgetMillis * 1_000_000L;
+        AtomicReference<BufferedImage> result = new AtomicReference<>();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        Thread drawer = new Thread(() -> {
+            VideoFrameRenderer renderer = new VideoFrameRenderer(CANVAS_WIDTH, CANVAS_HEIGHT, background);
+            try {
+                Sketch sketch = (Sketch) cls.getDeclaredConstructor().newInstance();
+                int delay = sketch.init();
+                int frames = delay > 0 ? ANIMATION_FRAME + 1 : 1;
+                for(int i = 0; i < frames; i++) {
+                    renderer.clear();
+                    renderer.draw(sketch, i, i * delay / 1000.0);
+                    // Out of time part way into an animation: the frame drawn last will do
+                    if(i == frames - 1 || System.nanoTime() - deadline > 0) {
+                        result.set(scale(renderer.composite()));
+                        break;
+                    }
+                }
+            } catch (Throwable t) {
+                failure.set(t);
+            } finally {
+                renderer.dispose();
+            }
+        }, "thumbnail-sketch");
+        drawer.setDaemon(true);
+        drawer.start();
+        drawer.join(Math.max(1, (deadline - System.nanoTime()) / 1_000_000L));
+        if(drawer.isAlive()) {
+            drawer.interrupt();
+            throw new TimeoutException("Took longer than " + budgetMillis + " ms");
+        }
+
+        Throwable t = failure.get();
+        if(t != null) {
+            // Exceptions from the sketch's constructor come wrapped
+            throw new ExecutionException(t instanceof InvocationTargetException ? t.getCause() : t);
+        }
+        return result.get();
+    }
+
+    private BufferedImage scale(BufferedImage frame) {
+        BufferedImage thumb = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = thumb.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            // Halve first while more than twice too large; one bilinear step would skip most pixels
+            BufferedImage step = frame;
+            while(step.getWidth() >= width * 2 && step.getHeight() >= height * 2) {
+                BufferedImage half = new BufferedImage(step.getWidth() / 2, step.getHeight() / 2, BufferedImage.TYPE_INT_RGB);
+                Graphics2D hg = half.createGraphics();
+                hg.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                hg.drawImage(step, 0, 0, half.getWidth(), half.getHeight(), null);
+                hg.dispose();
+                step = half;
+            }
+            g.drawImage(step, 0, 0, width, height, null);
+        } finally {
+            g.dispose();
+        }
+        return thumb;
+    }
+}
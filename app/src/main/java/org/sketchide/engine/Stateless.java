@@ -0,0 +1,11 @@
+package org.sketchide.engine;
+
+import java.lang.annotation.*;
+
+// Put on draw(Graphics2D, long, double) to declare that each frame depends only on its frame
+// index and time, never on what earlier frames did. See TimedSketch.
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface Stateless {
+}
@@ -0,0 +1,43 @@
+package org.sketchide.engine;
+
+import java.awt.Graphics2D;
+import java.lang.reflect.Method;
+
+// Opt-in form of Sketch where the frame index and time are passed in instead of being kept in
+// fields. Sketches from the editor implement it automatically, so the body may define either
+// draw(Graphics2D) or draw(Graphics2D, long, double).
+//
+// Marking the frame-aware draw with @Stateless promises that its output depends only on frame and t.
+// Exports then render frame ranges on all cores, each worker with its own instance.
+public interface TimedSketch extends Sketch {
+
+    // t is the frame's time in seconds: frame * init() delay / 1000
+    default void draw(Graphics2D g, long frame, double t) {
+        draw(g);
+    }
+
+    @Override
+    default void draw(Graphics2D g) {
+        throw new UnsupportedOperationException(
+                "Sketch must implement draw(Graphics2D) or draw(Graphics2D, long, double)");
+    }
+
+    // Draws frame of any sketch, using the frame-aware form when it has one
+    static void draw(Sketch sketch, Graphics2D g, long frame, double t) {
+        if(sketch instanceof TimedSketch timed) {
+            timed.draw(g, frame, t);
+        } else {
+            sketch.draw(g);
+        }
+    }
+
+    static boolean isStateless(Class<?> sketchClass) {
+        if(!TimedSketch.class.isAssignableFrom(sketchClass)) return false;
+        try {
+            Method draw = sketchClass.getMethod("draw", Graphics2D.class, long.class, double.class);
+            return draw.isAnnotationPresent(Stateless.class);
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+}
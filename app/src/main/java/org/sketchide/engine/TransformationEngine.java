@@ -0,0 +1,245 @@
+package org.sketchide.engine;
+
+import java.awt.Rectangle;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.NoninvertibleTransformException;
+import java.awt.geom.Rectangle2D;
+import java.util.Locale;
+
+// Rotate, scale and mirror as a post-process on rendered frames, so changing them never runs the
+// sketch again. The three compose into one AffineTransform about the frame's centre (mirror first,
+// then scale, then rotation, clockwise on screen); the output keeps the frame's size, and whatever
+// the transformed frame does not cover is background.
+//
+// Transforms that map pixels exactly onto pixels (mirror, multiples of 90 degrees, at scale 1) are done
+// as integer index remapping. Anything else is bilinear: where each output pixel samples the frame is
+// worked out once per transform and frame size and cached, so a frame costs one gather-and-blend pass.
+public class TransformationEngine {
+
+    private static final double EPSILON = 1e-9;
+
+    private double rotation;
+    private double scale = 1;
+    private boolean mirrored;
+
+    // Cached mapping for the transform and size it was built for
+    private AffineTransform cachedFor;
+    private int cachedWidth;
+    private int cachedHeight;
+    // Integer remap: source x = ax * x + bx * y + cx, source y = ay * x + by * y + cy
+    private int[] remap;
+    // Bilinear: index of the top-left sample, and x / y weights (8 bits each) plus which samples lie inside
+    private int[] sampleIndex;
+    private int[] sampleWeights;
+
+    // Another engine with the same settings and a cache of its own, for use on another thread
+    public synchronized TransformationEngine copy() {
+        TransformationEngine copy = new TransformationEngine();
+        copy.rotation = rotation;
+        copy.scale = scale;
+        copy.mirrored = mirrored;
+        return copy;
+    }
+
+    public synchronized double getRotation() {
+        return rotation;
+    }
+
+    // Clockwise, in degrees
+    public synchronized void setRotation(double degrees) {
+        double normalised = degrees % 360;
+        rotation = normalised < 0 ? normalised + 360 : normalised;
+    }
+
+    public synchronized double getScale() {
+        return scale;
+    }
+
+    public synchronized void setScale(double scale) {
+        if(!(scale > 0) || Double.isInfinite(scale)) throw new IllegalArgumentException("Scale must be positive: " + scale);
+        this.scale = scale;
+    }
+
+    public synchronized boolean isMirrored() {
+        return mirrored;
+    }
+
+    // Left and right swapped
+    public synchronized void setMirrored(boolean mirrored) {
+        this.mirrored = mirrored;
+    }
+
+    public synchronized void reset() {
+        rotation = 0;
+        scale = 1;
+        mirrored = false;
+    }
+
+    public synchronized boolean isIdentity() {
+        return rotation == 0 && scale == 1 && !mirrored;
+    }
+
+    // Frame pixel coordinates to output pixel coordinates, for a width x height frame
+    public synchronized AffineTransform getTransform(int width, int height) {
+        AffineTransform t = AffineTransform.getTranslateInstance(width / 2.0, height / 2.0);
+        t.rotate(Math.toRadians(rotation));
+        t.scale(scale, scale);
+        if(mirrored) t.scale(-1, 1);
+        t.translate(-width / 2.0, -height / 2.0);
+        return t;
+    }
+
+    // Where pixels inside area of the frame end up in the output (widened by a pixel for interpolation),
+    // or null if none of them is visible
+    public synchronized Rectangle mapBounds(Rectangle area, int width, int height) {
+        if(area == null || isIdentity()) return area;
+        Rectangle2D mapped = getTransform(width, height).createTransformedShape(area).getBounds2D();
+        int x0 = (int) Math.floor(mapped.getMinX()) - 1;
+        int y0 = (int) Math.floor(mapped.getMinY()) - 1;
+        int x1 = (int) Math.ceil(mapped.getMaxX()) + 1;
+        int y1 = (int) Math.ceil(mapped.getMaxY()) + 1;
+        Rectangle bounds = new Rectangle(x0, y0, x1 - x0, y1 - y0).intersection(new Rectangle(0, 0, width, height));
+        return bounds.isEmpty() ? null : bounds;
+    }
+
+    // Writes the transformed frame (src, width * height pixels 0x00RRGGBB) to dst, only inside area of
+    // the output if area is not null. Pixels the frame does not cover get background (0xRRGGBB).
+    public synchronized void apply(int[] src, int[] dst, int width, int height, int background, Rectangle area) {
+        Rectangle out = area != null ? area : new Rectangle(0, 0, width, height);
+        if(isIdentity()) {
+            for(int y = out.y; y < out.y + out.height; y++) {
+                System.arraycopy(src, y * width + out.x, dst, y * width + out.x, out.width);
+            }
+            return;
+        }
+        prepare(width, height);
+        if(remap != null) {
+            applyRemap(src, dst, width, height, background, out);
+        } else {
+            applyBilinear(src, dst, width, background, out);
+        }
+    }
+
+    public synchronized String describe() {
+        return String.format(Locale.ROOT, "rotate %.3f, scale %.4f, mirror %b", rotation, scale, mirrored);
+    }
+
+    private void prepare(int width, int height) {
+        AffineTransform transform = getTransform(width, height);
+        if(transform.equals(cachedFor) && width == cachedWidth && height == cachedHeight) return;
+        AffineTransform inverse;
+        try {
+            inverse = transform.createInverse();
+        } catch (NoninvertibleTransformException e) {
+            throw new IllegalStateException(e);
+        }
+        cachedFor = transform;
+        cachedWidth = width;
+        cachedHeight = height;
+        remap = integerRemap(inverse);
+        sampleIndex = null;
+        sampleWeights = null;
+        if(remap == null) buildSamples(inverse, width, height);
+    }
+
+    // The inverse as integer coefficients if it takes pixel centres exactly onto pixel centres, else null
+    private static int[] integerRemap(AffineTransform inverse) {
+        double[] m = new double[6];
+        inverse.getMatrix(m);   // m00, m10, m01, m11, m02, m12
+        // Centre of output pixel (x, y) is (x + 0.5, y + 0.5); the source pixel is its image minus 0.5
+        double cx = m[0] * 0.5 + m[2] * 0.5 + m[4] - 0.5;
+        double cy = m[1] * 0.5 + m[3] * 0.5 + m[5] - 0.5;
+        double[] coefficients = {m[0], m[2], cx, m[1], m[3], cy};
+        int[] remap = new int[6];
+        for(int i = 0; i < 6; i++) {
+            double rounded = Math.rint(coefficients[i]);
+            if(Math.abs(coefficients[i] - rounded) > EPSILON) return null;
+            remap[i] = (int) rounded;
+        }
+        return remap;
+    }
+
+    private void applyRemap(int[] src, int[] dst, int width, int height, int background, Rectangle out) {
+        int ax = remap[0], bx = remap[1], cx = remap[2];
+        int ay = remap[3], by = remap[4], cy = remap[5];
+        for(int y = out.y; y < out.y + out.height; y++) {
+            int sx = ax * out.x + bx * y + cx;
+            int sy = ay * out.x + by * y + cy;
+            int i = y * width + out.x;
+            for(int end = i + out.width; i < end; i++) {
+                dst[i] = sx >= 0 && sy >= 0 && sx < width && sy < height ? src[sy * width + sx] : background;
+                sx += ax;
+                sy += ay;
+            }
+        }
+    }
+
+    private void buildSamples(AffineTransform inverse, int width, int height) {
+        int n = width * height;
+        sampleIndex = new int[n];
+        sampleWeights = new int[n];
+        double[] m = new double[6];
+        inverse.getMatrix(m);   // m00, m10, m01, m11, m02, m12
+        for(int y = 0; y < height; y++) {
+            for(int x = 0; x < width; x++) {
+                // Same as inverse.transform() of the pixel centre, less 0.5 for the sample grid
+                double u = m[0] * (x + 0.5) + m[2] * (y + 0.5) + m[4] - 0.5;
+                double v = m[1] * (x + 0.5) + m[3] * (y + 0.5) + m[5] - 0.5;
+                int i = y * width + x;
+                // Far outside: no sample at all (also keeps the casts below in range)
+                if(u < -1 || v < -1 || u >= width || v >= height) {
+                    sampleWeights[i] = 0;
+                    continue;
+                }
+                int x0 = (int) Math.floor(u);
+                int y0 = (int) Math.floor(v);
+                int fx = (int) ((u - x0) * 256);
+                int fy = (int) ((v - y0) * 256);
+                int inside = 0;
+                if(x0 >= 0 && y0 >= 0) inside |= 1;
+                if(x0 + 1 < width && y0 >= 0) inside |= 2;
+                if(x0 >= 0 && y0 + 1 < height) inside |= 4;
+                if(x0 + 1 < width && y0 + 1 < height) inside |= 8;
+                sampleIndex[i] = y0 * width + x0;
+                sampleWeights[i] = Math.min(fx, 255) | Math.min(fy, 255) << 8 | inside << 16;
+            }
+        }
+    }
+
+    private void applyBilinear(int[] src, int[] dst, int width, int background, Rectangle out) {
+        for(int y = out.y; y < out.y + out.height; y++) {
+            for(int i = y * width + out.x, end = i + out.width; i < end; i++) {
+                int w = sampleWeights[i];
+                int inside = w >>> 16;
+                if(inside == 0) {
+                    dst[i] = background;
+                    continue;
+                }
+                int s = sampleIndex[i];
+                int p00, p10, p01, p11;
+                if(inside == 15) {
+                    p00 = src[s];
+                    p10 = src[s + 1];
+                    p01 = src[s + width];
+                    p11 = src[s + width + 1];
+                } else {
+                    p00 = (inside & 1) != 0 ? src[s] : background;
+                    p10 = (inside & 2) != 0 ? src[s + 1] : background;
+                    p01 = (inside & 4) != 0 ? src[s + width] : background;
+                    p11 = (inside & 8) != 0 ? src[s + width + 1] : background;
+                }
+                int fx = w & 0xFF;
+                int fy = (w >> 8) & 0xFF;
+                dst[i] = lerp(lerp(p00, p10, fx), lerp(p01, p11, fx), fy);
+            }
+        }
+    }
+
+    // a + (b - a) * f / 256 on all three channels, red and blue side by side in one multiply
+    private static int lerp(int a, int b, int f) {
+        int nf = 256 - f;
+        int rb = ((a & 0xFF00FF) * nf + (b & 0xFF00FF) * f) >>> 8 & 0xFF00FF;
+        int g = ((a & 0x00FF00) * nf + (b & 0x00FF00) * f) >>> 8 & 0x00FF00;
+        return rb | g;
+    }
+}
@@ -0,0 +1,118 @@
+package org.sketchide.engine.scene;
+
+import java.awt.Graphics2D;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// Children drawn in the order they were added, under the group's transform. A cached group is drawn
+// into an image of its own once and then blitted: moving it costs one drawImage whatever it holds,
+// and it is only drawn again when something inside it changes or it is rotated or scaled.
+public class Group extends SceneNode {
+
+    private final List<SceneNode> children = new ArrayList<>();
+    private boolean cached;
+
+    private Rectangle2D bounds;
+    // Raster cache, drawn with cacheTransform and placed at (cacheX, cacheY) in device pixels
+    transient BufferedImage cache;
+    AffineTransform cacheTransform;
+    int cacheX;
+    int cacheY;
+    boolean cacheStale;
+
+    public Group add(SceneNode child) {
+        if(child.parent != null || child instanceof Group g && g.contains(this)) {
+            throw new IllegalArgumentException("Node is already in a group");
+        }
+        children.add(child);
+        child.parent = this;
+        contentChanged();
+        if(scene != null) scene.structureChanged(child, scene);
+        changed();
+        return this;
+    }
+
+    public boolean remove(SceneNode child) {
+        if(child.parent != this) return false;
+        children.remove(child);
+        child.parent = null;
+        contentChanged();
+        if(scene != null) scene.structureChanged(child, null);
+        changed();
+        return true;
+    }
+
+    public void clear() {
+        for(SceneNode child : List.copyOf(children)) {
+            remove(child);
+        }
+    }
+
+    public List<SceneNode> getChildren() {
+        return Collections.unmodifiableList(children);
+    }
+
+    public boolean isCached() {
+        return cached;
+    }
+
+    // Worth it for groups of many shapes that move as a whole, or rarely change
+    public Group setCached(boolean cached) {
+        if(this.cached != cached) {
+            this.cached = cached;
+            cache = null;
+            if(scene != null) scene.structureChanged(this, scene);
+        }
+        return this;
+    }
+
+    // Is node this group or anywhere below it
+    boolean contains(SceneNode node) {
+        for(SceneNode n = node; n != null; n = n.parent) {
+            if(n == this) return true;
+        }
+        return false;
+    }
+
+    List<SceneNode> children() {
+        return children;
+    }
+
+    void contentChanged() {
+        bounds = null;
+        cacheStale = true;
+    }
+
+    @Override
+    Rectangle2D contentBounds() {
+        if(bounds == null) {
+            Rectangle2D union = null;
+            double[] corners = new double[8];
+            for(SceneNode child : children) {
+                if(!child.isVisible()) continue;
+                Rectangle2D b = child.contentBounds();
+                if(b.isEmpty()) continue;
+                Rectangle2D mapped = Scene.transformBounds(child.local(), b, corners);
+                if(union == null) union = mapped;
+                else union.add(mapped);
+            }
+            bounds = union != null ? union : new Rectangle2D.Double();
+        }
+        return bounds;
+    }
+
+    @Override
+    void paint(Graphics2D g) {
+        AffineTransform saved = g.getTransform();
+        for(SceneNode child : children) {
+            if(!child.isVisible()) continue;
+            g.transform(child.local());
+            child.paint(g);
+            g.setTransform(saved);
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package org.sketchide.engine.scene;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+// Region quadtree over the world bounds of the nodes a scene draws. A node lives in the smallest cell
+// that holds its bounds whole, so moving it is a removal and an insertion along one path, and a query
+// only looks at the cells its rectangle overlaps. Nodes reaching outside the root stay in the root.
+final class QuadTree {
+
+    // A cell splits once it holds more nodes than this, unless it is already this deep
+    private static final int SPLIT_THRESHOLD = 16;
+    private static final int MAX_DEPTH = 12;
+
+    static final class Cell {
+        final double minX, minY, maxX, maxY;
+        final int depth;
+        final List<SceneNode> nodes = new ArrayList<>();
+        Cell[] quadrants;
+
+        Cell(double minX, double minY, double maxX, double maxY, int depth) {
+            this.minX = minX;
+            this.minY = minY;
+            this.maxX = maxX;
+            this.maxY = maxY;
+            this.depth = depth;
+        }
+
+        boolean holds(SceneNode n) {
+            return n.minX >= minX && n.minY >= minY && n.maxX <= maxX && n.maxY <= maxY;
+        }
+    }
+
+    private final Cell root;
+
+    QuadTree(double minX, double minY, double maxX, double maxY) {
+        // Square, so cells stay square however wide the scene is
+        double side = Math.max(Math.max(maxX - minX, maxY - minY), 1);
+        root = new Cell(minX, minY, minX + side, minY + side, 0);
+    }
+
+    // Adds n at its current bounds; n must not be in the tree
+    void insert(SceneNode n) {
+        Cell cell = root;
+        while(true) {
+            if(cell.quadrants == null) {
+                if(cell.nodes.size() < SPLIT_THRESHOLD || cell.depth >= MAX_DEPTH) break;
+                split(cell);
+            }
+            Cell next = quadrantHolding(cell, n);
+            if(next == null) break;
+            cell = next;
+        }
+        add(cell, n);
+    }
+
+    void remove(SceneNode n) {
+        Cell cell = n.cell;
+        if(cell == null) return;
+        List<SceneNode> nodes = cell.nodes;
+        SceneNode last = nodes.removeLast();
+        if(last != n) {
+            nodes.set(n.cellIndex, last);
+            last.cellIndex = n.cellIndex;
+        }
+        n.cell = null;
+    }
+
+    // Call after n's bounds changed; also adds n if it is not in the tree
+    void update(SceneNode n) {
+        Cell cell = n.cell;
+        // Still in the right cell: nothing to do (the common case for small moves)
+        if(cell != null && (cell.holds(n) || cell == root) && (cell.quadrants == null || quadrantHolding(cell, n) == null)) {
+            return;
+        }
+        remove(n);
+        insert(n);
+    }
+
+    // Sets the order of every node whose bounds overlap the rectangle
+    void query(double minX, double minY, double maxX, double maxY, BitSet hits) {
+        query(root, minX, minY, maxX, maxY, hits);
+    }
+
+    private static void query(Cell cell, double minX, double minY, double maxX, double maxY, BitSet hits) {
+        for(SceneNode n : cell.nodes) {
+            if(n.maxX >= minX && n.minX <= maxX && n.maxY >= minY && n.minY <= maxY) {
+                hits.set(n.order);
+            }
+        }
+        if(cell.quadrants == null) return;
+        for(Cell q : cell.quadrants) {
+            if(q.maxX >= minX && q.minX <= maxX && q.maxY >= minY && q.minY <= maxY) {
+                query(q, minX, minY, maxX, maxY, hits);
+            }
+        }
+    }
+
+    private static void split(Cell cell) {
+        double midX = (cell.minX + cell.maxX) / 2;
+        double midY = (cell.minY + cell.maxY) / 2;
+        int depth = cell.depth + 1;
+        cell.quadrants = new Cell[]{
+                new Cell(cell.minX, cell.minY, midX, midY, depth),
+                new Cell(midX, cell.minY, cell.maxX, midY, depth),
+                new Cell(cell.minX, midY, midX, cell.maxY, depth),
+                new Cell(midX, midY, cell.maxX, cell.maxY, depth)};
+        // Push down whatever fits in a quadrant
+        List<SceneNode> nodes = new ArrayList<>(cell.nodes);
+        cell.nodes.clear();
+        for(SceneNode n : nodes) {
+            Cell q = quadrantHolding(cell, n);
+            add(q != null ? q : cell, n);
+        }
+    }
+
+    private static Cell quadrantHolding(Cell cell, SceneNode n) {
+        for(Cell q : cell.quadrants) {
+            if(q.holds(n)) return q;
+        }
+        return null;
+    }
+
+    private static void add(Cell cell, SceneNode n) {
+        n.cell = cell;
+        n.cellIndex = cell.nodes.size();
+        cell.nodes.add(n);
+    }
+}
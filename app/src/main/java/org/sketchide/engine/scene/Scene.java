@@ -0,0 +1,445 @@
+package org.sketchide.engine.scene;
+
+import java.awt.AlphaComposite;
+import java.awt.Composite;
+import java.awt.Graphics2D;
+import java.awt.Paint;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.Stroke;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.List;
+
+// Retained-mode drawing for sketches with many shapes: build the nodes once (in init(), say), change
+// the few that move, and call draw(g) every frame.
+//
+// Shapes, and cached groups as a whole, are indexed by world bounds in a quadtree, so a draw only
+// visits those overlapping the clip. Drawn onto an untransformed, clipped target (the canvas and export
+// frames clip to the frame), the scene also keeps what it drew last time in a layer of its own and only
+// draws again the tiles of it where nodes changed: their old and new bounds. Everything else costs one
+// blit of the layer.
+//
+// A scene is Serializable, so sketches that keep one in a field can still have their state saved, as long
+// as the shapes and paints in it are (Color is, GradientPaint is not). The index, the layer and the group
+// caches are left out and built again by the next draw.
+public class Scene implements Serializable {
+
+    // Stats of the last draw
+    public record Stats(int nodes, int drawn, int cacheHits, int cacheRedraws, double redrawnShare) {
+        public String describe() {
+            return String.format("%d nodes, %d drawn, %d cached groups blitted, %d redrawn, %.1f%% of the layer redrawn",
+                    nodes, drawn, cacheHits, cacheRedraws, redrawnShare * 100);
+        }
+    }
+
+    // Side of the layer tiles redrawn as a unit
+    private static final int TILE = 32;
+    // Cached groups bigger than this on screen are drawn directly instead
+    private static final int MAX_CACHE_PIXELS = 4096 * 4096;
+    // Widens bounds for anti-aliasing
+    private static final double PAD = 1;
+
+    private final Group root = new Group();
+    private boolean retained = true;
+
+    // Nodes drawn on their own, in paint order: shapes, and the outermost cached groups
+    private SceneNode[] drawables = new SceneNode[0];
+    private int drawableCount;
+    private transient QuadTree index;
+    private boolean rebuild = true;
+    private final List<SceneNode> dirty = new ArrayList<>();
+    private final BitSet hits = new BitSet();
+    private final double[] corners = new double[8];
+
+    // Retained layer and its tiles that are out of date, row by row
+    private transient BufferedImage layer;
+    private transient RenderingHints layerHints;
+    private int tilesX;
+    private int tilesY;
+    private final BitSet dirtyTiles = new BitSet();
+    private boolean layerStale = true;
+
+    private int drawn;
+    private int cacheHits;
+    private int cacheRedraws;
+    private double redrawnShare;
+
+    public Scene() {
+        root.scene = this;
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        rebuild = true;
+    }
+
+    public Group getRoot() {
+        return root;
+    }
+
+    public Scene add(SceneNode node) {
+        root.add(node);
+        return this;
+    }
+
+    public boolean isRetained() {
+        return retained;
+    }
+
+    // Off: every draw draws every visible node (still culled against the clip). Changes are still
+    // tracked, so the layer is up to date again as soon as it is back on.
+    public void setRetained(boolean retained) {
+        this.retained = retained;
+    }
+
+    public Stats getStats() {
+        return new Stats(drawableCount, drawn, cacheHits, cacheRedraws, redrawnShare);
+    }
+
+    // Draws the scene with g's current transform; what g showed before shows through where it is empty
+    public void draw(Graphics2D g) {
+        drawn = 0;
+        cacheHits = 0;
+        cacheRedraws = 0;
+        validate();
+
+        AffineTransform base = g.getTransform();
+        Paint paint = g.getPaint();
+        Stroke stroke = g.getStroke();
+        Rectangle clip = g.getClipBounds();
+        try {
+            if(retained && base.isIdentity() && clip != null) {
+                drawRetained(g, clip);
+            } else if(clip != null) {
+                drawNodes(g, base, clip.getMinX(), clip.getMinY(), clip.getMaxX(), clip.getMaxY());
+                redrawnShare = 1;
+            } else {
+                drawNodes(g, base, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY,
+                        Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY);
+                redrawnShare = 1;
+            }
+        } finally {
+            g.setTransform(base);
+            g.setPaint(paint);
+            g.setStroke(stroke);
+        }
+    }
+
+    // Adds or removes (owner null) a subtree
+    void structureChanged(SceneNode subtree, Scene owner) {
+        attach(subtree, owner);
+        rebuild = true;
+    }
+
+    void invalidate(SceneNode node) {
+        if(rebuild) return;
+        // Inside a cached group, the group is what gets drawn again
+        SceneNode drawable = node;
+        for(Group g = node.parent; g != null; g = g.parent) {
+            if(g.isCached()) drawable = g;
+        }
+        if(!drawable.queued) {
+            drawable.queued = true;
+            dirty.add(drawable);
+        }
+    }
+
+    private static void attach(SceneNode node, Scene scene) {
+        node.scene = scene;
+        node.queued = false;
+        node.cell = null;
+        if(node instanceof Group g) {
+            for(SceneNode child : g.children()) attach(child, scene);
+        }
+    }
+
+    // Brings world transforms, bounds and the index up to date with what changed since the last draw
+    private void validate() {
+        // Past a point, walking everything once is cheaper than sorting and patching
+        if(rebuild || dirty.size() > drawableCount / 4 + 16) {
+            rebuildAll();
+            return;
+        }
+        // Parents before children, so each world transform is worked out from an up-to-date one
+        dirty.sort(Comparator.comparingInt(n -> n.depth));
+        for(SceneNode node : dirty) {
+            if(!node.queued) continue;
+            node.queued = false;
+            if(node.scene != this || node.order < 0 && !(node instanceof Group)) continue;
+            boolean visible = true;
+            for(SceneNode n = node; n != null; n = n.parent) {
+                visible &= n.isVisible();
+            }
+            AffineTransform parentWorld = node.parent != null ? node.parent.world : new AffineTransform();
+            refresh(node, parentWorld, visible);
+        }
+        dirty.clear();
+    }
+
+    private void rebuildAll() {
+        for(SceneNode node : dirty) node.queued = false;
+        dirty.clear();
+        drawableCount = 0;
+        collect(root, new AffineTransform(), 0, true);
+
+        // The root cell covers everything there is now; later arrivals outside it stay in the root
+        double minX = 0, minY = 0, maxX = 1, maxY = 1;
+        for(int i = 0; i < drawableCount; i++) {
+            SceneNode n = drawables[i];
+            if(n.maxX < n.minX) continue;
+            minX = Math.min(minX, n.minX);
+            minY = Math.min(minY, n.minY);
+            maxX = Math.max(maxX, n.maxX);
+            maxY = Math.max(maxY, n.maxY);
+        }
+        index = new QuadTree(minX, minY, maxX, maxY);
+        for(int i = 0; i < drawableCount; i++) {
+            SceneNode n = drawables[i];
+            n.cell = null;
+            if(n.maxX >= n.minX) index.insert(n);
+        }
+        if(drawables.length > drawableCount * 2 + 16) {
+            drawables = Arrays.copyOf(drawables, drawableCount);
+        }
+        rebuild = false;
+        layerStale = true;
+    }
+
+    // Numbers the drawables depth first and works out every world transform and bound
+    private void collect(SceneNode node, AffineTransform parentWorld, int depth, boolean visible) {
+        node.depth = depth;
+        node.world.setTransform(parentWorld);
+        node.world.concatenate(node.local());
+        visible &= node.isVisible();
+        if(node instanceof Group g && !g.isCached()) {
+            node.order = -1;
+            node.minX = node.minY = 0;
+            node.maxX = node.maxY = -1;
+            for(SceneNode child : g.children()) {
+                collect(child, node.world, depth + 1, visible);
+            }
+            return;
+        }
+        if(drawableCount == drawables.length) {
+            drawables = Arrays.copyOf(drawables, Math.max(16, drawableCount * 2));
+        }
+        node.order = drawableCount;
+        drawables[drawableCount++] = node;
+        updateBounds(node, visible);
+        if(node instanceof Group g) {
+            // Below a cached group, nothing is drawn on its own
+            for(SceneNode child : g.children()) {
+                hide(child, depth + 1);
+            }
+        }
+    }
+
+    private static void hide(SceneNode node, int depth) {
+        node.depth = depth;
+        node.order = -1;
+        node.cell = null;
+        node.minX = node.minY = 0;
+        node.maxX = node.maxY = -1;
+        if(node instanceof Group g) {
+            for(SceneNode child : g.children()) hide(child, depth + 1);
+        }
+    }
+
+    // A node that changed: new world transforms below it, and new bounds for the drawables there
+    private void refresh(SceneNode node, AffineTransform parentWorld, boolean visible) {
+        node.queued = false;
+        node.world.setTransform(parentWorld);
+        node.world.concatenate(node.local());
+        if(node.order < 0) {
+            visible &= node.isVisible();
+            for(SceneNode child : ((Group) node).children()) {
+                refresh(child, node.world, visible && child.isVisible());
+            }
+            return;
+        }
+        markDirty(node);
+        updateBounds(node, visible);
+        if(node.maxX >= node.minX) {
+            index.update(node);
+            markDirty(node);
+        } else {
+            index.remove(node);
+        }
+    }
+
+    private void updateBounds(SceneNode node, boolean visible) {
+        Rectangle2D content = visible ? node.contentBounds() : null;
+        if(content == null || content.isEmpty()) {
+            node.minX = node.minY = 0;
+            node.maxX = node.maxY = -1;
+            return;
+        }
+        Rectangle2D b = transformBounds(node.world, content, corners);
+        node.minX = b.getMinX() - PAD;
+        node.minY = b.getMinY() - PAD;
+        node.maxX = b.getMaxX() + PAD;
+        node.maxY = b.getMaxY() + PAD;
+    }
+
+    private void markDirty(SceneNode node) {
+        if(node.maxX < node.minX || layerStale) return;
+        // Off the layer is off the target too
+        int x0 = Math.max(0, (int) Math.floor(node.minX) / TILE);
+        int y0 = Math.max(0, (int) Math.floor(node.minY) / TILE);
+        int x1 = Math.min(tilesX - 1, (int) Math.ceil(node.maxX) / TILE);
+        int y1 = Math.min(tilesY - 1, (int) Math.ceil(node.maxY) / TILE);
+        for(int ty = y0; ty <= y1 && x0 <= x1; ty++) {
+            dirtyTiles.set(ty * tilesX + x0, ty * tilesX + x1 + 1);
+        }
+    }
+
+    // Runs of dirty tiles in each row, as layer rectangles
+    private List<Rectangle> dirtyRegions() {
+        List<Rectangle> regions = new ArrayList<>();
+        for(int ty = 0; ty < tilesY; ty++) {
+            int row = ty * tilesX;
+            int start = dirtyTiles.nextSetBit(row);
+            while(start >= 0 && start < row + tilesX) {
+                int end = Math.min(dirtyTiles.nextClearBit(start), row + tilesX);
+                regions.add(new Rectangle((start - row) * TILE, ty * TILE, (end - start) * TILE, TILE));
+                start = dirtyTiles.nextSetBit(end);
+            }
+        }
+        return regions;
+    }
+
+    // The layer covers the target from its origin to the far corner of the clip
+    private void drawRetained(Graphics2D g, Rectangle clip) {
+        int width = Math.max(1, clip.x + clip.width);
+        int height = Math.max(1, clip.y + clip.height);
+        RenderingHints hints = (RenderingHints) g.getRenderingHints().clone();
+        if(layer == null || layer.getWidth() != width || layer.getHeight() != height || !hints.equals(layerHints)) {
+            layer = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB_PRE);
+            layerHints = hints;
+            tilesX = (width + TILE - 1) / TILE;
+            tilesY = (height + TILE - 1) / TILE;
+            layerStale = true;
+        }
+        Rectangle whole = new Rectangle(0, 0, layer.getWidth(), layer.getHeight());
+        List<Rectangle> regions = layerStale ? List.of(whole) : dirtyRegions();
+        long redrawn = 0;
+        if(!regions.isEmpty()) {
+            Graphics2D lg = layer.createGraphics();
+            try {
+                lg.setRenderingHints(hints);
+                AffineTransform identity = new AffineTransform();
+                for(Rectangle region : regions) {
+                    Rectangle r = region.intersection(whole);
+                    if(r.isEmpty()) continue;
+                    redrawn += (long) r.width * r.height;
+                    // Drawing the last region left some node's transform behind
+                    lg.setTransform(identity);
+                    lg.setClip(r);
+                    Composite composite = lg.getComposite();
+                    lg.setComposite(AlphaComposite.Clear);
+                    lg.fillRect(r.x, r.y, r.width, r.height);
+                    lg.setComposite(composite);
+                    drawNodes(lg, identity, r.x, r.y, r.x + r.width, r.y + r.height);
+                }
+            } finally {
+                lg.dispose();
+            }
+        }
+        dirtyTiles.clear();
+        layerStale = false;
+        redrawnShare = (double) redrawn / ((long) whole.width * whole.height);
+        g.drawImage(layer, 0, 0, null);
+    }
+
+    // Draws, in order, the drawables overlapping the rectangle (world coordinates)
+    private void drawNodes(Graphics2D g, AffineTransform base, double minX, double minY, double maxX, double maxY) {
+        hits.clear();
+        index.query(minX, minY, maxX, maxY, hits);
+        AffineTransform t = new AffineTransform();
+        for(int i = hits.nextSetBit(0); i >= 0; i = hits.nextSetBit(i + 1)) {
+            SceneNode node = drawables[i];
+            t.setTransform(base);
+            t.concatenate(node.world);
+            if(node instanceof Group group) {
+                drawCached(g, group, t);
+            } else {
+                g.setTransform(t);
+                node.paint(g);
+            }
+            drawn++;
+        }
+    }
+
+    // Blits the group's image, drawing it again first if it is stale or the group turned or scaled.
+    // Moves are rounded to whole pixels, so the same image can be reused.
+    private void drawCached(Graphics2D g, Group group, AffineTransform t) {
+        Rectangle2D content = group.contentBounds();
+        if(content.isEmpty()) return;
+        Rectangle device = transformBounds(t, content, corners).getBounds();
+        device.grow(1, 1);
+        if((long) device.width * device.height > MAX_CACHE_PIXELS) {
+            group.cache = null;
+            g.setTransform(t);
+            group.paint(g);
+            return;
+        }
+        AffineTransform previous = group.cacheTransform;
+        boolean reusable = group.cache != null && !group.cacheStale
+                && previous.getScaleX() == t.getScaleX() && previous.getScaleY() == t.getScaleY()
+                && previous.getShearX() == t.getShearX() && previous.getShearY() == t.getShearY();
+        if(reusable) {
+            cacheHits++;
+        } else {
+            BufferedImage image = new BufferedImage(device.width, device.height, BufferedImage.TYPE_INT_ARGB_PRE);
+            Graphics2D ig = image.createGraphics();
+            try {
+                ig.setRenderingHints(g.getRenderingHints());
+                ig.translate(-device.x, -device.y);
+                ig.transform(t);
+                group.paint(ig);
+            } finally {
+                ig.dispose();
+            }
+            group.cache = image;
+            group.cacheTransform = new AffineTransform(t);
+            group.cacheX = device.x;
+            group.cacheY = device.y;
+            group.cacheStale = false;
+            cacheRedraws++;
+        }
+        int x = group.cacheX + (int) Math.round(t.getTranslateX() - group.cacheTransform.getTranslateX());
+        int y = group.cacheY + (int) Math.round(t.getTranslateY() - group.cacheTransform.getTranslateY());
+        g.setTransform(new AffineTransform());
+        g.drawImage(group.cache, x, y, null);
+    }
+
+    // Bounding box of r after t, without building a transformed Shape
+    static Rectangle2D transformBounds(AffineTransform t, Rectangle2D r, double[] corners) {
+        corners[0] = r.getMinX();
+        corners[1] = r.getMinY();
+        corners[2] = r.getMaxX();
+        corners[3] = r.getMinY();
+        corners[4] = r.getMinX();
+        corners[5] = r.getMaxY();
+        corners[6] = r.getMaxX();
+        corners[7] = r.getMaxY();
+        t.transform(corners, 0, corners, 0, 4);
+        double minX = corners[0], maxX = corners[0], minY = corners[1], maxY = corners[1];
+        for(int i = 2; i < 8; i += 2) {
+            minX = Math.min(minX, corners[i]);
+            maxX = Math.max(maxX, corners[i]);
+            minY = Math.min(minY, corners[i + 1]);
+            maxY = Math.max(maxY, corners[i + 1]);
+        }
+        return new Rectangle2D.Double(minX, minY, maxX - minX, maxY - minY);
+    }
+}
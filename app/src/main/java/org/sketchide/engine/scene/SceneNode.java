@@ -0,0 +1,109 @@
+package org.sketchide.engine.scene;
+
+import java.awt.Graphics2D;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Rectangle2D;
+import java.io.Serializable;
+
+// Something in a Scene: a Group or a ShapeNode. Every node has a transform relative to its parent;
+// the transform to the scene's coordinates (world) and the bounds there are worked out by the scene
+// when it draws, and only again for nodes that changed since.
+public abstract class SceneNode implements Serializable {
+
+    private final AffineTransform local = new AffineTransform();
+    private boolean visible = true;
+
+    Group parent;
+    Scene scene;
+
+    // Kept up to date by the scene
+    final AffineTransform world = new AffineTransform();
+    int depth;
+    // Paint order among the nodes the scene draws on their own, -1 for the rest
+    int order = -1;
+    boolean queued;
+    // World bounds, empty (max < min) while not drawn
+    double minX, minY, maxX = -1, maxY = -1;
+    transient QuadTree.Cell cell;
+    int cellIndex;
+
+    public Group getParent() {
+        return parent;
+    }
+
+    // Copy of the transform relative to the parent
+    public AffineTransform getTransform() {
+        return new AffineTransform(local);
+    }
+
+    public SceneNode setTransform(AffineTransform transform) {
+        local.setTransform(transform);
+        changed();
+        return this;
+    }
+
+    public SceneNode translate(double dx, double dy) {
+        local.translate(dx, dy);
+        changed();
+        return this;
+    }
+
+    public SceneNode rotate(double theta) {
+        local.rotate(theta);
+        changed();
+        return this;
+    }
+
+    public SceneNode scale(double sx, double sy) {
+        local.scale(sx, sy);
+        changed();
+        return this;
+    }
+
+    // Places the node's origin at (x, y) in its parent, keeping rotation and scale
+    public SceneNode moveTo(double x, double y) {
+        local.setTransform(local.getScaleX(), local.getShearY(), local.getShearX(), local.getScaleY(), x, y);
+        changed();
+        return this;
+    }
+
+    public boolean isVisible() {
+        return visible;
+    }
+
+    public SceneNode setVisible(boolean visible) {
+        if(this.visible != visible) {
+            this.visible = visible;
+            changed();
+        }
+        return this;
+    }
+
+    // Bounds in the scene's coordinates as of the last Scene.draw, null if nothing was drawn
+    public Rectangle2D getWorldBounds() {
+        return maxX < minX ? null : new Rectangle2D.Double(minX, minY, maxX - minX, maxY - minY);
+    }
+
+    // Takes the node (and whatever is below it) out of its group
+    public void remove() {
+        if(parent != null) parent.remove(this);
+    }
+
+    AffineTransform local() {
+        return local;
+    }
+
+    // The node's own shape or children changed, or where it sits: the scene finds out what to redraw
+    void changed() {
+        for(Group g = parent; g != null; g = g.parent) {
+            g.contentChanged();
+        }
+        if(scene != null) scene.invalidate(this);
+    }
+
+    // Bounds in the node's own coordinates, including whatever its drawing spills over them
+    abstract Rectangle2D contentBounds();
+
+    // Draws the node; g already holds the transform to the node's own coordinates
+    abstract void paint(Graphics2D g);
+}
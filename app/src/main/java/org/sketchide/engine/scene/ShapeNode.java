@@ -0,0 +1,110 @@
+package org.sketchide.engine.scene;
+
+import java.awt.BasicStroke;
+import java.awt.Graphics2D;
+import java.awt.Paint;
+import java.awt.Shape;
+import java.awt.Stroke;
+import java.awt.geom.Rectangle2D;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+// A shape filled and/or outlined, in its own coordinates
+public class ShapeNode extends SceneNode {
+
+    private Shape shape;
+    private Paint fill;
+    // BasicStroke is not Serializable; its settings are written instead
+    private transient Stroke stroke = new BasicStroke();
+    private Paint outline;
+    private Rectangle2D bounds;
+
+    public ShapeNode(Shape shape, Paint fill) {
+        this.shape = shape;
+        this.fill = fill;
+    }
+
+    public Shape getShape() {
+        return shape;
+    }
+
+    // Shapes are not watched: after changing one in place, set it again
+    public ShapeNode setShape(Shape shape) {
+        this.shape = shape;
+        bounds = null;
+        changed();
+        return this;
+    }
+
+    public Paint getFill() {
+        return fill;
+    }
+
+    // null for no fill
+    public ShapeNode setFill(Paint fill) {
+        this.fill = fill;
+        changed();
+        return this;
+    }
+
+    // Outlines the shape with stroke in paint; a null paint for no outline
+    public ShapeNode setOutline(Stroke stroke, Paint paint) {
+        this.stroke = stroke != null ? stroke : new BasicStroke();
+        this.outline = paint;
+        bounds = null;
+        changed();
+        return this;
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        out.writeBoolean(stroke instanceof BasicStroke);
+        if(stroke instanceof BasicStroke basic) {
+            out.writeFloat(basic.getLineWidth());
+            out.writeInt(basic.getEndCap());
+            out.writeInt(basic.getLineJoin());
+            out.writeFloat(basic.getMiterLimit());
+            out.writeObject(basic.getDashArray());
+            out.writeFloat(basic.getDashPhase());
+        } else {
+            // Fails unless the stroke is Serializable itself
+            out.writeObject(stroke);
+        }
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        if(in.readBoolean()) {
+            float width = in.readFloat();
+            int cap = in.readInt();
+            int join = in.readInt();
+            float miterLimit = in.readFloat();
+            float[] dash = (float[]) in.readObject();
+            stroke = new BasicStroke(width, cap, join, miterLimit, dash, in.readFloat());
+        } else {
+            stroke = (Stroke) in.readObject();
+        }
+    }
+
+    @Override
+    Rectangle2D contentBounds() {
+        if(bounds == null) {
+            bounds = outline != null ? stroke.createStrokedShape(shape).getBounds2D() : shape.getBounds2D();
+        }
+        return bounds;
+    }
+
+    @Override
+    void paint(Graphics2D g) {
+        if(fill != null) {
+            g.setPaint(fill);
+            g.fill(shape);
+        }
+        if(outline != null) {
+            g.setPaint(outline);
+            g.setStroke(stroke);
+            g.draw(shape);
+        }
+    }
+}
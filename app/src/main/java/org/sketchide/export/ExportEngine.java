@@ -0,0 +1,271 @@
+package org.sketchide.export;
+
+import org.sketchide.engine.TransformationEngine;
+
+import java.awt.Color;
+import java.awt.Rectangle;
+import java.awt.image.DataBufferInt;
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BooleanSupplier;
+import java.util.function.IntConsumer;
+
+// Runs an export as three overlapping stages: render (calling thread) -> composite -> encode.
+// The stages hand frames along bounded queues and draw their buffers from a fixed pool, so a slow
+// encoder holds back rendering instead of piling up frames, and no frame allocates a new raster.
+// Each frame is compared with the one before: only the area that changed is composited, and the
+// encoder is told that area, or that the frame is a repeat, so it can skip work too. A transform
+// (rotate / scale / mirror) is applied to the composited pixels, again only where they changed.
+public class ExportEngine {
+
+    // Buffers in flight: one per stage plus one spare for each hand-off
+    private static final int POOL_SIZE = 4;
+    // How often a stage waiting for work looks at cancellation and failures
+    private static final long POLL_MILLIS = 50;
+
+    private final int width;
+    private final int height;
+    private final Color background;
+    private final double fps;
+    private ExportTelemetry telemetry = new ExportTelemetry();
+    private TransformationEngine transform;
+
+    public ExportEngine(int width, int height, Color background, double fps) {
+        this.width = width;
+        this.height = height;
+        this.background = background;
+        this.fps = fps;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public Color getBackground() {
+        return background;
+    }
+
+    public double getFps() {
+        return fps;
+    }
+
+    public ExportTelemetry getTelemetry() {
+        return telemetry;
+    }
+
+    public void setTelemetry(ExportTelemetry telemetry) {
+        this.telemetry = telemetry;
+    }
+
+    public TransformationEngine getTransform() {
+        return transform;
+    }
+
+    // Applied to every frame; null, or one that does nothing, for none. Used from the export's own
+    // threads, so it should not be one the UI keeps changing.
+    public void setTransform(TransformationEngine transform) {
+        this.transform = transform == null || transform.isIdentity() ? null : transform;
+    }
+
+    // Exports frames 0..totalFrames-1 of the source into the encoder. progress receives the number of
+    // frames encoded so far (from the encode thread). Returns false if cancelled; the encoder is then aborted.
+    public boolean export(FrameSource source, int totalFrames, FrameEncoder encoder,
+                          IntConsumer progress, BooleanSupplier cancelled) throws Exception {
+        return export(source, 0, totalFrames, encoder, progress, cancelled);
+    }
+
+    // Same, starting at firstFrame: the encoder only sees frames firstFrame..totalFrames-1, and progress
+    // still counts from frame 0
+    public boolean export(FrameSource source, int firstFrame, int totalFrames, FrameEncoder encoder,
+                          IntConsumer progress, BooleanSupplier cancelled) throws Exception {
+        FrameBuffer[] pool = new FrameBuffer[POOL_SIZE];
+        BlockingQueue<FrameBuffer> free = new ArrayBlockingQueue<>(POOL_SIZE);
+        for(int i = 0; i < POOL_SIZE; i++) {
+            pool[i] = new FrameBuffer(width, height);
+            free.add(pool[i]);
+        }
+        // Room for every buffer plus the end marker, so handing a frame on never blocks
+        BlockingQueue<FrameBuffer> rendered = new ArrayBlockingQueue<>(POOL_SIZE + 1);
+        BlockingQueue<FrameBuffer> composited = new ArrayBlockingQueue<>(POOL_SIZE + 1);
+        FrameBuffer end = new FrameBuffer(1, 1);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        int bg = background.getRGB() & 0xFFFFFF;
+        ExportTelemetry telemetry = this.telemetry;
+
+        // Only what changed since the previous frame is composited again; the rest is carried over
+        FrameDiff diff = new FrameDiff(width, height);
+        int[] flattened = new int[width * height];
+        TransformationEngine transform = this.transform;
+        int[] transformed = transform != null ? new int[width * height] : null;
+
+        Thread compositor = stage("export-composite", failure, () -> {
+            FrameBuffer buffer;
+            boolean first = true;
+            while((buffer = rendered.take()) != end) {
+                long start = System.nanoTime();
+                Rectangle changed = diff.update(buffer.getArgb());
+                if(changed != null) buffer.composite(bg, changed, flattened);
+                if(transform != null) {
+                    // The first frame is transformed whole, so the background around it is filled in too
+                    changed = first ? changed : transform.mapBounds(changed, width, height);
+                    if(changed != null) transform.apply(flattened, transformed, width, height, bg, first ? null : changed);
+                    System.arraycopy(transformed, 0, buffer.getRgb(), 0, transformed.length);
+                } else {
+                    System.arraycopy(flattened, 0, buffer.getRgb(), 0, flattened.length);
+                }
+                first = false;
+                buffer.changed = changed;
+                telemetry.record(ExportTelemetry.Stage.COMPOSITE, System.nanoTime() - start);
+                composited.put(buffer);
+            }
+            composited.put(end);
+        });
+        Thread encodeStage = stage("export-encode", failure, () -> {
+            FrameBuffer buffer;
+            while((buffer = composited.take()) != end) {
+                long start = System.nanoTime();
+                encode(encoder, buffer.getRgb(), buffer.changed);
+                telemetry.record(ExportTelemetry.Stage.ENCODE, System.nanoTime() - start);
+                int done = buffer.getIndex() + 1;
+                free.put(buffer);
+                telemetry.frameDone(done);
+                progress.accept(done);
+            }
+        });
+
+        boolean finished = false;
+        try {
+            telemetry.start(firstFrame, totalFrames, encoder, rendered::size, composited::size);
+            encoder.open(width, height, fps);
+            compositor.start();
+            encodeStage.start();
+
+            for(int i = firstFrame; i < totalFrames; i++) {
+                FrameBuffer buffer = null;
+                while(buffer == null && !cancelled.getAsBoolean() && failure.get() == null) {
+                    buffer = free.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                }
+                if(buffer == null) break;
+
+                buffer.index = i;
+                long start = System.nanoTime();
+                source.render(i, buffer);
+                telemetry.record(ExportTelemetry.Stage.DRAW, System.nanoTime() - start);
+                rendered.put(buffer);
+            }
+            rendered.put(end);
+
+            // Let the last frames drain through, unless the export is being abandoned
+            while(encodeStage.isAlive() && !cancelled.getAsBoolean() && failure.get() == null) {
+                encodeStage.join(POLL_MILLIS);
+            }
+            rethrow(failure.get());
+            if(cancelled.getAsBoolean()) return false;
+
+            telemetry.setPhase("finishing");
+            encoder.close();
+            finished = true;
+            return true;
+        } finally {
+            if(!finished) {
+                compositor.interrupt();
+                encodeStage.interrupt();
+            }
+            compositor.join();
+            encodeStage.join();
+            if(!finished) {
+                encoder.abort();
+            }
+            telemetry.finish(finished ? "done" : cancelled.getAsBoolean() ? "cancelled" : "failed");
+            for(FrameBuffer buffer : pool) buffer.dispose();
+            end.dispose();
+        }
+    }
+
+    // Stateless sketches: frames are rendered and composited on all cores, then encoded in order
+    public boolean exportParallel(Class<?> sketchClass, int totalFrames, FrameEncoder encoder,
+                                  IntConsumer progress, BooleanSupplier cancelled) throws Exception {
+        return exportParallel(sketchClass, 0, totalFrames, encoder, progress, cancelled);
+    }
+
+    public boolean exportParallel(Class<?> sketchClass, int firstFrame, int totalFrames, FrameEncoder encoder,
+                                  IntConsumer progress, BooleanSupplier cancelled) throws Exception {
+        ParallelFrameRenderer parallel = new ParallelFrameRenderer(sketchClass, width, height, background,
+                fps, Runtime.getRuntime().availableProcessors());
+        ExportTelemetry telemetry = this.telemetry;
+        telemetry.start(firstFrame, totalFrames, encoder, () -> 0, () -> 0);
+        parallel.setTelemetry(telemetry);
+        // Frames come in order here, so they can still be compared with the one before
+        FrameDiff diff = new FrameDiff(width, height);
+        TransformationEngine transform = this.transform;
+        int[] transformed = transform != null ? new int[width * height] : null;
+        int bg = background.getRGB() & 0xFFFFFF;
+        boolean finished = false;
+        try {
+            encoder.open(width, height, fps);
+            parallel.render(firstFrame, totalFrames,
+                    (i, img) -> ((DataBufferInt) img.getRaster().getDataBuffer()).getData(),
+                    (i, rgb) -> {
+                        long start = System.nanoTime();
+                        if(transform != null) {
+                            transform.apply(rgb, transformed, width, height, bg, null);
+                            rgb = transformed;
+                        }
+                        encode(encoder, rgb, diff.update(rgb));
+                        telemetry.record(ExportTelemetry.Stage.ENCODE, System.nanoTime() - start);
+                        telemetry.frameDone(i + 1);
+                        progress.accept(i + 1);
+                    }, cancelled);
+            if(cancelled.getAsBoolean()) return false;
+
+            telemetry.setPhase("finishing");
+            encoder.close();
+            finished = true;
+            return true;
+        } finally {
+            if(!finished) {
+                encoder.abort();
+            }
+            telemetry.finish(finished ? "done" : cancelled.getAsBoolean() ? "cancelled" : "failed");
+        }
+    }
+
+    private static void encode(FrameEncoder encoder, int[] rgb, Rectangle changed) throws IOException {
+        if(changed == null) {
+            encoder.repeat(rgb);
+        } else {
+            encoder.encode(rgb, changed);
+        }
+    }
+
+    private interface Stage {
+        void run() throws Exception;
+    }
+
+    private static Thread stage(String name, AtomicReference<Throwable> failure, Stage body) {
+        Thread thread = new Thread(() -> {
+            try {
+                body.run();
+            } catch (InterruptedException e) {
+                // export abandoned
+            } catch (Throwable t) {
+                failure.compareAndSet(null, t);
+            }
+        }, name);
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    private static void rethrow(Throwable t) throws Exception {
+        if(t == null) return;
+        if(t instanceof Exception e) throw e;
+        throw (Error) t;
+    }
+}
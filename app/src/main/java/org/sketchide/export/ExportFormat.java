@@ -0,0 +1,69 @@
+package org.sketchide.export;
+
+import java.io.File;
+import java.nio.file.Path;
+
+// The video formats an export can be written in, and the encoder behind each
+public enum ExportFormat {
+    MP4_STREAM("MP4 (stream to ffmpeg)", "mp4", "MP4 Video", true),
+    MP4_PNG_SPOOL("MP4 (PNG frames + ffmpeg, resumable)", "mp4", "MP4 Video", true),
+    GIF("Animated GIF", "gif", "GIF Animation", false),
+    MJPEG_AVI("Motion JPEG AVI", "avi", "AVI Video", false);
+
+    private final String label;
+    private final String extension;
+    private final String description;
+    private final boolean needsFfmpeg;
+
+    ExportFormat(String label, String extension, String description, boolean needsFfmpeg) {
+        this.label = label;
+        this.extension = extension;
+        this.description = description;
+        this.needsFfmpeg = needsFfmpeg;
+    }
+
+    public FrameEncoder createEncoder(File output) {
+        return createEncoder(output, null);
+    }
+
+    // audio (may be null) becomes the video's sound track, in the formats that have one
+    public FrameEncoder createEncoder(File output, Path audio) {
+        return switch (this) {
+            case MP4_STREAM -> new PipeEncoder(Ffmpeg.rawVideoToMp4(output, audio));
+            case MP4_PNG_SPOOL -> {
+                PngSpoolEncoder spool = new PngSpoolEncoder(output);
+                spool.setAudio(audio);
+                yield spool;
+            }
+            case GIF -> new GifEncoder(output);
+            case MJPEG_AVI -> new MjpegAviEncoder(output);
+        };
+    }
+
+    // Whether createEncoder puts the audio into the video; the others are silent
+    public boolean hasAudio() {
+        return needsFfmpeg;
+    }
+
+    public String getExtension() {
+        return extension;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+
+    public boolean needsFfmpeg() {
+        return needsFfmpeg;
+    }
+
+    // H.264 in yuv420p needs even dimensions; the built-in encoders take any size
+    public boolean needsEvenSize() {
+        return needsFfmpeg;
+    }
+
+    @Override
+    public String toString() {
+        return label;
+    }
+}
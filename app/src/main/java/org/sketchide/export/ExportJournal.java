@@ -0,0 +1,225 @@
+package org.sketchide.export;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+// How far a resumable export got, in a small file written with positional writes. A checkpoint is in the
+// page cache once checkpoint() returns, so it survives the JVM dying right after it; force also flushes
+// it to disk. Nothing is mapped, so the file can be deleted as soon as the journal is closed.
+//
+// Layout: a 64-byte header describing the export, two 32-byte checkpoint records, then the saved
+// sketch states. A checkpoint writes its state where it does not overlap the current one, then the
+// record that is not current, with a higher sequence number and its own CRC. Whatever point a crash
+// interrupts this at, the newest record with a valid CRC still describes a complete checkpoint.
+public final class ExportJournal implements Closeable {
+
+    private static final int MAGIC = 0x534B4A31;   // "SKJ1"
+    private static final int VERSION = 1;
+
+    private static final int FINGERPRINT = 8;
+    private static final int WIDTH = 16;
+    private static final int HEIGHT = 20;
+    private static final int FPS = 24;
+    private static final int TOTAL_FRAMES = 32;
+    private static final int RECORDS = 64;
+    private static final int RECORD_SIZE = 32;
+    private static final int STATE_START = RECORDS + 2 * RECORD_SIZE;
+
+    // Record fields
+    private static final int SEQUENCE = 0;
+    private static final int FRAMES_DONE = 8;
+    private static final int STATE_LENGTH = 12;
+    private static final int STATE_OFFSET = 16;
+    private static final int STATE_CRC = 24;
+    private static final int RECORD_CRC = 28;
+
+    private final FileChannel channel;
+    // Copy of the header and both records; the file is only read once, on open
+    private final ByteBuffer head = ByteBuffer.allocate(STATE_START).order(ByteOrder.LITTLE_ENDIAN);
+    private final CRC32 crc = new CRC32();
+
+    // The newest valid checkpoint
+    private int current = -1;
+    private long sequence;
+    private int framesDone;
+    private long stateOffset = STATE_START;
+    private int stateLength;
+
+    private ExportJournal(FileChannel channel) throws IOException {
+        this.channel = channel;
+        // A new or cut-short file reads as zeros, which matches no settings
+        int length = (int) Math.min(STATE_START, channel.size());
+        readFully(head.clear().limit(length), 0);
+        head.clear();
+    }
+
+    // Opens the journal of an export with these settings. An existing journal is continued if it was
+    // written for the same fingerprint and settings, and started over otherwise.
+    public static ExportJournal open(Path file, long fingerprint, int width, int height, double fps,
+                                     int totalFrames) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        try {
+            ExportJournal journal = new ExportJournal(channel);
+            if(!journal.matches(fingerprint, width, height, fps, totalFrames)) {
+                journal.reset(fingerprint, width, height, fps, totalFrames);
+            }
+            journal.readCheckpoint();
+            return journal;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    // Frames already done by the export described by these settings, or 0 if there is no journal for it
+    public static int framesDone(Path file, long fingerprint, int width, int height, double fps,
+                                 int totalFrames) throws IOException {
+        if(!Files.isRegularFile(file) || Files.size(file) < STATE_START) return 0;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ExportJournal journal = new ExportJournal(channel);
+            if(!journal.matches(fingerprint, width, height, fps, totalFrames)) return 0;
+            journal.readCheckpoint();
+            return journal.framesDone;
+        }
+    }
+
+    public int getFramesDone() {
+        return framesDone;
+    }
+
+    // The sketch state saved with the last checkpoint, or null if it had none
+    public byte[] getState() throws IOException {
+        if(stateLength == 0) return null;
+        return readState(stateOffset, stateLength).array();
+    }
+
+    // Records that the first framesDone frames are safely encoded; state (may be null) is what the sketch
+    // needs to carry on from there. With force, returns only once the checkpoint is on disk.
+    public void checkpoint(int framesDone, byte[] state, boolean force) throws IOException {
+        int length = state == null ? 0 : state.length;
+        // In front of the current state if it fits there, else right behind it
+        long offset = STATE_START + length <= stateOffset ? STATE_START : align(stateOffset + stateLength);
+        int stateCrc = 0;
+        if(length > 0) {
+            writeFully(ByteBuffer.wrap(state), offset);
+            crc.reset();
+            crc.update(state);
+            stateCrc = (int) crc.getValue();
+        }
+        if(force) channel.force(false);
+
+        int record = RECORDS + (current == 0 ? 1 : 0) * RECORD_SIZE;
+        head.putLong(record + SEQUENCE, sequence + 1);
+        head.putInt(record + FRAMES_DONE, framesDone);
+        head.putInt(record + STATE_LENGTH, length);
+        head.putLong(record + STATE_OFFSET, offset);
+        head.putInt(record + STATE_CRC, stateCrc);
+        head.putInt(record + RECORD_CRC, recordCrc(record));
+        writeFully(head.slice(record, RECORD_SIZE), record);
+        if(force) channel.force(false);
+
+        this.current = current == 0 ? 1 : 0;
+        this.sequence++;
+        this.framesDone = framesDone;
+        this.stateOffset = offset;
+        this.stateLength = length;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private boolean matches(long fingerprint, int width, int height, double fps, int totalFrames) {
+        return head.getInt(0) == MAGIC && head.getInt(4) == VERSION
+                && head.getLong(FINGERPRINT) == fingerprint
+                && head.getInt(WIDTH) == width && head.getInt(HEIGHT) == height
+                && head.getDouble(FPS) == fps && head.getInt(TOTAL_FRAMES) == totalFrames;
+    }
+
+    private void reset(long fingerprint, int width, int height, double fps, int totalFrames) throws IOException {
+        for(int i = 0; i < STATE_START; i++) {
+            head.put(i, (byte) 0);
+        }
+        head.putInt(4, VERSION);
+        head.putLong(FINGERPRINT, fingerprint);
+        head.putInt(WIDTH, width);
+        head.putInt(HEIGHT, height);
+        head.putDouble(FPS, fps);
+        head.putInt(TOTAL_FRAMES, totalFrames);
+        writeFully(head.slice(0, STATE_START), 0);
+        channel.force(false);
+        // Valid only once everything else is in place
+        head.putInt(0, MAGIC);
+        writeFully(head.slice(0, 4), 0);
+        channel.force(false);
+    }
+
+    private void readCheckpoint() throws IOException {
+        current = -1;
+        sequence = 0;
+        framesDone = 0;
+        stateOffset = STATE_START;
+        stateLength = 0;
+        for(int r = 0; r < 2; r++) {
+            int record = RECORDS + r * RECORD_SIZE;
+            long seq = head.getLong(record + SEQUENCE);
+            if(seq <= sequence || !isValid(record)) continue;
+            current = r;
+            sequence = seq;
+            framesDone = head.getInt(record + FRAMES_DONE);
+            stateOffset = head.getLong(record + STATE_OFFSET);
+            stateLength = head.getInt(record + STATE_LENGTH);
+        }
+    }
+
+    private boolean isValid(int record) throws IOException {
+        if(head.getInt(record + RECORD_CRC) != recordCrc(record)) return false;
+        long offset = head.getLong(record + STATE_OFFSET);
+        int length = head.getInt(record + STATE_LENGTH);
+        if(offset < STATE_START || length < 0 || offset + length > channel.size()) return false;
+        if(length == 0) return true;
+        crc.reset();
+        crc.update(readState(offset, length));
+        return (int) crc.getValue() == head.getInt(record + STATE_CRC);
+    }
+
+    private int recordCrc(int record) {
+        crc.reset();
+        crc.update(head.slice(record, RECORD_CRC));
+        return (int) crc.getValue();
+    }
+
+    private ByteBuffer readState(long offset, int length) throws IOException {
+        ByteBuffer state = ByteBuffer.allocate(length);
+        readFully(state, offset);
+        return state.flip();
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while(buffer.hasRemaining()) {
+            if(channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("Export journal ends early");
+            }
+        }
+    }
+
+    private void writeFully(ByteBuffer buffer, long position) throws IOException {
+        while(buffer.hasRemaining()) {
+            channel.write(buffer, position + buffer.position());
+        }
+    }
+
+    private static long align(long offset) {
+        return (offset + 7) & ~7L;
+    }
+}
@@ -0,0 +1,171 @@
+package org.sketchide.export;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.IntSupplier;
+
+// Live numbers for a running export: how busy each stage is, how full the queues between them are,
+// how much output the encoder has produced and what ffmpeg reports. Stages record from their own
+// threads; snapshot() may be called from any thread at any time.
+//
+// A stage's fps is what it would manage on its own (frames per second of busy time, times the threads
+// running it); the stage with the lowest one is what holds the export back.
+public class ExportTelemetry {
+
+    public enum Stage {
+        DRAW, COMPOSITE, ENCODE;
+
+        String key() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    private static final Stage[] STAGES = Stage.values();
+
+    private final AtomicLongArray busyNanos = new AtomicLongArray(STAGES.length);
+    private final AtomicLongArray stageFrames = new AtomicLongArray(STAGES.length);
+    private final int[] stageThreads = {1, 1, 1};
+
+    private volatile long startNanos = System.nanoTime();
+    private volatile long endNanos;
+    private volatile int firstFrame;
+    private volatile int totalFrames;
+    private volatile int framesDone;
+    private volatile String phase = "starting";
+    private volatile FrameEncoder encoder;
+    private volatile IntSupplier renderedQueue = () -> 0;
+    private volatile IntSupplier compositedQueue = () -> 0;
+
+    public record Snapshot(String phase, double elapsedSeconds, int framesDone, int totalFrames, double fps,
+                           double etaSeconds, double drawFps, double compositeFps, double encodeFps,
+                           int renderedQueued, int compositedQueued, long bytesWritten, Ffmpeg.Progress ffmpeg) {
+
+        // The stage with the lowest throughput, or null before any frame went through all of them
+        public Stage bottleneck() {
+            if(drawFps <= 0 || compositeFps <= 0 || encodeFps <= 0) return null;
+            if(drawFps <= compositeFps && drawFps <= encodeFps) return Stage.DRAW;
+            return compositeFps <= encodeFps ? Stage.COMPOSITE : Stage.ENCODE;
+        }
+
+        // One line of JSON, for the telemetry log
+        public String toJson() {
+            StringBuilder json = new StringBuilder(320);
+            json.append('{');
+            json.append("\"time\":").append(System.currentTimeMillis());
+            json.append(",\"phase\":\"").append(phase).append('"');
+            json.append(",\"elapsed\":").append(number(elapsedSeconds));
+            json.append(",\"frames\":").append(framesDone);
+            json.append(",\"total\":").append(totalFrames);
+            json.append(",\"fps\":").append(number(fps));
+            json.append(",\"eta\":").append(etaSeconds < 0 ? "null" : number(etaSeconds));
+            json.append(",\"stageFps\":{\"draw\":").append(number(drawFps))
+                    .append(",\"composite\":").append(number(compositeFps))
+                    .append(",\"encode\":").append(number(encodeFps)).append('}');
+            Stage bottleneck = bottleneck();
+            json.append(",\"bottleneck\":").append(bottleneck == null ? "null" : "\"" + bottleneck.key() + "\"");
+            json.append(",\"queues\":{\"rendered\":").append(renderedQueued)
+                    .append(",\"composited\":").append(compositedQueued).append('}');
+            json.append(",\"bytes\":").append(bytesWritten);
+            if(ffmpeg != null) {
+                json.append(",\"ffmpeg\":{\"frame\":").append(ffmpeg.frame())
+                        .append(",\"fps\":").append(number(ffmpeg.fps()))
+                        .append(",\"size\":").append(ffmpeg.sizeBytes())
+                        .append(",\"time\":").append(number(ffmpeg.seconds()))
+                        .append(",\"speed\":").append(number(ffmpeg.speed())).append('}');
+            }
+            return json.append('}').toString();
+        }
+
+        // A few lines for a progress dialog
+        public String describe() {
+            StringBuilder text = new StringBuilder();
+            text.append(String.format("%s: %d / %d frames, %.1f frames/s", phase, framesDone, totalFrames, fps));
+            if(etaSeconds >= 0) {
+                long eta = Math.round(etaSeconds);
+                text.append(String.format(", %d:%02d left", eta / 60, eta % 60));
+            }
+            text.append(String.format("%nDraw %.1f, composite %.1f, encode %.1f frames/s", drawFps, compositeFps, encodeFps));
+            Stage bottleneck = bottleneck();
+            if(bottleneck != null) text.append(" (").append(bottleneck.key()).append("-bound)");
+            text.append(String.format("%nQueued: %d rendered, %d composited; %s written",
+                    renderedQueued, compositedQueued, bytes(bytesWritten)));
+            if(ffmpeg != null) {
+                text.append(String.format("%nffmpeg: frame %d, %.1f fps, %s, speed %.2fx",
+                        ffmpeg.frame(), ffmpeg.fps(), bytes(ffmpeg.sizeBytes()), ffmpeg.speed()));
+            }
+            return text.toString();
+        }
+
+        private static String number(double value) {
+            return String.format(Locale.ROOT, "%.3f", value);
+        }
+
+        private static String bytes(long bytes) {
+            if(bytes < 0) return "?";
+            if(bytes < 1024 * 1024) return String.format("%.1f KB", bytes / 1024.0);
+            return String.format("%.1f MB", bytes / (1024.0 * 1024));
+        }
+    }
+
+    // Called by the engine when frames start flowing
+    public void start(int firstFrame, int totalFrames, FrameEncoder encoder,
+                      IntSupplier renderedQueue, IntSupplier compositedQueue) {
+        for(int i = 0; i < STAGES.length; i++) {
+            busyNanos.set(i, 0);
+            stageFrames.set(i, 0);
+            stageThreads[i] = 1;
+        }
+        this.firstFrame = firstFrame;
+        this.totalFrames = totalFrames;
+        this.framesDone = firstFrame;
+        this.encoder = encoder;
+        this.renderedQueue = renderedQueue;
+        this.compositedQueue = compositedQueue;
+        this.endNanos = 0;
+        this.startNanos = System.nanoTime();
+        this.phase = "rendering";
+    }
+
+    // Number of threads working a stage at once (workers of the parallel renderer)
+    public void setStageThreads(Stage stage, int threads) {
+        stageThreads[stage.ordinal()] = Math.max(1, threads);
+    }
+
+    public void setPhase(String phase) {
+        this.phase = phase;
+    }
+
+    public void record(Stage stage, long nanos) {
+        busyNanos.addAndGet(stage.ordinal(), nanos);
+        stageFrames.incrementAndGet(stage.ordinal());
+    }
+
+    public void frameDone(int framesDone) {
+        this.framesDone = framesDone;
+    }
+
+    public void finish(String phase) {
+        this.phase = phase;
+        this.endNanos = System.nanoTime();
+    }
+
+    public Snapshot snapshot() {
+        long end = endNanos != 0 ? endNanos : System.nanoTime();
+        double elapsed = (end - startNanos) / 1e9;
+        int done = framesDone;
+        int total = totalFrames;
+        double fps = elapsed > 0 ? (done - firstFrame) / elapsed : 0;
+        double eta = done >= total ? 0 : fps > 0 ? (total - done) / fps : -1;
+        FrameEncoder enc = encoder;
+        return new Snapshot(phase, elapsed, done, total, fps, eta,
+                stageFps(Stage.DRAW), stageFps(Stage.COMPOSITE), stageFps(Stage.ENCODE),
+                renderedQueue.getAsInt(), compositedQueue.getAsInt(),
+                enc == null ? 0 : enc.getBytesWritten(), enc == null ? null : enc.getFfmpegProgress());
+    }
+
+    private double stageFps(Stage stage) {
+        long nanos = busyNanos.get(stage.ordinal());
+        if(nanos == 0) return 0;
+        return stageFrames.get(stage.ordinal()) * stageThreads[stage.ordinal()] * 1e9 / nanos;
+    }
+}
@@ -0,0 +1,166 @@
+package org.sketchide.export;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Command lines for the external ffmpeg encoder
+public final class Ffmpeg {
+
+    private static volatile Boolean available;
+
+    private Ffmpeg() {
+    }
+
+    private static final Pattern STAT = Pattern.compile("(\\w+)=\\s*(\\S+)");
+
+    // One of ffmpeg's status lines, e.g.
+    //   frame=  240 fps= 60 q=28.0 size=     512kB time=00:00:08.00 bitrate= 524.3kbits/s speed=2.01x
+    // Fields ffmpeg reported as N/A are -1.
+    public record Progress(long frame, double fps, long sizeBytes, double seconds, double speed) {
+    }
+
+    // Parses a status line; null for any other output
+    public static Progress parseProgress(String line) {
+        if(!line.startsWith("frame=")) return null;
+        long frame = -1, size = -1;
+        double fps = -1, seconds = -1, speed = -1;
+        Matcher m = STAT.matcher(line);
+        while(m.find()) {
+            String value = m.group(2);
+            try {
+                switch (m.group(1)) {
+                    case "frame" -> frame = Long.parseLong(value);
+                    case "fps" -> fps = Double.parseDouble(value);
+                    case "size", "Lsize" -> size = parseSize(value);
+                    case "time" -> seconds = parseTime(value);
+                    case "speed" -> speed = Double.parseDouble(value.replace("x", ""));
+                    default -> { }
+                }
+            } catch (NumberFormatException e) {
+                // N/A
+            }
+        }
+        return new Progress(frame, fps, size, seconds, speed);
+    }
+
+    // "512kB", "512KiB", "3MiB", "1024B"
+    private static long parseSize(String value) {
+        int unit = 0;
+        while(unit < value.length() && (Character.isDigit(value.charAt(unit)) || value.charAt(unit) == '.')) unit++;
+        double number = Double.parseDouble(value.substring(0, unit));
+        long scale = switch (value.substring(unit).toLowerCase()) {
+            case "kb", "kib" -> 1024;
+            case "mb", "mib" -> 1024 * 1024;
+            case "gb", "gib" -> 1024L * 1024 * 1024;
+            default -> 1;
+        };
+        return (long) (number * scale);
+    }
+
+    // "00:01:02.50" -> 62.5
+    private static double parseTime(String value) {
+        String[] parts = value.split(":");
+        if(parts.length != 3) throw new NumberFormatException(value);
+        return Integer.parseInt(parts[0]) * 3600 + Integer.parseInt(parts[1]) * 60 + Double.parseDouble(parts[2]);
+    }
+
+    // Whether an ffmpeg binary can be started from the PATH; checked once
+    public static boolean isAvailable() {
+        Boolean result = available;
+        if(result == null) {
+            try {
+                Process p = new ProcessBuilder("ffmpeg", "-version")
+                        .redirectErrorStream(true)
+                        .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                        .start();
+                result = p.waitFor() == 0;
+            } catch (IOException e) {
+                result = false;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+            available = result;
+        }
+        return result;
+    }
+
+    /*
+     ffmpeg -y -framerate {fps} -i frame_%06d.png -c:v libx264 -pix_fmt yuv420p output.mp4
+     */
+    public static ProcessBuilder pngSequenceToMp4(double fps, Path frameDir, File output) {
+        return pngSequenceToMp4(fps, frameDir, output, null);
+    }
+
+    // With an audio track from the audio file, if not null
+    public static ProcessBuilder pngSequenceToMp4(double fps, Path frameDir, File output, Path audio) {
+        List<String> cmd = new ArrayList<>(List.of(
+                "ffmpeg",
+                "-y",
+                "-framerate", String.valueOf(fps),
+                "-i", frameDir.resolve("frame_%06d.png").toString()
+        ));
+        addAudio(cmd, audio);
+        cmd.addAll(List.of(
+                "-c:v", "libx264",
+                "-pix_fmt", "yuv420p",
+                output.getAbsolutePath()
+        ));
+        ProcessBuilder pb = new ProcessBuilder(cmd);
+        // Set working dir to the frame dir so ffmpeg finds files easily
+        pb.directory(frameDir.toFile());
+        pb.redirectErrorStream(true);
+        return pb;
+    }
+
+    /*
+     ffmpeg -y -f rawvideo -pix_fmt bgr0 -s {w}x{h} -framerate {fps} -i - -c:v libx264 -pix_fmt yuv420p output.mp4
+     */
+    public static PipeEncoder.Command rawVideoToMp4(File output) {
+        return rawVideoToMp4(output, null);
+    }
+
+    // With an audio track from the audio file, if not null
+    public static PipeEncoder.Command rawVideoToMp4(File output, Path audio) {
+        return (width, height, fps) -> {
+            List<String> cmd = new ArrayList<>(List.of(
+                    "ffmpeg",
+                    "-y",
+                    "-f", "rawvideo",
+                    "-pix_fmt", "bgr0",
+                    "-s", width + "x" + height,
+                    "-framerate", String.valueOf(fps),
+                    "-i", "-"
+            ));
+            addAudio(cmd, audio);
+            cmd.addAll(List.of(
+                    "-c:v", "libx264",
+                    "-pix_fmt", "yuv420p",
+                    output.getAbsolutePath()
+            ));
+            return cmd;
+        };
+    }
+
+    /*
+     ... -i audio.wav -map 0:v -map 1:a -c:a aac -af apad -shortest ...
+     The audio is padded with silence and cut where the video ends, so the video keeps its length
+     and both start at 0.
+     */
+    private static void addAudio(List<String> cmd, Path audio) {
+        if(audio == null) return;
+        cmd.addAll(List.of(
+                "-i", audio.toAbsolutePath().toString(),
+                "-map", "0:v",
+                "-map", "1:a",
+                "-c:a", "aac",
+                "-af", "apad",
+                "-shortest"
+        ));
+    }
+}
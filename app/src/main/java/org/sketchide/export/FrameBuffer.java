@@ -0,0 +1,110 @@
+package org.sketchide.export;
+
+import java.awt.*;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+
+// One pooled slot of the export pipeline: a transparent ARGB canvas the frame is drawn on, and the
+// opaque RGB raster it is flattened into. Both rasters and the Graphics2D live as long as the export.
+public final class FrameBuffer {
+
+    private final int width;
+    private final int height;
+    private final BufferedImage canvas;
+    private final Graphics2D g;
+    private final int[] argb;
+    private final int[] rgb;
+
+    private final AffineTransform origTransform;
+    private final Composite origComposite;
+    private final Stroke origStroke;
+    private final Paint origPaint;
+    private final Shape origClip;
+    private final Font origFont;
+    private final RenderingHints origHints;
+
+    int index;
+    // What differs from the previous frame, set by the compositor; null if nothing does
+    Rectangle changed;
+
+    public FrameBuffer(int width, int height) {
+        this.width = width;
+        this.height = height;
+        canvas = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        argb = ((DataBufferInt) canvas.getRaster().getDataBuffer()).getData();
+        rgb = new int[width * height];
+        g = canvas.createGraphics();
+        g.setClip(0, 0, width, height);
+
+        origTransform = g.getTransform();
+        origComposite = g.getComposite();
+        origStroke = g.getStroke();
+        origPaint = g.getPaint();
+        origClip = g.getClip();
+        origFont = g.getFont();
+        origHints = g.getRenderingHints();
+    }
+
+    // Clears the canvas to transparent and hands out its graphics with the sketch's changes undone
+    public Graphics2D clear() {
+        Arrays.fill(argb, 0);
+        g.setTransform(origTransform);
+        g.setComposite(origComposite);
+        g.setStroke(origStroke);
+        g.setPaint(origPaint);
+        g.setClip(origClip);
+        g.setFont(origFont);
+        g.setRenderingHints(origHints);
+        return g;
+    }
+
+    // Flattens the pixels inside area onto an opaque background colour (0xRRGGBB), into target (a
+    // width * height raster), straight on the int rasters. Same result as drawing the ARGB canvas over
+    // a filled rectangle with SrcOver.
+    public void composite(int background, Rectangle area, int[] target) {
+        for(int y = area.y, bottom = area.y + area.height; y < bottom; y++) {
+            for(int i = y * width + area.x, end = i + area.width; i < end; i++) {
+                target[i] = flatten(argb[i], background);
+            }
+        }
+    }
+
+    private static int flatten(int p, int background) {
+        int a = p >>> 24;
+        if(a == 0xFF) return p & 0xFFFFFF;
+        if(a == 0) return background;
+        int na = 255 - a;
+        int r = (((p >> 16) & 0xFF) * a + ((background >> 16) & 0xFF) * na + 127) / 255;
+        int gr = (((p >> 8) & 0xFF) * a + ((background >> 8) & 0xFF) * na + 127) / 255;
+        int b = ((p & 0xFF) * a + (background & 0xFF) * na + 127) / 255;
+        return (r << 16) | (gr << 8) | b;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    // The canvas pixels (0xAARRGGBB, not premultiplied); sources may also write these directly
+    public int[] getArgb() {
+        return argb;
+    }
+
+    // The flattened frame (0x00RRGGBB) as handed to the encoder
+    public int[] getRgb() {
+        return rgb;
+    }
+
+    void dispose() {
+        g.dispose();
+    }
+}
@@ -0,0 +1,84 @@
+package org.sketchide.export;
+
+import java.awt.Rectangle;
+import java.util.Arrays;
+
+// Finds what changed between consecutive frames of int pixels. Rows are compared with Arrays.mismatch,
+// which the JIT turns into vector compares, so a frame that did not change costs one pass over both
+// arrays, and one that changed everywhere is given up on after the first pixels of each row.
+public final class FrameDiff {
+
+    private final int width;
+    private final int height;
+    private final int[] previous;
+    private boolean first = true;
+
+    public FrameDiff(int width, int height) {
+        this.width = width;
+        this.height = height;
+        this.previous = new int[width * height];
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    // Bounds of the pixels of frame that differ from the frame passed last time (everything the first
+    // time), or null if none do. Keeps what changed for the next call.
+    public Rectangle update(int[] frame) {
+        Rectangle changed = first ? new Rectangle(0, 0, width, height) : bounds(frame, previous, width, height);
+        first = false;
+        if(changed != null) {
+            for(int y = changed.y, end = changed.y + changed.height; y < end; y++) {
+                int row = y * width + changed.x;
+                System.arraycopy(frame, row, previous, row, changed.width);
+            }
+        }
+        return changed;
+    }
+
+    // Makes the next update() report the whole frame again
+    public void reset() {
+        first = true;
+    }
+
+    // Smallest rectangle holding every pixel where a and b differ, or null if they are equal
+    public static Rectangle bounds(int[] a, int[] b, int width, int height) {
+        int top = 0;
+        while(top < height && rowEquals(a, b, top * width, width)) top++;
+        if(top == height) return null;
+        int bottom = height - 1;
+        while(bottom > top && rowEquals(a, b, bottom * width, width)) bottom--;
+
+        int left = width;
+        int right = -1;
+        for(int y = top; y <= bottom; y++) {
+            int row = y * width;
+            // Only what lies outside the columns found so far can widen the box
+            int m = left == 0 ? -1 : Arrays.mismatch(a, row, row + left, b, row, row + left);
+            if(m >= 0) left = m;
+            for(int x = width - 1; x > right; x--) {
+                if(a[row + x] != b[row + x]) {
+                    right = x;
+                    break;
+                }
+            }
+        }
+        return new Rectangle(left, top, right - left + 1, bottom - top + 1);
+    }
+
+    // Smallest rectangle holding both; either may be null for nothing
+    public static Rectangle union(Rectangle a, Rectangle b) {
+        if(a == null) return b;
+        if(b == null) return a;
+        return a.union(b);
+    }
+
+    private static boolean rowEquals(int[] a, int[] b, int row, int width) {
+        return Arrays.equals(a, row, row + width, b, row, row + width);
+    }
+}
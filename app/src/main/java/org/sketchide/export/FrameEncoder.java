@@ -0,0 +1,50 @@
+package org.sketchide.export;
+
+import java.awt.Rectangle;
+import java.io.Closeable;
+import java.io.IOException;
+
+// Receives finished export frames one at a time, in order, and turns them into an output file
+public interface FrameEncoder extends Closeable {
+
+    void open(int width, int height, double fps) throws IOException;
+
+    // rgb holds width * height pixels as 0x00RRGGBB, row by row (a TYPE_INT_RGB raster).
+    // The caller reuses the array once this returns.
+    void encode(int[] rgb) throws IOException;
+
+    // A frame that differs from the previous one only inside changed; rgb still holds all of it.
+    // Encoders that can store or process part of a frame override this.
+    default void encode(int[] rgb, Rectangle changed) throws IOException {
+        encode(rgb);
+    }
+
+    // A frame identical to the previous one (rgb holds it again). Encoders that can simply show the
+    // previous frame for longer override this.
+    default void repeat(int[] rgb) throws IOException {
+        encode(rgb);
+    }
+
+    // Finishes the output; the file is complete once this returns normally
+    @Override
+    void close() throws IOException;
+
+    // Bytes of output produced so far; read from other threads while the export runs
+    default long getBytesWritten() {
+        return 0;
+    }
+
+    // The latest status line of an external ffmpeg, or null if there is none (yet)
+    default Ffmpeg.Progress getFfmpegProgress() {
+        return null;
+    }
+
+    // Gives up on the output after cancellation or an error, without waiting for it to finish
+    default void abort() {
+        try {
+            close();
+        } catch (IOException ignored) {
+            // nothing left to clean up
+        }
+    }
+}
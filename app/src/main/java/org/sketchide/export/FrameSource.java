@@ -0,0 +1,8 @@
+package org.sketchide.export;
+
+// Produces the frames of an export, one after another in ascending order, on a single thread
+public interface FrameSource {
+
+    // Fills the buffer's canvas with frame index (via buffer.clear() or by writing getArgb())
+    void render(int index, FrameBuffer buffer) throws Exception;
+}
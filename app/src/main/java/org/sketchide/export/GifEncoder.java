@@ -0,0 +1,381 @@
+package org.sketchide.export;
+
+import java.awt.Rectangle;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+// Animated GIF written frame by frame, without ffmpeg. Every frame gets its own 256-colour palette from a
+// median cut over a 15-bit colour histogram; pixels are mapped through a lookup table and LZW-compressed.
+// Only the current frame is held in memory. A frame that changed only in part is stored as just that
+// rectangle over the previous ones, and a repeated frame merely lengthens the previous frame's delay.
+public class GifEncoder implements FrameEncoder {
+
+    private static final int HASH_SIZE = 5003;    // prime, about 120% of the 4096 LZW codes
+    private static final int MAX_BITS = 12;
+    private static final int MAX_CODES = 1 << MAX_BITS;
+
+    private final File output;
+    private OutputStream out;
+    private FileOutputStream file;
+    private volatile long bytesWritten;
+    private int width;
+    private int height;
+    private double fps;
+    // Frames encoded, repeats included; the image written last is shown from frame shownSince on
+    private long frameCount;
+    private long shownSince;
+    private long delayPosition = -1;
+
+    // Quantisation state, reused for every frame
+    private final int[] histogram = new int[1 << 15];
+    // Exact colour sums per bin, so flat colours come out unchanged
+    private final long[] redSums = new long[1 << 15];
+    private final long[] greenSums = new long[1 << 15];
+    private final long[] blueSums = new long[1 << 15];
+    private final int[] bins = new int[1 << 15];
+    private final int[] sortScratch = new int[1 << 15];
+    private final int[] boxStart = new int[256];
+    private final int[] boxEnd = new int[256];
+    private final long[] boxPixels = new long[256];
+    private final int[] channelCounts = new int[33];
+    private final byte[] lookup = new byte[1 << 15];
+    private final byte[] palette = new byte[256 * 3];
+    private byte[] indices;
+
+    // LZW state
+    private final int[] hashKeys = new int[HASH_SIZE];
+    private final int[] hashCodes = new int[HASH_SIZE];
+    private final byte[] block = new byte[256];
+    private int blockLength;
+    private int bitBuffer;
+    private int bitCount;
+    private int codeBits;
+    private int maxCode;
+    private int nextCode;
+    private boolean clearPending;
+
+    public GifEncoder(File output) {
+        this.output = output;
+    }
+
+    @Override
+    public void open(int width, int height, double fps) throws IOException {
+        if(width > 0xFFFF || height > 0xFFFF) throw new IOException("GIF frames are limited to 65535x65535");
+        this.width = width;
+        this.height = height;
+        this.fps = fps;
+        indices = new byte[width * height];
+        file = new FileOutputStream(output);
+        out = new BufferedOutputStream(file, 1 << 16);
+
+        out.write(new byte[]{'G', 'I', 'F', '8', '9', 'a'});
+        writeShort(width);
+        writeShort(height);
+        out.write(0);       // no global colour table
+        out.write(0);       // background colour index
+        out.write(0);       // square pixels
+
+        // Loop forever
+        out.write(new byte[]{0x21, (byte) 0xFF, 0x0B, 'N', 'E', 'T', 'S', 'C', 'A', 'P', 'E', '2', '.', '0', 3, 1, 0, 0, 0});
+    }
+
+    @Override
+    public void encode(int[] rgb) throws IOException {
+        encode(rgb, new Rectangle(0, 0, width, height));
+    }
+
+    // Only the changed rectangle is quantised and stored; the frames before show through around it
+    @Override
+    public void encode(int[] rgb, Rectangle changed) throws IOException {
+        quantize(rgb, changed);
+        shownSince = frameCount++;
+
+        // Graphic control: no transparency, do not dispose (later frames may only cover part of this one)
+        out.write(new byte[]{0x21, (byte) 0xF9, 4, 0x04});
+        out.flush();
+        delayPosition = file.getChannel().position();
+        writeShort(Math.min(0xFFFF, delay(shownSince, frameCount)));
+        out.write(0);
+        out.write(0);
+
+        out.write(0x2C);                                   // image descriptor
+        writeShort(changed.x);
+        writeShort(changed.y);
+        writeShort(changed.width);
+        writeShort(changed.height);
+        out.write(0x87);                                   // local colour table of 256 entries
+        out.write(palette);
+
+        out.write(8);                                      // LZW minimum code size
+        compress(indices, changed.width * changed.height);
+        out.write(0);                                      // end of image data
+        // What has reached the file; up to one buffer behind
+        bytesWritten = file.getChannel().position();
+    }
+
+    // Nothing new to store: the last image just stays up longer, by patching its delay in place
+    @Override
+    public void repeat(int[] rgb) throws IOException {
+        if(delayPosition < 0) {
+            encode(rgb);
+            return;
+        }
+        int delay = delay(shownSince, frameCount + 1);
+        if(delay > 0xFFFF) {
+            // Longer than a delay can say: one unchanged pixel starts a new one
+            encode(rgb, new Rectangle(0, 0, 1, 1));
+            return;
+        }
+        frameCount++;
+        out.flush();
+        ByteBuffer patch = ByteBuffer.wrap(new byte[]{(byte) delay, (byte) (delay >> 8)});
+        while(patch.hasRemaining()) {
+            file.getChannel().write(patch, delayPosition + patch.position());
+        }
+    }
+
+    // Delays are in 1/100 s; rounding the running total keeps the clip at its length at any fps
+    private int delay(long fromFrame, long toFrame) {
+        return (int) Math.max(1, Math.round(toFrame * 100 / fps) - Math.round(fromFrame * 100 / fps));
+    }
+
+    @Override
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if(out == null) return;
+        out.write(0x3B);
+        out.close();
+        out = null;
+        bytesWritten = output.length();
+    }
+
+    @Override
+    public void abort() {
+        if(out == null) return;
+        try {
+            out.close();
+        } catch (IOException ignored) {
+            // partial file is removed below
+        }
+        out = null;
+        output.delete();
+    }
+
+    private void writeShort(int v) throws IOException {
+        out.write(v & 0xFF);
+        out.write((v >> 8) & 0xFF);
+    }
+
+    // Median cut: split the box holding the most pixels at the median of its widest channel
+    // until there are 256 boxes; each box becomes one palette entry.
+    // Covers the pixels inside area only; their indices end up packed row by row
+    private void quantize(int[] rgb, Rectangle area) {
+        Arrays.fill(histogram, 0);
+        Arrays.fill(redSums, 0);
+        Arrays.fill(greenSums, 0);
+        Arrays.fill(blueSums, 0);
+        int n = area.width * area.height;
+        for(int y = area.y, bottom = area.y + area.height; y < bottom; y++) {
+            for(int i = y * width + area.x, end = i + area.width; i < end; i++) {
+                int p = rgb[i];
+                int bin = bin(p);
+                histogram[bin]++;
+                redSums[bin] += (p >> 16) & 0xFF;
+                greenSums[bin] += (p >> 8) & 0xFF;
+                blueSums[bin] += p & 0xFF;
+            }
+        }
+        int binCount = 0;
+        for(int b = 0; b < histogram.length; b++) {
+            if(histogram[b] != 0) bins[binCount++] = b;
+        }
+
+        int boxes = 1;
+        boxStart[0] = 0;
+        boxEnd[0] = binCount;
+        boxPixels[0] = n;
+        while(boxes < 256) {
+            int target = -1;
+            long most = 0;
+            for(int box = 0; box < boxes; box++) {
+                if(boxEnd[box] - boxStart[box] >= 2 && boxPixels[box] > most) {
+                    most = boxPixels[box];
+                    target = box;
+                }
+            }
+            if(target < 0) break;
+
+            int shift = widestChannel(boxStart[target], boxEnd[target]);
+            sortByChannel(boxStart[target], boxEnd[target], shift);
+            // First bin past half of the box's pixels, but leave at least one bin on each side
+            long half = most / 2;
+            long seen = 0;
+            int split = boxStart[target] + 1;
+            for(int i = boxStart[target]; i < boxEnd[target] - 1; i++) {
+                seen += histogram[bins[i]];
+                split = i + 1;
+                if(seen >= half) break;
+            }
+            boxStart[boxes] = split;
+            boxEnd[boxes] = boxEnd[target];
+            boxPixels[boxes] = most - seen;
+            boxEnd[target] = split;
+            boxPixels[target] = seen;
+            boxes++;
+        }
+
+        Arrays.fill(palette, (byte) 0);
+        for(int box = 0; box < boxes; box++) {
+            long r = 0, g = 0, b = 0, count = 0;
+            for(int i = boxStart[box]; i < boxEnd[box]; i++) {
+                int bin = bins[i];
+                r += redSums[bin];
+                g += greenSums[bin];
+                b += blueSums[bin];
+                count += histogram[bin];
+                lookup[bin] = (byte) box;
+            }
+            if(count > 0) {
+                palette[box * 3] = (byte) ((r + count / 2) / count);
+                palette[box * 3 + 1] = (byte) ((g + count / 2) / count);
+                palette[box * 3 + 2] = (byte) ((b + count / 2) / count);
+            }
+        }
+
+        int k = 0;
+        for(int y = area.y, bottom = area.y + area.height; y < bottom; y++) {
+            for(int i = y * width + area.x, end = i + area.width; i < end; i++) {
+                indices[k++] = lookup[bin(rgb[i])];
+            }
+        }
+    }
+
+    private static int bin(int rgb) {
+        return ((rgb >> 9) & 0x7C00) | ((rgb >> 6) & 0x3E0) | ((rgb >> 3) & 0x1F);
+    }
+
+    // Bit offset (10, 5 or 0) of the channel with the largest spread in bins[from, to)
+    private int widestChannel(int from, int to) {
+        int rMin = 31, rMax = 0, gMin = 31, gMax = 0, bMin = 31, bMax = 0;
+        for(int i = from; i < to; i++) {
+            int bin = bins[i];
+            int r = bin >> 10, g = (bin >> 5) & 31, b = bin & 31;
+            rMin = Math.min(rMin, r);
+            rMax = Math.max(rMax, r);
+            gMin = Math.min(gMin, g);
+            gMax = Math.max(gMax, g);
+            bMin = Math.min(bMin, b);
+            bMax = Math.max(bMax, b);
+        }
+        int r = rMax - rMin, g = gMax - gMin, b = bMax - bMin;
+        if(r >= g && r >= b) return 10;
+        return g >= b ? 5 : 0;
+    }
+
+    // Stable counting sort of bins[from, to) by one 5-bit channel
+    private void sortByChannel(int from, int to, int shift) {
+        int[] counts = channelCounts;
+        Arrays.fill(counts, 0);
+        for(int i = from; i < to; i++) counts[((bins[i] >> shift) & 31) + 1]++;
+        for(int v = 0; v < 32; v++) counts[v + 1] += counts[v];
+        for(int i = from; i < to; i++) sortScratch[from + counts[(bins[i] >> shift) & 31]++] = bins[i];
+        System.arraycopy(sortScratch, from, bins, from, to - from);
+    }
+
+    // Variable-width LZW as GIF expects it (8-bit symbols, codes up to 12 bits, clear code when the table fills)
+    private void compress(byte[] data, int length) throws IOException {
+        int clearCode = 256;
+        int endCode = 257;
+        Arrays.fill(hashKeys, -1);
+        codeBits = 9;
+        maxCode = (1 << codeBits) - 1;
+        nextCode = clearCode + 2;
+        clearPending = false;
+        bitBuffer = 0;
+        bitCount = 0;
+        blockLength = 0;
+
+        writeCode(clearCode);
+        int prefix = data[0] & 0xFF;
+        for(int i = 1; i < length; i++) {
+            int c = data[i] & 0xFF;
+            int key = (c << MAX_BITS) + prefix;
+            int h = (c << 4) ^ prefix;
+            if(hashKeys[h] == key) {
+                prefix = hashCodes[h];
+                continue;
+            }
+            if(hashKeys[h] >= 0) {
+                // Secondary probe
+                int step = h == 0 ? 1 : HASH_SIZE - h;
+                boolean found = false;
+                do {
+                    h -= step;
+                    if(h < 0) h += HASH_SIZE;
+                    if(hashKeys[h] == key) {
+                        prefix = hashCodes[h];
+                        found = true;
+                        break;
+                    }
+                } while(hashKeys[h] >= 0);
+                if(found) continue;
+            }
+            writeCode(prefix);
+            prefix = c;
+            if(nextCode < MAX_CODES) {
+                hashCodes[h] = nextCode++;
+                hashKeys[h] = key;
+            } else {
+                Arrays.fill(hashKeys, -1);
+                nextCode = clearCode + 2;
+                clearPending = true;
+                writeCode(clearCode);
+            }
+        }
+        writeCode(prefix);
+        writeCode(endCode);
+        if(bitCount > 0) {
+            addByte(bitBuffer & 0xFF);
+        }
+        flushBlock();
+    }
+
+    private void writeCode(int code) throws IOException {
+        bitBuffer |= code << bitCount;
+        bitCount += codeBits;
+        while(bitCount >= 8) {
+            addByte(bitBuffer & 0xFF);
+            bitBuffer >>>= 8;
+            bitCount -= 8;
+        }
+
+        // Widen codes once the table outgrows them; back to 9 bits after a clear
+        if(nextCode > maxCode || clearPending) {
+            if(clearPending) {
+                codeBits = 9;
+                maxCode = (1 << codeBits) - 1;
+                clearPending = false;
+            } else {
+                codeBits++;
+                maxCode = codeBits == MAX_BITS ? MAX_CODES : (1 << codeBits) - 1;
+            }
+        }
+    }
+
+    private void addByte(int b) throws IOException {
+        block[blockLength++] = (byte) b;
+        if(blockLength == 255) flushBlock();
+    }
+
+    private void flushBlock() throws IOException {
+        if(blockLength == 0) return;
+        out.write(blockLength);
+        out.write(block, 0, blockLength);
+        blockLength = 0;
+    }
+}
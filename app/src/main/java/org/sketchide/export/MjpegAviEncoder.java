@@ -0,0 +1,248 @@
+package org.sketchide.export;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+// Motion-JPEG in an AVI 1.0 container, written frame by frame without ffmpeg. Each frame is one
+// JPEG chunk in the 'movi' list; the headers are patched with the final counts on close and the
+// index is written from a compact list of chunk sizes (4 bytes per frame). A repeated frame is an empty
+// chunk, which players take as "keep showing the previous frame".
+public class MjpegAviEncoder implements FrameEncoder {
+
+    // AVI 1.0 uses 32-bit RIFF sizes; stay clear of the signed limit many players assume
+    private static final long MAX_FILE_SIZE = Integer.MAX_VALUE;
+    private static final int AVIF_HASINDEX = 0x10;
+    private static final int AVIIF_KEYFRAME = 0x10;
+
+    // Offsets of the fields patched on close
+    private static final int RIFF_SIZE = 4;
+    private static final int AVIH_TOTAL_FRAMES = 48;
+    private static final int AVIH_BUFFER_SIZE = 60;
+    private static final int STRH_LENGTH = 140;
+    private static final int STRH_BUFFER_SIZE = 144;
+    private static final int MOVI_SIZE = 216;
+    private static final int MOVI_START = 220;
+    private static final int HEADER_SIZE = 224;
+
+    private final File output;
+    private final float quality;
+    private FileChannel channel;
+    private ImageWriter writer;
+    private ImageWriteParam param;
+    private BufferedImage frame;
+    private int[] framePixels;
+    private final ChunkBuffer jpeg = new ChunkBuffer();
+    private final ByteBuffer chunkHeader = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+    private int[] chunkSizes = new int[1024];
+    private int frameCount;
+    private int largestChunk;
+    private volatile long bytesWritten;
+
+    // Exposes its array so a frame goes to the channel without a copy
+    private static class ChunkBuffer extends ByteArrayOutputStream {
+        ChunkBuffer() {
+            super(1 << 18);
+        }
+
+        ByteBuffer wrap() {
+            return ByteBuffer.wrap(buf, 0, count);
+        }
+    }
+
+    public MjpegAviEncoder(File output) {
+        this(output, 0.9f);
+    }
+
+    public MjpegAviEncoder(File output, float quality) {
+        this.output = output;
+        this.quality = quality;
+    }
+
+    @Override
+    public void open(int width, int height, double fps) throws IOException {
+        writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        param = writer.getDefaultWriteParam();
+        param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+        param.setCompressionQuality(quality);
+        frame = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        framePixels = ((DataBufferInt) frame.getRaster().getDataBuffer()).getData();
+
+        channel = FileChannel.open(output.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        writeFully(header(width, height, fps), 0);
+        channel.position(HEADER_SIZE);
+    }
+
+    @Override
+    public void encode(int[] rgb) throws IOException {
+        System.arraycopy(rgb, 0, framePixels, 0, framePixels.length);
+        jpeg.reset();
+        try (MemoryCacheImageOutputStream stream = new MemoryCacheImageOutputStream(jpeg)) {
+            writer.setOutput(stream);
+            writer.write(null, new IIOImage(frame, null, null), param);
+        }
+        writeChunk(jpeg.wrap());
+    }
+
+    // An empty chunk: players show the previous frame again, nothing is compressed
+    @Override
+    public void repeat(int[] rgb) throws IOException {
+        if(frameCount == 0) {
+            encode(rgb);
+            return;
+        }
+        writeChunk(ByteBuffer.allocate(0));
+    }
+
+    private void writeChunk(ByteBuffer data) throws IOException {
+        int size = data.remaining();
+        // Chunks are padded to an even length
+        if(channel.position() + 8 + size + 1 + 16L * (frameCount + 1) > MAX_FILE_SIZE) {
+            throw new IOException("MJPEG AVI export is limited to 2 GB; use a lower quality or shorter clip");
+        }
+        if(frameCount == chunkSizes.length) chunkSizes = Arrays.copyOf(chunkSizes, frameCount * 2);
+        chunkSizes[frameCount++] = size;
+        largestChunk = Math.max(largestChunk, size);
+
+        chunkHeader.clear();
+        chunkHeader.put((byte) '0').put((byte) '0').put((byte) 'd').put((byte) 'c').putInt(size);
+        chunkHeader.flip();
+        write(chunkHeader);
+        write(data);
+        if((size & 1) != 0) {
+            write(ByteBuffer.wrap(new byte[1]));
+        }
+        bytesWritten = channel.position();
+    }
+
+    @Override
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if(channel == null) return;
+        try {
+            long moviEnd = channel.position();
+
+            // idx1: offsets are relative to the 'movi' fourcc
+            ByteBuffer index = ByteBuffer.allocate(8 + 16 * frameCount).order(ByteOrder.LITTLE_ENDIAN);
+            index.put(fourcc("idx1")).putInt(16 * frameCount);
+            int offset = 4;
+            for(int i = 0; i < frameCount; i++) {
+                int flags = chunkSizes[i] > 0 ? AVIIF_KEYFRAME : 0;
+                index.put(fourcc("00dc")).putInt(flags).putInt(offset).putInt(chunkSizes[i]);
+                offset += 8 + chunkSizes[i] + (chunkSizes[i] & 1);
+            }
+            index.flip();
+            write(index);
+            long fileEnd = channel.position();
+
+            patch(RIFF_SIZE, (int) (fileEnd - 8));
+            patch(AVIH_TOTAL_FRAMES, frameCount);
+            patch(AVIH_BUFFER_SIZE, largestChunk + 8);
+            patch(STRH_LENGTH, frameCount);
+            patch(STRH_BUFFER_SIZE, largestChunk + 8);
+            patch(MOVI_SIZE, (int) (moviEnd - MOVI_START));
+        } finally {
+            channel.close();
+            channel = null;
+            writer.dispose();
+        }
+    }
+
+    @Override
+    public void abort() {
+        if(channel == null) return;
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+            // partial file is removed below
+        }
+        channel = null;
+        writer.dispose();
+        output.delete();
+    }
+
+    private ByteBuffer header(int width, int height, double fps) {
+        // Frame rate as a rational with millisecond precision
+        int scale = 1000;
+        int rate = (int) Math.round(fps * scale);
+
+        ByteBuffer b = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        b.put(fourcc("RIFF")).putInt(0).put(fourcc("AVI "));
+        b.put(fourcc("LIST")).putInt(192).put(fourcc("hdrl"));
+
+        b.put(fourcc("avih")).putInt(56);
+        b.putInt((int) Math.round(1_000_000 / fps));    // microseconds per frame
+        b.putInt(0);                                    // max bytes per second
+        b.putInt(0);                                    // padding granularity
+        b.putInt(AVIF_HASINDEX);
+        b.putInt(0);                                    // total frames, patched
+        b.putInt(0);                                    // initial frames
+        b.putInt(1);                                    // streams
+        b.putInt(0);                                    // suggested buffer size, patched
+        b.putInt(width).putInt(height);
+        b.putInt(0).putInt(0).putInt(0).putInt(0);
+
+        b.put(fourcc("LIST")).putInt(116).put(fourcc("strl"));
+        b.put(fourcc("strh")).putInt(56);
+        b.put(fourcc("vids")).put(fourcc("MJPG"));
+        b.putInt(0);                                    // flags
+        b.putShort((short) 0).putShort((short) 0);      // priority, language
+        b.putInt(0);                                    // initial frames
+        b.putInt(scale).putInt(rate);
+        b.putInt(0);                                    // start
+        b.putInt(0);                                    // length, patched
+        b.putInt(0);                                    // suggested buffer size, patched
+        b.putInt(-1);                                   // quality
+        b.putInt(0);                                    // sample size
+        b.putShort((short) 0).putShort((short) 0).putShort((short) width).putShort((short) height);
+
+        b.put(fourcc("strf")).putInt(40);
+        b.putInt(40);                                   // BITMAPINFOHEADER
+        b.putInt(width).putInt(height);
+        b.putShort((short) 1).putShort((short) 24);
+        b.put(fourcc("MJPG"));
+        b.putInt(width * height * 3);
+        b.putInt(0).putInt(0).putInt(0).putInt(0);
+
+        b.put(fourcc("LIST")).putInt(0).put(fourcc("movi"));
+        b.flip();
+        return b;
+    }
+
+    private static byte[] fourcc(String code) {
+        return new byte[]{(byte) code.charAt(0), (byte) code.charAt(1), (byte) code.charAt(2), (byte) code.charAt(3)};
+    }
+
+    private void patch(int position, int value) throws IOException {
+        ByteBuffer b = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(value);
+        b.flip();
+        writeFully(b, position);
+    }
+
+    private void write(ByteBuffer b) throws IOException {
+        while(b.hasRemaining()) {
+            channel.write(b);
+        }
+    }
+
+    private void writeFully(ByteBuffer b, long position) throws IOException {
+        while(b.hasRemaining()) {
+            position += channel.write(b, position);
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package org.sketchide.export;
+
+import org.sketchide.audio.Audio;
+import org.sketchide.audio.AudioTimeline;
+import org.sketchide.engine.Sketch;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+// Renders the frames of a @Stateless sketch on all cores. Every worker of a fork/join pool gets
+// its own sketch instance and off-screen canvas and claims ranges of frames in ascending order.
+// Finished frames are encoded on the worker, then handed to an ordered sink strictly by frame index.
+public class ParallelFrameRenderer {
+
+    // Frames per claimed range; small enough to keep the reorder window short
+    private static final int CHUNK = 4;
+
+    // Turns a finished frame into whatever the sink needs (file, bytes, ...). Runs on the workers, in any order.
+    public interface FrameProcessor<T> {
+        T process(int index, BufferedImage frame) throws Exception;
+    }
+
+    // Receives the encoded frames one at a time, in frame order
+    public interface OrderedSink<T> {
+        void accept(int index, T encoded) throws Exception;
+    }
+
+    private final Class<?> sketchClass;
+    private final int width;
+    private final int height;
+    private final Color background;
+    private final double fps;
+    private final int parallelism;
+    private ExportTelemetry telemetry = new ExportTelemetry();
+
+    public ParallelFrameRenderer(Class<?> sketchClass, int width, int height, Color background,
+                                 double fps, int parallelism) {
+        this.sketchClass = sketchClass;
+        this.width = width;
+        this.height = height;
+        this.background = background;
+        this.fps = fps;
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    // Draw and composite times go here; every worker counts as one thread of those stages
+    public void setTelemetry(ExportTelemetry telemetry) {
+        this.telemetry = telemetry;
+        telemetry.setStageThreads(ExportTelemetry.Stage.DRAW, parallelism);
+        telemetry.setStageThreads(ExportTelemetry.Stage.COMPOSITE, parallelism);
+    }
+
+    public <T> void render(int totalFrames, FrameProcessor<T> processor, OrderedSink<T> sink,
+                           BooleanSupplier cancelled) throws Exception {
+        render(0, totalFrames, processor, sink, cancelled);
+    }
+
+    // Frames firstFrame..totalFrames-1 only
+    public <T> void render(int firstFrame, int totalFrames, FrameProcessor<T> processor, OrderedSink<T> sink,
+                           BooleanSupplier cancelled) throws Exception {
+        AtomicInteger nextChunk = new AtomicInteger();
+        Reorderer<T> reorderer = new Reorderer<>(sink, parallelism * CHUNK * 2, firstFrame);
+        // The workers draw with the audio of the export that runs them
+        AudioTimeline timeline = Audio.getTimeline();
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            ForkJoinTask<?>[] workers = new ForkJoinTask<?>[parallelism];
+            for(int w = 0; w < parallelism; w++) {
+                workers[w] = pool.submit(() -> {
+                    Audio.setTimeline(timeline);
+                    try {
+                        renderChunks(firstFrame, totalFrames, nextChunk, processor, reorderer, cancelled);
+                    } finally {
+                        Audio.setTimeline(null);
+                    }
+                    return null;
+                });
+            }
+            for(ForkJoinTask<?> worker : workers) {
+                try {
+                    worker.get();
+                } catch (ExecutionException e) {
+                    reorderer.abort();
+                    if(e.getCause() instanceof Exception cause) throw cause;
+                    throw e;
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private <T> void renderChunks(int firstFrame, int totalFrames, AtomicInteger nextChunk, FrameProcessor<T> processor,
+                                  Reorderer<T> reorderer, BooleanSupplier cancelled) throws Exception {
+        Sketch sketch = (Sketch) sketchClass.getDeclaredConstructor().newInstance();
+        sketch.init();
+        VideoFrameRenderer frameRenderer = new VideoFrameRenderer(width, height, background);
+        try {
+            while(!cancelled.getAsBoolean() && !reorderer.isAborted()) {
+                int from = firstFrame + nextChunk.getAndIncrement() * CHUNK;
+                if(from >= totalFrames) return;
+                int to = Math.min(totalFrames, from + CHUNK);
+                // Do not run too far ahead of the frames that are still missing
+                reorderer.awaitWindow(from);
+                for(int i = from; i < to; i++) {
+                    long start = System.nanoTime();
+                    frameRenderer.clear();
+                    frameRenderer.draw(sketch, i, i / fps);
+                    long drawn = System.nanoTime();
+                    BufferedImage frame = frameRenderer.composite();
+                    telemetry.record(ExportTelemetry.Stage.DRAW, drawn - start);
+                    telemetry.record(ExportTelemetry.Stage.COMPOSITE, System.nanoTime() - drawn);
+                    reorderer.complete(i, processor.process(i, frame));
+                }
+            }
+        } finally {
+            frameRenderer.dispose();
+        }
+    }
+
+    // Puts out-of-order results back in sequence. Whichever worker finishes the next expected
+    // frame drains every consecutive frame that is ready.
+    private static class Reorderer<T> {
+        private final OrderedSink<T> sink;
+        private final int window;
+        private final Map<Integer, T> ready = new HashMap<>();
+        private int nextToDeliver;
+        private boolean draining;
+        private volatile boolean aborted;
+
+        Reorderer(OrderedSink<T> sink, int window, int firstIndex) {
+            this.sink = sink;
+            this.window = window;
+            this.nextToDeliver = firstIndex;
+        }
+
+        synchronized void awaitWindow(int index) throws InterruptedException {
+            while(index - nextToDeliver >= window && !aborted) {
+                wait();
+            }
+        }
+
+        void complete(int index, T encoded) throws Exception {
+            synchronized (this) {
+                ready.put(index, encoded);
+                if(draining) return; // the draining worker will pick it up
+                draining = true;
+            }
+            try {
+                while(true) {
+                    int deliver;
+                    T next;
+                    synchronized (this) {
+                        if(!ready.containsKey(nextToDeliver)) {
+                            draining = false;
+                            return;
+                        }
+                        deliver = nextToDeliver;
+                        next = ready.remove(deliver);
+                    }
+                    sink.accept(deliver, next);
+                    synchronized (this) {
+                        nextToDeliver++;
+                        notifyAll();
+                    }
+                }
+            } catch (Exception e) {
+                abort();
+                throw e;
+            }
+        }
+
+        synchronized void abort() {
+            aborted = true;
+            notifyAll();
+        }
+
+        boolean isAborted() {
+            return aborted;
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package org.sketchide.export;
+
+import java.awt.Rectangle;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+
+// Streams raw frames into an external encoder's stdin (rawvideo), so no frame ever touches the disk.
+// Pixels go out as 4 bytes B, G, R, x per pixel (ffmpeg pix_fmt bgr0): that is exactly the
+// little-endian byte layout of a TYPE_INT_RGB int, so a frame is copied once into a reused
+// direct buffer and written through an NIO channel.
+public class PipeEncoder implements FrameEncoder {
+
+    // Builds the encoder command line for a given frame geometry
+    public interface Command {
+        List<String> build(int width, int height, double fps);
+    }
+
+    // Lines of encoder output kept for error messages
+    private static final int LOG_LINES = 50;
+
+    private final Command command;
+    private Process process;
+    private WritableByteChannel channel;
+    private ByteBuffer frameBytes;
+    private IntBuffer framePixels;
+    private int width;
+    private Thread logReader;
+    private final Deque<String> log = new ArrayDeque<>();
+    private volatile long bytesWritten;
+    private volatile Ffmpeg.Progress progress;
+
+    public PipeEncoder(Command command) {
+        this.command = command;
+    }
+
+    @Override
+    public void open(int width, int height, double fps) throws IOException {
+        ProcessBuilder pb = new ProcessBuilder(command.build(width, height, fps));
+        pb.redirectErrorStream(true);
+        process = pb.start();
+
+        // Drain the encoder's output so it never blocks on a full pipe
+        logReader = new Thread(() -> {
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    // Status lines (ffmpeg ends them with \r, so they read as lines) are kept apart from the log
+                    Ffmpeg.Progress status = Ffmpeg.parseProgress(line);
+                    if (status != null) {
+                        progress = status;
+                        continue;
+                    }
+                    synchronized (log) {
+                        if (log.size() == LOG_LINES) log.removeFirst();
+                        log.addLast(line);
+                    }
+                }
+            } catch (IOException ignored) {
+                // process went away
+            }
+        }, "encoder-log");
+        logReader.setDaemon(true);
+        logReader.start();
+
+        channel = Channels.newChannel(process.getOutputStream());
+        this.width = width;
+        frameBytes = ByteBuffer.allocateDirect(width * height * 4).order(ByteOrder.LITTLE_ENDIAN);
+        framePixels = frameBytes.asIntBuffer();
+    }
+
+    @Override
+    public void encode(int[] rgb) throws IOException {
+        framePixels.clear();
+        framePixels.put(rgb, 0, framePixels.capacity());
+        send();
+    }
+
+    // The buffer still holds the previous frame, so only the changed rows of the rectangle are copied in
+    @Override
+    public void encode(int[] rgb, Rectangle changed) throws IOException {
+        for(int y = changed.y, bottom = changed.y + changed.height; y < bottom; y++) {
+            int offset = y * width + changed.x;
+            framePixels.put(offset, rgb, offset, changed.width);
+        }
+        send();
+    }
+
+    // The encoder needs every frame, but the one in the buffer can go out again as it is
+    @Override
+    public void repeat(int[] rgb) throws IOException {
+        send();
+    }
+
+    private void send() throws IOException {
+        frameBytes.clear();
+        try {
+            long written = bytesWritten;
+            while (frameBytes.hasRemaining()) {
+                written += channel.write(frameBytes);
+            }
+            bytesWritten = written;
+        } catch (IOException e) {
+            throw new IOException("Encoder stopped accepting frames:\n" + getLog(), e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (process == null) return;
+        channel.close();
+        try {
+            int exitCode = process.waitFor();
+            logReader.join(1000);
+            if (exitCode != 0) {
+                throw new IOException("Encoder exited with code " + exitCode + ":\n" + getLog());
+            }
+        } catch (InterruptedException e) {
+            process.destroy();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the encoder");
+        } finally {
+            process = null;
+        }
+    }
+
+    @Override
+    public void abort() {
+        if (process == null) return;
+        process.destroy();
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+            // the process is gone already
+        }
+        process = null;
+    }
+
+    // Raw frame bytes handed to the encoder; its output size is in getFfmpegProgress()
+    @Override
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    @Override
+    public Ffmpeg.Progress getFfmpegProgress() {
+        return progress;
+    }
+
+    public String getLog() {
+        synchronized (log) {
+            return String.join("\n", log);
+        }
+    }
+}
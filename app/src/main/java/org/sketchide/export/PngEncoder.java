@@ -0,0 +1,422 @@
+package org.sketchide.export;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+// PNG writer that filters and deflates horizontal strips of the image in parallel. Each strip is a raw
+// deflate stream ended with a sync flush (the last one with finish), so the strips concatenate into one
+// valid zlib stream; the zlib header is written by hand and the strips' Adler-32 sums are combined.
+// All buffers are kept between images, so encoding a frame sequence allocates almost nothing.
+// An instance is not thread-safe; use one per thread.
+public class PngEncoder {
+
+    public enum Filter { NONE, SUB, UP, PAETH, ADAPTIVE }
+
+    public static final int DEFAULT_LEVEL = 4;
+
+    // Fewer rows than this per strip and the lost history across strips costs more than it gains
+    private static final int MIN_STRIP_ROWS = 32;
+    private static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+
+    private final int level;
+    private final Filter filter;
+    private final int parallelism;
+
+    private final List<Strip> strips = new ArrayList<>();
+    private final CRC32 crc = new CRC32();
+    private byte[] out = new byte[1 << 16];
+    private int outLength;
+    private int[] pixelCopy = new int[0];
+
+    // Image in progress
+    private OutputStream stream;
+    private int width;
+    private int height;
+    private boolean alpha;
+    private int rowsWritten;
+    private long adler;
+    private int[] rowAbove = new int[0];
+
+    public PngEncoder() {
+        this(DEFAULT_LEVEL, Filter.ADAPTIVE, Runtime.getRuntime().availableProcessors());
+    }
+
+    public PngEncoder(int level, Filter filter, int parallelism) {
+        if(level < 0 || level > 9) throw new IllegalArgumentException("Compression level must be 0-9: " + level);
+        this.level = level;
+        this.filter = filter;
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    public void write(BufferedImage image, File file) throws IOException {
+        try (OutputStream stream = new FileOutputStream(file)) {
+            write(image, stream);
+        }
+    }
+
+    public void write(BufferedImage image, OutputStream stream) throws IOException {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        boolean alpha = image.getColorModel().hasAlpha();
+        int type = image.getType();
+        int[] pixels;
+        if(type == BufferedImage.TYPE_INT_RGB || type == BufferedImage.TYPE_INT_ARGB) {
+            pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        } else {
+            if(pixelCopy.length < width * height) pixelCopy = new int[width * height];
+            pixels = image.getRGB(0, 0, width, height, pixelCopy, 0, width);
+        }
+        write(pixels, width, height, alpha, stream);
+    }
+
+    // pixels: width * height ints, 0xAARRGGBB (alpha ignored unless alpha is true)
+    public void write(int[] pixels, int width, int height, boolean alpha, OutputStream stream) throws IOException {
+        begin(stream, width, height, alpha);
+        writeRows(pixels, height);
+    }
+
+    // Starts an image whose rows are then handed over in bands with writeRows, so an image far larger
+    // than the heap can be written as long as each band fits
+    public void begin(OutputStream stream, int width, int height, boolean alpha) throws IOException {
+        if(width <= 0 || height <= 0) throw new IllegalArgumentException("Empty image " + width + "x" + height);
+        this.stream = stream;
+        this.width = width;
+        this.height = height;
+        this.alpha = alpha;
+        rowsWritten = 0;
+        adler = 1;
+        if(rowAbove.length < width) rowAbove = new int[width];
+
+        outLength = 0;
+        put(SIGNATURE, 0, SIGNATURE.length);
+        int ihdr = beginChunk("IHDR");
+        putInt(width);
+        putInt(height);
+        putByte(8);                   // bit depth
+        putByte(alpha ? 6 : 2);       // colour type: RGBA or RGB
+        putByte(0);                   // deflate
+        putByte(0);                   // adaptive filtering
+        putByte(0);                   // no interlace
+        endChunk(ihdr);
+    }
+
+    // Encodes the next rowCount rows (pixels[0 .. rowCount * width)); the image ends with its last row
+    public void writeRows(int[] pixels, int rowCount) throws IOException {
+        if(stream == null) throw new IllegalStateException("begin() was not called");
+        if(rowCount <= 0 || rowsWritten + rowCount > height) {
+            throw new IllegalArgumentException("Rows " + rowsWritten + "+" + rowCount + " exceed height " + height);
+        }
+        int bpp = alpha ? 4 : 3;
+        boolean lastBand = rowsWritten + rowCount == height;
+        int[] above = rowsWritten > 0 ? rowAbove : null;
+        int stripCount = Math.max(1, Math.min(parallelism, rowCount / MIN_STRIP_ROWS));
+        int rowsPerStrip = (rowCount + stripCount - 1) / stripCount;
+        stripCount = (rowCount + rowsPerStrip - 1) / rowsPerStrip;
+        while(strips.size() < stripCount) strips.add(new Strip());
+
+        if(stripCount == 1) {
+            strips.getFirst().encode(pixels, above, 0, rowCount, bpp, lastBand);
+        } else {
+            List<Callable<Void>> tasks = new ArrayList<>(stripCount);
+            for(int s = 0; s < stripCount; s++) {
+                Strip strip = strips.get(s);
+                int firstRow = s * rowsPerStrip;
+                int lastRow = Math.min(rowCount, firstRow + rowsPerStrip);
+                boolean last = lastBand && s == stripCount - 1;
+                tasks.add(() -> {
+                    strip.encode(pixels, above, firstRow, lastRow, bpp, last);
+                    return null;
+                });
+            }
+            try {
+                for(Future<Void> f : ForkJoinPool.commonPool().invokeAll(tasks)) {
+                    f.get();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while encoding PNG");
+            } catch (ExecutionException e) {
+                throw new IOException("PNG strip failed", e.getCause());
+            }
+        }
+
+        for(int s = 0; s < stripCount; s++) {
+            Strip strip = strips.get(s);
+            int idat = beginChunk("IDAT");
+            if(rowsWritten == 0 && s == 0) {
+                putByte(0x78);
+                putByte(zlibFlags(level));
+                adler = strip.adler;
+            } else {
+                adler = combineAdler32(adler, strip.adler, strip.rawLength);
+            }
+            put(strip.compressed, 0, strip.compressedLength);
+            if(lastBand && s == stripCount - 1) putInt((int) adler);
+            endChunk(idat);
+        }
+        if(lastBand) {
+            endChunk(beginChunk("IEND"));
+        }
+
+        stream.write(out, 0, outLength);
+        outLength = 0;
+        System.arraycopy(pixels, (rowCount - 1) * width, rowAbove, 0, width);
+        rowsWritten += rowCount;
+        if(lastBand) stream = null;
+    }
+
+    // FLEVEL bits with a matching FCHECK for CMF 0x78 (deflate, 32K window)
+    private static int zlibFlags(int level) {
+        if(level <= 1) return 0x01;
+        if(level <= 5) return 0x5E;
+        if(level == 6) return 0x9C;
+        return 0xDA;
+    }
+
+    // Adler-32 of A followed by B, from adler(A), adler(B) and the length of B (as zlib's adler32_combine)
+    static long combineAdler32(long adler1, long adler2, long len2) {
+        final long base = 65521;
+        long rem = len2 % base;
+        long sum1 = adler1 & 0xFFFF;
+        long sum2 = (rem * sum1) % base;
+        sum1 += (adler2 & 0xFFFF) + base - 1;
+        sum2 += ((adler1 >> 16) & 0xFFFF) + ((adler2 >> 16) & 0xFFFF) + base - rem;
+        if(sum1 >= base) sum1 -= base;
+        if(sum1 >= base) sum1 -= base;
+        if(sum2 >= (base << 1)) sum2 -= (base << 1);
+        if(sum2 >= base) sum2 -= base;
+        return sum1 | (sum2 << 16);
+    }
+
+    private int beginChunk(String type) {
+        int start = outLength;
+        putInt(0); // length, patched in endChunk
+        put(type.getBytes(StandardCharsets.US_ASCII), 0, 4);
+        return start;
+    }
+
+    private void endChunk(int start) {
+        int dataLength = outLength - start - 8;
+        out[start] = (byte) (dataLength >>> 24);
+        out[start + 1] = (byte) (dataLength >>> 16);
+        out[start + 2] = (byte) (dataLength >>> 8);
+        out[start + 3] = (byte) dataLength;
+        crc.reset();
+        crc.update(out, start + 4, dataLength + 4);
+        putInt((int) crc.getValue());
+    }
+
+    private void put(byte[] bytes, int offset, int length) {
+        ensure(length);
+        System.arraycopy(bytes, offset, out, outLength, length);
+        outLength += length;
+    }
+
+    private void putByte(int b) {
+        ensure(1);
+        out[outLength++] = (byte) b;
+    }
+
+    private void putInt(int v) {
+        ensure(4);
+        out[outLength++] = (byte) (v >>> 24);
+        out[outLength++] = (byte) (v >>> 16);
+        out[outLength++] = (byte) (v >>> 8);
+        out[outLength++] = (byte) v;
+    }
+
+    private void ensure(int extra) {
+        if(outLength + extra > out.length) {
+            out = Arrays.copyOf(out, Math.max(out.length * 2, outLength + extra));
+        }
+    }
+
+    // Filtering and compression state for one band of rows, reused from image to image
+    private final class Strip {
+        private final Deflater deflater = new Deflater(level, true);
+        private final Adler32 checksum = new Adler32();
+        private byte[] raw = new byte[0];
+        private byte[] prior = new byte[0];
+        private byte[] current = new byte[0];
+        private byte[][] candidates = new byte[0][];
+        private byte[] compressed = new byte[1 << 12];
+        private int compressedLength;
+        private int rawLength;
+        private long adler;
+
+        // Rows [firstRow, lastRow) of the band; above is the image row before the band (null at the top)
+        void encode(int[] pixels, int[] above, int firstRow, int lastRow, int bpp, boolean last) {
+            int stride = width * bpp;
+            rawLength = (lastRow - firstRow) * (stride + 1);
+            if(raw.length < rawLength) raw = new byte[rawLength];
+            if(current.length < stride) {
+                prior = new byte[stride];
+                current = new byte[stride];
+                candidates = new byte[4][stride];
+            }
+
+            // The row above the strip belongs to another strip or band, but filters only read source pixels
+            if(firstRow > 0) {
+                unpack(pixels, (firstRow - 1) * width, bpp, prior);
+            } else if(above != null) {
+                unpack(above, 0, bpp, prior);
+            } else {
+                Arrays.fill(prior, 0, stride, (byte) 0);
+            }
+
+            int pos = 0;
+            for(int y = firstRow; y < lastRow; y++) {
+                unpack(pixels, y * width, bpp, current);
+                pos = filterRow(stride, bpp, pos);
+                byte[] swap = prior;
+                prior = current;
+                current = swap;
+            }
+
+            checksum.reset();
+            checksum.update(raw, 0, rawLength);
+            adler = checksum.getValue();
+
+            deflater.reset();
+            deflater.setInput(raw, 0, rawLength);
+            compressedLength = 0;
+            if(last) {
+                deflater.finish();
+                while(!deflater.finished()) {
+                    deflateMore(Deflater.NO_FLUSH);
+                }
+            } else {
+                // A sync flush ends on a byte boundary without a final block, so the next strip can follow
+                do {
+                    deflateMore(Deflater.SYNC_FLUSH);
+                } while(compressedLength == compressed.length);
+            }
+        }
+
+        private void deflateMore(int flush) {
+            if(compressedLength == compressed.length) {
+                compressed = Arrays.copyOf(compressed, compressed.length * 2);
+            }
+            int n = deflater.deflate(compressed, compressedLength, compressed.length - compressedLength, flush);
+            compressedLength += n;
+        }
+
+        private void unpack(int[] pixels, int offset, int bpp, byte[] row) {
+            int i = 0;
+            for(int x = 0; x < width; x++) {
+                int c = pixels[offset + x];
+                row[i++] = (byte) (c >> 16);
+                row[i++] = (byte) (c >> 8);
+                row[i++] = (byte) c;
+                if(bpp == 4) row[i++] = (byte) (c >>> 24);
+            }
+        }
+
+        // Writes the filter type byte and the filtered row at pos; returns the position after it
+        private int filterRow(int stride, int bpp, int pos) {
+            Filter f = filter;
+            if(f == Filter.ADAPTIVE) {
+                // All candidates in one pass; keep the one whose bytes have the smallest sum of
+                // absolute (signed) values
+                byte[] cur = current;
+                byte[] up = prior;
+                byte[] sub = candidates[0];
+                byte[] upF = candidates[1];
+                byte[] avg = candidates[2];
+                byte[] paeth = candidates[3];
+                long noneSum = 0, subSum = 0, upSum = 0, avgSum = 0, paethSum = 0;
+                for(int i = 0; i < stride; i++) {
+                    int x = cur[i] & 0xFF;
+                    int a = i >= bpp ? cur[i - bpp] & 0xFF : 0;
+                    int b = up[i] & 0xFF;
+                    int c = i >= bpp ? up[i - bpp] & 0xFF : 0;
+                    byte vs = (byte) (x - a);
+                    byte vu = (byte) (x - b);
+                    byte va = (byte) (x - ((a + b) >> 1));
+                    byte vp = (byte) (x - paethPredictor(a, b, c));
+                    sub[i] = vs;
+                    upF[i] = vu;
+                    avg[i] = va;
+                    paeth[i] = vp;
+                    noneSum += Math.abs(cur[i]);
+                    subSum += Math.abs(vs);
+                    upSum += Math.abs(vu);
+                    avgSum += Math.abs(va);
+                    paethSum += Math.abs(vp);
+                }
+                int bestType = 0;
+                long best = noneSum;
+                if(subSum < best) { best = subSum; bestType = 1; }
+                if(upSum < best) { best = upSum; bestType = 2; }
+                if(avgSum < best) { best = avgSum; bestType = 3; }
+                if(paethSum < best) { bestType = 4; }
+                raw[pos] = (byte) bestType;
+                System.arraycopy(bestType == 0 ? cur : candidates[bestType - 1], 0, raw, pos + 1, stride);
+            } else {
+                int type = switch (f) {
+                    case NONE -> 0;
+                    case SUB -> 1;
+                    case UP -> 2;
+                    default -> 4;
+                };
+                raw[pos] = (byte) type;
+                applyFilter(type, stride, bpp, raw, pos + 1);
+            }
+            return pos + 1 + stride;
+        }
+
+        private static int paethPredictor(int a, int b, int c) {
+            int p = a + b - c;
+            int pa = Math.abs(p - a);
+            int pb = Math.abs(p - b);
+            int pc = Math.abs(p - c);
+            return (pa <= pb && pa <= pc) ? a : (pb <= pc ? b : c);
+        }
+
+        // PNG filter types: 0 None, 1 Sub, 2 Up, 3 Average, 4 Paeth
+        private void applyFilter(int type, int stride, int bpp, byte[] dst, int off) {
+            byte[] cur = current;
+            byte[] up = prior;
+            switch (type) {
+                case 0 -> System.arraycopy(cur, 0, dst, off, stride);
+                case 1 -> {
+                    for(int i = 0; i < stride; i++) {
+                        int left = i >= bpp ? cur[i - bpp] : 0;
+                        dst[off + i] = (byte) (cur[i] - left);
+                    }
+                }
+                case 2 -> {
+                    for(int i = 0; i < stride; i++) {
+                        dst[off + i] = (byte) (cur[i] - up[i]);
+                    }
+                }
+                case 3 -> {
+                    for(int i = 0; i < stride; i++) {
+                        int left = i >= bpp ? cur[i - bpp] & 0xFF : 0;
+                        dst[off + i] = (byte) (cur[i] - ((left + (up[i] & 0xFF)) >> 1));
+                    }
+                }
+                default -> {
+                    for(int i = 0; i < stride; i++) {
+                        int a = i >= bpp ? cur[i - bpp] & 0xFF : 0;
+                        int b = up[i] & 0xFF;
+                        int c = i >= bpp ? up[i - bpp] & 0xFF : 0;
+                        dst[off + i] = (byte) (cur[i] - paethPredictor(a, b, c));
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package org.sketchide.export;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+// Writes every frame as frame_%06d.png into a temp directory and runs ffmpeg over the sequence on close.
+// Given a directory of its own, it leaves the frames there whatever happens and can continue a sequence
+// that is already partly written; whoever chose the directory cleans it up.
+public class PngSpoolEncoder implements FrameEncoder {
+
+    private final File output;
+    private double fps;
+    private Path frameDir;
+    private final Path keptDir;
+    private Path audio;
+    private final PngEncoder png = new PngEncoder();
+    private int width;
+    private int height;
+    private int frameCount;
+    private Path lastFrame;
+    private volatile Process process;
+    private volatile long bytesWritten;
+    private volatile Ffmpeg.Progress progress;
+
+    public PngSpoolEncoder(File output) {
+        this(output, null, 0);
+    }
+
+    // Frames go to frameDir, the first one encoded becoming frame_<firstFrame>
+    public PngSpoolEncoder(File output, Path frameDir, int firstFrame) {
+        this.output = output;
+        this.keptDir = frameDir;
+        this.frameCount = firstFrame;
+    }
+
+    // Audio file for the video's sound track, or null for none
+    public void setAudio(Path audio) {
+        this.audio = audio;
+    }
+
+    @Override
+    public void open(int width, int height, double fps) throws IOException {
+        this.fps = fps;
+        frameDir = keptDir != null ? Files.createDirectories(keptDir) : Files.createTempDirectory("Animation_Frames");
+        this.width = width;
+        this.height = height;
+    }
+
+    @Override
+    public void encode(int[] rgb) throws IOException {
+        Path file = frameDir.resolve(String.format("frame_%06d.png", frameCount++));
+        // A leftover of an interrupted run may be a link to another frame; writing through it would change both
+        Files.deleteIfExists(file);
+        try (OutputStream out = Files.newOutputStream(file)) {
+            png.write(rgb, width, height, false, out);
+        }
+        bytesWritten += Files.size(file);
+        lastFrame = file;
+    }
+
+    // The previous PNG again, as a hard link where the file system has them, without compressing anything
+    @Override
+    public void repeat(int[] rgb) throws IOException {
+        if(lastFrame == null) {
+            encode(rgb);
+            return;
+        }
+        Path file = frameDir.resolve(String.format("frame_%06d.png", frameCount++));
+        Files.deleteIfExists(file);
+        try {
+            Files.createLink(file, lastFrame);
+        } catch (IOException | UnsupportedOperationException e) {
+            Files.copy(lastFrame, file);
+            bytesWritten += Files.size(file);
+        }
+    }
+
+    // PNG bytes spooled so far
+    @Override
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    // ffmpeg's status while close() turns the frames into the video
+    @Override
+    public Ffmpeg.Progress getFfmpegProgress() {
+        return progress;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if(frameDir == null) return;
+        try {
+            ProcessBuilder pb = Ffmpeg.pngSequenceToMp4(fps, frameDir, output, audio);
+            process = pb.start();
+            StringBuilder ffmpegOutput = new StringBuilder();
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    Ffmpeg.Progress status = Ffmpeg.parseProgress(line);
+                    if(status != null) {
+                        progress = status;
+                    } else {
+                        ffmpegOutput.append(line).append("\n");
+                    }
+                }
+            }
+            int exitCode = process.waitFor();
+            if (exitCode != 0) {
+                throw new IOException("ffmpeg exited with code " + exitCode + ":\n" + ffmpegOutput);
+            }
+        } catch (InterruptedException e) {
+            process.destroy();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for ffmpeg");
+        } finally {
+            deleteFrames();
+        }
+    }
+
+    @Override
+    public void abort() {
+        Process p = process;
+        if(p != null) p.destroy();
+        try {
+            deleteFrames();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void deleteFrames() throws IOException {
+        if(frameDir == null || keptDir != null) return;
+        try (Stream<Path> files = Files.walk(frameDir)) {
+            for (Path p : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.deleteIfExists(p);
+            }
+        }
+        frameDir = null;
+    }
+}
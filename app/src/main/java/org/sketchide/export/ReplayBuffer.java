@@ -0,0 +1,374 @@
+package org.sketchide.export;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Instant replay: keeps the last frames the live canvas showed, compressed, in a fixed block of
+// off-heap memory. record() only copies the frame into one of a few staging arrays and returns; a
+// background thread does the compression, so the render thread never waits. If the compressor falls
+// behind, frames are skipped rather than queued.
+//
+// Frames are XORed with the previous one (unchanged pixels become 0) and run-length coded, with a
+// keyframe (coded against black) every keyframeInterval frames. The ring drops the oldest group of
+// pictures, keyframe and its deltas together, once it runs out of space or the group is older than
+// the time limit, so whatever remains always starts at a keyframe.
+public class ReplayBuffer {
+
+    public static final int DEFAULT_SECONDS = 30;
+    public static final int DEFAULT_CAPACITY = 256 << 20;
+    public static final int DEFAULT_KEYFRAME_INTERVAL = 60;
+    private static final int STAGING_FRAMES = 3;
+
+    // A frame waiting for the compressor
+    private static class Staged {
+        int[] pixels = new int[0];
+        int width;
+        int height;
+        long nanos;
+    }
+
+    private record Entry(int offset, int length, boolean keyframe, long nanos) {
+    }
+
+    private final long maxAgeNanos;
+    private final int keyframeInterval;
+    private final ByteBuffer ring;
+    private final ArrayDeque<Entry> entries = new ArrayDeque<>();
+    private int writeOffset;
+
+    private final BlockingQueue<Staged> free = new ArrayBlockingQueue<>(STAGING_FRAMES);
+    private final BlockingQueue<Staged> pending = new ArrayBlockingQueue<>(STAGING_FRAMES);
+    private final Thread compressor;
+    private final AtomicLong dropped = new AtomicLong();
+
+    // Compressor state
+    private int width;
+    private int height;
+    private int[] previous = new int[0];
+    private byte[] scratch = new byte[0];
+    private int sinceKeyframe;
+
+    public ReplayBuffer() {
+        this(DEFAULT_SECONDS, DEFAULT_CAPACITY, DEFAULT_KEYFRAME_INTERVAL);
+    }
+
+    public ReplayBuffer(int seconds, int capacityBytes, int keyframeInterval) {
+        this.maxAgeNanos = seconds * 1_000_000_000L;
+        this.keyframeInterval = Math.max(1, keyframeInterval);
+        this.ring = ByteBuffer.allocateDirect(capacityBytes);
+        for(int i = 0; i < STAGING_FRAMES; i++) free.add(new Staged());
+
+        compressor = new Thread(() -> {
+            try {
+                while(true) {
+                    Staged staged = pending.take();
+                    try {
+                        compress(staged);
+                    } finally {
+                        free.add(staged);
+                    }
+                }
+            } catch (InterruptedException e) {
+                // stopped
+            }
+        }, "replay-compress");
+        compressor.setDaemon(true);
+        compressor.setPriority(Thread.MIN_PRIORITY);
+        compressor.start();
+    }
+
+    // Called by whichever thread renders, right after a frame was drawn. rgb holds width * height
+    // TYPE_INT_RGB pixels and is only read during the call.
+    public void record(int[] rgb, int width, int height) {
+        Staged staged = free.poll();
+        if(staged == null) {
+            dropped.incrementAndGet();
+            return;
+        }
+        int n = width * height;
+        if(staged.pixels.length != n) staged.pixels = new int[n];
+        System.arraycopy(rgb, 0, staged.pixels, 0, n);
+        staged.width = width;
+        staged.height = height;
+        staged.nanos = System.nanoTime();
+        pending.add(staged);
+    }
+
+    // Stops the compressor; the buffer's memory goes with the object
+    public void stop() {
+        compressor.interrupt();
+    }
+
+    public long getDroppedFrames() {
+        return dropped.get();
+    }
+
+    // Waits until the compressor has caught up with every recorded frame
+    void awaitIdle() throws InterruptedException {
+        while(free.size() < STAGING_FRAMES) {
+            Thread.sleep(1);
+        }
+    }
+
+    // Copies out what is currently held. Recording carries on meanwhile; the copy is unaffected.
+    public synchronized Replay snapshot() {
+        int count = entries.size();
+        int total = 0;
+        for(Entry e : entries) total += e.length();
+        byte[] data = new byte[total];
+        int[] offsets = new int[count + 1];
+        boolean[] keyframes = new boolean[count];
+        long first = count == 0 ? 0 : entries.peekFirst().nanos();
+        long last = count == 0 ? 0 : entries.peekLast().nanos();
+        int i = 0;
+        int position = 0;
+        for(Entry e : entries) {
+            ring.get(e.offset(), data, position, e.length());
+            offsets[i] = position;
+            keyframes[i] = e.keyframe();
+            position += e.length();
+            i++;
+        }
+        offsets[count] = position;
+        // Frames came at the pace the sketch actually ran at
+        double fps = count > 1 ? (count - 1) / ((last - first) / 1e9) : 30;
+        return new Replay(width, height, data, offsets, keyframes, fps);
+    }
+
+    private void compress(Staged staged) {
+        int n = staged.width * staged.height;
+        boolean resized = staged.width != width || staged.height != height;
+        if(resized) {
+            synchronized (this) {
+                entries.clear();
+                writeOffset = 0;
+                width = staged.width;
+                height = staged.height;
+            }
+            previous = new int[n];
+            scratch = new byte[n * 4 + 16];
+        }
+
+        boolean keyframe = resized || sinceKeyframe + 1 >= keyframeInterval;
+        int length = encode(staged.pixels, keyframe ? null : previous, n, scratch);
+        synchronized (this) {
+            evictOlderThan(staged.nanos - maxAgeNanos);
+            int offset = allocate(length, keyframe);
+            if(offset < 0 && !keyframe) {
+                // Making room would drop the keyframe this delta builds on: start a new group instead
+                keyframe = true;
+                length = encode(staged.pixels, null, n, scratch);
+                offset = allocate(length, true);
+            }
+            if(offset < 0) {
+                dropped.incrementAndGet();
+                return;
+            }
+            ring.put(offset, scratch, 0, length);
+            entries.addLast(new Entry(offset, length, keyframe, staged.nanos));
+            writeOffset = offset + length;
+        }
+        sinceKeyframe = keyframe ? 0 : sinceKeyframe + 1;
+        System.arraycopy(staged.pixels, 0, previous, 0, n);
+    }
+
+    // Room for length bytes, evicting whole groups from the head as needed. A delta may not evict the
+    // group it belongs to (the last one); returns -1 then, or if length can never fit.
+    private int allocate(int length, boolean keyframe) {
+        int capacity = ring.capacity();
+        if(length > capacity) return -1;
+        while(true) {
+            if(entries.isEmpty()) {
+                // A delta needs the frame before it
+                return keyframe ? 0 : -1;
+            }
+            int head = entries.peekFirst().offset();
+            if(writeOffset > head) {
+                if(capacity - writeOffset >= length) return writeOffset;
+                if(head >= length) return 0;
+            } else if(head - writeOffset >= length) {
+                return writeOffset;
+            }
+            if(!keyframe && isLastGroup()) return -1;
+            evictGroup();
+        }
+    }
+
+    private void evictOlderThan(long nanos) {
+        while(!entries.isEmpty() && entries.peekFirst().nanos() < nanos && !isLastGroup()) {
+            evictGroup();
+        }
+    }
+
+    private boolean isLastGroup() {
+        boolean first = true;
+        for(Entry e : entries) {
+            if(!first && e.keyframe()) return false;
+            first = false;
+        }
+        return true;
+    }
+
+    private void evictGroup() {
+        entries.pollFirst();
+        while(!entries.isEmpty() && !entries.peekFirst().keyframe()) {
+            entries.pollFirst();
+        }
+    }
+
+    // Codes pixels (XORed with previous unless that is null) as runs: a varint (count << 1) followed by
+    // one 3-byte value repeated count times, or (count << 1 | 1) followed by count literal values
+    static int encode(int[] pixels, int[] previous, int n, byte[] out) {
+        int pos = 0;
+        int literalStart = 0;
+        int i = 0;
+        while(i < n) {
+            int v = value(pixels, previous, i);
+            int run = 1;
+            while(i + run < n && value(pixels, previous, i + run) == v) run++;
+            if(run >= 3) {
+                if(literalStart < i) pos = writeLiterals(pixels, previous, literalStart, i, out, pos);
+                pos = writeVarint((long) run << 1, out, pos);
+                pos = writeValue(v, out, pos);
+                i += run;
+                literalStart = i;
+            } else {
+                i += run;
+            }
+        }
+        if(literalStart < n) pos = writeLiterals(pixels, previous, literalStart, n, out, pos);
+        return pos;
+    }
+
+    private static int value(int[] pixels, int[] previous, int i) {
+        return (previous == null ? pixels[i] : pixels[i] ^ previous[i]) & 0xFFFFFF;
+    }
+
+    private static int writeLiterals(int[] pixels, int[] previous, int from, int to, byte[] out, int pos) {
+        pos = writeVarint(((long) (to - from) << 1) | 1, out, pos);
+        for(int i = from; i < to; i++) {
+            pos = writeValue(value(pixels, previous, i), out, pos);
+        }
+        return pos;
+    }
+
+    private static int writeValue(int v, byte[] out, int pos) {
+        out[pos] = (byte) (v >> 16);
+        out[pos + 1] = (byte) (v >> 8);
+        out[pos + 2] = (byte) v;
+        return pos + 3;
+    }
+
+    private static int writeVarint(long v, byte[] out, int pos) {
+        while(v >= 0x80) {
+            out[pos++] = (byte) (v | 0x80);
+            v >>>= 7;
+        }
+        out[pos++] = (byte) v;
+        return pos;
+    }
+
+    // Applies one coded frame to frame in place: keyframes replace it, deltas are XORed into it
+    static void decode(byte[] data, int from, int to, boolean keyframe, int[] frame) {
+        int pos = from;
+        int i = 0;
+        while(pos < to) {
+            long token = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = data[pos++];
+                token |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while(b < 0);
+            int count = (int) (token >>> 1);
+            if((token & 1) == 0) {
+                int v = readValue(data, pos);
+                pos += 3;
+                for(int end = i + count; i < end; i++) {
+                    frame[i] = keyframe ? v : frame[i] ^ v;
+                }
+            } else {
+                for(int end = i + count; i < end; i++) {
+                    int v = readValue(data, pos);
+                    pos += 3;
+                    frame[i] = keyframe ? v : frame[i] ^ v;
+                }
+            }
+        }
+    }
+
+    private static int readValue(byte[] data, int pos) {
+        return ((data[pos] & 0xFF) << 16) | ((data[pos + 1] & 0xFF) << 8) | (data[pos + 2] & 0xFF);
+    }
+
+    // A frozen copy of the buffer, played back as a frame source (decoding one frame after the other)
+    public static class Replay implements FrameSource {
+        private final int width;
+        private final int height;
+        private final byte[] data;
+        private final int[] offsets;
+        private final boolean[] keyframes;
+        private final double fps;
+        private final int[] frame;
+        private int decoded = -1;
+
+        Replay(int width, int height, byte[] data, int[] offsets, boolean[] keyframes, double fps) {
+            this.width = width;
+            this.height = height;
+            this.data = data;
+            this.offsets = offsets;
+            this.keyframes = keyframes;
+            this.fps = fps;
+            this.frame = new int[width * height];
+        }
+
+        public int getWidth() {
+            return width;
+        }
+
+        public int getHeight() {
+            return height;
+        }
+
+        public int getFrameCount() {
+            return keyframes.length;
+        }
+
+        public double getFps() {
+            return fps;
+        }
+
+        public long getCompressedBytes() {
+            return data.length;
+        }
+
+        // Into a buffer of any size: extra space stays transparent (background), extra pixels are cut off
+        @Override
+        public void render(int index, FrameBuffer buffer) {
+            if(index != decoded + 1) {
+                // Out of order: start over from the keyframe of the index's group
+                int key = index;
+                while(!keyframes[key]) key--;
+                decoded = key - 1;
+            }
+            while(decoded < index) {
+                decoded++;
+                decode(data, offsets[decoded], offsets[decoded + 1], keyframes[decoded], frame);
+            }
+            buffer.clear();
+            int[] argb = buffer.getArgb();
+            int stride = buffer.getWidth();
+            int rows = Math.min(height, buffer.getHeight());
+            int columns = Math.min(width, stride);
+            for(int y = 0; y < rows; y++) {
+                for(int x = 0, from = y * width, to = y * stride; x < columns; x++) {
+                    argb[to + x] = frame[from + x] | 0xFF000000;
+                }
+            }
+        }
+    }
+}
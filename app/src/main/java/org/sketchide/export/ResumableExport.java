@@ -0,0 +1,245 @@
+package org.sketchide.export;
+
+import org.sketchide.engine.Sketch;
+import org.sketchide.engine.SketchStateTransfer;
+import org.sketchide.engine.TimedSketch;
+
+import java.awt.Rectangle;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BooleanSupplier;
+import java.util.function.IntConsumer;
+import java.util.stream.Stream;
+
+// An MP4 export that survives failures, cancellation and crashes. Frames are spooled as PNGs into a
+// work directory next to the output (<name>.parts), and every checkpointInterval frames an ExportJournal
+// there records how many are safely written, together with the sketch's state when it can be serialised.
+// Running the same export again (same code and settings) carries on from the last checkpoint: earlier
+// frames are neither rendered nor encoded again. A sketch whose state cannot be saved is fast-forwarded
+// instead, drawing the skipped frames without compositing or encoding them.
+public class ResumableExport {
+
+    public static final int DEFAULT_CHECKPOINT_INTERVAL = 60;
+    private static final String JOURNAL = "export.journal";
+
+    private final ExportEngine engine;
+    private final TiledRenderer tiles;
+    private final File output;
+    private final Path audio;
+    private final Path workDir;
+    private final int totalFrames;
+    private final long fingerprint;
+    private final int checkpointInterval;
+
+    // sketchSource identifies the sketch (its code); tiles may be null
+    public ResumableExport(ExportEngine engine, TiledRenderer tiles, File output, String sketchSource,
+                           int totalFrames, int checkpointInterval) {
+        this(engine, tiles, output, sketchSource, null, totalFrames, checkpointInterval);
+    }
+
+    // audio (may be null) is the sound track the frames react to and the video gets; another file, or the
+    // same one changed, starts the export over
+    public ResumableExport(ExportEngine engine, TiledRenderer tiles, File output, String sketchSource, Path audio,
+                           int totalFrames, int checkpointInterval) {
+        this.engine = engine;
+        this.tiles = tiles;
+        this.output = output;
+        this.audio = audio;
+        this.workDir = workDirFor(output);
+        this.totalFrames = totalFrames;
+        this.checkpointInterval = Math.max(1, checkpointInterval);
+        String sound = audio == null ? "" : audio.toAbsolutePath() + "@" + audio.toFile().lastModified();
+        this.fingerprint = fingerprint(sketchSource, engine.getBackground().getRGB(),
+                tiles == null ? 0 : tiles.getSupersample(),
+                engine.getTransform() == null ? "" : engine.getTransform().describe(), sound);
+    }
+
+    public static Path workDirFor(File output) {
+        File file = output.getAbsoluteFile();
+        return file.toPath().resolveSibling(file.getName() + ".parts");
+    }
+
+    // Frames an earlier, interrupted run of this export got through (0 if there is nothing to resume)
+    public int getFramesDone() throws IOException {
+        return ExportJournal.framesDone(workDir.resolve(JOURNAL), fingerprint, engine.getWidth(),
+                engine.getHeight(), engine.getFps(), totalFrames);
+    }
+
+    // Throws away what an earlier run left behind
+    public void discard() throws IOException {
+        if(!Files.exists(workDir)) return;
+        try (Stream<Path> files = Files.walk(workDir)) {
+            for (Path p : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.deleteIfExists(p);
+            }
+        }
+    }
+
+    // Runs or resumes the export with a fresh instance of the sketch. Returns false if cancelled; the
+    // frames written so far are kept for the next run. On success the work directory is removed.
+    public boolean run(Sketch sketch, IntConsumer progress, BooleanSupplier cancelled) throws Exception {
+        Files.createDirectories(workDir);
+        boolean stateless = TimedSketch.isStateless(sketch.getClass());
+        FrameSource source = new SketchFrameSource(sketch, engine.getFps(), tiles);
+        boolean completed;
+
+        try (ExportJournal journal = ExportJournal.open(workDir.resolve(JOURNAL), fingerprint,
+                engine.getWidth(), engine.getHeight(), engine.getFps(), totalFrames)) {
+            int firstFrame = journal.getFramesDone();
+            if(firstFrame == 0) {
+                // Frames of an export with other settings would end up in the video
+                deleteFrames();
+            } else if(firstFrame < totalFrames && !stateless) {
+                byte[] state = journal.getState();
+                if(state == null || !SketchStateTransfer.restore(state, sketch)) {
+                    engine.getTelemetry().setPhase("fast-forward");
+                    if(!fastForward(source, firstFrame, progress, cancelled)) return false;
+                }
+            }
+            progress.accept(firstFrame);
+
+            // States are taken on the render thread right after drawing the frame before a checkpoint and
+            // picked up by the encode thread once that frame is written
+            Map<Integer, byte[]> states = new ConcurrentHashMap<>();
+            FrameSource checkpointing = (index, buffer) -> {
+                source.render(index, buffer);
+                int done = index + 1;
+                if(!stateless && isCheckpoint(done) && done < totalFrames) {
+                    byte[] state = SketchStateTransfer.serialize(sketch);
+                    states.put(done, state != null ? state : new byte[0]);
+                }
+            };
+            PngSpoolEncoder spool = new PngSpoolEncoder(output, workDir, firstFrame);
+            spool.setAudio(audio);
+            FrameEncoder encoder = new JournalingEncoder(spool, journal, states, firstFrame);
+
+            if(stateless && tiles == null) {
+                completed = engine.exportParallel(sketch.getClass(), firstFrame, totalFrames, encoder, progress, cancelled);
+            } else {
+                completed = engine.export(checkpointing, firstFrame, totalFrames, encoder, progress, cancelled);
+            }
+        }
+        if(completed) {
+            discard();
+        }
+        return completed;
+    }
+
+    private void deleteFrames() throws IOException {
+        try (Stream<Path> files = Files.list(workDir)) {
+            for (Path p : (Iterable<Path>) files::iterator) {
+                if(p.getFileName().toString().startsWith("frame_")) Files.deleteIfExists(p);
+            }
+        }
+    }
+
+    // Draws frames 0..frames-1 only to bring the sketch's state up to date
+    private boolean fastForward(FrameSource source, int frames, IntConsumer progress,
+                                BooleanSupplier cancelled) throws Exception {
+        FrameBuffer buffer = new FrameBuffer(engine.getWidth(), engine.getHeight());
+        try {
+            for(int i = 0; i < frames; i++) {
+                if(cancelled.getAsBoolean()) return false;
+                buffer.index = i;
+                source.render(i, buffer);
+                progress.accept(i + 1);
+            }
+            return true;
+        } finally {
+            buffer.dispose();
+        }
+    }
+
+    private boolean isCheckpoint(int framesDone) {
+        return framesDone % checkpointInterval == 0 || framesDone == totalFrames;
+    }
+
+    private static long fingerprint(String sketchSource, int background, int supersample, String transform,
+                                    String audio) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(sketchSource.getBytes(StandardCharsets.UTF_8));
+            digest.update(ByteBuffer.allocate(8).putInt(background).putInt(supersample).array());
+            digest.update(transform.getBytes(StandardCharsets.UTF_8));
+            digest.update(audio.getBytes(StandardCharsets.UTF_8));
+            return ByteBuffer.wrap(digest.digest()).getLong();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // Passes frames on and writes a checkpoint once the frame completing one has been encoded
+    private class JournalingEncoder implements FrameEncoder {
+        private final FrameEncoder encoder;
+        private final ExportJournal journal;
+        private final Map<Integer, byte[]> states;
+        private int framesDone;
+
+        JournalingEncoder(FrameEncoder encoder, ExportJournal journal, Map<Integer, byte[]> states, int firstFrame) {
+            this.encoder = encoder;
+            this.journal = journal;
+            this.states = states;
+            this.framesDone = firstFrame;
+        }
+
+        @Override
+        public void open(int width, int height, double fps) throws IOException {
+            encoder.open(width, height, fps);
+        }
+
+        @Override
+        public void encode(int[] rgb) throws IOException {
+            encoder.encode(rgb);
+            written();
+        }
+
+        @Override
+        public void encode(int[] rgb, Rectangle changed) throws IOException {
+            encoder.encode(rgb, changed);
+            written();
+        }
+
+        @Override
+        public void repeat(int[] rgb) throws IOException {
+            encoder.repeat(rgb);
+            written();
+        }
+
+        private void written() throws IOException {
+            framesDone++;
+            if(isCheckpoint(framesDone)) {
+                byte[] state = states.remove(framesDone);
+                journal.checkpoint(framesDone, state == null || state.length == 0 ? null : state, true);
+            }
+        }
+
+        @Override
+        public long getBytesWritten() {
+            return encoder.getBytesWritten();
+        }
+
+        @Override
+        public Ffmpeg.Progress getFfmpegProgress() {
+            return encoder.getFfmpegProgress();
+        }
+
+        @Override
+        public void close() throws IOException {
+            encoder.close();
+        }
+
+        @Override
+        public void abort() {
+            encoder.abort();
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package org.sketchide.export;
+
+import org.sketchide.audio.Audio;
+import org.sketchide.engine.Sketch;
+import org.sketchide.engine.TimedSketch;
+
+// Frames drawn by a live sketch instance; frame i is drawn at time i / fps
+public class SketchFrameSource implements FrameSource {
+
+    private final Sketch sketch;
+    private final double fps;
+    private final TiledRenderer tiles;
+
+    public SketchFrameSource(Sketch sketch, double fps) {
+        this(sketch, fps, null);
+    }
+
+    // Frames drawn through a TiledRenderer, for output sizes or supersampling that differ from the canvas
+    public SketchFrameSource(Sketch sketch, double fps, TiledRenderer tiles) {
+        this.sketch = sketch;
+        this.fps = fps;
+        this.tiles = tiles;
+    }
+
+    @Override
+    public void render(int index, FrameBuffer buffer) throws Exception {
+        if(tiles != null) {
+            tiles.render(sketch, index, index / fps, buffer.getArgb());
+        } else {
+            Audio.seek(index / fps);
+            TimedSketch.draw(sketch, buffer.clear(), index, index / fps);
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package org.sketchide.export;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.function.Consumer;
+
+// Samples an export's telemetry at a fixed period on a daemon thread, appends every sample to a
+// JSON-lines file and hands it to an optional listener (a progress dialog, the console).
+// close() takes one last sample, so the log always ends with the final numbers.
+public class TelemetryLog implements Closeable {
+
+    private final ExportTelemetry telemetry;
+    private final BufferedWriter writer;
+    private final Consumer<ExportTelemetry.Snapshot> listener;
+    private final Thread sampler;
+    private boolean closed;
+
+    // file may be null to only feed the listener
+    public TelemetryLog(ExportTelemetry telemetry, Path file, long periodMillis,
+                        Consumer<ExportTelemetry.Snapshot> listener) throws IOException {
+        this.telemetry = telemetry;
+        this.writer = file == null ? null : Files.newBufferedWriter(file, StandardCharsets.UTF_8);
+        this.listener = listener;
+        // Waits on the monitor rather than sleeping: interrupting the thread mid-write would close the file
+        sampler = new Thread(() -> {
+            synchronized (this) {
+                try {
+                    while(!closed) {
+                        wait(periodMillis);
+                        if(!closed) sample();
+                    }
+                } catch (InterruptedException e) {
+                    // not used
+                }
+            }
+        }, "export-telemetry");
+        sampler.setDaemon(true);
+        sampler.start();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if(closed) return;
+        closed = true;
+        notifyAll();
+        sample();
+        if(writer != null) writer.close();
+    }
+
+    private synchronized void sample() {
+        ExportTelemetry.Snapshot snapshot = telemetry.snapshot();
+        if(writer != null) {
+            try {
+                writer.write(snapshot.toJson());
+                writer.newLine();
+                writer.flush();
+            } catch (IOException e) {
+                // Losing the log must not fail the export
+                e.printStackTrace();
+            }
+        }
+        if(listener != null) listener.accept(snapshot);
+    }
+}
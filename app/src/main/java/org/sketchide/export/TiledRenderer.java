@@ -0,0 +1,190 @@
+package org.sketchide.export;
+
+import org.sketchide.audio.Audio;
+import org.sketchide.engine.Sketch;
+import org.sketchide.engine.SketchStateTransfer;
+import org.sketchide.engine.TimedSketch;
+
+import java.awt.*;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+
+// Renders a sketch at any output size, tile by tile. The sketch keeps drawing in its own coordinates
+// (the canvas size it was written for); each tile gets a transform that scales those up to the output
+// and shifts the tile to the origin, plus a clip to the tile. With supersampling every tile is drawn
+// factor x factor larger and box-filtered down. Finished tiles are flattened onto the background into
+// a band of full-width rows that is handed on before the next band starts, so memory depends on the
+// tile size and the output width, never on the output height.
+public class TiledRenderer {
+
+    public static final int DEFAULT_TILE_SIZE = 512;
+
+    // Receives rows [firstRow, firstRow + rowCount) of the output, rgb holding rowCount * width pixels
+    public interface BandSink {
+        void accept(int[] rgb, int firstRow, int rowCount) throws Exception;
+    }
+
+    private final int width;
+    private final int height;
+    private final int supersample;
+    private final int sourceWidth;
+    private final int sourceHeight;
+    private final int tileSize;
+    private final double scaleX;
+    private final double scaleY;
+    private final int background;
+
+    private final BufferedImage tile;
+    private final int[] tilePixels;
+    private final Graphics2D g;
+    private final AffineTransform origTransform;
+    private final Composite origComposite;
+    private final Stroke origStroke;
+    private final Paint origPaint;
+    private final AffineTransform tileTransform = new AffineTransform();
+    private AffineTransform outputTransform;
+    private final int[] band;
+
+    public TiledRenderer(int sourceWidth, int sourceHeight, int width, int height, int supersample,
+                         Color background) {
+        this(sourceWidth, sourceHeight, width, height, supersample, background, DEFAULT_TILE_SIZE);
+    }
+
+    public TiledRenderer(int sourceWidth, int sourceHeight, int width, int height, int supersample,
+                         Color background, int tileSize) {
+        if(supersample < 1 || supersample > 8) throw new IllegalArgumentException("Supersampling must be 1-8: " + supersample);
+        this.width = width;
+        this.height = height;
+        this.supersample = supersample;
+        this.sourceWidth = sourceWidth;
+        this.sourceHeight = sourceHeight;
+        this.tileSize = Math.min(tileSize, Math.max(width, height));
+        this.scaleX = (double) width / sourceWidth;
+        this.scaleY = (double) height / sourceHeight;
+        this.background = background.getRGB() & 0xFFFFFF;
+
+        int tilePixelsWide = this.tileSize * supersample;
+        tile = new BufferedImage(tilePixelsWide, tilePixelsWide, BufferedImage.TYPE_INT_ARGB);
+        tilePixels = ((DataBufferInt) tile.getRaster().getDataBuffer()).getData();
+        g = tile.createGraphics();
+        origTransform = g.getTransform();
+        origComposite = g.getComposite();
+        origStroke = g.getStroke();
+        origPaint = g.getPaint();
+        band = new int[width * Math.min(this.tileSize, height)];
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getSupersample() {
+        return supersample;
+    }
+
+    // Extra transform in output pixels (e.g. a TransformationEngine's, for this output size), applied to
+    // the drawing itself: outputs this large never exist whole, so their pixels cannot be transformed
+    public void setOutputTransform(AffineTransform transform) {
+        outputTransform = transform == null || transform.isIdentity() ? null : new AffineTransform(transform);
+    }
+
+    // Draws one frame and hands it on band by band, top to bottom. Unless the sketch is @Stateless, its
+    // state is put back before every tile after the first, so each tile sees the state it would have had
+    // drawing the whole frame once. The state is serialized, so arrays and collections are copied too.
+    public void render(Sketch sketch, long frame, double t, BandSink sink) throws Exception {
+        Audio.seek(t);
+        byte[] state = null;
+        if((tileSize < width || tileSize < height) && !TimedSketch.isStateless(sketch.getClass())) {
+            state = SketchStateTransfer.serialize(sketch);
+            if(state == null) {
+                throw new IllegalStateException("The sketch's fields must be Serializable to render it in tiles,"
+                        + " or its draw(Graphics2D, long, double) must be @Stateless");
+            }
+        }
+
+        boolean first = true;
+        for(int bandY = 0; bandY < height; bandY += tileSize) {
+            int bandRows = Math.min(tileSize, height - bandY);
+            for(int tileX = 0; tileX < width; tileX += tileSize) {
+                int tileWidth = Math.min(tileSize, width - tileX);
+                if(state != null && !first && !SketchStateTransfer.restore(state, sketch)) {
+                    throw new IllegalStateException("Could not restore the sketch's state for the next tile");
+                }
+                first = false;
+                drawTile(sketch, frame, t, tileX, bandY, tileWidth, bandRows);
+                resolveTile(tileX, tileWidth, bandRows);
+            }
+            sink.accept(band, bandY, bandRows);
+        }
+    }
+
+    // Whole frame into a width * height array of opaque pixels (0xFFRRGGBB)
+    public void render(Sketch sketch, long frame, double t, int[] dest) throws Exception {
+        render(sketch, frame, t, (rgb, firstRow, rowCount) -> {
+            for(int i = 0; i < rowCount * width; i++) {
+                dest[firstRow * width + i] = rgb[i] | 0xFF000000;
+            }
+        });
+    }
+
+    public void dispose() {
+        g.dispose();
+    }
+
+    private void drawTile(Sketch sketch, long frame, double t, int tileX, int tileY, int tileWidth, int tileHeight) {
+        Arrays.fill(tilePixels, 0);
+        g.setTransform(origTransform);
+        g.setComposite(origComposite);
+        g.setStroke(origStroke);
+        g.setPaint(origPaint);
+        g.setClip(0, 0, tileWidth * supersample, tileHeight * supersample);
+
+        tileTransform.setToTranslation(-tileX * supersample, -tileY * supersample);
+        tileTransform.scale(supersample, supersample);
+        if(outputTransform != null) tileTransform.concatenate(outputTransform);
+        tileTransform.scale(scaleX, scaleY);
+        g.setTransform(tileTransform);
+        // Moved around, the canvas must not show what the sketch draws beyond its edges
+        if(outputTransform != null) g.clipRect(0, 0, sourceWidth, sourceHeight);
+        TimedSketch.draw(sketch, g, frame, t);
+    }
+
+    // Box-filters the supersampled tile and flattens it onto the background, into the band
+    private void resolveTile(int tileX, int tileWidth, int tileHeight) {
+        int stride = tile.getWidth();
+        int samples = supersample * supersample;
+        int bgR = (background >> 16) & 0xFF;
+        int bgG = (background >> 8) & 0xFF;
+        int bgB = background & 0xFF;
+        for(int y = 0; y < tileHeight; y++) {
+            int out = y * width + tileX;
+            for(int x = 0; x < tileWidth; x++) {
+                // Sums of alpha and alpha-weighted colour over the samples of one output pixel
+                long a = 0, r = 0, gr = 0, b = 0;
+                for(int sy = 0; sy < supersample; sy++) {
+                    int row = (y * supersample + sy) * stride + x * supersample;
+                    for(int sx = 0; sx < supersample; sx++) {
+                        int p = tilePixels[row + sx];
+                        int pa = p >>> 24;
+                        a += pa;
+                        r += (long) ((p >> 16) & 0xFF) * pa;
+                        gr += (long) ((p >> 8) & 0xFF) * pa;
+                        b += (long) (p & 0xFF) * pa;
+                    }
+                }
+                long total = 255L * samples;
+                long bgWeight = total - a;
+                int outR = (int) ((r + bgR * bgWeight + total / 2) / total);
+                int outG = (int) ((gr + bgG * bgWeight + total / 2) / total);
+                int outB = (int) ((b + bgB * bgWeight + total / 2) / total);
+                band[out + x] = (outR << 16) | (outG << 8) | outB;
+            }
+        }
+    }
+}
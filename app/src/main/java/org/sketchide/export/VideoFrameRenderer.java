@@ -0,0 +1,82 @@
+package org.sketchide.export;
+
+import org.sketchide.audio.Audio;
+import org.sketchide.engine.Sketch;
+import org.sketchide.engine.TimedSketch;
+
+import java.awt.*;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+
+// The per-frame steps of a video export: clear the off-screen canvas, let the sketch draw
+// and composite the ARGB result onto the background colour.
+public class VideoFrameRenderer {
+
+    private final int width;
+    private final int height;
+    private final Color background;
+    private final BufferedImage canvas;
+    private final Graphics2D g;
+
+    private final AffineTransform origTransform;
+    private final Composite origComposite;
+    private final Stroke origStroke;
+    private final Paint origPaint;
+
+    public VideoFrameRenderer(int width, int height, Color background) {
+        this.width = width;
+        this.height = height;
+        this.background = background;
+        canvas = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        g = canvas.createGraphics();
+        g.setClip(0, 0, width, height);
+
+        origTransform = g.getTransform();
+        origComposite = g.getComposite();
+        origStroke = g.getStroke();
+        origPaint = g.getPaint();
+    }
+
+    // Clears to transparent and restores the graphics state the sketch may have changed
+    public void clear() {
+        g.setComposite(AlphaComposite.Src);  // ensures clearing works correctly
+        g.setColor(new Color(0,0,0,0));  // transparent fill
+        g.fillRect(0, 0, width, height);
+
+        g.setTransform(origTransform);
+        g.setComposite(origComposite);
+        g.setStroke(origStroke);
+        g.setPaint(origPaint);
+    }
+
+    // Draws a single frame, as frame 0 at time 0 for sketches that take them
+    public void draw(Sketch sketch) {
+        TimedSketch.draw(sketch, g, 0, 0);
+    }
+
+    // t is the frame's time in seconds
+    public void draw(Sketch sketch, long frame, double t) {
+        Audio.seek(t);
+        TimedSketch.draw(sketch, g, frame, t);
+    }
+
+    // Flattens the transparent canvas onto the background colour
+    public BufferedImage composite() {
+        BufferedImage img = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g2 = img.createGraphics();
+
+        g2.setColor(background);
+        g2.fillRect(0, 0, width, height);
+        g2.drawImage(canvas, 0, 0, null);
+        g2.dispose();
+        return img;
+    }
+
+    public BufferedImage getCanvas() {
+        return canvas;
+    }
+
+    public void dispose() {
+        g.dispose();
+    }
+}
@@ -0,0 +1,367 @@
+package org.sketchide.history;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// Every Run as a version: the editor source and the frame it drew, so that any earlier one can be
+// brought back. undo/redo step through the versions; a Run after an undo drops the ones ahead of it.
+//
+// Sources go through a SourceCodec: a keyframe every KEYFRAME_INTERVAL versions, and deltas against
+// the version before in between, so getting any version back decodes at most one keyframe and
+// applies a few deltas. Frames are cut into TILE x TILE tiles, each deflated; a tile equal to the
+// same tile of the version before is shared with it instead of stored again.
+//
+// Everything is held in memory and counted against a budget. Once over it the oldest versions are
+// dropped (the one after them becomes a keyframe), so the history of a long session stays within
+// the budget instead of growing with it.
+public class RunHistory {
+
+    public static final long DEFAULT_BUDGET = 64L << 20;
+    static final int KEYFRAME_INTERVAL = 32;
+    static final int TILE = 64;
+    // Past this many distinct tokens the next keyframe starts a fresh codec, and the old vocabulary
+    // goes once the last version coded with it is dropped
+    private static final int MAX_VOCABULARY = 1 << 16;
+    // Rough heap cost of a version and of a tile beyond their data
+    private static final int VERSION_OVERHEAD = 160;
+    private static final int TILE_OVERHEAD = 48;
+
+    public record Version(long number, long time, int lines, boolean current) {
+    }
+
+    // frame is null for a Run that drew on an empty canvas
+    public record Snapshot(long number, long time, String source, BufferedImage frame) {
+    }
+
+    // Raw sizes count source as UTF-8 and frames as 4 bytes a pixel
+    public record Stats(int versions, long dropped, long usedBytes, long rawBytes,
+                        long sourceBytes, long rawSourceBytes) {
+        public String describe() {
+            return String.format("%d versions (%d dropped), %.1f MB for %.1f MB of source and frames, "
+                    + "source %.1fx smaller", versions, dropped, usedBytes / 1048576.0, rawBytes / 1048576.0,
+                    sourceBytes == 0 ? 1 : (double) rawSourceBytes / sourceBytes);
+        }
+    }
+
+    private static final class Tile {
+        final byte[] data;
+        int refs = 1;
+
+        Tile(byte[] data) {
+            this.data = data;
+        }
+    }
+
+    private static final class Entry {
+        final long number;
+        final long time;
+        final SourceCodec codec;
+        final int lines;
+        final int rawSourceBytes;
+        byte[] source;
+        boolean keyframe;
+        // Deltas since the last keyframe
+        int chain;
+        final int width;
+        final int height;
+        final Tile[] tiles;
+
+        Entry(long number, long time, SourceCodec codec, String source, int width, int height, Tile[] tiles) {
+            this.number = number;
+            this.time = time;
+            this.codec = codec;
+            this.lines = (int) source.lines().count();
+            this.rawSourceBytes = source.getBytes(StandardCharsets.UTF_8).length;
+            this.width = width;
+            this.height = height;
+            this.tiles = tiles;
+        }
+    }
+
+    private final long budget;
+    private final List<Entry> entries = new ArrayList<>();
+    // Index of the version the editor shows, -1 while there is none
+    private int position = -1;
+    private long nextNumber = 1;
+    private long dropped;
+    private long entryBytes;
+    private long tileBytes;
+    private SourceCodec codec = new SourceCodec();
+
+    // The last recorded version in full, to code the next one against
+    private Entry last;
+    private String lastSource;
+    private int[] lastFrame;
+
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    private final Inflater inflater = new Inflater();
+    private byte[] tileBytesIn = new byte[TILE * TILE * 3];
+    private byte[] tileBytesOut = new byte[TILE * TILE * 4];
+
+    public RunHistory() {
+        this(DEFAULT_BUDGET);
+    }
+
+    public RunHistory(long budgetBytes) {
+        this.budget = budgetBytes;
+    }
+
+    // Adds a version after the current one and makes it current; rgb holds width * height pixels
+    public synchronized long record(String source, int[] rgb, int width, int height) {
+        while(entries.size() > position + 1) {
+            release(entries.removeLast());
+        }
+        Entry previous = position >= 0 ? entries.get(position) : null;
+        if(previous != null && previous != last) {
+            // Recording after an undo: code against the version gone back to
+            last = previous;
+            lastSource = sourceAt(position);
+            lastFrame = pixels(previous);
+        }
+
+        boolean keyframe = previous == null || previous.codec != codec || previous.chain + 1 >= KEYFRAME_INTERVAL;
+        if(keyframe && codec.getVocabularySize() > MAX_VOCABULARY) {
+            codec = new SourceCodec();
+        }
+
+        int tilesX = (width + TILE - 1) / TILE;
+        int tilesY = (height + TILE - 1) / TILE;
+        Tile[] tiles = new Tile[tilesX * tilesY];
+        boolean comparable = previous != null && previous.width == width && previous.height == height;
+        for(int ty = 0; ty < tilesY; ty++) {
+            for(int tx = 0; tx < tilesX; tx++) {
+                int x = tx * TILE;
+                int y = ty * TILE;
+                int w = Math.min(TILE, width - x);
+                int h = Math.min(TILE, height - y);
+                int i = ty * tilesX + tx;
+                if(comparable && sameTile(rgb, lastFrame, width, x, y, w, h)) {
+                    tiles[i] = previous.tiles[i];
+                    tiles[i].refs++;
+                } else {
+                    tiles[i] = new Tile(deflateTile(rgb, width, x, y, w, h));
+                    tileBytes += tiles[i].data.length + TILE_OVERHEAD;
+                }
+            }
+        }
+
+        Entry entry = new Entry(nextNumber++, System.currentTimeMillis(), codec, source, width, height, tiles);
+        entry.keyframe = keyframe;
+        entry.chain = keyframe ? 0 : previous.chain + 1;
+        entry.source = keyframe ? codec.encode(source) : codec.encodeDelta(lastSource, source);
+        entryBytes += entry.source.length + VERSION_OVERHEAD + tiles.length * 8L;
+        entries.add(entry);
+        position = entries.size() - 1;
+
+        last = entry;
+        lastSource = source;
+        lastFrame = rgb.clone();
+
+        while(usedBytes() > budget && entries.size() > 1) {
+            dropOldest();
+        }
+        return entry.number;
+    }
+
+    public synchronized boolean canUndo() {
+        return position > 0;
+    }
+
+    public synchronized boolean canRedo() {
+        return position + 1 < entries.size();
+    }
+
+    // The version before the current one, now current; null if there is none
+    public synchronized Snapshot undo() {
+        return canUndo() ? snapshot(--position) : null;
+    }
+
+    public synchronized Snapshot redo() {
+        return canRedo() ? snapshot(++position) : null;
+    }
+
+    // Makes the numbered version current; null if it has been dropped
+    public synchronized Snapshot jumpTo(long number) {
+        int index = indexOf(number);
+        if(index < 0) return null;
+        position = index;
+        return snapshot(index);
+    }
+
+    // A version without making it current, e.g. for a preview
+    public synchronized Snapshot get(long number) {
+        int index = indexOf(number);
+        return index < 0 ? null : snapshot(index);
+    }
+
+    public synchronized List<Version> getVersions() {
+        List<Version> versions = new ArrayList<>(entries.size());
+        for(int i = 0; i < entries.size(); i++) {
+            Entry e = entries.get(i);
+            versions.add(new Version(e.number, e.time, e.lines, i == position));
+        }
+        return versions;
+    }
+
+    public synchronized Stats getStats() {
+        long rawBytes = 0;
+        long sourceBytes = 0;
+        long rawSourceBytes = 0;
+        for(Entry e : entries) {
+            rawBytes += e.rawSourceBytes + (long) e.width * e.height * 4;
+            sourceBytes += e.source.length;
+            rawSourceBytes += e.rawSourceBytes;
+        }
+        return new Stats(entries.size(), dropped, usedBytes(), rawBytes, sourceBytes, rawSourceBytes);
+    }
+
+    // Everything held: versions, distinct tiles, vocabularies in use, and the last frame in full
+    private long usedBytes() {
+        Map<SourceCodec, Boolean> codecs = new IdentityHashMap<>();
+        long vocabulary = 0;
+        for(Entry e : entries) {
+            if(codecs.put(e.codec, Boolean.TRUE) == null) vocabulary += e.codec.getVocabularyBytes();
+        }
+        long frame = lastFrame != null ? lastFrame.length * 4L : 0;
+        return entryBytes + tileBytes + vocabulary + frame;
+    }
+
+    private void dropOldest() {
+        if(entries.size() > 1 && !entries.get(1).keyframe) {
+            // The next version stops depending on the one going away
+            Entry next = entries.get(1);
+            String source = sourceAt(1);
+            entryBytes -= next.source.length;
+            next.source = next.codec.encode(source);
+            entryBytes += next.source.length;
+            next.keyframe = true;
+        }
+        Entry oldest = entries.removeFirst();
+        release(oldest);
+        position = Math.max(0, position - 1);
+        dropped++;
+    }
+
+    private void release(Entry e) {
+        entryBytes -= e.source.length + VERSION_OVERHEAD + e.tiles.length * 8L;
+        for(Tile tile : e.tiles) {
+            if(--tile.refs == 0) tileBytes -= tile.data.length + TILE_OVERHEAD;
+        }
+        if(e == last) {
+            last = null;
+            lastSource = null;
+            lastFrame = null;
+        }
+    }
+
+    private int indexOf(long number) {
+        int low = 0;
+        int high = entries.size() - 1;
+        while(low <= high) {
+            int mid = (low + high) >>> 1;
+            long n = entries.get(mid).number;
+            if(n < number) low = mid + 1;
+            else if(n > number) high = mid - 1;
+            else return mid;
+        }
+        return -1;
+    }
+
+    private Snapshot snapshot(int index) {
+        Entry e = entries.get(index);
+        BufferedImage frame = null;
+        if(e.width > 0 && e.height > 0) {
+            frame = new BufferedImage(e.width, e.height, BufferedImage.TYPE_INT_RGB);
+            decodeFrame(e, ((DataBufferInt) frame.getRaster().getDataBuffer()).getData());
+        }
+        return new Snapshot(e.number, e.time, sourceAt(index), frame);
+    }
+
+    // Back to the keyframe, then forward through the deltas
+    private String sourceAt(int index) {
+        int k = index;
+        while(!entries.get(k).keyframe) k--;
+        List<byte[]> deltas = new ArrayList<>(index - k);
+        for(int i = k + 1; i <= index; i++) {
+            deltas.add(entries.get(i).source);
+        }
+        Entry keyframe = entries.get(k);
+        return keyframe.codec.decode(keyframe.source, deltas);
+    }
+
+    private int[] pixels(Entry e) {
+        int[] rgb = new int[e.width * e.height];
+        decodeFrame(e, rgb);
+        return rgb;
+    }
+
+    private static boolean sameTile(int[] a, int[] b, int width, int x, int y, int w, int h) {
+        for(int row = y; row < y + h; row++) {
+            int from = row * width + x;
+            if(Arrays.mismatch(a, from, from + w, b, from, from + w) >= 0) return false;
+        }
+        return true;
+    }
+
+    private byte[] deflateTile(int[] rgb, int width, int x, int y, int w, int h) {
+        int n = 0;
+        for(int row = y; row < y + h; row++) {
+            for(int i = row * width + x, end = i + w; i < end; i++) {
+                int p = rgb[i];
+                tileBytesIn[n++] = (byte) (p >> 16);
+                tileBytesIn[n++] = (byte) (p >> 8);
+                tileBytesIn[n++] = (byte) p;
+            }
+        }
+        deflater.reset();
+        deflater.setInput(tileBytesIn, 0, n);
+        deflater.finish();
+        int length = 0;
+        while(!deflater.finished()) {
+            if(length == tileBytesOut.length) tileBytesOut = Arrays.copyOf(tileBytesOut, length * 2);
+            length += deflater.deflate(tileBytesOut, length, tileBytesOut.length - length);
+        }
+        return Arrays.copyOf(tileBytesOut, length);
+    }
+
+    private void decodeFrame(Entry e, int[] rgb) {
+        int tilesX = (e.width + TILE - 1) / TILE;
+        for(int i = 0; i < e.tiles.length; i++) {
+            int x = i % tilesX * TILE;
+            int y = i / tilesX * TILE;
+            int w = Math.min(TILE, e.width - x);
+            int h = Math.min(TILE, e.height - y);
+            inflater.reset();
+            inflater.setInput(e.tiles[i].data);
+            try {
+                int n = 0;
+                while(n < w * h * 3) {
+                    int read = inflater.inflate(tileBytesIn, n, w * h * 3 - n);
+                    if(read == 0 && (inflater.finished() || inflater.needsInput())) {
+                        throw new IllegalStateException("Truncated tile in version " + e.number);
+                    }
+                    n += read;
+                }
+            } catch (DataFormatException ex) {
+                throw new IllegalStateException("Corrupt tile in version " + e.number, ex);
+            }
+            int n = 0;
+            for(int row = y; row < y + h; row++) {
+                for(int j = row * e.width + x, end = j + w; j < end; j++) {
+                    rgb[j] = (tileBytesIn[n] & 0xFF) << 16 | (tileBytesIn[n + 1] & 0xFF) << 8
+                            | tileBytesIn[n + 2] & 0xFF;
+                    n += 3;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,457 @@
+package org.sketchide.history;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+// Compresses sketch source. The text is cut into tokens (words, runs of spaces, a line break with the
+// indentation after it, any other single character), the tokens are numbered in a vocabulary shared by
+// everything this codec codes, pairs of numbers that keep coming up together (g . fillOval, ) ;) are
+// replaced by grammar rules in the manner of Re-Pair, and what is left is Huffman coded with a table
+// of its own per text.
+// Versions of one sketch share nearly all their tokens, so a token's spelling is stored once per
+// session instead of once per version; encodeDelta goes further and stores only the tokens between
+// the first and last ones that differ from the previous version.
+//
+// Decoding needs the same codec instance that encoded, with a vocabulary at least as large.
+public class SourceCodec {
+
+    // A pair of symbols becomes a rule once it occurs this often
+    private static final int MIN_PAIR = 6;
+    // Longer codes are rebuilt from flattened counts; only reachable with millions of tokens
+    private static final int MAX_CODE_LENGTH = 24;
+    // Rough heap cost of a vocabulary entry beyond its characters (String, map entry, list slot)
+    private static final int TOKEN_OVERHEAD = 96;
+
+    private final Map<String, Integer> ids = new HashMap<>();
+    private final List<String> tokens = new ArrayList<>();
+    private long vocabularyBytes;
+
+    public int getVocabularySize() {
+        return tokens.size();
+    }
+
+    // Approximate heap held by the vocabulary
+    public long getVocabularyBytes() {
+        return vocabularyBytes;
+    }
+
+    public byte[] encode(String source) {
+        int[] tokenized = tokenize(source);
+        // Rules are numbered after the tokens known now
+        int base = tokens.size();
+        List<int[]> rules = new ArrayList<>();
+        int[] symbols = pair(tokenized, base, rules);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(symbols.length + 64);
+        writeVarint(out, symbols.length);
+        if(symbols.length == 0) return out.toByteArray();
+
+        // The halves of the rules are Huffman coded along with the text
+        int[] coded = new int[rules.size() * 2 + symbols.length];
+        for(int i = 0; i < rules.size(); i++) {
+            coded[2 * i] = rules.get(i)[0];
+            coded[2 * i + 1] = rules.get(i)[1];
+        }
+        System.arraycopy(symbols, 0, coded, rules.size() * 2, symbols.length);
+
+        // Distinct symbols in ascending order and how often each occurs
+        int[] sorted = coded.clone();
+        Arrays.sort(sorted);
+        int distinct = 0;
+        int[] alphabet = new int[sorted.length];
+        int[] counts = new int[sorted.length];
+        for(int i = 0; i < sorted.length; i++) {
+            if(i == 0 || sorted[i] != sorted[i - 1]) alphabet[distinct++] = sorted[i];
+            counts[distinct - 1]++;
+        }
+        alphabet = Arrays.copyOf(alphabet, distinct);
+        int[] lengths = codeLengths(Arrays.copyOf(counts, distinct));
+
+        writeVarint(out, base);
+        writeVarint(out, rules.size());
+        writeVarint(out, distinct);
+        BitWriter bits = new BitWriter(out);
+        // Table: each symbol as the gap from the one before (mostly 1, a single bit), and its code length
+        int previous = -1;
+        for(int i = 0; i < distinct; i++) {
+            bits.gamma(alphabet[i] - previous);
+            bits.write(lengths[i], 5);
+            previous = alphabet[i];
+        }
+        int[] codes = canonicalCodes(lengths);
+        for(int symbol : coded) {
+            int i = Arrays.binarySearch(alphabet, symbol);
+            bits.write(codes[i], lengths[i]);
+        }
+        bits.flush();
+        return out.toByteArray();
+    }
+
+    public String decode(byte[] data) {
+        return text(decodeTokens(data));
+    }
+
+    // A keyframe followed by deltas, each against the version before it. The deltas are applied to
+    // the tokens, so the text is only put together once, at the end.
+    public String decode(byte[] keyframe, List<byte[]> deltas) {
+        int[] symbols = decodeTokens(keyframe);
+        for(byte[] delta : deltas) {
+            symbols = applyDelta(symbols, delta);
+        }
+        return text(symbols);
+    }
+
+    private int[] decodeTokens(byte[] data) {
+        int[] pos = {0};
+        int count = (int) readVarint(data, pos);
+        if(count == 0) return new int[0];
+        int base = (int) readVarint(data, pos);
+        int[][] rules = new int[(int) readVarint(data, pos)][];
+        int distinct = (int) readVarint(data, pos);
+        BitReader bits = new BitReader(data, pos[0]);
+        int[] alphabet = new int[distinct];
+        int[] lengths = new int[distinct];
+        int previous = -1;
+        for(int i = 0; i < distinct; i++) {
+            alphabet[i] = previous + bits.gamma();
+            lengths[i] = bits.read(5);
+            previous = alphabet[i];
+        }
+
+        // Canonical order: by code length, then symbol. Codes of one length are consecutive numbers
+        // starting at first[length], and byLength lists their symbols in that order.
+        int[] perLength = new int[MAX_CODE_LENGTH + 1];
+        for(int length : lengths) {
+            if(length < 1 || length > MAX_CODE_LENGTH) throw new IllegalArgumentException("Corrupt source data");
+            perLength[length]++;
+        }
+        int[] first = new int[MAX_CODE_LENGTH + 1];
+        int[] offset = new int[MAX_CODE_LENGTH + 2];
+        int code = 0;
+        for(int length = 1; length <= MAX_CODE_LENGTH; length++) {
+            first[length] = code;
+            offset[length + 1] = offset[length] + perLength[length];
+            code = (code + perLength[length]) << 1;
+        }
+        int[] byLength = new int[distinct];
+        int[] next = offset.clone();
+        for(int i = 0; i < distinct; i++) {
+            byLength[next[lengths[i]]++] = alphabet[i];
+        }
+
+        int[] coded = new int[rules.length * 2 + count];
+        for(int s = 0; s < coded.length; s++) {
+            code = 0;
+            for(int length = 1; ; length++) {
+                code = code << 1 | bits.bit();
+                int index = code - first[length];
+                if(index < perLength[length]) {
+                    coded[s] = byLength[offset[length] + index];
+                    break;
+                }
+                if(length == MAX_CODE_LENGTH) throw new IllegalArgumentException("Corrupt source data");
+            }
+        }
+        // A rule only refers to rules made before it, so their lengths can be added up in order
+        int[] expanded = new int[rules.length];
+        for(int i = 0; i < rules.length; i++) {
+            rules[i] = new int[]{coded[2 * i], coded[2 * i + 1]};
+            for(int half : rules[i]) {
+                if(half >= base + i) throw new IllegalArgumentException("Corrupt source data");
+                expanded[i] += half < base ? 1 : expanded[half - base];
+            }
+        }
+        int total = 0;
+        for(int s = rules.length * 2; s < coded.length; s++) {
+            total += coded[s] < base ? 1 : expanded[coded[s] - base];
+        }
+        int[] symbols = new int[total];
+        int at = 0;
+        for(int s = rules.length * 2; s < coded.length; s++) {
+            at = expand(coded[s], base, rules, symbols, at);
+        }
+        return symbols;
+    }
+
+    private static int expand(int symbol, int base, int[][] rules, int[] symbols, int at) {
+        while(symbol >= base) {
+            int[] rule = rules[symbol - base];
+            at = expand(rule[0], base, rules, symbols, at);
+            symbol = rule[1];
+        }
+        symbols[at] = symbol;
+        return at + 1;
+    }
+
+    // source as the tokens that differ from previous, which decodeDelta needs to get it back
+    public byte[] encodeDelta(String previous, String source) {
+        int[] before = tokenize(previous);
+        int[] after = tokenize(source);
+        int prefix = 0;
+        int limit = Math.min(before.length, after.length);
+        while(prefix < limit && before[prefix] == after[prefix]) prefix++;
+        int suffix = 0;
+        while(suffix < limit - prefix
+                && before[before.length - 1 - suffix] == after[after.length - 1 - suffix]) suffix++;
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(16 + (after.length - prefix - suffix) * 2);
+        writeVarint(out, prefix);
+        writeVarint(out, suffix);
+        writeVarint(out, after.length - prefix - suffix);
+        for(int i = prefix; i < after.length - suffix; i++) {
+            writeVarint(out, after[i]);
+        }
+        return out.toByteArray();
+    }
+
+    public String decodeDelta(String previous, byte[] data) {
+        return text(applyDelta(tokenize(previous), data));
+    }
+
+    private static int[] applyDelta(int[] before, byte[] data) {
+        int[] pos = {0};
+        int prefix = (int) readVarint(data, pos);
+        int suffix = (int) readVarint(data, pos);
+        int changed = (int) readVarint(data, pos);
+        int[] after = new int[prefix + changed + suffix];
+        System.arraycopy(before, 0, after, 0, prefix);
+        for(int i = 0; i < changed; i++) {
+            after[prefix + i] = (int) readVarint(data, pos);
+        }
+        System.arraycopy(before, before.length - suffix, after, prefix + changed, suffix);
+        return after;
+    }
+
+    // The source's tokens as vocabulary numbers, adding tokens not seen before
+    int[] tokenize(String source) {
+        int[] symbols = new int[Math.max(16, source.length() / 3)];
+        int count = 0;
+        int n = source.length();
+        int i = 0;
+        while(i < n) {
+            int start = i;
+            char c = source.charAt(i++);
+            if(Character.isJavaIdentifierPart(c)) {
+                while(i < n && Character.isJavaIdentifierPart(source.charAt(i))) i++;
+            } else if(c == ' ') {
+                while(i < n && source.charAt(i) == ' ') i++;
+            } else if(c == '\n') {
+                // Indentation goes with the line break: most lines start with one of a few of these
+                while(i < n && (source.charAt(i) == ' ' || source.charAt(i) == '\t')) i++;
+            }
+            if(count == symbols.length) symbols = Arrays.copyOf(symbols, count * 2);
+            symbols[count++] = id(source.substring(start, i));
+        }
+        return Arrays.copyOf(symbols, count);
+    }
+
+    private int id(String token) {
+        Integer id = ids.get(token);
+        if(id == null) {
+            id = tokens.size();
+            ids.put(token, id);
+            tokens.add(token);
+            vocabularyBytes += TOKEN_OVERHEAD + token.length() * 2L;
+        }
+        return id;
+    }
+
+    private String text(int[] symbols) {
+        StringBuilder text = new StringBuilder(symbols.length * 4);
+        for(int symbol : symbols) {
+            text.append(tokens.get(symbol));
+        }
+        return text.toString();
+    }
+
+    // Replaces pairs of adjacent symbols seen at least MIN_PAIR times with rules numbered from base up,
+    // until no pair is that common. A round takes on every common pair at once, as long as no two of
+    // them share a symbol, so one left-to-right pass replaces them all.
+    static int[] pair(int[] symbols, int base, List<int[]> rules) {
+        int[] sequence = symbols.clone();
+        int n = sequence.length;
+        while(n > 1) {
+            Map<Long, Integer> counts = new HashMap<>();
+            for(int i = 0; i + 1 < n; i++) {
+                counts.merge(pairKey(sequence[i], sequence[i + 1]), 1, Integer::sum);
+            }
+            List<Map.Entry<Long, Integer>> common = new ArrayList<>();
+            for(Map.Entry<Long, Integer> e : counts.entrySet()) {
+                if(e.getValue() >= MIN_PAIR) common.add(e);
+            }
+            if(common.isEmpty()) break;
+            common.sort((a, b) -> !a.getValue().equals(b.getValue())
+                    ? Integer.compare(b.getValue(), a.getValue()) : Long.compare(a.getKey(), b.getKey()));
+
+            Map<Long, Integer> chosen = new HashMap<>();
+            Set<Integer> taken = new HashSet<>();
+            for(Map.Entry<Long, Integer> e : common) {
+                int left = (int) (e.getKey() >>> 32);
+                int right = (int) e.getKey().longValue();
+                if(taken.contains(left) || taken.contains(right)) continue;
+                taken.add(left);
+                taken.add(right);
+                chosen.put(e.getKey(), base + rules.size());
+                rules.add(new int[]{left, right});
+            }
+            int m = 0;
+            for(int i = 0; i < n; ) {
+                Integer rule = i + 1 < n ? chosen.get(pairKey(sequence[i], sequence[i + 1])) : null;
+                if(rule != null) {
+                    sequence[m++] = rule;
+                    i += 2;
+                } else {
+                    sequence[m++] = sequence[i++];
+                }
+            }
+            n = m;
+        }
+        return Arrays.copyOf(sequence, n);
+    }
+
+    private static long pairKey(int left, int right) {
+        return (long) left << 32 | right & 0xFFFFFFFFL;
+    }
+
+    // Huffman code lengths for the counts, none longer than MAX_CODE_LENGTH
+    static int[] codeLengths(int[] counts) {
+        int n = counts.length;
+        int[] lengths = new int[n];
+        if(n == 1) {
+            lengths[0] = 1;
+            return lengths;
+        }
+        long[] weights = new long[n];
+        for(int i = 0; i < n; i++) weights[i] = counts[i];
+        while(true) {
+            // Nodes 0..n-1 are the symbols, the merged ones follow; parent links give the depths
+            int[] parent = new int[2 * n - 1];
+            long[] weight = Arrays.copyOf(weights, 2 * n - 1);
+            PriorityQueue<Integer> queue = new PriorityQueue<>(n,
+                    (a, b) -> weight[a] != weight[b] ? Long.compare(weight[a], weight[b]) : Integer.compare(a, b));
+            for(int i = 0; i < n; i++) queue.add(i);
+            int next = n;
+            while(queue.size() > 1) {
+                int a = queue.poll();
+                int b = queue.poll();
+                weight[next] = weight[a] + weight[b];
+                parent[a] = next;
+                parent[b] = next;
+                queue.add(next++);
+            }
+            int[] depth = new int[2 * n - 1];
+            int longest = 0;
+            for(int i = 2 * n - 3; i >= 0; i--) {
+                depth[i] = depth[parent[i]] + 1;
+                if(i < n) longest = Math.max(longest, depth[i]);
+            }
+            if(longest <= MAX_CODE_LENGTH) {
+                System.arraycopy(depth, 0, lengths, 0, n);
+                return lengths;
+            }
+            // Flatten the distribution and try again
+            for(int i = 0; i < n; i++) weights[i] = (weights[i] + 1) / 2;
+        }
+    }
+
+    // Codes for the lengths, assigned in (length, symbol) order; lengths are in symbol order
+    private static int[] canonicalCodes(int[] lengths) {
+        Integer[] order = new Integer[lengths.length];
+        for(int i = 0; i < order.length; i++) order[i] = i;
+        Arrays.sort(order, (a, b) -> lengths[a] != lengths[b]
+                ? Integer.compare(lengths[a], lengths[b]) : Integer.compare(a, b));
+        int[] codes = new int[lengths.length];
+        int code = 0;
+        int length = lengths[order[0]];
+        for(int i = 0; i < order.length; i++) {
+            int symbol = order[i];
+            code <<= lengths[symbol] - length;
+            length = lengths[symbol];
+            codes[symbol] = code++;
+        }
+        return codes;
+    }
+
+    private static final class BitWriter {
+        private final ByteArrayOutputStream out;
+        private long buffer;
+        private int pending;
+
+        BitWriter(ByteArrayOutputStream out) {
+            this.out = out;
+        }
+
+        // The low length bits of value, most significant first
+        void write(int value, int length) {
+            buffer = buffer << length | value & ((1L << length) - 1);
+            pending += length;
+            while(pending >= 8) {
+                pending -= 8;
+                out.write((int) (buffer >>> pending));
+            }
+        }
+
+        // Elias gamma code of v >= 1: one 0 per bit of v after the first, then v
+        void gamma(int v) {
+            int length = 32 - Integer.numberOfLeadingZeros(v);
+            write(0, length - 1);
+            write(v, length);
+        }
+
+        void flush() {
+            if(pending > 0) out.write((int) (buffer << (8 - pending)));
+            pending = 0;
+        }
+    }
+
+    private static final class BitReader {
+        private final byte[] data;
+        private int bit;
+
+        BitReader(byte[] data, int offset) {
+            this.data = data;
+            this.bit = offset * 8;
+        }
+
+        int bit() {
+            int b = data[bit >> 3] >> (7 - (bit & 7)) & 1;
+            bit++;
+            return b;
+        }
+
+        int read(int length) {
+            int v = 0;
+            for(int i = 0; i < length; i++) v = v << 1 | bit();
+            return v;
+        }
+
+        int gamma() {
+            int zeros = 0;
+            while(bit() == 0) zeros++;
+            return 1 << zeros | read(zeros);
+        }
+    }
+
+    static void writeVarint(ByteArrayOutputStream out, long v) {
+        while((v & ~0x7FL) != 0) {
+            out.write((int) (v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+        out.write((int) v);
+    }
+
+    static long readVarint(byte[] data, int[] pos) {
+        long v = 0;
+        for(int shift = 0; ; shift += 7) {
+            byte b = data[pos[0]++];
+            v |= (long) (b & 0x7F) << shift;
+            if(b >= 0) return v;
+        }
+    }
+}
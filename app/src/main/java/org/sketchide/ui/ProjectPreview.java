@@ -0,0 +1,52 @@
+package org.sketchide.ui;
+
+import org.sketchide.util.FileExporter;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+
+// Open dialog accessory: the thumbnail and details of the selected project. Only the metadata and
+// thumbnail sections of the file are read, however large the rest of it is.
+class ProjectPreview extends JPanel {
+
+    private final JLabel image = new JLabel();
+    private final JLabel details = new JLabel();
+
+    ProjectPreview() {
+        super(new BorderLayout(0, 6));
+        setBorder(BorderFactory.createEmptyBorder(0, 8, 0, 0));
+        image.setPreferredSize(new Dimension(FileExporter.THUMBNAIL_WIDTH, FileExporter.THUMBNAIL_HEIGHT));
+        image.setHorizontalAlignment(SwingConstants.CENTER);
+        details.setVerticalAlignment(SwingConstants.TOP);
+        add(image, BorderLayout.NORTH);
+        add(details, BorderLayout.CENTER);
+    }
+
+    void show(File file) {
+        image.setIcon(null);
+        image.setText("");
+        details.setText("");
+        if(file == null || !file.isFile() || !file.getName().endsWith("." + FileExporter.EXTENSION)) return;
+        try (FileExporter.Reader reader = FileExporter.Reader.open(file.toPath())) {
+            FileExporter.Info info = reader.getInfo();
+            FileExporter.Settings settings = info.settings();
+            // The key starts with the version of the JDK that compiled the classes
+            String key = info.compiledKey();
+            String compiled = key == null ? "no" : "by JDK " + key.substring(0, Math.max(0, key.indexOf('/')));
+            String mode = settings.frameDelay() > 0 ? settings.mode() + ", " + settings.frameDelay() + " ms/frame" : settings.mode();
+            details.setText(String.format("<html>%s<br>%d lines, %d x %d<br>Saved %tF %<tR<br>Compiled: %s</html>",
+                    mode, info.lines(), settings.width(), settings.height(), info.savedTime(), compiled));
+            try {
+                BufferedImage thumbnail = reader.getThumbnail();
+                if(thumbnail != null) image.setIcon(new ImageIcon(thumbnail));
+            } catch (IOException e) {
+                image.setText("No preview");
+            }
+        } catch (IOException e) {
+            details.setText("<html>Not readable:<br>" + e.getMessage() + "</html>");
+        }
+    }
+}
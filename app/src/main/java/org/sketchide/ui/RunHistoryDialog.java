@@ -0,0 +1,124 @@
+package org.sketchide.ui;
+
+import org.sketchide.history.RunHistory;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.image.BufferedImage;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.function.Consumer;
+
+// Every version still in the run history, newest first, with a preview of the frame it drew.
+// Restore (or a double click) brings the selected one back into the editor and onto the canvas.
+public class RunHistoryDialog extends JDialog {
+
+    private static final int PREVIEW_WIDTH = 320;
+    private static final int PREVIEW_HEIGHT = 240;
+
+    private final RunHistory history;
+    private final DefaultListModel<RunHistory.Version> model = new DefaultListModel<>();
+    private final JList<RunHistory.Version> list = new JList<>(model);
+    private final JLabel preview = new JLabel();
+    private final JLabel statusLabel = new JLabel(" ");
+
+    public RunHistoryDialog(Frame owner, RunHistory history, Consumer<RunHistory.Snapshot> restore) {
+        super(owner, "Run History", false);
+        this.history = history;
+        setDefaultCloseOperation(DISPOSE_ON_CLOSE);
+        setLayout(new BorderLayout());
+
+        SimpleDateFormat time = new SimpleDateFormat("HH:mm:ss");
+        list.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        list.setCellRenderer(new DefaultListCellRenderer() {
+            @Override
+            public Component getListCellRendererComponent(JList<?> l, Object value, int index,
+                                                          boolean selected, boolean focused) {
+                RunHistory.Version v = (RunHistory.Version) value;
+                String text = String.format("#%d   %s   %d lines%s", v.number(), time.format(new Date(v.time())),
+                        v.lines(), v.current() ? "   (current)" : "");
+                return super.getListCellRendererComponent(l, text, index, selected, focused);
+            }
+        });
+        list.addListSelectionListener(e -> {
+            if(!e.getValueIsAdjusting()) showPreview();
+        });
+
+        JButton restoreButton = new JButton("Restore");
+        Runnable restoreSelected = () -> {
+            RunHistory.Version selected = list.getSelectedValue();
+            if(selected == null) return;
+            RunHistory.Snapshot snapshot = history.jumpTo(selected.number());
+            if(snapshot == null) {
+                JOptionPane.showMessageDialog(this, "Version #" + selected.number()
+                        + " has been dropped to stay within the memory budget.",
+                        "Run History", JOptionPane.WARNING_MESSAGE);
+                refresh();
+                return;
+            }
+            restore.accept(snapshot);
+            refresh();
+        };
+        restoreButton.addActionListener(e -> restoreSelected.run());
+        list.addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                if(e.getClickCount() == 2) restoreSelected.run();
+            }
+        });
+
+        preview.setPreferredSize(new Dimension(PREVIEW_WIDTH, PREVIEW_HEIGHT));
+        preview.setHorizontalAlignment(SwingConstants.CENTER);
+        JSplitPane splitPane = new JSplitPane(JSplitPane.HORIZONTAL_SPLIT, new JScrollPane(list), preview);
+        splitPane.setDividerLocation(240);
+        add(splitPane, BorderLayout.CENTER);
+
+        JPanel south = new JPanel(new BorderLayout());
+        statusLabel.setBorder(BorderFactory.createEmptyBorder(2, 6, 2, 6));
+        south.add(statusLabel, BorderLayout.CENTER);
+        south.add(restoreButton, BorderLayout.EAST);
+        add(south, BorderLayout.SOUTH);
+
+        refresh();
+        setSize(620, 360);
+        setLocationRelativeTo(owner);
+    }
+
+    // Reloads the list, e.g. after a Run added a version
+    public void refresh() {
+        RunHistory.Version selected = list.getSelectedValue();
+        model.clear();
+        List<RunHistory.Version> versions = history.getVersions();
+        for(int i = versions.size() - 1; i >= 0; i--) {
+            RunHistory.Version v = versions.get(i);
+            model.addElement(v);
+            if(selected != null ? v.number() == selected.number() : v.current()) {
+                list.setSelectedIndex(model.size() - 1);
+            }
+        }
+        statusLabel.setText(history.getStats().describe());
+    }
+
+    private void showPreview() {
+        RunHistory.Version selected = list.getSelectedValue();
+        RunHistory.Snapshot snapshot = selected != null ? history.get(selected.number()) : null;
+        if(snapshot == null || snapshot.frame() == null) {
+            preview.setIcon(null);
+            return;
+        }
+        BufferedImage frame = snapshot.frame();
+        double scale = Math.min(1, Math.min((double) PREVIEW_WIDTH / frame.getWidth(),
+                (double) PREVIEW_HEIGHT / frame.getHeight()));
+        int w = Math.max(1, (int) (frame.getWidth() * scale));
+        int h = Math.max(1, (int) (frame.getHeight() * scale));
+        BufferedImage scaled = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = scaled.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        g.drawImage(frame, 0, 0, w, h, null);
+        g.dispose();
+        preview.setIcon(new ImageIcon(scaled));
+    }
+}
@@ -1,19 +1,105 @@
 package org.sketchide.ui;
 
+import org.sketchide.engine.FrameMetrics;
+import org.sketchide.engine.RenderLoop;
 import org.sketchide.engine.Sketch;
+import org.sketchide.engine.SketchStateTransfer;
+import org.sketchide.engine.TimedSketch;
+import org.sketchide.engine.TransformationEngine;
+import org.sketchide.export.FrameDiff;
+import org.sketchide.export.ReplayBuffer;
 
 import javax.swing.*;
 import java.awt.Color;
+import java.awt.Font;
+import java.awt.FontMetrics;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.function.Consumer;
 
 public class SketchCanvasPanel extends JPanel {
 
-    public Sketch sketch;
+    public volatile Sketch sketch;
+    private volatile RenderLoop renderLoop;
+
+    // Retained back buffer holding the last frame the sketch drew. Repaints just blit it;
+    // draw() only runs again for a new sketch, a new size or an animation tick.
+    private final Object frameLock = new Object();
+    private BufferedImage frame;
+    private volatile boolean frameValid;
+    private volatile boolean accumulate;
+
+    // The sketch draws into its own image, outside frameLock, so a repaint never waits for sketch code;
+    // what changed is then copied into frame. Held by whichever thread draws (EDT or render loop).
+    private final Object drawLock = new Object();
+    private BufferedImage drawing;
+    // Compares every new frame with the one before, so only what changed goes to the screen
+    private FrameDiff diff;
+    // Bumped whenever the canvas has to start from empty; a frame drawn for an older one is dropped
+    private volatile int generation;
+    private int drawingGeneration;
+    private volatile boolean restartIndex;
+
+    // The first frame the current sketch drew, as shown, and who waits for it; guarded by frameLock
+    private boolean awaitingFirstFrame;
+    private BufferedImage firstFrame;
+    private Consumer<BufferedImage> firstFrameCallback;
+    // Rotate / scale / mirror of the frame, applied to its pixels; shown is the result, null while
+    // there is nothing to apply
+    private final TransformationEngine transforms = new TransformationEngine();
+    private BufferedImage shown;
+
+    // Frame index and init() delay handed to frame-aware sketches
+    private volatile long frameIndex;
+    private volatile int frameDelay;
+
+    private final FrameMetrics metrics = new FrameMetrics();
+    private volatile boolean hudVisible;
+    // Everywhere the HUD has been drawn since it was switched on
+    private volatile Rectangle hudArea;
+    private volatile ReplayBuffer recorder;
 
     public SketchCanvasPanel() {
         setBackground(Color.DARK_GRAY);
+        metrics.registerMBean();
+    }
+
+    public TransformationEngine getTransforms() {
+        return transforms;
+    }
+
+    // After the transform settings changed: the retained frame is transformed again and repainted,
+    // the sketch is not drawn
+    public void transformChanged() {
+        synchronized (frameLock) {
+            if (transforms.isIdentity()) {
+                shown = null;
+            } else if (frame != null) {
+                transformInto(frame.getWidth(), frame.getHeight(), null);
+            }
+        }
+        RenderLoop loop = renderLoop;
+        if (loop != null) loop.frameChanged(null);
+        repaint();
+    }
+
+    public FrameMetrics getMetrics() {
+        return metrics;
+    }
+
+    // Performance overlay drawn over the frame on screen only, never into exports
+    public void setHudVisible(boolean visible) {
+        hudVisible = visible;
+        hudArea = null;
+        repaint();
+    }
+
+    // Every frame drawn from now on is also handed to the recorder; null stops recording
+    public void setRecorder(ReplayBuffer recorder) {
+        this.recorder = recorder;
     }
 
     public BufferedImage getCanvasAsPicture() {
@@ -22,16 +108,263 @@ public class SketchCanvasPanel extends JPanel {
         if (width <= 0 || height <= 0) {
             return null; // nothing to capture
         }
+        if (sketch != null && renderLoop == null && !isFrameCurrent()) {
+            renderFrame();
+        }
 
+        // Copy of the retained frame, the sketch is not drawn again
         BufferedImage img = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
         Graphics2D g2d = img.createGraphics();
-        this.paint(g2d);
+        g2d.setColor(getBackground());
+        g2d.fillRect(0, 0, width, height);
+        paintFrame(g2d);
         g2d.dispose();
         return img;
     }
 
     public void setSketch(Sketch s) {
         this.sketch = s;
+        synchronized (frameLock) {
+            // A new sketch always starts from an empty canvas and frame 0, even when accumulating
+            frame = null;
+            frameValid = false;
+            frameIndex = 0;
+            restartIndex = true;
+            generation++;
+            awaitingFirstFrame = true;
+            firstFrame = null;
+            firstFrameCallback = null;
+        }
+    }
+
+    // Hands callback, on the EDT, the first frame the current sketch drew, once it has drawn it. Never
+    // draws a frame itself, so the sketch and its animation are not advanced.
+    public void whenFirstFrameDrawn(Consumer<BufferedImage> callback) {
+        synchronized (frameLock) {
+            if (firstFrame != null) {
+                BufferedImage image = firstFrame;
+                SwingUtilities.invokeLater(() -> callback.accept(image));
+            } else {
+                firstFrameCallback = callback;
+            }
+        }
+    }
+
+    // Milliseconds between animation frames, 0 for static sketches
+    public void setFrameDelay(int delayMillis) {
+        frameDelay = delayMillis;
+        metrics.setTargetIntervalMillis(delayMillis);
+    }
+
+    // Hot reload: the new sketch continues on the current frame instead of a cleared canvas
+    public void swapSketch(Sketch s) {
+        this.sketch = s;
+    }
+
+    // While a render loop drives the sketch, repaints only show its last frame
+    // so that draw() never runs on the EDT and the loop thread at the same time
+    public void setRenderLoop(RenderLoop loop) {
+        this.renderLoop = loop;
+    }
+
+    // Animation tick on the EDT: draws the next frame right away and repaints only what changed
+    public void nextFrame() {
+        if (sketch == null || getWidth() <= 0 || getHeight() <= 0) {
+            frameValid = false;
+            repaint();
+            return;
+        }
+        Rectangle area = repaintArea(renderFrame());
+        if (area != null) repaint(area);
+    }
+
+    // What has to reach the screen after a frame that differs from the last one inside changed (null
+    // if nothing does): that, plus the HUD, whose numbers change with every frame
+    public Rectangle repaintArea(Rectangle changed) {
+        Rectangle hud = hudVisible ? hudArea : null;
+        return FrameDiff.union(changed, hud);
+    }
+
+    // When set, frames are drawn on top of the previous one instead of onto a cleared canvas
+    public void setAccumulate(boolean accumulate) {
+        synchronized (frameLock) {
+            this.accumulate = accumulate;
+            if (!accumulate) {
+                frame = null;
+                frameValid = false;
+                generation++;
+            }
+        }
+        repaint();
+    }
+
+    public boolean isAccumulate() {
+        return accumulate;
+    }
+
+    // Index the next frame will be drawn with
+    public long getFrameIndex() {
+        return frameIndex;
+    }
+
+    // The sketch, its serialized fields (null if they are not Serializable) and the index of the frame it
+    // draws next, all taken between two frames
+    public record SavedState(Sketch sketch, byte[] state, long frame) { }
+
+    // Null if there is no sketch
+    public SavedState saveState() {
+        synchronized (drawLock) {
+            Sketch current = sketch;
+            return current == null ? null : new SavedState(current, SketchStateTransfer.serialize(current), frameIndex);
+        }
+    }
+
+    // Draws the sketch and makes the result the retained frame. Runs on the EDT for timer and static
+    // sketches and on the loop thread when a RenderLoop drives the animation. Returns the area that
+    // differs from the previous frame, all of it for a new canvas, or null if nothing changed or was drawn.
+    public Rectangle renderFrame() {
+        // Read before the sketch: a sketch set after this is only drawn for the next generation
+        int gen = generation;
+        Sketch current = sketch;
+        int w = getWidth();
+        int h = getHeight();
+        if (current == null || w <= 0 || h <= 0) return null;
+
+        synchronized (drawLock) {
+            boolean fresh = drawing == null || drawing.getWidth() != w || drawing.getHeight() != h
+                    || drawingGeneration != gen;
+            if (fresh) {
+                drawing = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+                diff = new FrameDiff(w, h);
+                drawingGeneration = gen;
+                if (restartIndex) {
+                    restartIndex = false;
+                    frameIndex = 0;
+                }
+            }
+            Graphics2D g = drawing.createGraphics();
+            g.setClip(0, 0, w, h);
+            int delay = frameDelay;
+            try {
+                if (fresh || !accumulate) {
+                    g.setColor(getBackground());
+                    g.fillRect(0, 0, w, h);
+                }
+                metrics.frameStarted();
+                TimedSketch.draw(current, g, frameIndex, frameIndex * delay / 1000.0);
+                metrics.frameFinished();
+            } finally {
+                g.dispose();
+            }
+            int[] drawn = ((DataBufferInt) drawing.getRaster().getDataBuffer()).getData();
+            Rectangle changed = diff.update(drawn);
+            synchronized (frameLock) {
+                if (gen != generation) {
+                    // Cleared while drawing: this frame is dropped and the next starts on an empty canvas
+                    return null;
+                }
+                changed = publish(drawn, w, h, changed);
+                frameValid = true;
+            }
+            if (delay > 0) frameIndex++;
+            return changed;
+        }
+    }
+
+    // Copies the changed area of a finished drawing into the retained frame, then transforms and records
+    // it; only pixel copies, no sketch code. Returns what changed on screen. Caller holds frameLock.
+    private Rectangle publish(int[] drawn, int w, int h, Rectangle changed) {
+        boolean fresh = frame == null || frame.getWidth() != w || frame.getHeight() != h;
+        if (fresh) {
+            frame = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+            changed = new Rectangle(0, 0, w, h);
+        }
+        int[] pixels = ((DataBufferInt) frame.getRaster().getDataBuffer()).getData();
+        if (changed != null) {
+            for (int y = changed.y, bottom = changed.y + changed.height; y < bottom; y++) {
+                int i = y * w + changed.x;
+                System.arraycopy(drawn, i, pixels, i, changed.width);
+            }
+        }
+        if (transforms.isIdentity()) {
+            shown = null;
+        } else {
+            // Only where the changed pixels land has to be transformed again
+            if (shown == null || fresh) {
+                changed = transformInto(w, h, null);
+            } else {
+                changed = transforms.mapBounds(changed, w, h);
+                if (changed != null) transformInto(w, h, changed);
+            }
+            pixels = ((DataBufferInt) shown.getRaster().getDataBuffer()).getData();
+        }
+        ReplayBuffer rec = recorder;
+        if (rec != null) {
+            rec.record(pixels, w, h);
+        }
+        if (awaitingFirstFrame) {
+            awaitingFirstFrame = false;
+            firstFrame = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+            System.arraycopy(pixels, 0, ((DataBufferInt) firstFrame.getRaster().getDataBuffer()).getData(), 0, w * h);
+            Consumer<BufferedImage> callback = firstFrameCallback;
+            firstFrameCallback = null;
+            if (callback != null) {
+                BufferedImage image = firstFrame;
+                SwingUtilities.invokeLater(() -> callback.accept(image));
+            }
+        }
+        return changed;
+    }
+
+    // Transforms the retained frame into shown, inside area (everything if null), and returns area.
+    // Caller holds frameLock.
+    private Rectangle transformInto(int w, int h, Rectangle area) {
+        if (shown == null || shown.getWidth() != w || shown.getHeight() != h) {
+            shown = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+            area = null;
+        }
+        Rectangle out = area != null ? area : new Rectangle(0, 0, w, h);
+        int[] src = ((DataBufferInt) frame.getRaster().getDataBuffer()).getData();
+        int[] dst = ((DataBufferInt) shown.getRaster().getDataBuffer()).getData();
+        transforms.apply(src, dst, w, h, getBackground().getRGB() & 0xFFFFFF, out);
+        return out;
+    }
+
+    // Blits the last finished frame
+    public void paintFrame(Graphics g) {
+        synchronized (frameLock) {
+            BufferedImage image = shown != null ? shown : frame;
+            if (image != null) {
+                g.drawImage(image, 0, 0, null);
+            }
+        }
+    }
+
+    public void paintOverlay(Graphics g) {
+        if (!hudVisible) return;
+        String[] lines = metrics.summary().split("\\R");
+        g.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 11));
+        FontMetrics fm = g.getFontMetrics();
+        int width = 0;
+        for (String line : lines) {
+            width = Math.max(width, fm.stringWidth(line));
+        }
+        int lineHeight = fm.getHeight();
+        Rectangle box = new Rectangle(4, 4, width + 12, lines.length * lineHeight + 8);
+        hudArea = FrameDiff.union(hudArea, box);
+        g.setColor(new Color(0, 0, 0, 170));
+        g.fillRect(box.x, box.y, box.width, box.height);
+        g.setColor(Color.GREEN);
+        for (int i = 0; i < lines.length; i++) {
+            g.drawString(lines[i], 10, 8 + fm.getAscent() + i * lineHeight);
+        }
+    }
+
+    private boolean isFrameCurrent() {
+        synchronized (frameLock) {
+            return frameValid && frame != null
+                    && frame.getWidth() == getWidth() && frame.getHeight() == getHeight();
+        }
     }
 
     @Override
@@ -42,7 +375,14 @@ public class SketchCanvasPanel extends JPanel {
             g.drawString("No Sketch Loaded", 20, 20);
             return;
         }
-        sketch.draw((Graphics2D) g);
+        RenderLoop loop = renderLoop;
+        if(loop != null) {
+            loop.paintFrame(g);
+        } else {
+            if(!isFrameCurrent()) renderFrame();
+            paintFrame(g);
+        }
+        paintOverlay(g);
     }
 
     public void showError(String errorMsg) {
@@ -0,0 +1,111 @@
+package org.sketchide.ui;
+
+import org.sketchide.engine.SketchThumbnails;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+// Thumbnails of every sketch in a directory, filled in as the workers finish them (cached ones almost
+// at once). Clicking a thumbnail loads that sketch's source into the editor.
+public class SketchGalleryDialog extends JDialog {
+
+    private static final int COLUMNS = 4;
+
+    private final SketchThumbnails thumbnails;
+    private final Map<Path, JButton> tiles = new HashMap<>();
+    private final JLabel statusLabel = new JLabel(" ");
+    private final int total;
+    private int done;
+    private int fromCache;
+    private final long started = System.nanoTime();
+
+    public SketchGalleryDialog(Frame owner, Path dir, List<Path> sources, Color background, Consumer<String> open) {
+        super(owner, "Sketch Gallery - " + dir, false);
+        setDefaultCloseOperation(DISPOSE_ON_CLOSE);
+        setLayout(new BorderLayout());
+        total = sources.size();
+
+        int width = SketchThumbnails.DEFAULT_WIDTH;
+        int height = SketchThumbnails.DEFAULT_HEIGHT;
+        BufferedImage placeholder = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = placeholder.createGraphics();
+        g.setColor(Color.GRAY);
+        g.fillRect(0, 0, width, height);
+        g.dispose();
+
+        JPanel grid = new JPanel(new GridLayout(0, COLUMNS, 8, 8));
+        grid.setBorder(BorderFactory.createEmptyBorder(8, 8, 8, 8));
+        for(Path source : sources) {
+            JButton tile = new JButton(source.getFileName().toString(), new ImageIcon(placeholder));
+            tile.setVerticalTextPosition(SwingConstants.BOTTOM);
+            tile.setHorizontalTextPosition(SwingConstants.CENTER);
+            tile.setToolTipText("Rendering...");
+            tile.addActionListener(e -> {
+                try {
+                    open.accept(Files.readString(source, StandardCharsets.UTF_8));
+                } catch (IOException ex) {
+                    ex.printStackTrace();
+                    JOptionPane.showMessageDialog(this, "Could not read " + source + ":\n" + ex.getMessage(),
+                            "Sketch Gallery", JOptionPane.ERROR_MESSAGE);
+                }
+            });
+            tiles.put(source, tile);
+            grid.add(tile);
+        }
+        JScrollPane scrollPane = new JScrollPane(grid);
+        scrollPane.getVerticalScrollBar().setUnitIncrement(16);
+        add(scrollPane, BorderLayout.CENTER);
+
+        statusLabel.setBorder(BorderFactory.createEmptyBorder(2, 6, 2, 6));
+        add(statusLabel, BorderLayout.SOUTH);
+        updateStatus();
+
+        int threads = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+        thumbnails = new SketchThumbnails(SketchThumbnails.defaultCacheDir(), width, height, background,
+                SketchThumbnails.DEFAULT_BUDGET_MILLIS, threads);
+        addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosed(WindowEvent e) {
+                thumbnails.close();
+            }
+        });
+        thumbnails.render(sources, thumbnail -> SwingUtilities.invokeLater(() -> show(thumbnail)));
+
+        setSize(COLUMNS * (width + 40) + 40, 640);
+        setLocationRelativeTo(owner);
+    }
+
+    private void show(SketchThumbnails.Thumbnail thumbnail) {
+        JButton tile = tiles.get(thumbnail.source());
+        if(thumbnail.image() != null) {
+            tile.setIcon(new ImageIcon(thumbnail.image()));
+            tile.setToolTipText(thumbnail.source().toString());
+        } else {
+            tile.setText(thumbnail.source().getFileName() + " (failed)");
+            tile.setToolTipText("<html><pre>" + escape(thumbnail.error()) + "</pre></html>");
+        }
+        done++;
+        if(thumbnail.fromCache()) fromCache++;
+        updateStatus();
+    }
+
+    private void updateStatus() {
+        statusLabel.setText(String.format("%d / %d sketches, %d from cache, %.1f s",
+                done, total, fromCache, (System.nanoTime() - started) / 1e9));
+    }
+
+    private static String escape(String text) {
+        return text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+    }
+}
@@ -1,30 +1,119 @@
     package org.sketchide.ui;
 
-    import javax.imageio.ImageIO;
     import javax.swing.*;
     import javax.swing.filechooser.FileNameExtensionFilter;
     import java.awt.*;
     import java.awt.event.ActionEvent;
     import java.awt.event.ActionListener;
+    import java.awt.event.InputEvent;
+    import java.awt.event.KeyEvent;
     import java.awt.geom.AffineTransform;
     import java.awt.image.BufferedImage;
     import java.io.*;
     import java.nio.file.Files;
     import java.nio.file.Path;
+    import java.util.concurrent.ExecutorService;
+    import java.util.concurrent.Executors;
+    import java.util.concurrent.CancellationException;
     import java.util.concurrent.atomic.AtomicBoolean;
     import java.util.List;
+    import java.util.Map;
 
+    import org.sketchide.audio.Audio;
+    import org.sketchide.audio.AudioPipeline;
+    import org.sketchide.audio.AudioTimeline;
+    import org.sketchide.engine.CompilerService;
     import org.sketchide.engine.Sketch;
     import org.sketchide.engine.SketchRunner;
+    import org.sketchide.engine.SketchStateTransfer;
+    import org.sketchide.engine.SketchThumbnails;
+    import org.sketchide.engine.TimedSketch;
+    import org.sketchide.engine.TransformationEngine;
+    import org.sketchide.export.ExportEngine;
+    import org.sketchide.export.ExportFormat;
+    import org.sketchide.export.Ffmpeg;
+    import org.sketchide.export.FrameEncoder;
+    import org.sketchide.export.PngEncoder;
+    import org.sketchide.export.ReplayBuffer;
+    import org.sketchide.export.ResumableExport;
+    import org.sketchide.export.TelemetryLog;
+    import org.sketchide.export.TiledRenderer;
+    import org.sketchide.export.SketchFrameSource;
+    import org.sketchide.history.RunHistory;
+    import org.sketchide.util.FileExporter;
 
     public class SketchIDEFrame extends JFrame {
 
+        private static final String DEFAULT_SKETCH = """
+                // Static Sketch Mode
+                
+                @Override
+                public void draw(Graphics2D g) {
+                    // This method is called to render the sketches
+                    // Use 'g' object (Graphics2D) to render effect and shapes.
+                    // Example:
+                    // g.setColor(Color.WHITE): This will set the color of the sketch pen to white
+                    // g.fillOval(50, 50, 100, 100) : With 100,100 as centre, paints an oval of radius 50
+                    // Existing imports: java.awt.*;
+                    // You can import additional libraries
+                
+                }
+                
+                // Animations may instead draw by frame index and time (seconds):
+                //     @Stateless
+                //     public void draw(Graphics2D g, long frame, double t) { ... }
+                // @Stateless promises the frame depends only on frame and t,
+                // which lets video export render frames on all cores
+                
+                @Override
+                public int init() {
+                    // For animation mode, use this method
+                    // initialise instance variables and frame change rate
+                    //return int delaySketch
+                    return 33;
+                }
+                """;
+
         private final CodeEditorPanel codeEditorPanel;
         private final SketchCanvasPanel canvasPanel;
         private SketchRunner runner;
         private StringBuilder modeString;
+        private JCheckBoxMenuItem renderLoopItem;
+        private final JLabel statusLabel = new JLabel(" ");
+        // Kept between saves so its buffers are reused
+        private final PngEncoder pngEncoder = new PngEncoder();
+        // Instant replay of the live canvas, while recording is switched on
+        private ReplayBuffer replayBuffer;
+        // Folder the gallery showed last
+        private File galleryDir;
+        // Source and first frame of every Run, for Undo Run / Redo Run
+        private final RunHistory runHistory = new RunHistory();
+        private JMenuItem undoRunItem;
+        private JMenuItem redoRunItem;
+        private RunHistoryDialog historyDialog;
+        private JCheckBoxMenuItem mirrorItem;
+        private JCheckBoxMenuItem accumulateItem;
+        // Project file the editor was opened from or last saved to, null for a new sketch
+        private File projectFile;
+        // Frame delay the opened project was saved with, kept until the sketch runs and reports its own
+        private int projectFrameDelay;
+        // Export settings, remembered between exports and saved with the project
+        private Color exportBackground = Color.BLACK;
+        private ExportFormat exportFormat;
+        // Audio the canvas reacts to, while one is playing or listened to
+        private AudioPipeline audioPipeline;
+
+        // Sketches are compiled and instantiated here so javac never blocks the EDT
+        private final ExecutorService compileExecutor = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "sketch-compiler");
+            t.setDaemon(true);
+            return t;
+        });
 
         public SketchIDEFrame() {
+            // Load javac in the background while the window comes up
+            CompilerService.getInstance().warmUp();
+
             setTitle("Sketch IDE");
             setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
             setSize(1000, 600);
@@ -45,34 +134,14 @@
 
             add(splitPane, BorderLayout.CENTER);
 
+            statusLabel.setBorder(BorderFactory.createEmptyBorder(2, 6, 2, 6));
+            add(statusLabel, BorderLayout.SOUTH);
+
             setJMenuBar(createMenuBar());
 
             setVisible(true);
 
-            String defaultText = """
-                    // Static Sketch Mode
-                    
-                    @Override
-                    public void draw(Graphics2D g) {
-                        // This method is called to render the sketches
-                        // Use 'g' object (Graphics2D) to render effect and shapes.
-                        // Example:
-                        // g.setColor(Color.WHITE): This will set the color of the sketch pen to white
-                        // g.fillOval(50, 50, 100, 100) : With 100,100 as centre, paints an oval of radius 50
-                        // Existing imports: java.awt.*;
-                        // You can import additional libraries
-                    
-                    }
-                    
-                    @Override
-                    public int init() {
-                        // For animation mode, use this method
-                        // initialise instance variables and frame change rate
-                        //return int delaySketch
-                        return 33;
-                    }
-                    """;
-            codeEditorPanel.setText(defaultText);
+            codeEditorPanel.setText(DEFAULT_SKETCH);
         }
 
         private JMenuBar createMenuBar() {
@@ -81,12 +150,30 @@
 
             // File Menu
             JMenu fileMenu = new JMenu("File");
-            fileMenu.add(new JMenuItem("New"));
-            fileMenu.add(new JMenuItem("Open"));
+            JMenuItem newItem = new JMenuItem("New");
+            newItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_N, InputEvent.CTRL_DOWN_MASK));
+            newItem.addActionListener(e -> newProject());
+            fileMenu.add(newItem);
+            JMenuItem openItem = new JMenuItem("Open...");
+            openItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_O, InputEvent.CTRL_DOWN_MASK));
+            openItem.addActionListener(e -> openProject());
+            fileMenu.add(openItem);
+            // Source, compiled classes, thumbnail and settings in one .skp file
+            JMenuItem saveProjectItem = new JMenuItem("Save Project");
+            saveProjectItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_S, InputEvent.CTRL_DOWN_MASK));
+            saveProjectItem.addActionListener(e -> saveProject(false));
+            fileMenu.add(saveProjectItem);
+            JMenuItem saveProjectAsItem = new JMenuItem("Save Project As...");
+            saveProjectAsItem.addActionListener(e -> saveProject(true));
+            fileMenu.add(saveProjectAsItem);
+            fileMenu.addSeparator();
+            JMenuItem galleryItem = new JMenuItem("Sketch Gallery...");
+            galleryItem.addActionListener(e -> openGallery());
+            fileMenu.add(galleryItem);
             JMenuItem saveItem = new JMenuItem("Save");
             saveItem.addActionListener(e -> {
                 if(runner != null) {
-                    if(runner.animationTimer == null) {
+                    if(!runner.isAnimated()) {
                         this.saveAsPNG();
                     }
                     else {
@@ -95,36 +182,114 @@
                 }
             });
             fileMenu.add(saveItem);
+            JMenuItem highResItem = new JMenuItem("Export High-Res Image...");
+            highResItem.addActionListener(e -> exportHighResImage());
+            fileMenu.add(highResItem);
+            // Keep the last seconds of the live canvas, to export exactly what was on screen
+            JCheckBoxMenuItem recordReplayItem = new JCheckBoxMenuItem("Record Instant Replay");
+            recordReplayItem.addActionListener(e -> {
+                if(!setReplayRecording(recordReplayItem.isSelected())) recordReplayItem.setSelected(false);
+            });
+            fileMenu.add(recordReplayItem);
+            JMenuItem saveReplayItem = new JMenuItem("Save Instant Replay...");
+            saveReplayItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_F8, 0));
+            saveReplayItem.addActionListener(e -> saveReplay());
+            fileMenu.add(saveReplayItem);
             fileMenu.addSeparator();
 
             JMenuItem runItem = new JMenuItem("Run Code");
             runItem.addActionListener(e -> {
                 String code = codeEditorPanel.getCode();
                 if(runner != null) {
-                    runner.stopAnimation();
+                    // A newer Run supersedes one that is still compiling
+                    runner.shutdown();
                 }
                 runner = new SketchRunner(code, canvasPanel);
-                runner.run(modeString.toString());
+                runner.setUseRenderLoop(renderLoopItem.isSelected());
+                runner.runAsync(modeString.toString(), compileExecutor, message -> {
+                    showStatus(message);
+                    // Reported on the EDT once the sketch is on the canvas; recorded with its first frame
+                    if(message.equals("Running")) canvasPanel.whenFirstFrameDrawn(image -> recordRun(code, image));
+                });
             });
             fileMenu.add(runItem);
 
+            JMenuItem hotReloadItem = new JMenuItem("Hot Reload");
+            hotReloadItem.addActionListener(e -> {
+                // Swap in the new code but keep the running animation and its state
+                SketchRunner previous = runner;
+                if(previous != null) {
+                    previous.cancel();
+                }
+                runner = new SketchRunner(codeEditorPanel.getCode(), canvasPanel);
+                runner.setUseRenderLoop(renderLoopItem.isSelected());
+                runner.hotSwapFrom(previous);
+                runner.runAsync(modeString.toString(), compileExecutor, this::showStatus);
+            });
+            fileMenu.add(hotReloadItem);
+
+            JMenuItem cancelRunItem = new JMenuItem("Cancel Run");
+            cancelRunItem.addActionListener(e -> {
+                if(runner != null) {
+                    runner.cancel();
+                }
+            });
+            fileMenu.add(cancelRunItem);
+
             JMenuItem stopItem = new JMenuItem("Stop Code");
             stopItem.addActionListener(e -> {
-                runner.stopAnimation();
+                if(runner != null) runner.stopAnimation();
             });
             fileMenu.add(stopItem);
 
             JMenuItem restartItem = new JMenuItem("Restart Code");
             restartItem.addActionListener(e -> {
-                runner.restartAnimation();
+                if(runner != null) runner.restartAnimation();
             });
             fileMenu.add(restartItem);
 
+            // Edit Menu
+            // Steps through earlier Runs; typing is undone by the editor itself (Ctrl+Z)
+            JMenu editMenu = new JMenu("Edit");
+            undoRunItem = new JMenuItem("Undo Run");
+            undoRunItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_Z,
+                    InputEvent.CTRL_DOWN_MASK | InputEvent.ALT_DOWN_MASK));
+            undoRunItem.addActionListener(e -> showVersion(runHistory.undo()));
+            editMenu.add(undoRunItem);
+            redoRunItem = new JMenuItem("Redo Run");
+            redoRunItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_Y,
+                    InputEvent.CTRL_DOWN_MASK | InputEvent.ALT_DOWN_MASK));
+            redoRunItem.addActionListener(e -> showVersion(runHistory.redo()));
+            editMenu.add(redoRunItem);
+            editMenu.addSeparator();
+            JMenuItem historyItem = new JMenuItem("Run History...");
+            historyItem.addActionListener(e -> openRunHistory());
+            editMenu.add(historyItem);
+            updateHistoryItems();
+
             // Transform Menu
+            // Applied to the rendered frame's pixels (and to exports), the sketch is not run again
             JMenu transformMenu = new JMenu("Transform");
-            transformMenu.add(new JMenuItem("Rotate"));
-            transformMenu.add(new JMenuItem("Scale"));
-            transformMenu.add(new JMenuItem("Mirror"));
+            JMenuItem rotateItem = new JMenuItem("Rotate");
+            rotateItem.addActionListener(e -> rotateCanvas());
+            transformMenu.add(rotateItem);
+            JMenuItem scaleItem = new JMenuItem("Scale");
+            scaleItem.addActionListener(e -> scaleCanvas());
+            transformMenu.add(scaleItem);
+            mirrorItem = new JCheckBoxMenuItem("Mirror");
+            mirrorItem.addActionListener(e -> {
+                canvasPanel.getTransforms().setMirrored(mirrorItem.isSelected());
+                canvasPanel.transformChanged();
+            });
+            transformMenu.add(mirrorItem);
+            transformMenu.addSeparator();
+            JMenuItem resetTransformItem = new JMenuItem("Reset Transform");
+            resetTransformItem.addActionListener(e -> {
+                canvasPanel.getTransforms().reset();
+                mirrorItem.setSelected(false);
+                canvasPanel.transformChanged();
+            });
+            transformMenu.add(resetTransformItem);
 
             // Mode Menu
             JMenu modeMenu = new JMenu("Mode");
@@ -138,20 +303,344 @@
                 changeMode("Animation");
             });
             modeMenu.add(animations);
+            modeMenu.addSeparator();
+            // Animate from a dedicated thread with fixed-timestep pacing instead of a Swing timer
+            renderLoopItem = new JCheckBoxMenuItem("Dedicated Render Loop");
+            modeMenu.add(renderLoopItem);
+            // Draw each frame over the previous one instead of clearing the canvas
+            accumulateItem = new JCheckBoxMenuItem("Accumulate Frames");
+            accumulateItem.addActionListener(e -> canvasPanel.setAccumulate(accumulateItem.isSelected()));
+            modeMenu.add(accumulateItem);
+
+            // Metrics Menu
+            JMenu metricsMenu = new JMenu("Metrics");
+            JCheckBoxMenuItem hudItem = new JCheckBoxMenuItem("Show Performance HUD");
+            hudItem.addActionListener(e -> canvasPanel.setHudVisible(hudItem.isSelected()));
+            metricsMenu.add(hudItem);
+            JMenuItem dumpMetricsItem = new JMenuItem("Dump Frame Metrics (CSV)");
+            dumpMetricsItem.addActionListener(e -> saveMetricsCsv());
+            metricsMenu.add(dumpMetricsItem);
+            JMenuItem resetMetricsItem = new JMenuItem("Reset Frame Metrics");
+            resetMetricsItem.addActionListener(e -> canvasPanel.getMetrics().reset());
+            metricsMenu.add(resetMetricsItem);
 
             // Audio Menu
+            // Sketches read the analysis with Audio.read(frame); video exports use the file too
             JMenu audioMenu = new JMenu("Audio");
-            audioMenu.add(new JMenuItem("Convert to Audio"));
+            JMenuItem playAudioItem = new JMenuItem("Play Audio File...");
+            playAudioItem.addActionListener(e -> playAudio());
+            audioMenu.add(playAudioItem);
+            JMenuItem lineInItem = new JMenuItem("Listen to Line In");
+            lineInItem.addActionListener(e -> listenToLineIn());
+            audioMenu.add(lineInItem);
+            JMenuItem stopAudioItem = new JMenuItem("Stop Audio");
+            stopAudioItem.addActionListener(e -> stopAudio());
+            audioMenu.add(stopAudioItem);
 
             // Add menus to menu bar
             menuBar.add(fileMenu);
+            menuBar.add(editMenu);
             menuBar.add(transformMenu);
             menuBar.add(audioMenu);
             menuBar.add(modeMenu);
+            menuBar.add(metricsMenu);
 
             return menuBar;
         }
 
+        private void showStatus(String message) {
+            SwingUtilities.invokeLater(() -> {
+                if(message.startsWith("Running")) {
+                    statusLabel.setText(message + "  (" + CompilerService.getInstance().getStats() + ")");
+                } else {
+                    statusLabel.setText(message);
+                }
+            });
+        }
+
+        private void recordRun(String code, BufferedImage image) {
+            int width = image != null ? image.getWidth() : 0;
+            int height = image != null ? image.getHeight() : 0;
+            int[] rgb = image != null ? image.getRGB(0, 0, width, height, null, 0, width) : new int[0];
+            runHistory.record(code, rgb, width, height);
+            updateHistoryItems();
+            if(historyDialog != null && historyDialog.isDisplayable()) historyDialog.refresh();
+        }
+
+        // Puts an earlier Run back: its code in the editor and its frame, as a still, on the canvas.
+        // Running it again is up to the user.
+        private void showVersion(RunHistory.Snapshot snapshot) {
+            if(snapshot == null) return;
+            if(runner != null) {
+                runner.shutdown();
+                // Exports must not pick up the sketch that is no longer shown
+                runner = null;
+            }
+            codeEditorPanel.setText(snapshot.source());
+            BufferedImage still = snapshot.frame();
+            showStill(still, still != null ? still.getWidth() : 0, still != null ? still.getHeight() : 0);
+            statusLabel.setText(String.format("Run #%d from %tT (Run Code to run it again)",
+                    snapshot.number(), snapshot.time()));
+            updateHistoryItems();
+        }
+
+        // Puts an image on the canvas in place of a running sketch, drawn at width x height
+        private void showStill(BufferedImage still, int width, int height) {
+            canvasPanel.setSketch(new Sketch() {
+                @Override
+                public void draw(Graphics2D g) {
+                    if(still != null) g.drawImage(still, 0, 0, width, height, null);
+                }
+
+                @Override
+                public int init() {
+                    return 0;
+                }
+            });
+            canvasPanel.setFrameDelay(0);
+            canvasPanel.repaint();
+        }
+
+        private void newProject() {
+            if(runner != null) {
+                runner.shutdown();
+                runner = null;
+            }
+            projectFrameDelay = 0;
+            codeEditorPanel.setText(DEFAULT_SKETCH);
+            modeString = new StringBuilder("Static Sketch");
+            canvasPanel.getTransforms().reset();
+            mirrorItem.setSelected(false);
+            canvasPanel.transformChanged();
+            accumulateItem.setSelected(false);
+            canvasPanel.setAccumulate(false);
+            exportBackground = Color.BLACK;
+            exportFormat = null;
+            showStill(null, 0, 0);
+            setProjectFile(null);
+            statusLabel.setText("New sketch");
+        }
+
+        private void setProjectFile(File file) {
+            projectFile = file;
+            setTitle(file != null ? "Sketch IDE - " + file.getName() : "Sketch IDE");
+        }
+
+        public void openProject() {
+            JFileChooser chooser = new JFileChooser(projectFile);
+            chooser.setDialogTitle("Open Sketch Project");
+            chooser.setFileFilter(new FileNameExtensionFilter(
+                    "Sketch Project (*." + FileExporter.EXTENSION + ")", FileExporter.EXTENSION));
+            // Thumbnail and details of the selected project, read without decoding the rest of it
+            ProjectPreview preview = new ProjectPreview();
+            chooser.setAccessory(preview);
+            chooser.addPropertyChangeListener(JFileChooser.SELECTED_FILE_CHANGED_PROPERTY,
+                    e -> preview.show((File) e.getNewValue()));
+            if (chooser.showOpenDialog(this) != JFileChooser.APPROVE_OPTION) {
+                return;
+            }
+            File file = chooser.getSelectedFile();
+
+            FileExporter.Project project;
+            try {
+                project = FileExporter.read(file.toPath());
+            } catch (IOException e) {
+                e.printStackTrace();
+                JOptionPane.showMessageDialog(this,
+                        "Could not open " + file.getName() + ":\n" + e.getMessage(),
+                        "Open Sketch Project",
+                        JOptionPane.ERROR_MESSAGE);
+                return;
+            }
+            if(runner != null) {
+                runner.shutdown();
+                // Save and exports must not pick up the sketch that was open before
+                runner = null;
+            }
+            String source = project.source();
+            codeEditorPanel.setText(source);
+
+            FileExporter.Settings settings = project.settings();
+            projectFrameDelay = Math.max(0, settings.frameDelay());
+            if(settings.mode().equals("Static Sketch") || settings.mode().equals("Animation")) {
+                modeString = new StringBuilder(settings.mode());
+            }
+            TransformationEngine transforms = canvasPanel.getTransforms();
+            transforms.reset();
+            try {
+                transforms.setRotation(settings.rotation());
+                transforms.setScale(settings.scale());
+            } catch (IllegalArgumentException e) {
+                // A damaged setting falls back to no transform
+                transforms.reset();
+            }
+            transforms.setMirrored(settings.mirrored());
+            mirrorItem.setSelected(settings.mirrored());
+            canvasPanel.transformChanged();
+            accumulateItem.setSelected(settings.accumulate());
+            canvasPanel.setAccumulate(settings.accumulate());
+            exportBackground = new Color(settings.background());
+            exportFormat = null;
+            for(ExportFormat format : ExportFormat.values()) {
+                if(format.name().equals(settings.format())) exportFormat = format;
+            }
+            showStill(project.thumbnail(), settings.width(), settings.height());
+            setProjectFile(file);
+
+            // Bytecode this installation compiled with this JDK from this very source goes straight into the compiler cache
+            FileExporter.Bytecode bytecode = project.bytecode();
+            boolean restored = bytecode != null
+                    && SketchRunner.restoreCompiled(source, bytecode.key(), bytecode.classes());
+            statusLabel.setText("Opened " + file.getName() + (restored
+                    ? " (compiled classes restored, Run skips javac)"
+                    : " (Run Code to compile and run it)"));
+        }
+
+        // Saves to the project file, asking for one first if there is none yet or as is set
+        public void saveProject(boolean as) {
+            File file = projectFile;
+            if(as || file == null) {
+                JFileChooser fileChooser = new JFileChooser(projectFile);
+                fileChooser.setDialogTitle("Save Sketch Project");
+                fileChooser.setFileFilter(new FileNameExtensionFilter(
+                        "Sketch Project (*." + FileExporter.EXTENSION + ")", FileExporter.EXTENSION));
+                fileChooser.setSelectedFile(projectFile != null ? projectFile
+                        : new File("sketch_" + System.currentTimeMillis() + "." + FileExporter.EXTENSION));
+                if (fileChooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) {
+                    return;
+                }
+                file = fileChooser.getSelectedFile();
+                if (!file.getName().toLowerCase().endsWith("." + FileExporter.EXTENSION)) {
+                    file = new File(file.getAbsolutePath() + "." + FileExporter.EXTENSION);
+                }
+                if (file.exists() && !file.equals(projectFile)) {
+                    int resp = JOptionPane.showConfirmDialog(this,
+                            "File already exists. Overwrite?",
+                            "Confirm Overwrite",
+                            JOptionPane.YES_NO_OPTION,
+                            JOptionPane.WARNING_MESSAGE);
+                    if (resp != JOptionPane.YES_OPTION) {
+                        return;
+                    }
+                }
+            }
+
+            String source = codeEditorPanel.getCode();
+            TransformationEngine transforms = canvasPanel.getTransforms();
+            FileExporter.Settings settings = new FileExporter.Settings(modeString.toString(),
+                    canvasPanel.getWidth(), canvasPanel.getHeight(),
+                    runner == null ? projectFrameDelay : runner.isAnimated() ? runner.getFrameDelay() : 0,
+                    transforms.getRotation(), transforms.getScale(), transforms.isMirrored(),
+                    canvasPanel.isAccumulate(), exportBackground.getRGB(),
+                    exportFormat != null ? exportFormat.name() : "");
+            BufferedImage frame = canvasPanel.getCanvasAsPicture();
+            // Whatever javac made of this source last; a sketch not run since it was edited is saved without
+            Map<String, byte[]> classes = SketchRunner.compiledClasses(source);
+            FileExporter.Project project = new FileExporter.Project(source, settings,
+                    frame != null ? FileExporter.thumbnail(frame) : null,
+                    classes != null ? new FileExporter.Bytecode(SketchRunner.compiledKey(source, classes), classes) : null);
+            try {
+                FileExporter.write(file.toPath(), project);
+                setProjectFile(file);
+                statusLabel.setText("Saved " + file.getName() + (classes != null ? " with compiled classes" : ""));
+            } catch (IOException ex) {
+                ex.printStackTrace();
+                JOptionPane.showMessageDialog(this,
+                        "Failed to save project:\n" + ex.getMessage(),
+                        "Save Sketch Project",
+                        JOptionPane.ERROR_MESSAGE);
+            }
+        }
+
+        public void playAudio() {
+            JFileChooser chooser = new JFileChooser();
+            chooser.setDialogTitle("Play Audio File");
+            chooser.setFileFilter(new FileNameExtensionFilter("WAV Audio (*.wav)", "wav"));
+            if (chooser.showOpenDialog(this) != JFileChooser.APPROVE_OPTION) {
+                return;
+            }
+            File file = chooser.getSelectedFile();
+            stopAudio();
+            try {
+                audioPipeline = AudioPipeline.play(file.toPath());
+                statusLabel.setText("Playing " + file.getName() + " (sketches read it with Audio.read)");
+            } catch (Exception e) {
+                e.printStackTrace();
+                JOptionPane.showMessageDialog(this,
+                        "Could not play " + file.getName() + ":\n" + e.getMessage(),
+                        "Play Audio File",
+                        JOptionPane.ERROR_MESSAGE);
+            }
+        }
+
+        public void listenToLineIn() {
+            stopAudio();
+            try {
+                audioPipeline = AudioPipeline.listen();
+                statusLabel.setText("Listening to line in (sketches read it with Audio.read)");
+            } catch (Exception e) {
+                e.printStackTrace();
+                JOptionPane.showMessageDialog(this,
+                        "No audio input available:\n" + e.getMessage(),
+                        "Listen to Line In",
+                        JOptionPane.ERROR_MESSAGE);
+            }
+        }
+
+        public void stopAudio() {
+            if(audioPipeline != null) {
+                audioPipeline.close();
+                audioPipeline = null;
+            }
+        }
+
+        private void updateHistoryItems() {
+            undoRunItem.setEnabled(runHistory.canUndo());
+            redoRunItem.setEnabled(runHistory.canRedo());
+        }
+
+        private void openRunHistory() {
+            if(historyDialog == null || !historyDialog.isDisplayable()) {
+                historyDialog = new RunHistoryDialog(this, runHistory, this::showVersion);
+            }
+            historyDialog.refresh();
+            historyDialog.setVisible(true);
+        }
+
+        private void rotateCanvas() {
+            String angle = JOptionPane.showInputDialog(this,
+                    "Rotate clockwise by how many degrees?",
+                    "90");
+            if(angle == null) return;
+            try {
+                TransformationEngine transforms = canvasPanel.getTransforms();
+                transforms.setRotation(transforms.getRotation() + Double.parseDouble(angle.trim()));
+                canvasPanel.transformChanged();
+            } catch (NumberFormatException e) {
+                JOptionPane.showMessageDialog(this,
+                        "Please enter a number of degrees",
+                        "Rotate",
+                        JOptionPane.ERROR_MESSAGE);
+            }
+        }
+
+        private void scaleCanvas() {
+            TransformationEngine transforms = canvasPanel.getTransforms();
+            String factor = JOptionPane.showInputDialog(this,
+                    "Scale factor (1 = original size)",
+                    String.valueOf(transforms.getScale()));
+            if(factor == null) return;
+            try {
+                transforms.setScale(Double.parseDouble(factor.trim()));
+                canvasPanel.transformChanged();
+            } catch (IllegalArgumentException e) {
+                JOptionPane.showMessageDialog(this,
+                        "Please enter a scale factor above 0",
+                        "Scale",
+                        JOptionPane.ERROR_MESSAGE);
+            }
+        }
+
         private void changeMode(String toMode) {
             if(!modeString.toString().equals(toMode)) {
                 String existingCode = codeEditorPanel.getCode();
@@ -201,19 +690,11 @@
             }
 
             try {
-                boolean ok = ImageIO.write(image, "png", chosenFile);
-                if (!ok) {
-                    // In rare cases, writer not found
-                    JOptionPane.showMessageDialog(this,
-                            "No suitable PNG writer found.",
-                            "Save Image",
-                            JOptionPane.ERROR_MESSAGE);
-                } else {
-                    JOptionPane.showMessageDialog(this,
-                            "Image saved: " + chosenFile.getAbsolutePath(),
-                            "Save Image",
-                            JOptionPane.INFORMATION_MESSAGE);
-                }
+                pngEncoder.write(image, chosenFile);
+                JOptionPane.showMessageDialog(this,
+                        "Image saved: " + chosenFile.getAbsolutePath(),
+                        "Save Image",
+                        JOptionPane.INFORMATION_MESSAGE);
             } catch (IOException ex) {
                 ex.printStackTrace();
                 JOptionPane.showMessageDialog(this,
@@ -224,14 +705,424 @@
 
         }
 
+        private void saveMetricsCsv() {
+            JFileChooser fileChooser = new JFileChooser();
+            fileChooser.setDialogTitle("Save Frame Metrics");
+            fileChooser.setFileFilter(new FileNameExtensionFilter("CSV File (*.csv)", "csv"));
+            fileChooser.setSelectedFile(new File("frame_metrics_" + System.currentTimeMillis() + ".csv"));
+            if (fileChooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) {
+                return; // user canceled
+            }
+            File chosenFile = fileChooser.getSelectedFile();
+            if (!chosenFile.getName().toLowerCase().endsWith(".csv")) {
+                chosenFile = new File(chosenFile.getAbsolutePath() + ".csv");
+            }
+            try (Writer out = Files.newBufferedWriter(chosenFile.toPath())) {
+                canvasPanel.getMetrics().writeCsv(out);
+            } catch (IOException ex) {
+                ex.printStackTrace();
+                JOptionPane.showMessageDialog(this,
+                        "Failed to save frame metrics:\n" + ex.getMessage(),
+                        "Frame Metrics",
+                        JOptionPane.ERROR_MESSAGE);
+            }
+        }
+
+        private boolean setReplayRecording(boolean on) {
+            if(!on) {
+                canvasPanel.setRecorder(null);
+                if(replayBuffer != null) replayBuffer.stop();
+                replayBuffer = null;
+                return true;
+            }
+            try {
+                replayBuffer = new ReplayBuffer();
+            } catch (OutOfMemoryError e) {
+                JOptionPane.showMessageDialog(this,
+                        "Not enough memory for the replay buffer (" + (ReplayBuffer.DEFAULT_CAPACITY >> 20) + " MB off-heap).",
+                        "Instant Replay",
+                        JOptionPane.ERROR_MESSAGE);
+                return false;
+            }
+            canvasPanel.setRecorder(replayBuffer);
+            showStatus("Recording instant replay (last " + ReplayBuffer.DEFAULT_SECONDS + " s), F8 to save");
+            return true;
+        }
+
+        // Exports what the replay buffer holds right now, frames exactly as they were shown
+        public void saveReplay() {
+            if(replayBuffer == null) {
+                JOptionPane.showMessageDialog(this,
+                        "Instant replay is not recording. Turn on File > Record Instant Replay first.",
+                        "Instant Replay",
+                        JOptionPane.ERROR_MESSAGE);
+                return;
+            }
+            ReplayBuffer.Replay replay = replayBuffer.snapshot();
+            int totalFrames = replay.getFrameCount();
+            if(totalFrames == 0) {
+                JOptionPane.showMessageDialog(this,
+                        "Nothing recorded yet.",
+                        "Instant Replay",
+                        JOptionPane.INFORMATION_MESSAGE);
+                return;
+            }
+
+            boolean ffmpegAvailable = Ffmpeg.isAvailable();
+            ExportFormat format = (ExportFormat) JOptionPane.showInputDialog(this,
+                    String.format("%d frames (%.1f s, %.1f MB compressed)%nExport format",
+                            totalFrames, totalFrames / replay.getFps(), replay.getCompressedBytes() / (1024.0 * 1024)),
+                    "Save Instant Replay",
+                    JOptionPane.QUESTION_MESSAGE,
+                    null,
+                    ExportFormat.values(),
+                    ffmpegAvailable ? ExportFormat.MP4_STREAM : ExportFormat.GIF);
+            if(format == null) return;
+            if(format.needsFfmpeg() && !ffmpegAvailable) {
+                JOptionPane.showMessageDialog(this,
+                        "This format needs ffmpeg on the PATH. Please choose GIF or AVI.",
+                        "Save Instant Replay",
+                        JOptionPane.ERROR_MESSAGE);
+                return;
+            }
+
+            JFileChooser fileChooser = new JFileChooser();
+            String extension = format.getExtension();
+            fileChooser.setDialogTitle("Save Instant Replay as " + extension.toUpperCase());
+            fileChooser.setFileFilter(new FileNameExtensionFilter(
+                    format.getDescription() + " (*." + extension + ")", extension));
+            fileChooser.setSelectedFile(new File("replay_" + System.currentTimeMillis() + "." + extension));
+            if (fileChooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) {
+                return;
+            }
+            File chosenFile = fileChooser.getSelectedFile();
+            if (!chosenFile.getAbsolutePath().toLowerCase().endsWith("." + extension)) {
+                chosenFile = new File(chosenFile.getAbsolutePath() + "." + extension);
+            }
+
+            int w = replay.getWidth();
+            int h = replay.getHeight();
+            if(format.needsEvenSize()) {
+                w += w % 2;
+                h += h % 2;
+            }
+            ExportEngine engine = new ExportEngine(w, h, canvasPanel.getBackground(), replay.getFps());
+            FrameEncoder encoder = format.createEncoder(chosenFile);
+
+            JDialog progressDialog = new JDialog(this, "Saving Instant Replay...", false);
+            JProgressBar progressBar = new JProgressBar(0, totalFrames);
+            progressBar.setStringPainted(true);
+            JButton cancelButton = new JButton("Cancel");
+            JPanel panel = new JPanel();
+            panel.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
+            panel.setLayout(new BoxLayout(panel, BoxLayout.Y_AXIS));
+            panel.add(progressBar);
+            panel.add(Box.createVerticalStrut(10));
+            panel.add(cancelButton);
+            progressDialog.getContentPane().add(panel);
+            progressDialog.pack();
+            progressDialog.setLocationRelativeTo(this);
+
+            AtomicBoolean cancelled = new AtomicBoolean(false);
+            cancelButton.addActionListener(e -> cancelled.set(true));
+            File finalChosenFile = chosenFile;
+
+            SwingWorker<Void, Integer> worker = new SwingWorker<Void, Integer>() {
+                @Override
+                protected Void doInBackground() throws Exception {
+                    engine.export(replay, totalFrames, encoder, done -> publish(done), cancelled::get);
+                    return null;
+                }
+
+                @Override
+                protected void process(List<Integer> chunks) {
+                    int framesDone = chunks.getLast();
+                    progressBar.setValue(framesDone);
+                    progressBar.setString(String.format("Encoded %d / %d frames", framesDone, totalFrames));
+                }
+
+                @Override
+                protected void done() {
+                    progressDialog.dispose();
+                    if (cancelled.get()) {
+                        JOptionPane.showMessageDialog(SketchIDEFrame.this,
+                                "Saving the replay was cancelled.",
+                                "Save Instant Replay",
+                                JOptionPane.INFORMATION_MESSAGE);
+                        return;
+                    }
+                    try {
+                        get();
+                        JOptionPane.showMessageDialog(SketchIDEFrame.this,
+                                "Replay saved: " + finalChosenFile.getAbsolutePath(),
+                                "Save Instant Replay",
+                                JOptionPane.INFORMATION_MESSAGE);
+                    } catch (Exception ex) {
+                        ex.printStackTrace();
+                        JOptionPane.showMessageDialog(SketchIDEFrame.this,
+                                "Error while saving the replay:\n" + ex.getCause().getMessage(),
+                                "Save Instant Replay",
+                                JOptionPane.ERROR_MESSAGE);
+                    }
+                }
+            };
+
+            worker.execute();
+            progressDialog.setVisible(true);
+        }
+
+        // Thumbnails of every sketch in a folder; clicking one loads it into the editor
+        public void openGallery() {
+            JFileChooser chooser = new JFileChooser(galleryDir);
+            chooser.setDialogTitle("Choose a Folder of Sketches");
+            chooser.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
+            if (chooser.showOpenDialog(this) != JFileChooser.APPROVE_OPTION) {
+                return;
+            }
+            galleryDir = chooser.getSelectedFile();
+            Path dir = galleryDir.toPath();
+            List<Path> sources;
+            try {
+                sources = SketchThumbnails.listSketches(dir);
+            } catch (IOException e) {
+                e.printStackTrace();
+                JOptionPane.showMessageDialog(this,
+                        "Could not list " + dir + ":\n" + e.getMessage(),
+                        "Sketch Gallery",
+                        JOptionPane.ERROR_MESSAGE);
+                return;
+            }
+            if(sources.isEmpty()) {
+                JOptionPane.showMessageDialog(this,
+                        "No sketches (*.java or *.sketch files) in " + dir,
+                        "Sketch Gallery",
+                        JOptionPane.INFORMATION_MESSAGE);
+                return;
+            }
+            new SketchGalleryDialog(this, dir, sources, canvasPanel.getBackground(), codeEditorPanel::setText)
+                    .setVisible(true);
+        }
+
+        // Renders the current frame at any size, tile by tile, straight into a PNG file. Memory stays
+        // bounded by the tile size, so posters far larger than the heap could hold work too.
+        public void exportHighResImage() {
+            Sketch live = canvasPanel.sketch;
+            // A still shown after Open or Undo Run is not a running sketch
+            if(runner == null || live == null || live.getClass() != runner.cls) {
+                JOptionPane.showMessageDialog(this,
+                        "Nothing to export. Please run a sketch first.",
+                        "Export High-Res Image",
+                        JOptionPane.ERROR_MESSAGE);
+                return;
+            }
+            int sourceW = canvasPanel.getWidth();
+            int sourceH = canvasPanel.getHeight();
+
+            String res = JOptionPane.showInputDialog(this,
+                    "Enter the resolution as WIDTHxHEIGHT, optionally with a supersampling factor\n"
+                            + "(e.g. 16000x12000 or 8000x6000@2)",
+                    (sourceW * 4) + "x" + (sourceH * 4));
+            if(res == null) return;
+            int[] resolution = parseResolution(res, "Export High-Res Image");
+            if(resolution == null) return;
+            int w = resolution[0];
+            int h = resolution[1];
+            int supersample = resolution[2];
+
+            JFileChooser fileChooser = new JFileChooser();
+            fileChooser.setDialogTitle("Save High-Res Image");
+            fileChooser.setFileFilter(new FileNameExtensionFilter("PNG Image (*.png)", "png"));
+            fileChooser.setSelectedFile(new File("sketch_" + w + "x" + h + "_" + System.currentTimeMillis() + ".png"));
+            if (fileChooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) {
+                return;
+            }
+            File chosenFile = fileChooser.getSelectedFile();
+            if (!chosenFile.getAbsolutePath().toLowerCase().endsWith(".png")) {
+                chosenFile = new File(chosenFile.getAbsolutePath() + ".png");
+            }
+            if (chosenFile.exists()) {
+                int resp = JOptionPane.showConfirmDialog(this,
+                        "File already exists. Overwrite?",
+                        "Confirm Overwrite",
+                        JOptionPane.YES_NO_OPTION,
+                        JOptionPane.WARNING_MESSAGE);
+                if (resp != JOptionPane.YES_OPTION) {
+                    return;
+                }
+            }
+
+            // Render a new instance given a copy of the sketch's current state, so the running animation
+            // is not disturbed and the two share no arrays or collections
+            SketchCanvasPanel.SavedState saved = canvasPanel.saveState();
+            if(saved == null || saved.sketch() != live) {
+                JOptionPane.showMessageDialog(this,
+                        "The sketch changed while exporting. Please try again.",
+                        "Export High-Res Image",
+                        JOptionPane.ERROR_MESSAGE);
+                return;
+            }
+            Sketch copy;
+            try {
+                copy = (Sketch) runner.cls.getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException e) {
+                e.printStackTrace();
+                JOptionPane.showMessageDialog(this,
+                        "Could not copy the sketch:\n" + e.getMessage(),
+                        "Export High-Res Image",
+                        JOptionPane.ERROR_MESSAGE);
+                return;
+            }
+            if(!TimedSketch.isStateless(runner.cls)
+                    && (saved.state() == null || !SketchStateTransfer.restore(saved.state(), copy))) {
+                JOptionPane.showMessageDialog(this,
+                        "Could not copy the sketch's state. Its fields must be Serializable,\n"
+                                + "or its draw(Graphics2D, long, double) must be @Stateless.",
+                        "Export High-Res Image",
+                        JOptionPane.ERROR_MESSAGE);
+                return;
+            }
+            long frame = saved.frame();
+            double t = frame * runner.getFrameDelay() / 1000.0;
+            Color background = canvasPanel.getBackground();
+            AffineTransform transform = canvasPanel.getTransforms().getTransform(w, h);
+
+            JDialog progressDialog = new JDialog(this, "Exporting Image...", false);
+            JProgressBar progressBar = new JProgressBar(0, h);
+            progressBar.setStringPainted(true);
+            JButton cancelButton = new JButton("Cancel");
+            JPanel panel = new JPanel();
+            panel.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
+            panel.setLayout(new BoxLayout(panel, BoxLayout.Y_AXIS));
+            panel.add(progressBar);
+            panel.add(Box.createVerticalStrut(10));
+            panel.add(cancelButton);
+            progressDialog.getContentPane().add(panel);
+            progressDialog.pack();
+            progressDialog.setLocationRelativeTo(this);
+
+            AtomicBoolean cancelled = new AtomicBoolean(false);
+            cancelButton.addActionListener(e -> cancelled.set(true));
+            File finalChosenFile = chosenFile;
+
+            SwingWorker<Void, Integer> worker = new SwingWorker<Void, Integer>() {
+                @Override
+                protected Void doInBackground() throws Exception {
+                    TiledRenderer tiles = new TiledRenderer(sourceW, sourceH, w, h, supersample, background);
+                    tiles.setOutputTransform(transform);
+                    // A private encoder: the shared one belongs to the EDT
+                    PngEncoder png = new PngEncoder();
+                    boolean finished = false;
+                    try (OutputStream out = new BufferedOutputStream(new FileOutputStream(finalChosenFile), 1 << 16)) {
+                        png.begin(out, w, h, false);
+                        tiles.render(copy, frame, t, (rgb, firstRow, rowCount) -> {
+                            if(cancelled.get()) throw new CancellationException();
+                            png.writeRows(rgb, rowCount);
+                            publish(firstRow + rowCount);
+                        });
+                        finished = true;
+                    } finally {
+                        tiles.dispose();
+                        if(!finished) {
+                            finalChosenFile.delete();
+                        }
+                    }
+                    return null;
+                }
+
+                @Override
+                protected void process(List<Integer> chunks) {
+                    int rowsDone = chunks.getLast();
+                    progressBar.setValue(rowsDone);
+                    progressBar.setString(String.format("Rendered %d / %d rows", rowsDone, h));
+                }
+
+                @Override
+                protected void done() {
+                    progressDialog.dispose();
+                    if (cancelled.get()) {
+                        JOptionPane.showMessageDialog(SketchIDEFrame.this,
+                                "Image export was cancelled.",
+                                "Export High-Res Image",
+                                JOptionPane.INFORMATION_MESSAGE);
+                        return;
+                    }
+                    try {
+                        get();
+                        JOptionPane.showMessageDialog(SketchIDEFrame.this,
+                                "Image saved: " + finalChosenFile.getAbsolutePath(),
+                                "Export High-Res Image",
+                                JOptionPane.INFORMATION_MESSAGE);
+                    } catch (Exception ex) {
+                        ex.printStackTrace();
+                        JOptionPane.showMessageDialog(SketchIDEFrame.this,
+                                "Error during image export:\n" + ex.getCause().getMessage(),
+                                "Export High-Res Image",
+                                JOptionPane.ERROR_MESSAGE);
+                    }
+                }
+            };
+
+            worker.execute();
+            progressDialog.setVisible(true);
+        }
+
+        // "WIDTHxHEIGHT" or "WIDTHxHEIGHT@FACTOR" -> {width, height, supersample}; null (after telling the user) if invalid
+        private int[] parseResolution(String text, String title) {
+            try {
+                String[] parts = text.trim().toLowerCase().split("@");
+                String[] size = parts[0].split("x");
+                int width = Integer.parseInt(size[0].trim());
+                int height = Integer.parseInt(size[1].trim());
+                int supersample = parts.length > 1 ? Integer.parseInt(parts[1].trim()) : 1;
+                if(size.length == 2 && parts.length <= 2 && width > 0 && height > 0
+                        && supersample >= 1 && supersample <= 8) {
+                    return new int[]{width, height, supersample};
+                }
+            } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                // reported below
+            }
+            JOptionPane.showMessageDialog(this,
+                    "Please enter a resolution like 3840x2160, or 3840x2160@2 to supersample (factor 1-8)",
+                    title,
+                    JOptionPane.ERROR_MESSAGE);
+            return null;
+        }
+
         public void saveAsVideo() {
-            if(runner == null || runner.animationTimer == null) {
+            if(runner == null || !runner.isAnimated()) {
                 JOptionPane.showMessageDialog(this,
                         "No animation to export. Please run an animation first.",
                         "Export Video Error",
                         JOptionPane.ERROR_MESSAGE);
                 return;
             }
+            // The export keeps the sketch it started with, whatever Run, Undo Run, New or Open do meanwhile
+            Class<?> sketchClass = runner.cls;
+            String code = runner.getCode();
+            int delay = runner.getFrameDelay();
+
+            // Choose the output format; the built-in encoders work without ffmpeg
+            boolean ffmpegAvailable = Ffmpeg.isAvailable();
+            ExportFormat format = (ExportFormat) JOptionPane.showInputDialog(this,
+                    ffmpegAvailable ? "Export format" : "Export format (ffmpeg was not found on the PATH)",
+                    "Export Video Format",
+                    JOptionPane.QUESTION_MESSAGE,
+                    null,
+                    ExportFormat.values(),
+                    exportFormat != null && (ffmpegAvailable || !exportFormat.needsFfmpeg()) ? exportFormat
+                            : ffmpegAvailable ? ExportFormat.MP4_STREAM : ExportFormat.GIF);
+            if (format == null) {
+                return;
+            }
+            exportFormat = format;
+            if (format.needsFfmpeg() && !ffmpegAvailable) {
+                JOptionPane.showMessageDialog(this,
+                        "ffmpeg is needed for " + format + " but was not found on the PATH.\n"
+                                + "Choose Animated GIF or Motion JPEG AVI instead.",
+                        "Export Video Error",
+                        JOptionPane.ERROR_MESSAGE);
+                return;
+            }
 
             // Prompt for duration of video
             String duration = JOptionPane.showInputDialog(this,
@@ -254,24 +1145,24 @@
             Color bgColor = JColorChooser.showDialog(
                     this,
                     "Choose background color for video frames",
-                    Color.BLACK // default
+                    exportBackground // default
             );
             if (bgColor == null) {
-                // User cancelled color chooser; default to black
-                bgColor = Color.BLACK;
+                // User cancelled color chooser; default to the last one
+                bgColor = exportBackground;
             }
+            exportBackground = bgColor;
 
             // Calculating number of frames
 
-            int delay = runner.animationTimer.getDelay();
             double fps = 1000.0/delay;
             int totalFrames = (int) Math.max(1.0, fps*durationSec);
 
-            int w = canvasPanel.getWidth();
-            int h = canvasPanel.getHeight();
-
-            w = (w % 2 == 0) ? w : w + 1;
-            h = (h % 2 == 0) ? h : h + 1;
+            int sourceW = canvasPanel.getWidth();
+            int sourceH = canvasPanel.getHeight();
+            int w = sourceW;
+            int h = sourceH;
+            int supersample = 1;
 
             while(true) {
                 // Get resolution from the user
@@ -279,6 +1170,7 @@
                         "Export in the current resolution? [y/n]",
                         "Export Video Duration",
                         JOptionPane.PLAIN_MESSAGE);
+                if(currentRes == null) return;
                 currentRes = currentRes.trim().toLowerCase();
                 if(currentRes.isEmpty()) return;
                 if(!currentRes.equals("y") && !currentRes.equals("n")) {
@@ -290,16 +1182,32 @@
                 }
                 if(currentRes.equals("y")) break;
 
-//                String newRes = JOptionPane.show(this,
-//                        "Export in the current resolution? [y/n]",
-//                        "Export Video Duration",
-//                        JOptionPane.PLAIN_MESSAGE);
+                String newRes = JOptionPane.showInputDialog(this,
+                        "Enter the resolution as WIDTHxHEIGHT, optionally with a supersampling factor\n"
+                                + "(e.g. 3840x2160 or 3840x2160@2)",
+                        sourceW + "x" + sourceH);
+                if(newRes == null) continue;
+                int[] resolution = parseResolution(newRes, "Export Video Error");
+                if(resolution == null) continue;
+                w = resolution[0];
+                h = resolution[1];
+                supersample = resolution[2];
+                break;
+            }
+            // Other sizes and supersampling go through the tiled renderer, which scales the sketch's drawing
+            boolean scaled = w != sourceW || h != sourceH || supersample > 1;
+
+            if(format.needsEvenSize()) {
+                w = (w % 2 == 0) ? w : w + 1;
+                h = (h % 2 == 0) ? h : h + 1;
             }
 
             JFileChooser fileChooser = new JFileChooser();
-            fileChooser.setDialogTitle("Save Animation as MP4");
-            fileChooser.setFileFilter(new FileNameExtensionFilter("MP4 Video (*.mp4)", "mp4"));
-            String defaultName = "animation_" + System.currentTimeMillis() + ".mp4";
+            String extension = format.getExtension();
+            fileChooser.setDialogTitle("Save Animation as " + extension.toUpperCase());
+            fileChooser.setFileFilter(new FileNameExtensionFilter(
+                    format.getDescription() + " (*." + extension + ")", extension));
+            String defaultName = "animation_" + System.currentTimeMillis() + "." + extension;
             fileChooser.setSelectedFile(new File(defaultName));
             int userChoice = fileChooser.showSaveDialog(this);
             if (userChoice != JFileChooser.APPROVE_OPTION) {
@@ -307,8 +1215,8 @@
             }
             File chosenFile = fileChooser.getSelectedFile();
             String outPath = chosenFile.getAbsolutePath();
-            if (!outPath.toLowerCase().endsWith(".mp4")) {
-                chosenFile = new File(outPath + ".mp4");
+            if (!outPath.toLowerCase().endsWith("." + extension)) {
+                chosenFile = new File(outPath + "." + extension);
             }
             if (chosenFile.exists()) {
                 int resp = JOptionPane.showConfirmDialog(this,
@@ -321,137 +1229,128 @@
                 }
             }
 
-            // Creating background BufferImage to draw frames for the export
-            BufferedImage bg = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
-            Graphics2D g = bg.createGraphics();
-            g.setClip(0, 0, w, h);
+            // Render, composite and encode overlap on their own threads; see ExportEngine
+            ExportEngine engine = new ExportEngine(w, h, bgColor, fps);
+            // A copy: the export runs on with the transform it started with
+            engine.setTransform(canvasPanel.getTransforms().copy());
+            TiledRenderer tiles = scaled ? new TiledRenderer(sourceW, sourceH, w, h, supersample, bgColor) : null;
+
+            // A playing audio file drives the exported frames too, frame by frame, and is the video's sound
+            Path audio = audioPipeline != null ? audioPipeline.getFile() : null;
+
+            // The PNG spool keeps its frames next to the output, so an interrupted export can be picked up again
+            ResumableExport resumable = format == ExportFormat.MP4_PNG_SPOOL
+                    ? new ResumableExport(engine, tiles, chosenFile, code, audio, totalFrames,
+                            ResumableExport.DEFAULT_CHECKPOINT_INTERVAL)
+                    : null;
+            if(resumable != null) {
+                try {
+                    int framesDone = resumable.getFramesDone();
+                    if(framesDone > 0) {
+                        int resp = JOptionPane.showConfirmDialog(this,
+                                String.format("An earlier export to this file stopped after frame %d of %d.%n"
+                                        + "Resume it? (No starts over)", framesDone, totalFrames),
+                                "Resume Export",
+                                JOptionPane.YES_NO_CANCEL_OPTION,
+                                JOptionPane.QUESTION_MESSAGE);
+                        if(resp == JOptionPane.NO_OPTION) {
+                            resumable.discard();
+                        } else if(resp != JOptionPane.YES_OPTION) {
+                            if(tiles != null) tiles.dispose();
+                            return;
+                        }
+                    }
+                } catch (IOException e) {
+                    // An unreadable journal is started over by the export itself
+                    e.printStackTrace();
+                }
+            }
+            FrameEncoder encoder = resumable == null ? format.createEncoder(chosenFile, audio) : null;
 
             // Prepare a progress dialog
             JDialog progressDialog = new JDialog(this, "Exporting Video...", false);
             JProgressBar progressBar = new JProgressBar(0, totalFrames);
             progressBar.setStringPainted(true);
+            // Live telemetry: stage throughput, queues, bytes, ETA and ffmpeg's own status
+            JTextArea telemetryText = new JTextArea(4, 48);
+            telemetryText.setEditable(false);
+            telemetryText.setOpaque(false);
+            telemetryText.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 11));
             JButton cancelButton = new JButton("Cancel");
             JPanel panel = new JPanel();
             panel.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
             panel.setLayout(new BoxLayout(panel, BoxLayout.Y_AXIS));
             panel.add(progressBar);
             panel.add(Box.createVerticalStrut(10));
+            panel.add(telemetryText);
+            panel.add(Box.createVerticalStrut(10));
             panel.add(cancelButton);
             progressDialog.getContentPane().add(panel);
             progressDialog.pack();
             progressDialog.setLocationRelativeTo(this);
 
-            // The frames for the animation will be saved here
-            Path tempDir;
-            try {
-                tempDir = Files.createTempDirectory("Animation_Frames");
-            } catch (IOException e) {
-                throw new RuntimeException(e);
-            }
-
             // The export will occur in a background thread and the cancel button will be on EDT
             // So it will have to be thread-safe
             AtomicBoolean cancelled;
             cancelled = new AtomicBoolean(false);
             cancelButton.addActionListener(e -> cancelled.set(true));
 
-            Color finalBgColor = bgColor;
             File finalChosenFile = chosenFile;
+            // Every sample also goes to a JSON-lines log, to see afterwards what bound the export
+            Path telemetryFile = Path.of(System.getProperty("java.io.tmpdir"),
+                    "sketchide-export-" + System.currentTimeMillis() + ".jsonl");
+            String telemetryNote = "\nTelemetry log: " + telemetryFile;
+            String audioNote = audio == null ? ""
+                    : format.hasAudio() ? "\nSound track: " + audio.getFileName()
+                    : "\nFrames follow " + audio.getFileName() + "; " + format + " has no sound track";
 
-            int finalW = w;
-            int finalH = h;
             SwingWorker<Void, Integer> worker = new SwingWorker<Void, Integer>() {
                 @Override
                 protected Void doInBackground() throws Exception {
+                    TelemetryLog log = new TelemetryLog(engine.getTelemetry(), telemetryFile, 500,
+                            snapshot -> SwingUtilities.invokeLater(() -> telemetryText.setText(snapshot.describe())));
                     try {
-                        AffineTransform origTransform = g.getTransform();
-                        Composite origComposite = g.getComposite();
-                        Stroke origStroke = g.getStroke();
-                        Paint origPaint = g.getPaint();
-                        Sketch sketch = (Sketch) runner.cls.getDeclaredConstructor().newInstance();
-                        for(int i = 0; i<totalFrames; i++) {
-                            if(cancelled.get()) return null;
-
-                            g.setComposite(AlphaComposite.Src);  // ensures clearing works correctly
-                            g.setColor(new Color(0,0,0,0));  // transparent fill
-                            g.fillRect(0, 0, finalW, finalH);
-
-                            g.setTransform(origTransform);
-                            g.setComposite(origComposite);
-                            g.setStroke(origStroke);
-                            g.setPaint(origPaint);
-
-                            sketch.draw(g); // Draws using the sketch object copy to the background graphics
-
-                            BufferedImage img = new BufferedImage(finalW, finalH, BufferedImage.TYPE_INT_RGB);
-                            Graphics2D g2 = img.createGraphics();
-
-                            g2.setColor(finalBgColor);
-                            g2.fillRect(0, 0, finalW, finalH);
-                            g2.drawImage(bg, 0, 0, null);
-                            g2.dispose();
-
-                            String filename = String.format("frame_%06d.png", i);
-                            File outFile = tempDir.resolve(filename).toFile();
-                            try {
-                                boolean ok = ImageIO.write(img, "png", outFile);
-                                if (!ok) {
-                                    throw new IOException("No suitable PNG writer found for frame " + i);
-                                }
-                            } catch (IOException ex) {
-                                ex.printStackTrace();
-                                throw new RuntimeException("Failed writing frame " + i + ": " + ex.getMessage(), ex);
-                            }
-
-                            // 8.1.4 Update progress
-                            publish(i + 1);
-                        }
+                        export();
+                    } finally {
+                        log.close();
+                    }
+                    return null;
+                }
 
-                        if (cancelled.get()) {
-                            return null;
-                        }
+                private void export() throws Exception {
+                    if(audio == null) {
+                        exportFrames();
+                        return;
+                    }
+                    engine.getTelemetry().setPhase("audio analysis");
+                    Audio.setTimeline(AudioTimeline.analyze(audio, fps));
+                    try {
+                        exportFrames();
+                    } finally {
+                        Audio.setTimeline(null);
+                    }
+                }
 
-                        // 8.2 After capturing frames, build ffmpeg command
-                        /*
-                         ffmpeg -y -framerate {fps} -i frame_%06d.png -c:v libx264 -pix_fmt yuv420p output.mp4
-                         */
-                        ProcessBuilder pb = getProcessBuilder(fps, tempDir, finalChosenFile);
-                        Process proc = pb.start();
-
-                        StringBuilder ffmpegOutput = new StringBuilder();
-                        String line;
-
-                        // Read ffmpeg output (optional, can log or ignore)
-                        try (InputStream is = pb.redirectErrorStream() ?
-                                proc.getInputStream() : proc.getErrorStream();
-                             BufferedReader reader = new BufferedReader(new InputStreamReader(is));
-                        ) {
-                            while ((line = reader.readLine()) != null) {
-                                ffmpegOutput.append(line).append("\n");
-                                if (cancelled.get()) {
-                                    proc.destroy();
-                                    break;
-                                }
-                            }
-                        }
-                        int exitCode = proc.waitFor();
-                        if (exitCode != 0) {
-                            System.out.println(ffmpegOutput);
-                            throw new RuntimeException("ffmpeg exited with code " + exitCode);
+                private void exportFrames() throws Exception {
+                    if(resumable != null) {
+                        Sketch sketch = (Sketch) sketchClass.getDeclaredConstructor().newInstance();
+                        try {
+                            resumable.run(sketch, done -> publish(done), cancelled::get);
+                        } finally {
+                            if(tiles != null) tiles.dispose();
                         }
-                    } finally {
-                        // 8.3 Clean up temp frames directory if not cancelled
-                        // If cancelled, also delete partial frames
-                        g.dispose();
+                    } else if(tiles == null && TimedSketch.isStateless(sketchClass)) {
+                        // Frames do not depend on each other: render them on all cores
+                        engine.exportParallel(sketchClass, totalFrames, encoder, done -> publish(done), cancelled::get);
+                    } else {
+                        Sketch sketch = (Sketch) sketchClass.getDeclaredConstructor().newInstance();
                         try {
-                            deleteDirectoryRecursively(tempDir.toFile());
-                        } catch (Exception e) {
-                            // ignore cleanup errors
-                            e.printStackTrace();
+                            engine.export(new SketchFrameSource(sketch, fps, tiles), totalFrames, encoder,
+                                    done -> publish(done), cancelled::get);
+                        } finally {
+                            if(tiles != null) tiles.dispose();
                         }
                     }
-
-                    return null;
                 }
 
                 @Override
@@ -467,20 +1366,24 @@
                     progressDialog.dispose();
                     if (cancelled.get()) {
                         JOptionPane.showMessageDialog(SketchIDEFrame.this,
-                                "Video export was cancelled.",
+                                resumable != null
+                                        ? "Video export was cancelled.\nExport to the same file again to resume it." + telemetryNote
+                                        : "Video export was cancelled." + telemetryNote,
                                 "Export Video",
                                 JOptionPane.INFORMATION_MESSAGE);
                     } else {
                         try {
                             get(); // to rethrow exceptions if any
                             JOptionPane.showMessageDialog(SketchIDEFrame.this,
-                                    "Video saved: " + finalChosenFile.getAbsolutePath(),
+                                    "Video saved: " + finalChosenFile.getAbsolutePath() + audioNote + telemetryNote,
                                     "Export Video",
                                     JOptionPane.INFORMATION_MESSAGE);
                         } catch (Exception ex) {
                             ex.printStackTrace();
                             JOptionPane.showMessageDialog(SketchIDEFrame.this,
-                                    "Error during video export:\n" + ex.getCause().getMessage(),
+                                    "Error during video export:\n" + ex.getCause().getMessage()
+                                            + (resumable != null ? "\nExport to the same file again to resume it." : "")
+                                            + telemetryNote,
                                     "Export Video",
                                     JOptionPane.ERROR_MESSAGE);
                         }
@@ -492,41 +1395,4 @@
             progressDialog.setVisible(true);
         }
 
-        private void deleteDirectoryRecursively(File dir) {
-            if(dir.isDirectory()) {
-                File[] files = dir.listFiles();
-                if(files != null) {
-                    for(File file: files) {
-                        deleteDirectoryRecursively(file);
-                    }
-                }
-            }
-
-            boolean deleted = dir.delete();
-            if(!deleted) {
-                JOptionPane.showMessageDialog(this,
-                        "Failed to delete all temporary frames created during export. Please delete manually",
-                        "Export Video",
-                        JOptionPane.ERROR_MESSAGE);
-                return;
-            }
-        }
-
-        private static ProcessBuilder getProcessBuilder(double fps, Path tempDir, File chosenFile) {
-            List<String> cmd = List.of(
-                    "ffmpeg",
-                    "-y",
-                    "-framerate", String.valueOf((int)fps),
-                    "-i", tempDir.resolve("frame_%06d.png").toString(),
-                    "-c:v", "libx264",
-                    "-pix_fmt", "yuv420p",
-                    chosenFile.getAbsolutePath()
-            );
-            ProcessBuilder pb = new ProcessBuilder(cmd);
-            // Set working dir to tempDir so ffmpeg finds files easily
-            pb.directory(tempDir.toFile());
-            pb.redirectErrorStream(true);
-            return pb;
-        }
-
     }
@@ -0,0 +1,365 @@
+package org.sketchide.util;
+
+import org.sketchide.export.PngEncoder;
+
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// Sketch projects in one file: the source, the bytecode javac made of it, a preview thumbnail and the
+// settings to run and export it with.
+//
+// Layout (little-endian): a 16-byte header, a table of 24-byte section entries, then the sections, each
+// with its own CRC. Metadata and thumbnail come first, so listing a project through the Reader only
+// reads the start of the file; source and bytecode are deflated and inflated on demand.
+// Bytecode is stored under the key CompilerService gave it, which names the JDK that compiled it.
+public final class FileExporter {
+
+    public static final String EXTENSION = "skp";
+    public static final int THUMBNAIL_WIDTH = 240;
+    public static final int THUMBNAIL_HEIGHT = 180;
+
+    private static final int MAGIC = 0x31504B53;   // "SKP1"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final int ENTRY_SIZE = 24;
+
+    // Section types; readers skip types they do not know
+    private static final int METADATA = 1;
+    private static final int THUMBNAIL = 2;
+    private static final int SOURCE = 3;
+    private static final int BYTECODE = 4;
+
+    // Entry fields
+    private static final int TYPE = 0;
+    private static final int CRC = 4;
+    private static final int OFFSET = 8;
+    private static final int LENGTH = 16;
+    private static final int RAW_LENGTH = 20;
+
+    // How the sketch runs and what exports start from. format is an ExportFormat name, or empty.
+    public record Settings(String mode, int width, int height, int frameDelay, double rotation, double scale,
+                           boolean mirrored, boolean accumulate, int background, String format) {
+    }
+
+    // key is CompilerService.signedKey of the wrapped source the classes were compiled from and the classes
+    public record Bytecode(String key, Map<String, byte[]> classes) {
+    }
+
+    // thumbnail and bytecode may be null
+    public record Project(String source, Settings settings, BufferedImage thumbnail, Bytecode bytecode) {
+    }
+
+    // What a listing shows, read without decoding source, bytecode or thumbnail
+    public record Info(long savedTime, int lines, int sourceBytes, String compiledKey, Settings settings) {
+    }
+
+    private FileExporter() {
+    }
+
+    // Writes the project to a temporary file next to file and moves it into place, so an existing
+    // project is never left half overwritten
+    public static void write(Path file, Project project) throws IOException {
+        byte[] source = project.source().getBytes(StandardCharsets.UTF_8);
+        Bytecode bytecode = project.bytecode();
+        byte[] classes = bytecode != null ? encodeClasses(bytecode.classes()) : null;
+
+        ByteArrayOutputStream meta = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(meta)) {
+            out.writeLong(System.currentTimeMillis());
+            out.writeInt((int) project.source().lines().count());
+            out.writeInt(source.length);
+            out.writeUTF(bytecode != null ? bytecode.key() : "");
+            Settings s = project.settings();
+            out.writeUTF(s.mode());
+            out.writeInt(s.width());
+            out.writeInt(s.height());
+            out.writeInt(s.frameDelay());
+            out.writeDouble(s.rotation());
+            out.writeDouble(s.scale());
+            out.writeBoolean(s.mirrored());
+            out.writeBoolean(s.accumulate());
+            out.writeInt(s.background());
+            out.writeUTF(s.format() != null ? s.format() : "");
+        }
+
+        Map<Integer, byte[]> sections = new LinkedHashMap<>();
+        Map<Integer, Integer> rawLengths = new LinkedHashMap<>();
+        sections.put(METADATA, meta.toByteArray());
+        if(project.thumbnail() != null) {
+            ByteArrayOutputStream png = new ByteArrayOutputStream();
+            new PngEncoder().write(project.thumbnail(), png);
+            sections.put(THUMBNAIL, png.toByteArray());
+        }
+        sections.put(SOURCE, deflate(source));
+        rawLengths.put(SOURCE, source.length);
+        if(classes != null) {
+            sections.put(BYTECODE, deflate(classes));
+            rawLengths.put(BYTECODE, classes.length);
+        }
+
+        int tableEnd = HEADER_SIZE + sections.size() * ENTRY_SIZE;
+        ByteBuffer head = ByteBuffer.allocate(tableEnd).order(ByteOrder.LITTLE_ENDIAN);
+        head.putInt(MAGIC).putInt(VERSION).putInt(sections.size()).putInt(0);
+        long offset = tableEnd;
+        CRC32 crc = new CRC32();
+        for(Map.Entry<Integer, byte[]> section : sections.entrySet()) {
+            byte[] data = section.getValue();
+            crc.reset();
+            crc.update(data);
+            head.putInt(section.getKey())
+                    .putInt((int) crc.getValue())
+                    .putLong(offset)
+                    .putInt(data.length)
+                    .putInt(rawLengths.getOrDefault(section.getKey(), data.length));
+            offset += data.length;
+        }
+        head.flip();
+
+        Path dir = file.toAbsolutePath().getParent();
+        Path temp = Files.createTempFile(dir, file.getFileName().toString(), ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                write(channel, head);
+                for(byte[] data : sections.values()) {
+                    write(channel, ByteBuffer.wrap(data));
+                }
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    public static Project read(Path file) throws IOException {
+        try (Reader reader = Reader.open(file)) {
+            return new Project(reader.getSource(), reader.getInfo().settings(), reader.getThumbnail(),
+                    reader.getBytecode());
+        }
+    }
+
+    // The frame scaled to fit the thumbnail size, keeping its proportions
+    public static BufferedImage thumbnail(BufferedImage frame) {
+        double scale = Math.min(1, Math.min((double) THUMBNAIL_WIDTH / frame.getWidth(),
+                (double) THUMBNAIL_HEIGHT / frame.getHeight()));
+        int w = Math.max(1, (int) Math.round(frame.getWidth() * scale));
+        int h = Math.max(1, (int) Math.round(frame.getHeight() * scale));
+        BufferedImage thumb = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = thumb.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+        g.drawImage(frame, 0, 0, w, h, null);
+        g.dispose();
+        return thumb;
+    }
+
+    // An open project file. Opening reads only the header and section table; every section is read,
+    // checked against its CRC and decoded when first asked for, so a damaged section does not keep the
+    // others from being read. Close it once done: the file cannot be replaced on Windows while it is
+    // open, and saving a project replaces it.
+    public static final class Reader implements Closeable {
+
+        private final Path file;
+        private final FileChannel channel;
+        private final long size;
+        private final ByteBuffer table;
+        private final int sectionCount;
+        private Info info;
+
+        private Reader(Path file, FileChannel channel) throws IOException {
+            this.file = file;
+            this.channel = channel;
+            size = channel.size();
+            ByteBuffer header = readAt(0, (int) Math.min(size, HEADER_SIZE));
+            if(header.capacity() < HEADER_SIZE || header.getInt(0) != MAGIC) {
+                throw new IOException(file + " is not a sketch project");
+            }
+            if(header.getInt(4) > VERSION) {
+                throw new IOException(file + " was saved by a newer version of Sketch IDE");
+            }
+            sectionCount = header.getInt(8);
+            if(sectionCount < 0 || HEADER_SIZE + (long) sectionCount * ENTRY_SIZE > size) {
+                throw new IOException(file + " is truncated");
+            }
+            table = readAt(HEADER_SIZE, sectionCount * ENTRY_SIZE);
+        }
+
+        public static Reader open(Path file) throws IOException {
+            FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+            try {
+                return new Reader(file, channel);
+            } catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+
+        public Path getFile() {
+            return file;
+        }
+
+        public synchronized Info getInfo() throws IOException {
+            if(info != null) return info;
+            try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(section(METADATA, true)))) {
+                long savedTime = in.readLong();
+                int lines = in.readInt();
+                int sourceBytes = in.readInt();
+                String key = in.readUTF();
+                Settings settings = new Settings(in.readUTF(), in.readInt(), in.readInt(), in.readInt(),
+                        in.readDouble(), in.readDouble(), in.readBoolean(), in.readBoolean(), in.readInt(),
+                        in.readUTF());
+                info = new Info(savedTime, lines, sourceBytes, key.isEmpty() ? null : key, settings);
+                return info;
+            } catch (EOFException e) {
+                throw new IOException(file + ": metadata is truncated", e);
+            }
+        }
+
+        // null if the project was saved without one
+        public BufferedImage getThumbnail() throws IOException {
+            byte[] png = section(THUMBNAIL, false);
+            if(png == null) return null;
+            BufferedImage image = ImageIO.read(new ByteArrayInputStream(png));
+            if(image == null) throw new IOException(file + ": thumbnail is not a readable image");
+            return image;
+        }
+
+        public String getSource() throws IOException {
+            return new String(section(SOURCE, true), StandardCharsets.UTF_8);
+        }
+
+        // null if the project was saved without bytecode
+        public Bytecode getBytecode() throws IOException {
+            byte[] data = section(BYTECODE, false);
+            if(data == null) return null;
+            try {
+                return new Bytecode(getInfo().compiledKey(), decodeClasses(data));
+            } catch (EOFException e) {
+                throw new IOException(file + ": bytecode is truncated", e);
+            }
+        }
+
+        // The section's data, inflated if it was stored deflated
+        private synchronized byte[] section(int type, boolean required) throws IOException {
+            for(int i = 0; i < sectionCount; i++) {
+                int entry = i * ENTRY_SIZE;
+                if(table.getInt(entry + TYPE) != type) continue;
+                long offset = table.getLong(entry + OFFSET);
+                int length = table.getInt(entry + LENGTH);
+                int rawLength = table.getInt(entry + RAW_LENGTH);
+                if(offset < 0 || length < 0 || rawLength < 0 || offset + length > size) {
+                    throw new IOException(file + " is truncated");
+                }
+                byte[] data = readAt(offset, length).array();
+                CRC32 crc = new CRC32();
+                crc.update(data);
+                if((int) crc.getValue() != table.getInt(entry + CRC)) {
+                    throw new IOException(file + ": section " + type + " is damaged");
+                }
+                return type == SOURCE || type == BYTECODE ? inflate(data, rawLength) : data;
+            }
+            if(required) throw new IOException(file + ": section " + type + " is missing");
+            return null;
+        }
+
+        // length bytes from position, in a little-endian heap buffer
+        private ByteBuffer readAt(long position, int length) throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+            while(buffer.hasRemaining()) {
+                if(channel.read(buffer, position + buffer.position()) < 0) {
+                    throw new IOException(file + " is truncated");
+                }
+            }
+            return buffer.clear();
+        }
+
+        private byte[] inflate(byte[] data, int rawLength) throws IOException {
+            Inflater inflater = new Inflater();
+            try {
+                inflater.setInput(data);
+                byte[] raw = new byte[rawLength];
+                int n = 0;
+                while(n < rawLength && !inflater.finished()) {
+                    int read = inflater.inflate(raw, n, rawLength - n);
+                    if(read == 0 && (inflater.needsInput() || inflater.needsDictionary())) break;
+                    n += read;
+                }
+                if(n != rawLength) throw new IOException(file + ": compressed section is truncated");
+                return raw;
+            } catch (DataFormatException e) {
+                throw new IOException(file + ": compressed section is damaged", e);
+            } finally {
+                inflater.end();
+            }
+        }
+    }
+
+    private static void write(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while(buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private static byte[] encodeClasses(Map<String, byte[]> classes) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(classes.size());
+            for(Map.Entry<String, byte[]> c : classes.entrySet()) {
+                out.writeUTF(c.getKey());
+                out.writeInt(c.getValue().length);
+                out.write(c.getValue());
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    private static Map<String, byte[]> decodeClasses(byte[] data) throws IOException {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(data))) {
+            int count = in.readInt();
+            Map<String, byte[]> classes = new LinkedHashMap<>();
+            for(int i = 0; i < count; i++) {
+                String name = in.readUTF();
+                byte[] bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+                classes.put(name, bytes);
+            }
+            return classes;
+        }
+    }
+
+    private static byte[] deflate(byte[] data) {
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 2 + 64);
+            byte[] buffer = new byte[8192];
+            while(!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+}
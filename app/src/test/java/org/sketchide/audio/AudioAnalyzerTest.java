@@ -0,0 +1,241 @@
+package org.sketchide.audio;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import java.io.ByteArrayInputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AudioAnalyzerTest {
+
+    private static final float RATE = 44100;
+    private static final int BANDS_TOP = AudioAnalyzer.BANDS - 1;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void fftMatchesTheDft() {
+        Random random = new Random(3);
+        for(int n : new int[]{4, 8, 64, 1024}) {
+            float[] x = new float[n];
+            for(int i = 0; i < n; i++) x[i] = random.nextFloat() * 2 - 1;
+            RealFft fft = new RealFft(n);
+            float[] re = new float[fft.bins()];
+            float[] im = new float[fft.bins()];
+            float[] power = new float[fft.bins()];
+            fft.transform(x, re, im);
+            fft.power(x, power);
+            for(int k = 0; k <= n / 2; k++) {
+                double dr = 0;
+                double di = 0;
+                for(int i = 0; i < n; i++) {
+                    dr += x[i] * Math.cos(2 * Math.PI * k * i / n);
+                    di -= x[i] * Math.sin(2 * Math.PI * k * i / n);
+                }
+                double tolerance = 1e-4 * n;
+                assertEquals(dr, re[k], tolerance, "re " + k + " of " + n);
+                assertEquals(di, im[k], tolerance, "im " + k + " of " + n);
+                assertEquals(dr * dr + di * di, power[k], tolerance * (1 + Math.sqrt(dr * dr + di * di)) * 4);
+            }
+        }
+        assertThrows(IllegalArgumentException.class, () -> new RealFft(48));
+    }
+
+    @Test
+    void tonesLightUpTheirBand() {
+        // 60 Hz sits in the lowest band, 5 kHz near the top
+        float[] low = analyzeTone(60);
+        float[] high = analyzeTone(5000);
+        assertTrue(low[0] > 0.9, "60 Hz in band 0: " + low[0]);
+        assertTrue(low[BANDS_TOP] < 0.2, "60 Hz above: " + low[BANDS_TOP]);
+        int loudest = 0;
+        for(int b = 1; b < high.length; b++) {
+            if(high[b] > high[loudest]) loudest = b;
+        }
+        assertTrue(loudest >= 5, "5 kHz loudest in band " + loudest);
+        assertTrue(high[0] < 0.2, "5 kHz in band 0: " + high[0]);
+    }
+
+    private static float[] analyzeTone(double hz) {
+        float[] bands = new float[AudioAnalyzer.BANDS];
+        AudioAnalyzer analyzer = new AudioAnalyzer(RATE, a -> System.arraycopy(a.getBands(), 0, bands, 0, bands.length));
+        float[] samples = new float[(int) RATE / 2];
+        for(int i = 0; i < samples.length; i++) samples[i] = (float) (0.9 * Math.sin(2 * Math.PI * hz * i / RATE));
+        analyzer.process(samples, 0, samples.length);
+        return bands;
+    }
+
+    // Quiet noise with a loud burst at each beat
+    private static float[] beats(double[] times, double seconds) {
+        Random random = new Random(8);
+        float[] samples = new float[(int) (seconds * RATE)];
+        for(int i = 0; i < samples.length; i++) samples[i] = (random.nextFloat() - 0.5f) * 0.01f;
+        for(double t : times) {
+            int start = (int) (t * RATE);
+            for(int i = 0; i < 2000 && start + i < samples.length; i++) {
+                samples[start + i] += (float) (0.8 * Math.exp(-i / 400.0) * Math.sin(i * 0.3));
+            }
+        }
+        return samples;
+    }
+
+    @Test
+    void onsetsAreFoundAtTheBeatsAndNowhereElse() {
+        double[] times = {0.5, 1.0, 1.25, 2.0, 2.6};
+        List<Double> found = new ArrayList<>();
+        AudioAnalyzer analyzer = new AudioAnalyzer(RATE, a -> {
+            if(a.isOnset()) found.add(a.getTime());
+        });
+        float[] samples = beats(times, 3);
+        // In odd-sized pieces, as a capture line would hand them over
+        for(int offset = 0; offset < samples.length; offset += 700) {
+            analyzer.process(samples, offset, Math.min(700, samples.length - offset));
+        }
+        assertEquals(times.length, found.size(), "onsets at " + found);
+        for(int i = 0; i < times.length; i++) {
+            // Reported by the hop the burst first shows up in, within one analysis window
+            double late = found.get(i) - times[i];
+            assertTrue(late >= 0 && late <= AudioAnalyzer.FFT_SIZE / RATE, "beat " + times[i] + " found at " + found.get(i));
+        }
+    }
+
+    @Test
+    void analysisAllocatesNothing() {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        AudioFeatures features = new AudioFeatures();
+        AudioFrame frame = new AudioFrame();
+        AudioAnalyzer analyzer = new AudioAnalyzer(RATE, a -> features.publish(a.getTime(), a.getLevel(), a.getBands(), a.isOnset()));
+        float[] samples = beats(new double[]{0.2, 0.7}, 1);
+        // Warm up, so that the JIT is done with it
+        for(int i = 0; i < 20; i++) {
+            analyzer.process(samples, 0, samples.length);
+            features.read(frame);
+        }
+        long id = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(id);
+        for(int i = 0; i < 20; i++) {
+            analyzer.process(samples, 0, samples.length);
+            features.read(frame);
+        }
+        long allocated = threads.getThreadAllocatedBytes(id) - before;
+        // 20 s of audio; a little slack for the measurement itself
+        assertTrue(allocated < 4096, allocated + " bytes allocated");
+    }
+
+    @Test
+    void readersNeverSeeHalfAnUpdate() throws Exception {
+        AudioFeatures features = new AudioFeatures();
+        AtomicBoolean done = new AtomicBoolean();
+        AtomicReference<String> torn = new AtomicReference<>();
+        Thread reader = new Thread(() -> {
+            AudioFrame frame = new AudioFrame();
+            while(!done.get()) {
+                features.read(frame);
+                // Every publish writes one value into all bands and the level
+                for(int b = 0; b < frame.bandCount(); b++) {
+                    if(frame.band(b) != frame.level()) torn.compareAndSet(null, "band " + b + " " + frame.band(b) + " vs " + frame.level());
+                }
+            }
+        });
+        reader.start();
+        float[] bands = new float[AudioAnalyzer.BANDS];
+        for(int i = 0; i < 2_000_000; i++) {
+            float v = (i % 1000) / 1000f;
+            Arrays.fill(bands, v);
+            features.publish(i, v, bands, i % 7 == 0);
+        }
+        done.set(true);
+        reader.join();
+        assertNull(torn.get());
+
+        AudioFrame frame = new AudioFrame();
+        features.read(frame);
+        assertTrue(frame.onset());
+        features.read(frame);
+        assertFalse(frame.onset());
+        features.clear();
+        features.read(frame);
+        assertFalse(frame.isActive());
+    }
+
+    @Test
+    void exportTimelineFollowsTheFile() throws Exception {
+        double[] times = {0.5, 1.0, 1.6};
+        float[] samples = beats(times, 2);
+        byte[] pcm = new byte[samples.length * 2];
+        for(int i = 0; i < samples.length; i++) {
+            short s = (short) Math.round(samples[i] * 32767);
+            pcm[2 * i] = (byte) s;
+            pcm[2 * i + 1] = (byte) (s >> 8);
+        }
+        AudioFormat format = new AudioFormat(RATE, 16, 1, true, false);
+        Path wav = dir.resolve("beats.wav");
+        AudioSystem.write(new AudioInputStream(new ByteArrayInputStream(pcm), format, samples.length),
+                AudioFileFormat.Type.WAVE, wav.toFile());
+
+        double fps = 30;
+        AudioTimeline timeline = AudioTimeline.analyze(wav, fps);
+        assertEquals(2.0, timeline.getDuration(), 1e-3);
+        assertEquals(61, timeline.getFrameCount());
+
+        List<Integer> onsetFrames = new ArrayList<>();
+        AudioFrame frame = new AudioFrame();
+        for(int i = 0; i < timeline.getFrameCount(); i++) {
+            timeline.read(i / fps, frame);
+            assertTrue(frame.isActive());
+            if(frame.onset()) onsetFrames.add(i);
+        }
+        assertEquals(times.length, onsetFrames.size(), "onset frames " + onsetFrames);
+        for(int i = 0; i < times.length; i++) {
+            int beatFrame = (int) Math.ceil(times[i] * fps);
+            assertTrue(onsetFrames.get(i) >= beatFrame && onsetFrames.get(i) <= beatFrame + 2,
+                    "beat at " + times[i] + " s shows in frame " + onsetFrames.get(i));
+        }
+
+        // Render threads of the export read the frame they seek to; other threads keep reading the live feed
+        Audio.setTimeline(timeline);
+        try {
+            Audio.seek(onsetFrames.get(1) / fps);
+            Audio.read(frame);
+            assertTrue(frame.onset());
+            AtomicBoolean live = new AtomicBoolean();
+            Thread other = new Thread(() -> {
+                AudioFrame f = new AudioFrame();
+                Audio.read(f);
+                live.set(!f.isActive());
+            });
+            other.start();
+            other.join();
+            assertTrue(live.get());
+
+            // Another export finishing on its own thread leaves this one's audio alone
+            Thread export = new Thread(() -> {
+                Audio.setTimeline(timeline);
+                Audio.setTimeline(null);
+            });
+            export.start();
+            export.join();
+            Audio.read(frame);
+            assertTrue(frame.onset());
+        } finally {
+            Audio.setTimeline(null);
+            Audio.seek(Double.NaN);
+        }
+        timeline.read(10, frame);
+        assertFalse(frame.isActive());
+    }
+}
@@ -0,0 +1,86 @@
+package org.sketchide.engine;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CompilerServiceTest {
+
+    private static String source(int n) {
+        return SketchRunner.wrapSource("UserSketch", """
+                public void draw(Graphics2D g) { g.fillRect(0, 0, %d, 1); }
+                public int init() { return 33; }
+                """.formatted(n));
+    }
+
+    @Test
+    void identicalSourceIsCompiledOnce() throws Exception {
+        CompilerService service = new CompilerService(16);
+        Map<String, byte[]> first = service.compile("dynamic.UserSketch", source(1));
+        Map<String, byte[]> second = service.compile("dynamic.UserSketch", source(1));
+        assertSame(first, second);
+        assertTrue(first.containsKey("dynamic.UserSketch"));
+
+        service.compile("dynamic.UserSketch", source(2));
+        CompilerService.Stats stats = service.getStats();
+        assertEquals(1, stats.hits());
+        assertEquals(2, stats.misses());
+        assertEquals(2, stats.compilations());
+    }
+
+    @Test
+    void bytecodeFromAnotherJdkIsCompiledAgain() throws Exception {
+        CompilerService service = new CompilerService(16);
+        Map<String, byte[]> saved = Map.of("dynamic.UserSketch", new byte[]{ 1, 2, 3 });
+        String signed = CompilerService.signedKey(source(1), saved);
+        String otherJdk = "1.0/" + signed.substring(signed.indexOf('/') + 1);
+        assertFalse(service.seed(source(1), otherJdk, saved));
+        assertNull(service.getCached(source(1)));
+
+        Map<String, byte[]> compiled = service.compile("dynamic.UserSketch", source(1));
+        assertEquals(1, service.getStats().misses());
+        assertNotSame(saved, compiled);
+
+        assertTrue(service.seed(source(2), CompilerService.signedKey(source(2), saved), saved));
+        assertEquals(saved, service.compile("dynamic.UserSketch", source(2)));
+        assertEquals(1, service.getStats().hits());
+    }
+
+    @Test
+    void bytecodeThisInstallationDidNotSignIsCompiledAgain() {
+        CompilerService service = new CompilerService(16);
+        Map<String, byte[]> saved = Map.of("dynamic.UserSketch", new byte[]{ 1, 2, 3 });
+        String key = CompilerService.signedKey(source(1), saved);
+        // The unsigned key anyone can compute, a signature of other bytes, and a key for other source
+        assertFalse(service.seed(source(1), CompilerService.cacheKey(source(1)), saved));
+        assertFalse(service.seed(source(1), CompilerService.cacheKey(source(1)) + "/", saved));
+        assertFalse(service.seed(source(1), CompilerService.cacheKey(source(1)) + "/zz", saved));
+        assertFalse(service.seed(source(1), key, Map.of("dynamic.UserSketch", new byte[]{ 1, 2, 4 })));
+        assertFalse(service.seed(source(1), key, Map.of("dynamic.UserSketch", new byte[]{ 1, 2, 3 },
+                "dynamic.UserSketch$Evil", new byte[]{ 0 })));
+        assertFalse(service.seed(source(2), key, saved));
+        assertNull(service.getCached(source(1)));
+
+        assertTrue(service.seed(source(1), key, saved));
+    }
+
+    @Test
+    void leastRecentlyUsedEntryIsEvictedAtSixteen() {
+        CompilerService service = new CompilerService(16);
+        Map<String, byte[]> bytes = Map.of("dynamic.UserSketch", new byte[]{ 0 });
+        for(int i = 0; i < 16; i++) {
+            assertTrue(service.seed(source(i), CompilerService.signedKey(source(i), bytes), bytes));
+        }
+        // Touching the oldest makes source(1) the eldest
+        assertNotNull(service.getCached(source(0)));
+        service.seed(source(16), CompilerService.signedKey(source(16), bytes), bytes);
+
+        assertNull(service.getCached(source(1)));
+        assertNotNull(service.getCached(source(0)));
+        for(int i = 2; i <= 16; i++) {
+            assertNotNull(service.getCached(source(i)), "entry " + i);
+        }
+    }
+}
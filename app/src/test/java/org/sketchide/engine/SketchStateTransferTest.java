@@ -0,0 +1,126 @@
+package org.sketchide.engine;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SketchStateTransferTest {
+
+    // Two compiles of the same sketch, the second one edited
+    static class Before {
+        static int runs = 1;
+        int x = 5;
+        double speed = 1.5;
+        long ticks = 9;
+        final List<Integer> trail = new ArrayList<>(List.of(1, 2));
+        List<String> names = new ArrayList<>(List.of("a"));
+        int dropped = 3;
+    }
+
+    static class After {
+        static int runs = 0;
+        int x;
+        float speed = 2f;
+        long ticks;
+        final List<Integer> trail = new ArrayList<>();
+        List<Integer> names = new ArrayList<>();
+        int added = 7;
+    }
+
+    @Test
+    void fieldsWithTheSameNameAndTypeAreCopied() {
+        Before before = new Before();
+        After after = new After();
+        int copied = SketchStateTransfer.transfer(before, after);
+
+        assertEquals(3, copied);
+        assertEquals(5, after.x);
+        assertEquals(9, after.ticks);
+        // Final fields too: they often hold the collections the state lives in
+        assertEquals(List.of(1, 2), after.trail);
+        // Changed types, List<String> to List<Integer> included, keep what the new code set up
+        assertEquals(2f, after.speed, 0);
+        assertEquals(List.of(), after.names);
+        assertEquals(7, after.added);
+        // Static fields belong to the class, not the state
+        assertEquals(0, After.runs);
+    }
+
+    @Test
+    void compiledVersionsKeepStateButNotTheirOwnClasses() throws Exception {
+        Class<?> v1 = SketchRunner.compileSketchClass("""
+                public static class Dot { int x; }
+                public int frame = 0;
+                public Dot dot = new Dot();
+                public java.util.List<Dot> dots = new java.util.ArrayList<>();
+                public void draw(Graphics2D g) { frame++; dots.add(dot); }
+                public int init() { return 33; }
+                """, message -> { });
+        Class<?> v2 = SketchRunner.compileSketchClass("""
+                public static class Dot { int x; }
+                public int frame = 0;
+                public Dot dot = new Dot();
+                public java.util.List<Dot> dots = new java.util.ArrayList<>();
+                public void draw(Graphics2D g) { g.fillRect(frame, 0, 1, 1); }
+                public int init() { return 33; }
+                """, message -> { });
+        assertNotSame(v1.getClassLoader(), v2.getClassLoader());
+
+        Sketch old = (Sketch) v1.getDeclaredConstructor().newInstance();
+        old.draw(null);
+        old.draw(null);
+        Sketch loaded = (Sketch) v2.getDeclaredConstructor().newInstance();
+        Object freshDot = v2.getDeclaredField("dot").get(loaded);
+
+        // Only frame: Dot and List<Dot> are classes of the old compile
+        assertEquals(1, SketchStateTransfer.transfer(old, loaded));
+        assertEquals(2, v2.getDeclaredField("frame").getInt(loaded));
+        assertSame(freshDot, v2.getDeclaredField("dot").get(loaded));
+        assertEquals(List.of(), v2.getDeclaredField("dots").get(loaded));
+    }
+
+    static class Particles {
+        int[] xs = {1, 2, 3};
+        List<double[]> history = new ArrayList<>();
+        String label = "p";
+    }
+
+    @Test
+    void serializedStateIsRestoredAsACopy() {
+        Particles from = new Particles();
+        from.history.add(new double[]{ 0.5 });
+        from.label = "moved";
+        byte[] state = SketchStateTransfer.serialize(from);
+        assertNotNull(state);
+
+        Particles to = new Particles();
+        to.xs = new int[0];
+        assertTrue(SketchStateTransfer.restore(state, to));
+        assertArrayEquals(new int[]{ 1, 2, 3 }, to.xs);
+        assertNotSame(from.xs, to.xs);
+        assertEquals(1, to.history.size());
+        assertArrayEquals(new double[]{ 0.5 }, to.history.get(0), 0);
+        assertEquals("moved", to.label);
+
+        // Restoring again undoes what was drawn since
+        to.xs[0] = 99;
+        to.history.clear();
+        assertTrue(SketchStateTransfer.restore(state, to));
+        assertEquals(1, to.xs[0]);
+        assertEquals(1, to.history.size());
+        assertFalse(SketchStateTransfer.restore(new byte[]{ 1, 2, 3 }, to));
+    }
+
+    static class Unsaveable {
+        int x = 1;
+        Object lock = new Object();
+    }
+
+    @Test
+    void stateThatCannotBeSerializedGivesNull() {
+        assertNull(SketchStateTransfer.serialize(new Unsaveable()));
+    }
+}
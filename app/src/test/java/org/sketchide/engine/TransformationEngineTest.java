@@ -0,0 +1,80 @@
+package org.sketchide.engine;
+
+import org.junit.jupiter.api.Test;
+
+import java.awt.Rectangle;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TransformationEngineTest {
+
+    private static final int BACKGROUND = 0x123456;
+
+    private static int[] numbered(int n) {
+        int[] pixels = new int[n];
+        for(int i = 0; i < n; i++) pixels[i] = i * 0x010203;
+        return pixels;
+    }
+
+    @Test
+    void quarterTurnsAndMirrorMovePixelsExactly() {
+        int[] src = numbered(4 * 4);
+        int[] dst = new int[16];
+        TransformationEngine transform = new TransformationEngine();
+
+        transform.setRotation(90);
+        transform.apply(src, dst, 4, 4, BACKGROUND, null);
+        // Clockwise: the top row ends up as the right-hand column
+        for(int x = 0; x < 4; x++) {
+            assertEquals(src[x], dst[x * 4 + 3]);
+        }
+
+        transform.setRotation(0);
+        transform.setMirrored(true);
+        transform.apply(src, dst, 4, 4, BACKGROUND, null);
+        for(int y = 0; y < 4; y++) {
+            for(int x = 0; x < 4; x++) {
+                assertEquals(src[y * 4 + x], dst[y * 4 + 3 - x]);
+            }
+        }
+
+        int[] back = new int[16];
+        transform.apply(dst, back, 4, 4, BACKGROUND, null);
+        assertArrayEquals(src, back);
+    }
+
+    @Test
+    void scalingDownLeavesBackgroundAround() {
+        int[] src = new int[16 * 16];
+        Arrays.fill(src, 0xFF8000);
+        int[] dst = new int[src.length];
+        TransformationEngine transform = new TransformationEngine();
+        transform.setScale(0.5);
+        transform.apply(src, dst, 16, 16, BACKGROUND, null);
+        assertEquals(0xFF8000, dst[8 * 16 + 8]);
+        assertEquals(BACKGROUND, dst[0]);
+        assertEquals(BACKGROUND, dst[15 * 16 + 15]);
+    }
+
+    @Test
+    void applyingTheMappedAreaMatchesApplyingEverything() {
+        int w = 40, h = 30;
+        int[] before = numbered(w * h);
+        int[] after = before.clone();
+        for(int y = 10; y < 14; y++) {
+            for(int x = 5; x < 12; x++) after[y * w + x] = 0xFFFFFF;
+        }
+        TransformationEngine transform = new TransformationEngine();
+        transform.setRotation(30);
+        transform.setScale(1.3);
+
+        int[] full = new int[w * h];
+        transform.apply(after, full, w, h, BACKGROUND, null);
+        int[] partial = new int[w * h];
+        transform.apply(before, partial, w, h, BACKGROUND, null);
+        Rectangle area = transform.mapBounds(new Rectangle(5, 10, 7, 4), w, h);
+        transform.apply(after, partial, w, h, BACKGROUND, area);
+        assertArrayEquals(full, partial);
+    }
+}
@@ -0,0 +1,179 @@
+package org.sketchide.engine.scene;
+
+import org.junit.jupiter.api.Test;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SceneTest {
+
+    private static BufferedImage draw(Scene scene, int width, int height) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        // As the canvas and export frames do
+        g.setClip(0, 0, width, height);
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g.setColor(Color.DARK_GRAY);
+        g.fillRect(0, 0, width, height);
+        scene.draw(g);
+        g.dispose();
+        return image;
+    }
+
+    // Largest difference in any channel of any pixel
+    private static int difference(BufferedImage a, BufferedImage b) {
+        int[] pa = ((DataBufferInt) a.getRaster().getDataBuffer()).getData();
+        int[] pb = ((DataBufferInt) b.getRaster().getDataBuffer()).getData();
+        int max = 0;
+        for(int i = 0; i < pa.length; i++) {
+            for(int shift = 0; shift < 24; shift += 8) {
+                max = Math.max(max, Math.abs(((pa[i] >> shift) & 0xFF) - ((pb[i] >> shift) & 0xFF)));
+            }
+        }
+        return max;
+    }
+
+    @Test
+    void quadTreeFindsWhatABruteForceScanFinds() {
+        Random random = new Random(7);
+        List<SceneNode> nodes = new ArrayList<>();
+        QuadTree tree = new QuadTree(0, 0, 1000, 1000);
+        for(int i = 0; i < 2000; i++) {
+            SceneNode n = new ShapeNode(new Rectangle2D.Double(), null);
+            n.order = i;
+            place(n, random);
+            tree.insert(n);
+            nodes.add(n);
+        }
+        for(int round = 0; round < 50; round++) {
+            // Move some, some of them beyond the root
+            for(int i = 0; i < 100; i++) {
+                SceneNode n = nodes.get(random.nextInt(nodes.size()));
+                place(n, random);
+                tree.update(n);
+            }
+            double x = random.nextDouble() * 1100 - 50;
+            double y = random.nextDouble() * 1100 - 50;
+            double w = random.nextDouble() * 300;
+            double h = random.nextDouble() * 300;
+            BitSet found = new BitSet();
+            tree.query(x, y, x + w, y + h, found);
+            BitSet expected = new BitSet();
+            for(SceneNode n : nodes) {
+                if(n.maxX >= x && n.minX <= x + w && n.maxY >= y && n.minY <= y + h) expected.set(n.order);
+            }
+            assertEquals(expected, found);
+        }
+    }
+
+    private static void place(SceneNode n, Random random) {
+        n.minX = random.nextDouble() * 1200 - 100;
+        n.minY = random.nextDouble() * 1200 - 100;
+        n.maxX = n.minX + random.nextDouble() * (random.nextInt(10) == 0 ? 400 : 20);
+        n.maxY = n.minY + random.nextDouble() * 20;
+    }
+
+    @Test
+    void redrawingOnlyWhatChangedMatchesDrawingEverything() {
+        Random random = new Random(3);
+        Scene scene = new Scene();
+        List<ShapeNode> shapes = new ArrayList<>();
+        Group group = new Group();
+        scene.add(group);
+        for(int i = 0; i < 500; i++) {
+            ShapeNode shape = new ShapeNode(new Ellipse2D.Double(0, 0, 8 + random.nextInt(20), 8 + random.nextInt(20)),
+                    new Color(random.nextInt(0x1000000)));
+            shape.moveTo(random.nextInt(300), random.nextInt(200));
+            (i % 2 == 0 ? group : scene.getRoot()).add(shape);
+            shapes.add(shape);
+        }
+        draw(scene, 320, 240);
+
+        for(int frame = 0; frame < 20; frame++) {
+            for(int i = 0; i < 5; i++) {
+                ShapeNode shape = shapes.get(random.nextInt(shapes.size()));
+                switch (random.nextInt(4)) {
+                    case 0 -> shape.translate(random.nextInt(21) - 10, random.nextInt(21) - 10);
+                    case 1 -> shape.setFill(new Color(random.nextInt(0x1000000)));
+                    case 2 -> shape.setVisible(!shape.isVisible());
+                    default -> shape.setOutline(null, Color.WHITE);
+                }
+            }
+            if(frame == 10) group.translate(7, -3);
+            if(frame == 15) scene.getRoot().add(new ShapeNode(new Rectangle2D.Double(10, 10, 50, 50), Color.RED));
+
+            BufferedImage incremental = draw(scene, 320, 240);
+            assertTrue(scene.getStats().redrawnShare() < 1 || frame == 10 || frame == 15);
+            scene.setRetained(false);
+            BufferedImage full = draw(scene, 320, 240);
+            scene.setRetained(true);
+            // Anti-aliased edges go through the layer's alpha, which rounds a little differently
+            assertTrue(difference(full, incremental) <= 2, "frame " + frame);
+        }
+    }
+
+    // What SketchStateTransfer.serialize does to a sketch's Scene field
+    private static Scene copy(Scene scene) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(scene);
+        }
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            return (Scene) in.readObject();
+        }
+    }
+
+    @Test
+    void aSerializedSceneDrawsAndChangesLikeTheOriginal() throws Exception {
+        Scene scene = new Scene();
+        Group cached = new Group().setCached(true);
+        for(int i = 0; i < 40; i++) {
+            cached.add(new ShapeNode(new Ellipse2D.Double(i * 7, i % 5 * 9, 12, 12), Color.ORANGE));
+        }
+        ShapeNode outlined = new ShapeNode(new Rectangle2D.Double(0, 0, 60, 30), null)
+                .setOutline(new BasicStroke(3, BasicStroke.CAP_ROUND, BasicStroke.JOIN_BEVEL, 4, new float[]{ 5, 3 }, 1), Color.CYAN);
+        scene.add(cached).add(outlined);
+        outlined.moveTo(100, 120);
+        BufferedImage before = draw(scene, 320, 240);
+
+        Scene copy = copy(scene);
+        assertEquals(0, difference(before, draw(copy, 320, 240)));
+
+        // The copy is independent: both change the same way, each in its own nodes
+        ShapeNode copiedOutline = (ShapeNode) copy.getRoot().getChildren().get(1);
+        copiedOutline.translate(30, 10);
+        copy.getRoot().getChildren().get(0).translate(5, 5);
+        outlined.translate(30, 10);
+        cached.translate(5, 5);
+        assertEquals(0, difference(draw(scene, 320, 240), draw(copy, 320, 240)));
+        assertNotSame(outlined, copiedOutline);
+    }
+
+    @Test
+    void offScreenNodesAreCulled() {
+        Scene scene = new Scene();
+        for(int i = 0; i < 1000; i++) {
+            scene.add(new ShapeNode(new Rectangle2D.Double(i * 10, 0, 8, 8), Color.WHITE));
+        }
+        scene.setRetained(false);
+        draw(scene, 100, 20);
+        assertTrue(scene.getStats().drawn() <= 11, scene.getStats().describe());
+        assertEquals(1000, scene.getStats().nodes());
+    }
+}
@@ -0,0 +1,173 @@
+package org.sketchide.export;
+
+import org.junit.jupiter.api.Test;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ExportEngineTest {
+
+    // Keeps a copy of every frame it is given
+    private static class CollectingEncoder implements FrameEncoder {
+        final List<int[]> frames = new ArrayList<>();
+        // What changed in each frame, null for repeats
+        final List<Rectangle> changes = new ArrayList<>();
+        boolean closed;
+        boolean aborted;
+
+        @Override
+        public void open(int width, int height, double fps) {
+        }
+
+        @Override
+        public void encode(int[] rgb) {
+            frames.add(rgb.clone());
+        }
+
+        @Override
+        public void encode(int[] rgb, Rectangle changed) {
+            changes.add(changed);
+            encode(rgb);
+        }
+
+        @Override
+        public void repeat(int[] rgb) {
+            changes.add(null);
+            encode(rgb);
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+
+        @Override
+        public void abort() {
+            aborted = true;
+        }
+    }
+
+    // Frame i: a translucent red square at x = i over an opaque blue stripe
+    private static final FrameSource SQUARES = (index, buffer) -> {
+        Graphics2D g = buffer.clear();
+        g.setColor(Color.BLUE);
+        g.fillRect(0, 0, 16, 4);
+        g.setColor(new Color(255, 0, 0, 100));
+        g.fillRect(index, 2, 4, 4);
+    };
+
+    @Test
+    void framesArriveInOrderAndMatchAwtCompositing() throws Exception {
+        CollectingEncoder encoder = new CollectingEncoder();
+        Color background = new Color(30, 200, 90);
+        boolean completed = new ExportEngine(16, 8, background, 30)
+                .export(SQUARES, 12, encoder, done -> {}, () -> false);
+
+        assertTrue(completed);
+        assertTrue(encoder.closed);
+        assertEquals(12, encoder.frames.size());
+        for(int i = 0; i < 12; i++) {
+            // What VideoFrameRenderer's drawImage-based compositing produces for the same frame
+            FrameBuffer reference = new FrameBuffer(16, 8);
+            SQUARES.render(i, reference);
+            BufferedImage canvas = new BufferedImage(16, 8, BufferedImage.TYPE_INT_ARGB);
+            canvas.setRGB(0, 0, 16, 8, reference.getArgb(), 0, 16);
+            BufferedImage expected = new BufferedImage(16, 8, BufferedImage.TYPE_INT_RGB);
+            Graphics2D g = expected.createGraphics();
+            g.setColor(background);
+            g.fillRect(0, 0, 16, 8);
+            g.drawImage(canvas, 0, 0, null);
+            g.dispose();
+            int[] want = ((DataBufferInt) expected.getRaster().getDataBuffer()).getData();
+            int[] got = encoder.frames.get(i);
+            for(int p = 0; p < want.length; p++) {
+                for(int shift = 0; shift <= 16; shift += 8) {
+                    int diff = Math.abs(((want[p] >> shift) & 0xFF) - ((got[p] >> shift) & 0xFF));
+                    assertTrue(diff <= 1, "frame " + i + " pixel " + p);
+                }
+            }
+        }
+    }
+
+    @Test
+    void cancellationAbortsTheEncoder() throws Exception {
+        CollectingEncoder encoder = new CollectingEncoder();
+        AtomicInteger rendered = new AtomicInteger();
+        FrameSource source = (index, buffer) -> {
+            rendered.incrementAndGet();
+            SQUARES.render(index, buffer);
+        };
+        boolean completed = new ExportEngine(16, 8, Color.BLACK, 30)
+                .export(source, 1000, encoder, done -> {}, () -> rendered.get() >= 10);
+
+        assertFalse(completed);
+        assertTrue(encoder.aborted);
+        assertFalse(encoder.closed);
+        assertTrue(rendered.get() < 1000);
+    }
+
+    @Test
+    void encoderFailureStopsTheExport() {
+        AtomicInteger rendered = new AtomicInteger();
+        FrameEncoder failing = new CollectingEncoder() {
+            @Override
+            public void encode(int[] rgb) {
+                throw new IllegalStateException("disk full");
+            }
+        };
+        FrameSource source = (index, buffer) -> {
+            rendered.incrementAndGet();
+            SQUARES.render(index, buffer);
+        };
+        Exception e = assertThrows(IllegalStateException.class, () -> new ExportEngine(16, 8, Color.BLACK, 30)
+                .export(source, 1000, failing, done -> {}, () -> false));
+        assertEquals("disk full", e.getMessage());
+        assertTrue(rendered.get() < 1000);
+    }
+
+    @Test
+    void unchangedFramesArriveAsRepeats() throws Exception {
+        // A white 2x2 square that moves one pixel right every third frame
+        FrameSource source = (index, buffer) -> {
+            Graphics2D g = buffer.clear();
+            g.setColor(Color.WHITE);
+            g.fillRect(index / 3, 1, 2, 2);
+        };
+        CollectingEncoder encoder = new CollectingEncoder();
+        new ExportEngine(16, 8, Color.BLACK, 30).export(source, 6, encoder, done -> {}, () -> false);
+
+        assertEquals(6, encoder.frames.size());
+        assertEquals(new Rectangle(0, 0, 16, 8), encoder.changes.get(0));
+        assertNull(encoder.changes.get(1));
+        assertNull(encoder.changes.get(2));
+        assertEquals(new Rectangle(0, 1, 3, 2), encoder.changes.get(3));
+        assertNull(encoder.changes.get(4));
+        // Repeats still carry the whole frame
+        assertArrayEquals(encoder.frames.get(3), encoder.frames.get(5));
+        assertEquals(0xFFFFFF, encoder.frames.get(5)[16 + 2]);
+        assertEquals(0, encoder.frames.get(5)[16]);
+    }
+
+    @Test
+    void pooledGraphicsForgetTheLastSketchsSettings() {
+        FrameBuffer buffer = new FrameBuffer(8, 8);
+        Graphics2D g = buffer.clear();
+        Font font = g.getFont();
+        Object antialias = g.getRenderingHint(RenderingHints.KEY_ANTIALIASING);
+
+        g.setFont(new Font(Font.SERIF, Font.BOLD, 40));
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g.translate(3, 3);
+        g = buffer.clear();
+
+        assertEquals(font, g.getFont());
+        assertEquals(antialias, g.getRenderingHint(RenderingHints.KEY_ANTIALIASING));
+        assertTrue(g.getTransform().isIdentity());
+    }
+}
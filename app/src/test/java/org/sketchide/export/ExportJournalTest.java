@@ -0,0 +1,72 @@
+package org.sketchide.export;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ExportJournalTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void checkpointsSurviveReopening() throws Exception {
+        Path file = dir.resolve("export.journal");
+        try (ExportJournal journal = ExportJournal.open(file, 42, 640, 360, 30, 900)) {
+            assertEquals(0, journal.getFramesDone());
+            assertNull(journal.getState());
+            journal.checkpoint(60, new byte[]{1, 2, 3}, true);
+            journal.checkpoint(120, new byte[]{4, 5, 6, 7, 8}, true);
+            // Larger than the gap in front of the current state
+            journal.checkpoint(180, new byte[5000], false);
+            journal.checkpoint(240, new byte[]{9}, false);
+        }
+        assertEquals(240, ExportJournal.framesDone(file, 42, 640, 360, 30, 900));
+        try (ExportJournal journal = ExportJournal.open(file, 42, 640, 360, 30, 900)) {
+            assertEquals(240, journal.getFramesDone());
+            assertArrayEquals(new byte[]{9}, journal.getState());
+            journal.checkpoint(300, null, false);
+            assertNull(journal.getState());
+        }
+        // Nothing holds on to the file once it is closed
+        Files.delete(file);
+        assertEquals(0, ExportJournal.framesDone(file, 42, 640, 360, 30, 900));
+    }
+
+    @Test
+    void otherSettingsStartOver() throws Exception {
+        Path file = dir.resolve("export.journal");
+        try (ExportJournal journal = ExportJournal.open(file, 42, 640, 360, 30, 900)) {
+            journal.checkpoint(60, null, false);
+        }
+        assertEquals(0, ExportJournal.framesDone(file, 43, 640, 360, 30, 900));
+        assertEquals(0, ExportJournal.framesDone(file, 42, 640, 360, 30, 600));
+        try (ExportJournal journal = ExportJournal.open(file, 42, 1280, 720, 30, 900)) {
+            assertEquals(0, journal.getFramesDone());
+        }
+        assertEquals(0, ExportJournal.framesDone(file, 42, 640, 360, 30, 900));
+    }
+
+    @Test
+    void tornCheckpointFallsBackToThePreviousOne() throws Exception {
+        Path file = dir.resolve("export.journal");
+        try (ExportJournal journal = ExportJournal.open(file, 7, 100, 100, 25, 500)) {
+            journal.checkpoint(50, new byte[]{1, 1}, false);
+            journal.checkpoint(100, new byte[]{2, 2}, false);
+        }
+        // The second checkpoint went into the second record; damage its frame count
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            raf.seek(64 + 32 + 8);
+            raf.write(0x7F);
+        }
+        try (ExportJournal journal = ExportJournal.open(file, 7, 100, 100, 25, 500)) {
+            assertEquals(50, journal.getFramesDone());
+            assertArrayEquals(new byte[]{1, 1}, journal.getState());
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package org.sketchide.export;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FfmpegTest {
+
+    @Test
+    void parsesStatusLines() {
+        Ffmpeg.Progress p = Ffmpeg.parseProgress(
+                "frame=  240 fps= 60 q=28.0 size=     512kB time=00:01:02.50 bitrate= 524.3kbits/s speed=2.01x");
+        assertNotNull(p);
+        assertEquals(240, p.frame());
+        assertEquals(60.0, p.fps(), 1e-9);
+        assertEquals(512 * 1024, p.sizeBytes());
+        assertEquals(62.5, p.seconds(), 1e-9);
+        assertEquals(2.01, p.speed(), 1e-9);
+
+        // Newer ffmpeg: binary units; N/A before the first packet
+        p = Ffmpeg.parseProgress("frame=    0 fps=0.0 q=0.0 size=       0KiB time=N/A bitrate=N/A speed=N/A");
+        assertNotNull(p);
+        assertEquals(0, p.frame());
+        assertEquals(0, p.sizeBytes());
+        assertEquals(-1.0, p.seconds());
+        assertEquals(-1.0, p.speed());
+
+        p = Ffmpeg.parseProgress("frame= 9000 fps=120 q=-1.0 Lsize=   3.5MiB time=00:05:00.00 bitrate=  97.9kbits/s speed=4x");
+        assertEquals((long) (3.5 * 1024 * 1024), p.sizeBytes());
+        assertEquals(300.0, p.seconds(), 1e-9);
+    }
+
+    @Test
+    void ignoresOtherOutput() {
+        assertNull(Ffmpeg.parseProgress("Input #0, rawvideo, from 'pipe:':"));
+        assertNull(Ffmpeg.parseProgress("  Stream #0:0: Video: h264 (libx264), yuv420p, 640x360"));
+    }
+
+    @Test
+    void keepsTheExactFrameRate() {
+        // 33 ms per frame; rounding down to 30 fps would drift from the sound by 0.6 s a minute
+        double fps = 1000.0 / 33;
+        List<String> cmd = Ffmpeg.pngSequenceToMp4(fps, Path.of("frames"), new File("out.mp4"), Path.of("song.wav")).command();
+        assertEquals(String.valueOf(fps), cmd.get(cmd.indexOf("-framerate") + 1));
+        assertTrue(cmd.contains(Path.of("song.wav").toAbsolutePath().toString()));
+    }
+}
@@ -0,0 +1,45 @@
+package org.sketchide.export;
+
+import org.junit.jupiter.api.Test;
+
+import java.awt.Rectangle;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FrameDiffTest {
+
+    @Test
+    void boundsCoverExactlyTheChangedPixels() {
+        int[] a = new int[20 * 10];
+        int[] b = a.clone();
+        assertNull(FrameDiff.bounds(a, b, 20, 10));
+
+        b[3 * 20 + 15] = 1;
+        b[6 * 20 + 2] = 1;
+        b[4 * 20 + 19] = 1;
+        assertEquals(new Rectangle(2, 3, 18, 4), FrameDiff.bounds(a, b, 20, 10));
+
+        int[] c = a.clone();
+        c[0] = 1;
+        c[c.length - 1] = 1;
+        assertEquals(new Rectangle(0, 0, 20, 10), FrameDiff.bounds(a, c, 20, 10));
+    }
+
+    @Test
+    void updateComparesWithTheFrameBefore() {
+        FrameDiff diff = new FrameDiff(8, 8);
+        int[] frame = new int[64];
+        assertEquals(new Rectangle(0, 0, 8, 8), diff.update(frame));
+        assertNull(diff.update(frame));
+
+        frame[2 * 8 + 5] = 0xFF0000;
+        assertEquals(new Rectangle(5, 2, 1, 1), diff.update(frame));
+        assertNull(diff.update(frame));
+
+        frame[7 * 8 + 1] = 0x00FF00;
+        assertEquals(new Rectangle(1, 7, 1, 1), diff.update(frame));
+
+        diff.reset();
+        assertEquals(new Rectangle(0, 0, 8, 8), diff.update(frame));
+    }
+}
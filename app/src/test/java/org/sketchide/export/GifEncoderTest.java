@@ -0,0 +1,119 @@
+package org.sketchide.export;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GifEncoderTest {
+
+    @TempDir
+    Path dir;
+
+    private static BufferedImage[] readFrames(File file) throws IOException {
+        try (ImageInputStream in = ImageIO.createImageInputStream(file)) {
+            ImageReader reader = ImageIO.getImageReadersByFormatName("gif").next();
+            reader.setInput(in);
+            int count = reader.getNumImages(true);
+            BufferedImage[] frames = new BufferedImage[count];
+            for(int i = 0; i < count; i++) frames[i] = reader.read(i);
+            reader.dispose();
+            return frames;
+        }
+    }
+
+    @Test
+    void flatColoursSurviveExactly() throws IOException {
+        File file = dir.resolve("flat.gif").toFile();
+        GifEncoder encoder = new GifEncoder(file);
+        encoder.open(40, 30, 25);
+        int[] colours = {0xFFA500, 0x1E90FF, 0x000000, 0xFFFFFF};
+        int[] rgb = new int[40 * 30];
+        for(int frame = 0; frame < 3; frame++) {
+            for(int i = 0; i < rgb.length; i++) {
+                rgb[i] = colours[(i % 40 / 10 + frame) % colours.length];
+            }
+            encoder.encode(rgb);
+        }
+        encoder.close();
+
+        BufferedImage[] frames = readFrames(file);
+        assertEquals(3, frames.length);
+        for(int frame = 0; frame < 3; frame++) {
+            for(int i = 0; i < rgb.length; i++) {
+                int want = colours[(i % 40 / 10 + frame) % colours.length];
+                assertEquals(want, frames[frame].getRGB(i % 40, i / 40) & 0xFFFFFF, "frame " + frame + " pixel " + i);
+            }
+        }
+    }
+
+    @Test
+    void noisyFramesDecodeAfterTableResets() throws IOException {
+        // Random pixels fill the 4096-entry LZW table many times over
+        File file = dir.resolve("noise.gif").toFile();
+        GifEncoder encoder = new GifEncoder(file);
+        encoder.open(300, 200, 30);
+        Random random = new Random(1);
+        int[] rgb = new int[300 * 200];
+        for(int i = 0; i < rgb.length; i++) rgb[i] = random.nextInt(0x1000000);
+        encoder.encode(rgb);
+        encoder.close();
+
+        BufferedImage[] frames = readFrames(file);
+        assertEquals(1, frames.length);
+        // 256 colours cannot be exact, but each channel should land near the source
+        long error = 0;
+        for(int i = 0; i < rgb.length; i++) {
+            int got = frames[0].getRGB(i % 300, i / 300);
+            for(int shift = 0; shift <= 16; shift += 8) {
+                error += Math.abs(((got >> shift) & 0xFF) - ((rgb[i] >> shift) & 0xFF));
+            }
+        }
+        assertTrue(error / (rgb.length * 3.0) < 40, "mean channel error " + error / (rgb.length * 3.0));
+    }
+
+    @Test
+    void partialFramesAndRepeatsStayCompact() throws IOException {
+        File file = dir.resolve("partial.gif").toFile();
+        GifEncoder encoder = new GifEncoder(file);
+        encoder.open(20, 10, 10);
+        int[] rgb = new int[20 * 10];
+        Arrays.fill(rgb, 0x336699);
+        encoder.encode(rgb);
+        rgb[3 * 20 + 4] = 0xFF0000;
+        rgb[5 * 20 + 6] = 0xFFFF00;
+        encoder.encode(rgb, new Rectangle(4, 3, 3, 3));
+        encoder.repeat(rgb);
+        encoder.repeat(rgb);
+        encoder.close();
+
+        // The second image is just the changed rectangle, and the repeats are folded into its delay
+        BufferedImage[] frames = readFrames(file);
+        assertEquals(2, frames.length);
+        assertEquals(3, frames[1].getWidth());
+        assertEquals(3, frames[1].getHeight());
+        for(int y = 0; y < 3; y++) {
+            for(int x = 0; x < 3; x++) {
+                assertEquals(rgb[(3 + y) * 20 + 4 + x], frames[1].getRGB(x, y) & 0xFFFFFF, "pixel " + x + "," + y);
+            }
+        }
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        int second = -1;
+        for(int i = 0, seen = 0; i < bytes.length - 1; i++) {
+            if(bytes[i] == 0x21 && bytes[i + 1] == (byte) 0xF9 && ++seen == 2) second = i;
+        }
+        assertEquals(30, (bytes[second + 4] & 0xFF) | (bytes[second + 5] & 0xFF) << 8);
+    }
+}
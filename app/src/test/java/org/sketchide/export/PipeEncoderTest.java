@@ -0,0 +1,72 @@
+package org.sketchide.export;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PipeEncoderTest {
+
+    @TempDir
+    Path dir;
+
+    // Stand-in for ffmpeg: copies stdin into the file named by its first argument
+    public static class RecordingProcess {
+        public static void main(String[] args) throws IOException {
+            try (InputStream in = System.in; OutputStream out = Files.newOutputStream(Paths.get(args[0]))) {
+                in.transferTo(out);
+            }
+            if(args.length > 1) System.exit(Integer.parseInt(args[1]));
+        }
+    }
+
+    private static PipeEncoder.Command recordTo(Path file, String... extra) {
+        return (width, height, fps) -> {
+            String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+            List<String> cmd = new ArrayList<>(List.of(java, "-cp", System.getProperty("java.class.path"),
+                    RecordingProcess.class.getName(), file.toString()));
+            cmd.addAll(List.of(extra));
+            return cmd;
+        };
+    }
+
+    @Test
+    void writesEveryFrameAsBgrx() throws IOException {
+        Path recorded = dir.resolve("frames.raw");
+        PipeEncoder encoder = new PipeEncoder(recordTo(recorded));
+        encoder.open(2, 1, 30);
+        int[] frame = new int[2];
+        for(int i = 0; i < 3; i++) {
+            frame[0] = 0x112233 + i;
+            frame[1] = 0xAABBCC;
+            encoder.encode(frame);
+        }
+        encoder.close();
+
+        byte[] bytes = Files.readAllBytes(recorded);
+        assertEquals(3 * 2 * 4, bytes.length);
+        assertEquals(bytes.length, encoder.getBytesWritten());
+        // frame 2, first pixel: B, G, R, padding
+        assertArrayEquals(new byte[]{0x35, 0x22, 0x11, 0}, Arrays.copyOfRange(bytes, 16, 20));
+        assertArrayEquals(new byte[]{(byte) 0xCC, (byte) 0xBB, (byte) 0xAA, 0}, Arrays.copyOfRange(bytes, 20, 24));
+    }
+
+    @Test
+    void failedEncoderIsReported() throws IOException {
+        PipeEncoder encoder = new PipeEncoder(recordTo(dir.resolve("frames.raw"), "3"));
+        encoder.open(1, 1, 30);
+        encoder.encode(new int[]{0});
+        IOException e = assertThrows(IOException.class, encoder::close);
+        assertTrue(e.getMessage().contains("code 3"));
+    }
+}
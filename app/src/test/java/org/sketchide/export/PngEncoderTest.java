@@ -0,0 +1,107 @@
+package org.sketchide.export;
+
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.zip.Adler32;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PngEncoderTest {
+
+    // Smooth gradients with some noise, so every filter type gets picked somewhere
+    private static int[] testPixels(int width, int height, boolean alpha) {
+        Random random = new Random(42);
+        int[] pixels = new int[width * height];
+        for(int y = 0; y < height; y++) {
+            for(int x = 0; x < width; x++) {
+                int r = (x * 255) / width;
+                int g = (y * 255) / height;
+                int b = (x + y) % 7 == 0 ? random.nextInt(256) : (x ^ y) & 0xFF;
+                int a = alpha ? (x * 7 + y) & 0xFF : 0xFF;
+                pixels[y * width + x] = (a << 24) | (r << 16) | (g << 8) | b;
+            }
+        }
+        return pixels;
+    }
+
+    private static void assertRoundTrip(PngEncoder encoder, int width, int height, boolean alpha) throws IOException {
+        int[] pixels = testPixels(width, height, alpha);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        encoder.write(pixels, width, height, alpha, out);
+
+        BufferedImage decoded = ImageIO.read(new ByteArrayInputStream(out.toByteArray()));
+        assertNotNull(decoded);
+        assertEquals(width, decoded.getWidth());
+        assertEquals(height, decoded.getHeight());
+        assertEquals(alpha, decoded.getColorModel().hasAlpha());
+        int[] got = decoded.getRGB(0, 0, width, height, null, 0, width);
+        for(int i = 0; i < pixels.length; i++) {
+            int want = alpha ? pixels[i] : pixels[i] | 0xFF000000;
+            assertEquals(want, got[i], "pixel " + i);
+        }
+    }
+
+    @Test
+    void everyFilterRoundTripsAcrossStrips() throws IOException {
+        for(PngEncoder.Filter filter : PngEncoder.Filter.values()) {
+            // 4 strips of 50 rows
+            PngEncoder encoder = new PngEncoder(PngEncoder.DEFAULT_LEVEL, filter, 4);
+            assertRoundTrip(encoder, 97, 200, false);
+            assertRoundTrip(encoder, 97, 200, true);
+        }
+    }
+
+    @Test
+    void compressionLevelsAndReuse() throws IOException {
+        for(int level : new int[]{0, 1, 4, 9}) {
+            PngEncoder encoder = new PngEncoder(level, PngEncoder.Filter.ADAPTIVE, 3);
+            assertRoundTrip(encoder, 64, 130, false);
+            // Same encoder, different geometry
+            assertRoundTrip(encoder, 31, 7, true);
+            assertRoundTrip(encoder, 300, 100, false);
+        }
+    }
+
+    @Test
+    void bandsStreamIntoOneImage() throws IOException {
+        int width = 70, height = 190;
+        int[] pixels = testPixels(width, height, false);
+        PngEncoder encoder = new PngEncoder(PngEncoder.DEFAULT_LEVEL, PngEncoder.Filter.PAETH, 2);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        encoder.begin(out, width, height, false);
+        // Uneven bands, each handed over in its own array
+        for(int row = 0; row < height; ) {
+            int rows = Math.min(height - row, 23 + row % 50);
+            int[] band = new int[rows * width];
+            System.arraycopy(pixels, row * width, band, 0, band.length);
+            encoder.writeRows(band, rows);
+            row += rows;
+        }
+
+        BufferedImage decoded = ImageIO.read(new ByteArrayInputStream(out.toByteArray()));
+        int[] got = decoded.getRGB(0, 0, width, height, null, 0, width);
+        for(int i = 0; i < pixels.length; i++) {
+            assertEquals(pixels[i] | 0xFF000000, got[i], "pixel " + i);
+        }
+    }
+
+    @Test
+    void adlerCombineMatchesSequential() {
+        byte[] data = new byte[100_000];
+        new Random(7).nextBytes(data);
+        Adler32 whole = new Adler32();
+        whole.update(data);
+        Adler32 first = new Adler32();
+        first.update(data, 0, 33_333);
+        Adler32 second = new Adler32();
+        second.update(data, 33_333, data.length - 33_333);
+        assertEquals(whole.getValue(),
+                PngEncoder.combineAdler32(first.getValue(), second.getValue(), data.length - 33_333));
+    }
+}
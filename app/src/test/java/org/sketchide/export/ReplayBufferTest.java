@@ -0,0 +1,106 @@
+package org.sketchide.export;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ReplayBufferTest {
+
+    private static final int W = 48;
+    private static final int H = 32;
+
+    // Frame i: gradient background, a square moving right, and a little noise
+    private static int[] frame(int i) {
+        int[] rgb = new int[W * H];
+        Random random = new Random(i);
+        for(int y = 0; y < H; y++) {
+            for(int x = 0; x < W; x++) {
+                rgb[y * W + x] = (x * 5) << 16 | (y * 7) << 8 | 40;
+            }
+        }
+        for(int y = 8; y < 20; y++) {
+            for(int x = i % W; x < Math.min(W, i % W + 10); x++) {
+                rgb[y * W + x] = 0xFF8800;
+            }
+        }
+        rgb[random.nextInt(rgb.length)] = random.nextInt(0x1000000);
+        return rgb;
+    }
+
+    private static List<int[]> play(ReplayBuffer.Replay replay) {
+        List<int[]> frames = new ArrayList<>();
+        FrameBuffer buffer = new FrameBuffer(replay.getWidth(), replay.getHeight());
+        for(int i = 0; i < replay.getFrameCount(); i++) {
+            replay.render(i, buffer);
+            int[] argb = buffer.getArgb().clone();
+            for(int p = 0; p < argb.length; p++) argb[p] &= 0xFFFFFF;
+            frames.add(argb);
+        }
+        buffer.dispose();
+        return frames;
+    }
+
+    @Test
+    void framesComeBackExactly() throws Exception {
+        ReplayBuffer recorder = new ReplayBuffer(60, 1 << 20, 10);
+        for(int i = 0; i < 45; i++) {
+            recorder.record(frame(i), W, H);
+            recorder.awaitIdle();
+        }
+        ReplayBuffer.Replay replay = recorder.snapshot();
+        recorder.stop();
+
+        assertEquals(45, replay.getFrameCount());
+        // Deltas of a mostly static picture are far smaller than the raw frames
+        assertTrue(replay.getCompressedBytes() < 45L * W * H * 3 / 4);
+        List<int[]> frames = play(replay);
+        for(int i = 0; i < 45; i++) {
+            assertArrayEquals(frame(i), frames.get(i), "frame " + i);
+        }
+
+        // Jumping into the middle of a group decodes from its keyframe
+        FrameBuffer buffer = new FrameBuffer(W, H);
+        replay.render(27, buffer);
+        int[] argb = buffer.getArgb();
+        for(int p = 0; p < argb.length; p++) assertEquals(frame(27)[p], argb[p] & 0xFFFFFF);
+        buffer.dispose();
+    }
+
+    @Test
+    void fullRingKeepsTheNewestFramesFromAKeyframe() throws Exception {
+        // Room for a few keyframe groups only
+        ReplayBuffer recorder = new ReplayBuffer(60, 12_000, 5);
+        for(int i = 0; i < 200; i++) {
+            recorder.record(frame(i), W, H);
+            recorder.awaitIdle();
+        }
+        ReplayBuffer.Replay replay = recorder.snapshot();
+        recorder.stop();
+
+        int count = replay.getFrameCount();
+        assertTrue(count > 0 && count < 200);
+        List<int[]> frames = play(replay);
+        for(int i = 0; i < count; i++) {
+            assertArrayEquals(frame(200 - count + i), frames.get(i), "frame " + i);
+        }
+    }
+
+    @Test
+    void sizeChangeStartsOver() throws Exception {
+        ReplayBuffer recorder = new ReplayBuffer(60, 1 << 20, 10);
+        recorder.record(new int[16 * 16], 16, 16);
+        recorder.awaitIdle();
+        recorder.record(frame(3), W, H);
+        recorder.awaitIdle();
+        ReplayBuffer.Replay replay = recorder.snapshot();
+        recorder.stop();
+
+        assertEquals(1, replay.getFrameCount());
+        assertEquals(W, replay.getWidth());
+        assertArrayEquals(frame(3), play(replay).get(0));
+    }
+}
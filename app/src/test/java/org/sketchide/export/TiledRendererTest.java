@@ -0,0 +1,139 @@
+package org.sketchide.export;
+
+import org.junit.jupiter.api.Test;
+import org.sketchide.engine.Sketch;
+import org.sketchide.engine.SketchRunner;
+import org.sketchide.engine.TimedSketch;
+
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TiledRendererTest {
+
+    // Stateful: moves its circle on every draw
+    public static class Counter implements TimedSketch {
+        public int n;
+
+        @Override
+        public int init() {
+            return 0;
+        }
+
+        @Override
+        public void draw(Graphics2D g) {
+            n++;
+            g.setColor(new Color(255, 0, 0, 128));
+            g.fillRect(10, 10, 30, 20);
+            g.setColor(Color.BLUE);
+            g.fillOval(50 + n, 5, 20, 20);
+        }
+    }
+
+    @Test
+    void tilesJoinSeamlesslyAndStateAdvancesOncePerFrame() throws Exception {
+        Counter tiledSketch = new Counter();
+        int[] tiled = new int[400 * 200];
+        new TiledRenderer(100, 50, 400, 200, 2, Color.WHITE, 64).render(tiledSketch, 0, 0, tiled);
+
+        Counter wholeSketch = new Counter();
+        int[] whole = new int[400 * 200];
+        new TiledRenderer(100, 50, 400, 200, 2, Color.WHITE, 512).render(wholeSketch, 0, 0, whole);
+
+        assertArrayEquals(whole, tiled);
+        assertEquals(1, tiledSketch.n);
+    }
+
+    // Stateful through an array and a list, which a field-by-field copy would share
+    public static class Trail implements TimedSketch {
+        public int[] draws = new int[1];
+        public List<Integer> xs = new ArrayList<>();
+
+        @Override
+        public int init() {
+            return 0;
+        }
+
+        @Override
+        public void draw(Graphics2D g) {
+            draws[0]++;
+            xs.add(10 + 15 * xs.size());
+            g.setColor(Color.BLACK);
+            for(int x : xs) {
+                g.fillRect(x, 20, 10, 10);
+            }
+        }
+    }
+
+    @Test
+    void arrayAndListStateAdvancesOncePerFrame() throws Exception {
+        Trail tiledSketch = new Trail();
+        int[] tiled = new int[400 * 200];
+        TiledRenderer tiles = new TiledRenderer(100, 50, 400, 200, 1, Color.WHITE, 64);
+        Trail wholeSketch = new Trail();
+        int[] whole = new int[400 * 200];
+        TiledRenderer single = new TiledRenderer(100, 50, 400, 200, 1, Color.WHITE, 512);
+        for(int frame = 0; frame < 3; frame++) {
+            tiles.render(tiledSketch, frame, 0, tiled);
+            single.render(wholeSketch, frame, 0, whole);
+            assertArrayEquals(whole, tiled, "frame " + frame);
+        }
+        assertEquals(3, tiledSketch.draws[0]);
+        assertEquals(List.of(10, 25, 40), tiledSketch.xs);
+    }
+
+    // Written the documented way, with an AudioFrame field read at the top of draw
+    private static final String PULSE = """
+            AudioFrame audio = new AudioFrame();
+            public int beats;
+            public int init() { return 0; }
+            public void draw(Graphics2D g) {
+                Audio.read(audio);
+                beats++;
+                g.setColor(audio.isActive() ? Color.RED : Color.GRAY);
+                g.fillOval(20 + beats, 10, 30, 30);
+            }
+            """;
+
+    @Test
+    void audioSketchRendersInTiles() throws Exception {
+        Class<?> cls = SketchRunner.compileSketchClass(PULSE, message -> { });
+        Sketch tiledSketch = (Sketch) cls.getDeclaredConstructor().newInstance();
+        int[] tiled = new int[400 * 200];
+        new TiledRenderer(100, 50, 400, 200, 1, Color.WHITE, 64).render(tiledSketch, 0, 0, tiled);
+        Sketch wholeSketch = (Sketch) cls.getDeclaredConstructor().newInstance();
+        int[] whole = new int[400 * 200];
+        new TiledRenderer(100, 50, 400, 200, 1, Color.WHITE, 512).render(wholeSketch, 0, 0, whole);
+
+        assertArrayEquals(whole, tiled);
+        assertEquals(1, cls.getField("beats").getInt(tiledSketch));
+    }
+
+    @Test
+    void supersampledPixelsAreAveragedOntoTheBackground() throws Exception {
+        // 16 source columns onto 8 output columns at factor 2: every output pixel gets one black
+        // and one empty sample column
+        int[] out = new int[8 * 4];
+        new TiledRenderer(16, 4, 8, 4, 2, Color.WHITE).render(new Stripes(), 0, 0, out);
+        for(int p : out) {
+            assertEquals(0xFF808080, p);
+        }
+    }
+
+    public static class Stripes implements TimedSketch {
+        @Override
+        public int init() {
+            return 0;
+        }
+
+        @Override
+        public void draw(Graphics2D g) {
+            g.setColor(Color.BLACK);
+            for(int x = 0; x < 16; x += 2) {
+                g.fillRect(x, 0, 1, 4);
+            }
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package org.sketchide.history;
+
+import org.junit.jupiter.api.Test;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RunHistoryTest {
+
+    private static final int W = 150;
+    private static final int H = 100;
+
+    private static final String SKETCH = """
+            int x = 0;
+            @Override
+            public void draw(Graphics2D g) {
+                g.setColor(new Color(40, 120, 200));
+                for(int i = 0; i < 12; i++) {
+                    g.fillOval(x + i * 30, 50, 20, 20); // dots in a row
+                }
+                x = (x + 3) % 400;
+            }
+            @Override
+            public int init() { return 33; }
+            """;
+
+    // Live-coding edits: a number tweaked, a line added, now and then something unusual
+    private static String edit(String source, Random random) {
+        return switch (random.nextInt(4)) {
+            case 0 -> source.replaceFirst("\\d+", String.valueOf(random.nextInt(500)));
+            case 1 -> source.replace("x = (x", "    // step " + random.nextInt(100) + "\n    x = (x");
+            case 2 -> source.replace("dots", "Punkte é ✓ " + random.nextInt(9));
+            default -> "\t" + source + "\r\n";
+        };
+    }
+
+    // A still background with one box that moves, so most tiles repeat between versions
+    private static int[] frame(int version) {
+        int[] rgb = new int[W * H];
+        for(int i = 0; i < rgb.length; i++) rgb[i] = (i % W) << 16 | 0x3030;
+        for(int y = 20; y < 40; y++) {
+            for(int x = version % 120; x < version % 120 + 25; x++) rgb[y * W + x] = 0xFF8800 + version;
+        }
+        return rgb;
+    }
+
+    private static int[] pixels(BufferedImage image) {
+        return ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+    }
+
+    @Test
+    void sourcesSurviveTheCodecExactly() {
+        SourceCodec codec = new SourceCodec();
+        Random random = new Random(5);
+        String previous = "";
+        String source = SKETCH;
+        for(int i = 0; i < 200; i++) {
+            assertEquals(source, codec.decode(codec.encode(source)));
+            assertEquals(source, codec.decodeDelta(previous, codec.encodeDelta(previous, source)));
+            previous = source;
+            source = edit(source, random);
+        }
+        assertEquals("", codec.decode(codec.encode("")));
+        assertEquals("x", codec.decode(codec.encode("x")));
+        assertTrue(codec.encode(SKETCH).length < SKETCH.length() / 2);
+    }
+
+    @Test
+    void undoRedoAndJumpsBringBackEachVersion() {
+        RunHistory history = new RunHistory();
+        Random random = new Random(11);
+        List<String> sources = new ArrayList<>();
+        List<Long> numbers = new ArrayList<>();
+        String source = SKETCH;
+        for(int i = 0; i < 3 * RunHistory.KEYFRAME_INTERVAL + 5; i++) {
+            sources.add(source);
+            numbers.add(history.record(source, frame(i), W, H));
+            source = edit(source, random);
+        }
+        assertFalse(history.canRedo());
+
+        for(int i = sources.size() - 2; i >= 0; i--) {
+            RunHistory.Snapshot snapshot = history.undo();
+            assertEquals(sources.get(i), snapshot.source());
+            assertArrayEquals(frame(i), pixels(snapshot.frame()));
+        }
+        assertNull(history.undo());
+        assertEquals(sources.get(1), history.redo().source());
+
+        for(int i : new int[]{70, 3, 99, 32, 33, 64}) {
+            RunHistory.Snapshot snapshot = history.jumpTo(numbers.get(i));
+            assertEquals(sources.get(i), snapshot.source());
+            assertArrayEquals(frame(i), pixels(snapshot.frame()));
+        }
+
+        // Running something else after going back replaces the versions ahead
+        history.jumpTo(numbers.get(40));
+        long branch = history.record("int branch;", frame(500), W, H);
+        assertFalse(history.canRedo());
+        assertEquals(42, history.getVersions().size());
+        assertNull(history.get(numbers.get(41)));
+        assertEquals(sources.get(40), history.undo().source());
+        assertEquals("int branch;", history.redo().source());
+        assertArrayEquals(frame(500), pixels(history.get(branch).frame()));
+    }
+
+    @Test
+    void oldVersionsAreDroppedToStayWithinTheBudget() {
+        long budget = 256 * 1024;
+        RunHistory history = new RunHistory(budget);
+        Random random = new Random(2);
+        List<String> sources = new ArrayList<>();
+        String source = SKETCH;
+        for(int i = 0; i < 2000; i++) {
+            // Noise, so frames hardly compress and the budget is what limits the history
+            int[] rgb = new int[W * H];
+            for(int p = 0; p < rgb.length; p++) rgb[p] = random.nextInt(0x1000000);
+            sources.add(source);
+            history.record(source, rgb, W, H);
+            source = edit(source, random);
+            assertTrue(history.getStats().usedBytes() <= budget, history.getStats().describe());
+        }
+        RunHistory.Stats stats = history.getStats();
+        assertTrue(stats.dropped() > 0);
+        assertEquals(2000, stats.versions() + stats.dropped());
+
+        // What is left still decodes, including the versions after a dropped keyframe
+        List<RunHistory.Version> versions = history.getVersions();
+        for(RunHistory.Version version : versions) {
+            assertEquals(sources.get((int) version.number() - 1), history.get(version.number()).source());
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package org.sketchide.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.sketchide.engine.CompilerService;
+import org.sketchide.engine.SketchRunner;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FileExporterTest {
+
+    @TempDir
+    Path dir;
+
+    private static final String SKETCH = """
+            @Override
+            public void draw(Graphics2D g) {
+                g.setColor(Color.ORANGE);
+                g.fillOval(40, 40, 120, 120); // sun ☀
+            }
+            @Override
+            public int init() { return 40; }
+            """;
+
+    private static final FileExporter.Settings SETTINGS = new FileExporter.Settings("Animation", 800, 600, 40,
+            90, 1.5, true, false, 0xFF102030, "GIF");
+
+    private static BufferedImage frame() {
+        BufferedImage frame = new BufferedImage(800, 600, BufferedImage.TYPE_INT_RGB);
+        for(int y = 0; y < 600; y++) {
+            for(int x = 0; x < 800; x++) frame.setRGB(x, y, x << 16 | y);
+        }
+        return frame;
+    }
+
+    @Test
+    void projectsRoundTrip() throws Exception {
+        Path file = dir.resolve("sun.skp");
+        Map<String, byte[]> classes = Map.of("dynamic.UserSketch", new byte[]{(byte) 0xCA, (byte) 0xFE, 1, 2, 3});
+        BufferedImage thumbnail = FileExporter.thumbnail(frame());
+        assertEquals(FileExporter.THUMBNAIL_WIDTH, thumbnail.getWidth());
+        assertEquals(FileExporter.THUMBNAIL_HEIGHT, thumbnail.getHeight());
+
+        FileExporter.write(file, new FileExporter.Project(SKETCH, SETTINGS, thumbnail,
+                new FileExporter.Bytecode("21/abc", classes)));
+        FileExporter.Project project = FileExporter.read(file);
+        assertEquals(SKETCH, project.source());
+        assertEquals(SETTINGS, project.settings());
+        assertEquals("21/abc", project.bytecode().key());
+        assertArrayEquals(classes.get("dynamic.UserSketch"), project.bytecode().classes().get("dynamic.UserSketch"));
+        assertEquals(thumbnail.getRGB(100, 50), project.thumbnail().getRGB(100, 50));
+
+        FileExporter.Reader reader = FileExporter.Reader.open(file);
+        FileExporter.Info info = reader.getInfo();
+        assertEquals(7, info.lines());
+        assertEquals("21/abc", info.compiledKey());
+        // Closing lets go of the file, so that saving can replace it
+        reader.close();
+        assertThrows(IOException.class, reader::getSource);
+
+        // Saved again without the optional sections, over the first file
+        FileExporter.write(file, new FileExporter.Project("", SETTINGS, null, null));
+        project = FileExporter.read(file);
+        assertEquals("", project.source());
+        assertNull(project.thumbnail());
+        assertNull(project.bytecode());
+        try (var files = Files.list(dir)) {
+            assertEquals(1, files.count());
+        }
+    }
+
+    @Test
+    void damagedSectionsDoNotHideTheOthers() throws Exception {
+        Path file = dir.resolve("damaged.skp");
+        FileExporter.write(file, new FileExporter.Project(SKETCH, SETTINGS, FileExporter.thumbnail(frame()), null));
+        // Flip a byte near the end, in the deflated source
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            raf.seek(raf.length() - 3);
+            int b = raf.read();
+            raf.seek(raf.length() - 3);
+            raf.write(b ^ 0x40);
+        }
+        try (FileExporter.Reader reader = FileExporter.Reader.open(file)) {
+            assertEquals(SETTINGS, reader.getInfo().settings());
+            assertNotNull(reader.getThumbnail());
+            assertThrows(IOException.class, reader::getSource);
+        }
+
+        Files.write(file, new byte[]{1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16});
+        assertThrows(IOException.class, () -> FileExporter.Reader.open(file));
+    }
+
+    @Test
+    void savedBytecodeSkipsJavacOnOpen() throws Exception {
+        SketchRunner.compileSketchClass(SKETCH, message -> { });
+        Map<String, byte[]> classes = SketchRunner.compiledClasses(SKETCH);
+        assertNotNull(classes);
+        Path file = dir.resolve("compiled.skp");
+        FileExporter.write(file, new FileExporter.Project(SKETCH, SETTINGS, null,
+                new FileExporter.Bytecode(SketchRunner.compiledKey(SKETCH, classes), classes)));
+
+        CompilerService compiler = CompilerService.getInstance();
+        compiler.clearCache();
+        FileExporter.Project project = FileExporter.read(file);
+        assertFalse(SketchRunner.restoreCompiled(SKETCH + "\n", project.bytecode().key(), project.bytecode().classes()));
+        assertFalse(SketchRunner.restoreCompiled(SKETCH, "1.0/" + project.bytecode().key(), project.bytecode().classes()));
+        assertTrue(SketchRunner.restoreCompiled(project.source(), project.bytecode().key(), project.bytecode().classes()));
+
+        long compilations = compiler.getStats().compilations();
+        Class<?> cls = SketchRunner.compileSketchClass(project.source(), message -> { });
+        assertEquals(compilations, compiler.getStats().compilations());
+        assertNotNull(cls.getMethod("draw", java.awt.Graphics2D.class));
+    }
+}
@@ -0,0 +1,50 @@
+package org.sketchide.bench;
+
+import org.openjdk.jmh.annotations.*;
+import org.sketchide.engine.Sketch;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+// Sketch.draw into a canvas-sized TYPE_INT_RGB frame, the same target SketchCanvasPanel retains
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class DrawBenchmark {
+
+    @Param({"shapes", "text", "pixels"})
+    public String sketchKind;
+
+    @Param({"640x360", "1280x720", "1920x1080"})
+    public String canvasSize;
+
+    private Sketch sketch;
+    private BufferedImage frame;
+    private Graphics2D g;
+    private int width;
+    private int height;
+
+    @Setup
+    public void setUp() {
+        String[] size = canvasSize.split("x");
+        width = Integer.parseInt(size[0]);
+        height = Integer.parseInt(size[1]);
+        sketch = ReferenceSketches.create(sketchKind, width, height);
+        frame = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        g = frame.createGraphics();
+    }
+
+    @TearDown
+    public void tearDown() {
+        g.dispose();
+    }
+
+    @Benchmark
+    public BufferedImage draw() {
+        g.setColor(Color.DARK_GRAY);
+        g.fillRect(0, 0, width, height);
+        sketch.draw(g);
+        return frame;
+    }
+}
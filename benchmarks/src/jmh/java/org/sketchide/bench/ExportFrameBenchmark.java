@@ -0,0 +1,204 @@
+package org.sketchide.bench;
+
+import org.openjdk.jmh.annotations.*;
+import org.sketchide.engine.Sketch;
+import org.sketchide.export.ExportEngine;
+import org.sketchide.export.FrameBuffer;
+import org.sketchide.export.FrameDiff;
+import org.sketchide.export.FrameEncoder;
+import org.sketchide.export.FrameSource;
+import org.sketchide.export.PngEncoder;
+import org.sketchide.export.SketchFrameSource;
+import org.sketchide.export.VideoFrameRenderer;
+
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+// One frame of the video export the way ExportEngine produces it, as a whole and per stage:
+//   draw      - SketchFrameSource drawing the next frame into a pooled FrameBuffer
+//   composite - FrameDiff and FrameBuffer.composite of what changed into the RGB raster
+//   encode    - the RGB raster as one PNG, what the PNG spool writes per frame
+//   pipeline  - ExportEngine.export with its stages overlapping, per frame
+// The legacy* benchmarks run the drawImage-based VideoFrameRenderer path the export used before,
+// only as a baseline. Frames are encoded into memory so disk speed does not show up in the numbers.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ExportFrameBenchmark {
+
+    private static final double FPS = 30;
+    private static final int PIPELINE_FRAMES = 30;
+
+    @Param({"shapes", "pixels"})
+    public String sketchKind;
+
+    @Param({"640x360", "1280x720", "1920x1080"})
+    public String canvasSize;
+
+    private int width;
+    private int height;
+    private int background;
+    private Sketch sketch;
+    private FrameSource source;
+    private FrameBuffer buffer;
+    private FrameDiff diff;
+    private MemoryPngEncoder encoder;
+    private ExportEngine engine;
+    private int frame;
+
+    // Two consecutive drawn frames, composited in turn so each one differs from the last
+    private FrameBuffer[] drawn;
+    private FrameDiff drawnDiff;
+    private int[] composited;
+
+    private VideoFrameRenderer renderer;
+    private BufferedImage legacyComposited;
+    private final ByteArrayOutputStream encoded = new ByteArrayOutputStream(1 << 20);
+    private final PngEncoder png = new PngEncoder();
+
+    @Setup
+    public void setUp() throws Exception {
+        String[] size = canvasSize.split("x");
+        width = Integer.parseInt(size[0]);
+        height = Integer.parseInt(size[1]);
+        background = Color.BLACK.getRGB() & 0xFFFFFF;
+        sketch = ReferenceSketches.create(sketchKind, width, height);
+        source = new SketchFrameSource(sketch, FPS);
+        buffer = new FrameBuffer(width, height);
+        diff = new FrameDiff(width, height);
+        encoder = new MemoryPngEncoder();
+        encoder.open(width, height, FPS);
+        engine = new ExportEngine(width, height, Color.BLACK, FPS);
+
+        drawn = new FrameBuffer[]{ new FrameBuffer(width, height), new FrameBuffer(width, height) };
+        for(int i = 0; i < drawn.length; i++) {
+            source.render(i, drawn[i]);
+        }
+        drawnDiff = new FrameDiff(width, height);
+        composited = new int[width * height];
+        drawn[0].composite(background, new Rectangle(0, 0, width, height), composited);
+
+        renderer = new VideoFrameRenderer(width, height, Color.BLACK);
+        renderer.clear();
+        renderer.draw(sketch);
+        legacyComposited = renderer.composite();
+    }
+
+    @TearDown
+    public void tearDown() {
+        renderer.dispose();
+    }
+
+    @Benchmark
+    public long fullFrame() throws Exception {
+        source.render(frame++, buffer);
+        Rectangle changed = diff.update(buffer.getArgb());
+        if(changed == null) {
+            encoder.repeat(buffer.getRgb());
+        } else {
+            buffer.composite(background, changed, buffer.getRgb());
+            encoder.encode(buffer.getRgb(), changed);
+        }
+        return encoder.getBytesWritten();
+    }
+
+    @Benchmark
+    public int[] draw() throws Exception {
+        source.render(frame++, buffer);
+        return buffer.getArgb();
+    }
+
+    @Benchmark
+    public int[] composite() {
+        FrameBuffer next = drawn[frame++ & 1];
+        Rectangle changed = drawnDiff.update(next.getArgb());
+        if(changed != null) next.composite(background, changed, next.getRgb());
+        return next.getRgb();
+    }
+
+    @Benchmark
+    public long encode() throws IOException {
+        encoder.encode(composited);
+        return encoder.getBytesWritten();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PIPELINE_FRAMES)
+    public long pipeline() throws Exception {
+        engine.export(source, PIPELINE_FRAMES, encoder, done -> { }, () -> false);
+        return encoder.getBytesWritten();
+    }
+
+    // Baseline: clear, draw, drawImage onto the background and encode, as VideoFrameRenderer does
+    @Benchmark
+    public int legacyFullFrame() throws IOException {
+        renderer.clear();
+        renderer.draw(sketch);
+        BufferedImage img = renderer.composite();
+        encoded.reset();
+        png.write(img, encoded);
+        return encoded.size();
+    }
+
+    @Benchmark
+    public BufferedImage legacyClearAndDraw() {
+        renderer.clear();
+        renderer.draw(sketch);
+        return renderer.getCanvas();
+    }
+
+    @Benchmark
+    public BufferedImage legacyComposite() {
+        return renderer.composite();
+    }
+
+    // The ImageIO writer the export used before PngEncoder, for comparison
+    @Benchmark
+    public int encodeImageIO() throws IOException {
+        encoded.reset();
+        ImageIO.write(legacyComposited, "png", encoded);
+        return encoded.size();
+    }
+
+    // Each frame as a PNG in memory, as PngSpoolEncoder writes them to its frame directory; a repeated
+    // frame reuses the previous PNG
+    static final class MemoryPngEncoder implements FrameEncoder {
+        private final PngEncoder png = new PngEncoder();
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream(1 << 20);
+        private int width;
+        private int height;
+        private long bytesWritten;
+
+        @Override
+        public void open(int width, int height, double fps) {
+            this.width = width;
+            this.height = height;
+            bytesWritten = 0;
+        }
+
+        @Override
+        public void encode(int[] rgb) throws IOException {
+            out.reset();
+            png.write(rgb, width, height, false, out);
+            bytesWritten += out.size();
+        }
+
+        @Override
+        public void repeat(int[] rgb) {
+            bytesWritten += out.size();
+        }
+
+        @Override
+        public long getBytesWritten() {
+            return bytesWritten;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package org.sketchide.bench;
+
+import org.sketchide.engine.Sketch;
+
+import java.awt.*;
+import java.awt.geom.Ellipse2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+
+// Sketches representative of the three kinds of workload users write
+public final class ReferenceSketches {
+
+    private ReferenceSketches() {
+    }
+
+    public static Sketch create(String kind, int width, int height) {
+        return switch (kind) {
+            case "shapes" -> new ShapeHeavy(width, height);
+            case "text" -> new TextHeavy(width, height);
+            case "pixels" -> new PixelHeavy(width, height);
+            default -> throw new IllegalArgumentException("Unknown reference sketch: " + kind);
+        };
+    }
+
+    // Thousands of translucent anti-aliased ellipses and lines
+    static class ShapeHeavy implements Sketch {
+        private final int width;
+        private final int height;
+        private int frame;
+
+        ShapeHeavy(int width, int height) {
+            this.width = width;
+            this.height = height;
+        }
+
+        @Override
+        public void draw(Graphics2D g) {
+            g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            Ellipse2D.Double ellipse = new Ellipse2D.Double();
+            for(int i = 0; i < 2000; i++) {
+                double a = i * 0.137 + frame * 0.02;
+                double x = width / 2.0 + Math.cos(a) * (i % 300);
+                double y = height / 2.0 + Math.sin(a * 1.3) * (i % 200);
+                g.setColor(new Color((i * 37) & 0xFF, (i * 91) & 0xFF, (i * 13) & 0xFF, 120));
+                ellipse.setFrame(x, y, 12 + i % 20, 12 + i % 20);
+                g.fill(ellipse);
+                if(i % 4 == 0) g.drawLine((int) x, (int) y, width / 2, height / 2);
+            }
+            frame++;
+        }
+
+        @Override
+        public int init() {
+            return 16;
+        }
+    }
+
+    // A screen full of anti-aliased text in several fonts
+    static class TextHeavy implements Sketch {
+        private final int width;
+        private final int height;
+        private final Font[] fonts = {
+                new Font(Font.SERIF, Font.PLAIN, 14),
+                new Font(Font.SANS_SERIF, Font.BOLD, 18),
+                new Font(Font.MONOSPACED, Font.ITALIC, 12)
+        };
+        private int frame;
+
+        TextHeavy(int width, int height) {
+            this.width = width;
+            this.height = height;
+        }
+
+        @Override
+        public void draw(Graphics2D g) {
+            g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+            g.setColor(Color.WHITE);
+            int line = 0;
+            for(int y = 16; y < height; y += 20, line++) {
+                g.setFont(fonts[line % fonts.length]);
+                g.drawString("frame " + frame + " line " + line + " the quick brown fox jumps over the lazy dog",
+                        (frame + line * 7) % Math.max(1, width / 4), y);
+            }
+            frame++;
+        }
+
+        @Override
+        public int init() {
+            return 16;
+        }
+    }
+
+    // Per-pixel plasma written into an int[] raster and blitted
+    static class PixelHeavy implements Sketch {
+        private final BufferedImage image;
+        private final int[] pixels;
+        private int frame;
+
+        PixelHeavy(int width, int height) {
+            image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+            pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        }
+
+        @Override
+        public void draw(Graphics2D g) {
+            int w = image.getWidth();
+            int h = image.getHeight();
+            for(int y = 0; y < h; y++) {
+                for(int x = 0; x < w; x++) {
+                    int v = (x * x + y * y + frame * 64) >> 6;
+                    pixels[y * w + x] = 0xFF000000 | ((v & 0xFF) << 16) | (((v >> 1) & 0xFF) << 8) | ((x ^ y) & 0xFF);
+                }
+            }
+            g.drawImage(image, 0, 0, null);
+            frame++;
+        }
+
+        @Override
+        public int init() {
+            return 16;
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package org.sketchide.bench;
+
+import org.openjdk.jmh.annotations.*;
+import org.sketchide.engine.scene.Scene;
+import org.sketchide.engine.scene.ShapeNode;
+
+import java.awt.*;
+import java.awt.geom.Ellipse2D;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// One 1280x720 frame of many small shapes, of which 100 move per frame (sprites over a still backdrop):
+//   immediate   - every shape filled straight onto the frame, as a sketch's draw() would
+//   full        - the scene drawn without its retained layer (only culling helps)
+//   incremental - the scene's retained layer, redrawing only where shapes moved
+//   viewport    - shapes spread over 10x10 canvases, the scene drawing the one in view
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class SceneGraphBenchmark {
+
+    private static final int WIDTH = 1280;
+    private static final int HEIGHT = 720;
+    private static final int MOVING = 100;
+
+    @Param({"1000", "10000", "100000"})
+    public int nodes;
+
+    @Param({"immediate", "full", "incremental", "viewport"})
+    public String mode;
+
+    private Scene scene;
+    private ShapeNode[] shapes;
+    private double[] x;
+    private double[] y;
+    private Color[] colors;
+    private Ellipse2D.Double ellipse;
+    private Random random;
+    private BufferedImage frame;
+    private Graphics2D g;
+
+    @Setup
+    public void setUp() {
+        random = new Random(42);
+        int spread = mode.equals("viewport") ? 10 : 1;
+        scene = new Scene();
+        scene.setRetained(mode.equals("incremental"));
+        shapes = new ShapeNode[nodes];
+        x = new double[nodes];
+        y = new double[nodes];
+        colors = new Color[nodes];
+        ellipse = new Ellipse2D.Double(0, 0, 6, 6);
+        for(int i = 0; i < nodes; i++) {
+            x[i] = random.nextDouble() * WIDTH * spread;
+            y[i] = random.nextDouble() * HEIGHT * spread;
+            colors[i] = new Color(random.nextInt(0x1000000));
+            shapes[i] = new ShapeNode(new Ellipse2D.Double(0, 0, 6, 6), colors[i]);
+            shapes[i].moveTo(x[i], y[i]);
+            scene.add(shapes[i]);
+        }
+        frame = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+        g = frame.createGraphics();
+        g.setClip(0, 0, WIDTH, HEIGHT);
+    }
+
+    @TearDown
+    public void tearDown() {
+        g.dispose();
+    }
+
+    @Benchmark
+    public BufferedImage draw() {
+        for(int i = 0; i < MOVING; i++) {
+            x[i] += random.nextInt(5) - 2;
+            y[i] += random.nextInt(5) - 2;
+            if(!mode.equals("immediate")) shapes[i].moveTo(x[i], y[i]);
+        }
+        g.setColor(Color.DARK_GRAY);
+        g.fillRect(0, 0, WIDTH, HEIGHT);
+        if(mode.equals("immediate")) {
+            for(int i = 0; i < nodes; i++) {
+                ellipse.x = x[i];
+                ellipse.y = y[i];
+                g.setColor(colors[i]);
+                g.fill(ellipse);
+            }
+        } else {
+            scene.draw(g);
+        }
+        return frame;
+    }
+}
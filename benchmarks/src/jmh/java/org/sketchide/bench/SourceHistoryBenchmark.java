@@ -0,0 +1,167 @@
+package org.sketchide.bench;
+
+import org.openjdk.jmh.annotations.*;
+import org.sketchide.history.SourceCodec;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// Storing the source of 200 Runs of a live-coding session, and getting one of them back:
+//   tokens     - SourceCodec as RunHistory uses it: a keyframe every 32 versions, token deltas between
+//   deflater   - every version deflated on its own
+//   dictionary - every version deflated with the one before as preset dictionary, keyframes as above
+// The stored size of each is printed at the end of the trial; for tokens, the shared vocabulary
+// comes on top of it.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SourceHistoryBenchmark {
+
+    private static final int VERSIONS = 200;
+    private static final int KEYFRAME_INTERVAL = 32;
+
+    private static final String SKETCH = """
+            double angle = 0;
+            int count = 24;
+            Color[] palette = { new Color(255, 120, 40), new Color(40, 160, 220), new Color(240, 240, 240) };
+
+            @Override
+            public void draw(Graphics2D g) {
+                g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+                int cx = 400, cy = 300;
+                for(int i = 0; i < count; i++) {
+                    double a = angle + i * Math.PI * 2 / count;
+                    int x = cx + (int) (Math.cos(a) * 180);
+                    int y = cy + (int) (Math.sin(a * 2) * 120);
+                    g.setColor(palette[i % palette.length]);
+                    g.fillOval(x - 10, y - 10, 20, 20);
+                    g.drawLine(cx, cy, x, y);
+                }
+                g.setColor(Color.WHITE);
+                g.drawString("count = " + count, 20, 20);
+                angle += 0.02;
+            }
+
+            @Override
+            public int init() {
+                return 16;
+            }
+            """;
+
+    @Param({"tokens", "deflater", "dictionary"})
+    public String coder;
+
+    private final List<String> versions = new ArrayList<>();
+    private final List<byte[]> stored = new ArrayList<>();
+    private SourceCodec codec;
+    private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+    private final Inflater inflater = new Inflater();
+    private byte[] buffer = new byte[1 << 16];
+    private Random random;
+
+    @Setup
+    public void setUp() {
+        // Mostly tweaked numbers, now and then a new line
+        Random edits = new Random(1);
+        String source = SKETCH;
+        for(int i = 0; i < VERSIONS; i++) {
+            versions.add(source);
+            if(edits.nextInt(5) == 0) {
+                String line = "        g.drawRect(" + edits.nextInt(50) + ", 40, 10, 10);\n";
+                source = source.replace("        angle += ", line + "        angle += ");
+            } else {
+                String[] numbers = source.split("(?<=\\D)(?=\\d)", -1);
+                int pick = 1 + edits.nextInt(numbers.length - 1);
+                numbers[pick] = numbers[pick].replaceFirst("^\\d+", String.valueOf(edits.nextInt(300)));
+                source = String.join("", numbers);
+            }
+        }
+        random = new Random(2);
+        storeAll();
+    }
+
+    @TearDown
+    public void tearDown() {
+        long raw = 0;
+        long bytes = 0;
+        for(int i = 0; i < VERSIONS; i++) {
+            raw += versions.get(i).getBytes(StandardCharsets.UTF_8).length;
+            bytes += stored.get(i).length;
+        }
+        System.out.printf("%n%s: %d bytes of source stored in %d bytes (%.1fx)%n",
+                coder, raw, bytes, (double) raw / bytes);
+        if(coder.equals("tokens")) {
+            System.out.printf("vocabulary: %d tokens, about %d bytes of heap%n",
+                    codec.getVocabularySize(), codec.getVocabularyBytes());
+        }
+    }
+
+    @Benchmark
+    public int storeAll() {
+        stored.clear();
+        codec = new SourceCodec();
+        int total = 0;
+        for(int i = 0; i < VERSIONS; i++) {
+            byte[] data = store(i);
+            stored.add(data);
+            total += data.length;
+        }
+        return total;
+    }
+
+    // A jump to any version
+    @Benchmark
+    public String restoreOne() throws DataFormatException {
+        return restore(random.nextInt(VERSIONS));
+    }
+
+    private byte[] store(int i) {
+        String source = versions.get(i);
+        boolean keyframe = i % KEYFRAME_INTERVAL == 0;
+        return switch (coder) {
+            case "tokens" -> keyframe ? codec.encode(source) : codec.encodeDelta(versions.get(i - 1), source);
+            case "deflater" -> deflate(source, null);
+            default -> deflate(source, keyframe ? null : versions.get(i - 1));
+        };
+    }
+
+    private String restore(int i) throws DataFormatException {
+        int k = i - i % KEYFRAME_INTERVAL;
+        return switch (coder) {
+            case "tokens" -> codec.decode(stored.get(k), stored.subList(k + 1, i + 1));
+            case "deflater" -> inflate(stored.get(i), null);
+            default -> {
+                String source = inflate(stored.get(k), null);
+                for(int j = k + 1; j <= i; j++) source = inflate(stored.get(j), source);
+                yield source;
+            }
+        };
+    }
+
+    private byte[] deflate(String source, String dictionary) {
+        deflater.reset();
+        if(dictionary != null) deflater.setDictionary(dictionary.getBytes(StandardCharsets.UTF_8));
+        deflater.setInput(source.getBytes(StandardCharsets.UTF_8));
+        deflater.finish();
+        int length = deflater.deflate(buffer);
+        return Arrays.copyOf(buffer, length);
+    }
+
+    private String inflate(byte[] data, String dictionary) throws DataFormatException {
+        inflater.reset();
+        inflater.setInput(data);
+        int length = inflater.inflate(buffer);
+        if(length == 0 && inflater.needsDictionary()) {
+            inflater.setDictionary(dictionary.getBytes(StandardCharsets.UTF_8));
+            length = inflater.inflate(buffer);
+        }
+        return new String(buffer, 0, length, StandardCharsets.UTF_8);
+    }
+}
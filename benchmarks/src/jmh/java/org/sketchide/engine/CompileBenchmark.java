@@ -0,0 +1,140 @@
+package org.sketchide.engine;
+
+import org.openjdk.jmh.annotations.*;
+
+import javax.tools.*;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// SketchRunner compile + load of a small sketch, and the compile paths it has replaced. Lives in the
+// engine package to reach the package-private CompilerService constructor.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class CompileBenchmark {
+
+    private static final String CODE = """
+            int x = 0;
+            @Override
+            public void draw(Graphics2D g) {
+                g.setColor(Color.WHITE);
+                g.fillOval(x++ % 400, 50, 100, 100);
+            }
+            @Override
+            public int init() { return 33; }
+            """;
+
+    private static final String SOURCE = SketchRunner.wrapSource("UserSketch", CODE);
+
+    private long revision;
+
+    // Every invocation changes the source so the bytecode cache cannot answer it
+    @Benchmark
+    public Object warmCompileAndLoad() throws Exception {
+        Class<?> cls = SketchRunner.compileSketchClass(CODE + "// revision " + revision++, message -> { });
+        return cls.getDeclaredConstructor().newInstance();
+    }
+
+    // Re-running unchanged code: a cache hit plus class loading
+    @Benchmark
+    public Object cachedCompileAndLoad() throws Exception {
+        Class<?> cls = SketchRunner.compileSketchClass(CODE, message -> { });
+        return cls.getDeclaredConstructor().newInstance();
+    }
+
+    // The same compile on each path, once javac and the JIT have warmed up
+    @Benchmark
+    public Object pathCompileAndLoad(CompilePath path) throws Exception {
+        return path.compileAndLoad(SOURCE);
+    }
+
+    // First Run in a fresh JVM, before javac is loaded or JIT-compiled
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Fork(5)
+    @Warmup(iterations = 0)
+    @Measurement(iterations = 1)
+    public Object coldCompileAndLoad(CompilePath path) throws Exception {
+        return path.compileAndLoad(SOURCE);
+    }
+
+    // disk: the original temp directory, .java and .class files and URLClassLoader.
+    // memory: a fresh compiler and in-memory file manager for every compile.
+    // service: the shared CompilerService with its cache off, so javac runs every time.
+    @State(Scope.Benchmark)
+    public static class CompilePath {
+
+        @Param({"disk", "memory", "service"})
+        public String path;
+
+        private CompilerService service;
+
+        Sketch compileAndLoad(String source) throws Exception {
+            return switch(path) {
+                case "disk" -> compileOnDisk(source);
+                case "memory" -> compileInMemory(source);
+                default -> {
+                    if(service == null) service = new CompilerService(0);
+                    yield load(service.compile("dynamic.UserSketch", source));
+                }
+            };
+        }
+    }
+
+    private static Sketch compileInMemory(String source) throws Exception {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        try (MemoryFileManager fileManager = new MemoryFileManager(
+                compiler.getStandardFileManager(diagnostics, null, null))) {
+            JavaCompiler.CompilationTask task = compiler.getTask(
+                    null, fileManager, diagnostics,
+                    List.of("-classpath", System.getProperty("java.class.path")),
+                    null, List.of(MemoryFileManager.sourceFile("dynamic.UserSketch", source)));
+            if(!task.call()) {
+                throw new IllegalStateException(diagnostics.getDiagnostics().toString());
+            }
+            return load(fileManager.getClassBytes());
+        }
+    }
+
+    private static Sketch load(Map<String, byte[]> classBytes) throws Exception {
+        ClassLoader loader = new ByteArrayClassLoader(classBytes, Sketch.class.getClassLoader());
+        return (Sketch) loader.loadClass("dynamic.UserSketch").getDeclaredConstructor().newInstance();
+    }
+
+    private static Sketch compileOnDisk(String source) throws Exception {
+        Path tempDir = Files.createTempDirectory("sketch");
+        try {
+            Path packageDir = Files.createDirectories(tempDir.resolve("dynamic"));
+            Path sourceFile = packageDir.resolve("UserSketch.java");
+            Files.writeString(sourceFile, source);
+
+            JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+            DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+            try (StandardJavaFileManager fileManager =
+                         compiler.getStandardFileManager(diagnostics, null, null)) {
+                JavaCompiler.CompilationTask task = compiler.getTask(
+                        null, fileManager, diagnostics,
+                        List.of("-classpath", System.getProperty("java.class.path")),
+                        null, fileManager.getJavaFileObjectsFromFiles(List.of(sourceFile.toFile())));
+                if(!task.call()) {
+                    throw new IllegalStateException(diagnostics.getDiagnostics().toString());
+                }
+            }
+
+            try (URLClassLoader loader = new URLClassLoader(
+                    new URL[]{ tempDir.toUri().toURL() }, Sketch.class.getClassLoader())) {
+                return (Sketch) loader.loadClass("dynamic.UserSketch").getDeclaredConstructor().newInstance();
+            }
+        } finally {
+            try (var paths = Files.walk(tempDir)) {
+                paths.sorted((a, b) -> b.compareTo(a)).forEach(p -> p.toFile().delete());
+            }
+        }
+    }
+}